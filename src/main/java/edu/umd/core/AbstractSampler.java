@@ -2,17 +2,22 @@ package edu.umd.core;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
+import edu.umd.core.convergence.ConvergenceMonitor;
 import edu.umd.main.GlobalConstants;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -21,6 +26,16 @@ import org.apache.commons.cli.Options;
 import edu.umd.sampler.unsupervised.LDA;
 import edu.umd.sampler.unsupervised.RecursiveLDA;
 import edu.umd.sampling.likelihood.CascadeDirMult.PathAssumption;
+import edu.umd.sampling.likelihood.DirMult;
+import edu.umd.sampling.util.AssignmentStore;
+import edu.umd.sampling.util.DenseCountMatrix;
+import edu.umd.util.CLIUtils;
+import edu.umd.util.RandomStreams;
+import edu.umd.util.SamplingWorkspace;
+import edu.umd.util.StateInputStream;
+import edu.umd.util.StateOutputStream;
+import edu.umd.util.StopSignal;
+import edu.umd.util.XoroshiroRandom;
 import edu.umd.util.IOUtils;
 import edu.umd.util.MiscUtils;
 import edu.umd.util.RankingItem;
@@ -29,10 +44,9 @@ import edu.umd.util.RankingItem;
  *
  * @author vietan
  */
-public abstract class AbstractSampler implements Serializable {
+public abstract class AbstractSampler implements Serializable, Cloneable {
 
     private static final long serialVersionUID = GlobalConstants.SerialVersionUID;
-    public static final int MAX_NUM_PARALLEL_THREADS = 5;
     public static final String IterPredictionFolder = "iter-predictions";
     public static final String IterAssignmentFolder = "iter-assignments";
     public static final String TopWordFile = AbstractExperiment.TopWordFile;
@@ -46,7 +60,13 @@ public abstract class AbstractSampler implements Serializable {
     public static final String ReportFolder = "report/";
     public static final String AssignmentFileExt = ".assignment";
     public static final String ModelFileExt = ".model";
+    public static final String BinaryAssignmentFileExt = ".assignment.bin";
+    public static final String BinaryModelFileExt = ".model.bin";
+    public static final String BinaryAssignmentDeltaFileExt = ".assignment.delta.bin";
+    public static final String BinaryModelDeltaFileExt = ".model.delta.bin";
     public static final String LikelihoodFile = "likelihoods.txt";
+    public static final String StopReasonFile = "stop-reason.txt";
+    public static final String ResumeFileExt = ".resume";
     public static final String HyperparameterFile = "hyperparameters.txt";
     public static final int INIT = -1;
     public static final boolean REMOVE = true;
@@ -56,6 +76,7 @@ public abstract class AbstractSampler implements Serializable {
     public static final int UNOBSERVED = AbstractExperiment.UNOBSERVED;
     public static final int PROPOSAL_INDEX = 0;
     public static final int ACTUAL_INDEX = 1;
+    public static final double DENSE_COUNT_HEAP_FRACTION = 0.25;
 
     public int numTokens;
     public int numTokensChanged;
@@ -69,10 +90,20 @@ public abstract class AbstractSampler implements Serializable {
 
         GIBBS, MH
     }
+
+    public static enum ParamOptimizer {
+
+        SLICE, FIXED_POINT
+    }
+
+    public static enum StateFormat {
+
+        TEXT, BINARY
+    }
     protected static final long RAND_SEED = 1123581321;
     protected static final double MAX_LOG = Math.log(Double.MAX_VALUE);
     protected static final NumberFormat formatter = new DecimalFormat("###.###");
-    protected static Random rand = new Random(RAND_SEED);
+    protected XoroshiroRandom rand = RandomStreams.newChildStream(); // owned by this sampler
     protected static long startTime;
     // sampling configurations
     protected int BURN_IN = 5;          // burn-in
@@ -88,7 +119,19 @@ public abstract class AbstractSampler implements Serializable {
     protected String name;
     protected String basename;
     protected ArrayList<Double> hyperparams; // should have used a HashMap instead of ArrayList
+    protected double[] hyperparamValues; // unboxed copy of hyperparams, see syncHyperparameters
     protected boolean paramOptimized = false;
+    protected ParamOptimizer paramOptimizer = ParamOptimizer.SLICE;
+    protected StateFormat stateFormat = StateFormat.TEXT; // format of output state files
+    protected int maxPendingCheckpoints = 0; // report states written in the background
+    private transient CheckpointWriter checkpointWriter;
+    protected int maxDeltaCheckpoints = 0; // delta checkpoints between full ones
+    private transient DeltaBase deltaBase; // last checkpoint, shared with snapshots
+    private transient boolean writingCheckpoint;
+    protected ConvergenceMonitor convergenceMonitor; // null to always run MAX_ITER
+    protected String stopReason; // why sampling stopped early, if it did
+    private int lastMonitoredIter = -1;
+    protected StopSignal stopSignal = new StopSignal(); // cancellation and deadline
     protected String prefix = "";// to store description of predefined configurations (e.g., initialization)
     protected InitialState initState;
     protected double stepSize = 0.1;
@@ -96,12 +139,19 @@ public abstract class AbstractSampler implements Serializable {
     protected ArrayList<Double> logLikelihoods;
     protected ArrayList<ArrayList<Double>> sampledParams;
     protected ArrayList<String> wordVocab;
+    protected SamplingWorkspace workspace = new SamplingWorkspace(rand); // reused per-token sampling buffer
+    private static volatile ForkJoinPool forkJoinPool;
+    private static ParallelTaskExecutor taskExecutor;
+    private static int maxNumParallelTasks = 0; // 0 for the number of available processors
+    private static long parallelTaskMemory = 0; // bytes needed by each parallel task, 0 if unknown
     protected int iter;
+    protected int startIter = 0; // first iteration, after resuming from a checkpoint
     protected boolean debug = false;
     protected boolean verbose = true;
     protected boolean log = true;
     protected boolean report = false;
     protected boolean isReporting;
+    protected boolean denseCounts = false; // store topic-word counts in a dense matrix
     protected BufferedWriter logger;
     protected static CommandLineParser parser;
     protected static Options options;
@@ -120,6 +170,15 @@ public abstract class AbstractSampler implements Serializable {
         addOption("maxIter", "Maximum number of iterations");
         addOption("sampleLag", "Sample lag");
         addOption("report", "Report interval");
+        addOption("time-budget", "(Optional) Time budget in seconds, after which "
+                + "sampling stops and the current state is output");
+        addOption("stop-criterion", "(Optional) Stop early once converged: "
+                + "llh-slope, change-rate or geweke");
+        addOption("state-format", "(Optional) Format of output state files: "
+                + "text (default) or binary");
+        addOption("delta-checkpoints", "(Optional) Number of binary report "
+                + "states storing only changes from the previous one, between "
+                + "two full states. Default: 0");
     }
 
     public static void addRunningOptions() {
@@ -131,6 +190,10 @@ public abstract class AbstractSampler implements Serializable {
         options.addOption("train", false, "train");
         options.addOption("test", false, "test");
         options.addOption("parallel", false, "parallel");
+        addOption("parallel-tasks", "(Optional) Maximum number of models run "
+                + "in parallel during test. Default: number of processors");
+        addOption("task-memory", "(Optional) Memory in MB needed to run one "
+                + "model during test, limiting the number run in parallel");
     }
 
     public static void addDataOptions() {
@@ -225,6 +288,69 @@ public abstract class AbstractSampler implements Serializable {
 
     public abstract void updateHyperparameters(ArrayList<Double> newParams);
 
+    /**
+     * Compute the log likelihood given a set of hyperparameters. Samplers
+     * that read hyperparameters in their inner loops should override this
+     * and the list version should delegate to it.
+     *
+     * @param testHyperparameters Hyperparameters, indexed as hyperparams
+     */
+    public double getLogLikelihood(double[] testHyperparameters) {
+        return getLogLikelihood(toList(testHyperparameters));
+    }
+
+    /**
+     * Update the hyperparameters. Samplers that override this should call
+     * syncHyperparameters() once the new values are in hyperparams.
+     *
+     * @param newParams Hyperparameters, indexed as hyperparams
+     */
+    public void updateHyperparameters(double[] newParams) {
+        updateHyperparameters(toList(newParams));
+        syncHyperparameters();
+    }
+
+    /**
+     * Copy the current hyperparameters into hyperparamValues and recompute
+     * the constants derived from them. This must be called whenever
+     * hyperparams is changed.
+     */
+    protected void syncHyperparameters() {
+        if (hyperparams == null) {
+            return;
+        }
+        if (hyperparamValues == null || hyperparamValues.length != hyperparams.size()) {
+            hyperparamValues = new double[hyperparams.size()];
+        }
+        for (int ii = 0; ii < hyperparamValues.length; ii++) {
+            hyperparamValues[ii] = hyperparams.get(ii);
+        }
+        updateHyperparameterCache();
+    }
+
+    /**
+     * Recompute constants derived from the hyperparameters (e.g., alpha * K).
+     * Called by syncHyperparameters().
+     */
+    protected void updateHyperparameterCache() {
+    }
+
+    protected static double[] toArray(ArrayList<Double> params) {
+        double[] array = new double[params.size()];
+        for (int ii = 0; ii < array.length; ii++) {
+            array[ii] = params.get(ii);
+        }
+        return array;
+    }
+
+    protected static ArrayList<Double> toList(double[] params) {
+        ArrayList<Double> list = new ArrayList<Double>(params.length);
+        for (double param : params) {
+            list.add(param);
+        }
+        return list;
+    }
+
     public abstract void validate(String msg);
 
     public abstract void outputState(String filepath);
@@ -351,7 +477,7 @@ public abstract class AbstractSampler implements Serializable {
         logln(getClass().toString());
         startTime = System.currentTimeMillis();
 
-        for (iter = 0; iter < MAX_ITER; iter++) {
+        for (iter = startIter; iter < MAX_ITER; iter++) {
             isReporting = isReporting();
             if (isReporting) {
                 logln(getCurrentState());
@@ -361,8 +487,8 @@ public abstract class AbstractSampler implements Serializable {
 
             // parameter optimization
             if (iter % LAG == 0 && iter > BURN_IN) {
-                if (paramOptimized) { // slice sampling
-                    sliceSample();
+                if (paramOptimized) {
+                    optimizeHyperparameters();
                     ArrayList<Double> sparams = new ArrayList<Double>();
                     for (double param : this.hyperparams) {
                         sparams.add(param);
@@ -383,16 +509,25 @@ public abstract class AbstractSampler implements Serializable {
 
             // store model
             if (report && iter > BURN_IN && iter % LAG == 0) {
-                outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
-                outputTopicTopWords(new File(reportFolderPath,
-                        "iter-" + iter + "-" + TopWordFile), 15);
+                outputCheckpoint(new File(reportFolderPath, "iter-" + iter + ".zip"),
+                        new File(reportFolderPath, "iter-" + iter + "-" + TopWordFile), 15);
+            }
+
+            if (isConverged(numTokens > 0
+                    ? (double) numTokensChanged / numTokens : Double.NaN)
+                    || checkStopRequested()) {
+                break;
             }
         }
 
         if (report) { // output the final model
-            outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            waitForCheckpoints();
+            File stateFile = new File(reportFolderPath, "iter-" + iter + ".zip");
+            outputState(stateFile);
+            outputResumeFile(stateFile, getResumeInfo(iter < MAX_ITER ? iter + 1 : iter));
             outputTopicTopWords(new File(reportFolderPath,
                     "iter-" + iter + "-" + TopWordFile), 15);
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -696,6 +831,66 @@ public abstract class AbstractSampler implements Serializable {
         this.verbose = v;
     }
 
+    /**
+     * Set whether the topic-word counts should be stored in one dense int
+     * matrix instead of one hash map per topic. This is only used if the
+     * matrix takes at most DENSE_COUNT_HEAP_FRACTION of the maximum heap.
+     *
+     * @param dc Whether to use dense counts
+     */
+    public void setDenseCounts(boolean dc) {
+        this.denseCounts = dc;
+    }
+
+    /**
+     * Attach the given models to one dense count matrix if dense counts are
+     * requested and the matrix fits in memory.
+     *
+     * @param models Models of the same dimension (e.g., topic-word
+     * distributions)
+     */
+    protected void attachDenseCounts(DirMult[] models) {
+        if (!denseCounts || models.length == 0) {
+            return;
+        }
+        int dim = models[0].getDimension();
+        if (!DenseCountMatrix.fits(models.length, dim, DENSE_COUNT_HEAP_FRACTION)) {
+            if (verbose) {
+                logln("--- --- Dense count matrix " + models.length + " x " + dim
+                        + " does not fit in memory. Using sparse counts.");
+            }
+            return;
+        }
+        DirMult.attachDenseCounts(models);
+    }
+
+    /**
+     * Return true if all models have symmetric Dirichlet priors.
+     *
+     * @param models The models
+     */
+    protected static boolean isSymmetric(DirMult[] models) {
+        for (DirMult model : models) {
+            if (!model.isShortRepresented()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Have a group of models maintain their log likelihoods incrementally as
+     * their counts change, so that reporting the log likelihood does not need
+     * a full pass over the counts.
+     *
+     * @param models The models
+     */
+    protected void trackLogLikelihoods(DirMult[] models) {
+        for (DirMult model : models) {
+            model.setTrackLogLikelihood(true);
+        }
+    }
+
     protected void logln(String msg) {
         System.out.println("[LOG] " + msg);
         try {
@@ -720,6 +915,1061 @@ public abstract class AbstractSampler implements Serializable {
         this.paramOptimized = po;
     }
 
+    /**
+     * Set the monitor used to stop sampling once the chain has converged.
+     *
+     * @param monitor The monitor, or null to always run MAX_ITER iterations
+     */
+    public void setConvergenceMonitor(ConvergenceMonitor monitor) {
+        this.convergenceMonitor = monitor;
+        this.lastMonitoredIter = -1;
+    }
+
+    public ConvergenceMonitor getConvergenceMonitor() {
+        return this.convergenceMonitor;
+    }
+
+    /**
+     * Set the convergence monitor from the stop-criterion option, if given.
+     */
+    protected void setConvergenceMonitor(CommandLine cmd) {
+        if (cmd.hasOption("stop-criterion")) {
+            setConvergenceMonitor(ConvergenceMonitor.create(
+                    cmd.getOptionValue("stop-criterion")));
+        }
+    }
+
+    /**
+     * Return why sampling stopped before MAX_ITER, or null if it did not.
+     */
+    public String getStopReason() {
+        return this.stopReason;
+    }
+
+    /**
+     * Update the convergence monitor with the current iteration and return
+     * true if sampling should stop. This is called at the end of every
+     * iteration. Iterations during burn-in are not monitored.
+     *
+     * @param changeRatio Fraction of tokens whose assignments changed in
+     * this iteration, or NaN if not available
+     */
+    protected boolean isConverged(double changeRatio) {
+        if (iter <= lastMonitoredIter) { // a new run
+            if (convergenceMonitor != null) {
+                convergenceMonitor.reset();
+            }
+            stopReason = null;
+        }
+        lastMonitoredIter = iter;
+        if (convergenceMonitor == null || iter < BURN_IN) {
+            return false;
+        }
+        double llh = convergenceMonitor.needsLogLikelihood()
+                ? getLogLikelihood() : Double.NaN;
+        if (convergenceMonitor.update(iter, llh, changeRatio)) {
+            stopReason = "Converged at iteration " + iter + "/" + MAX_ITER
+                    + ". " + convergenceMonitor.getReason();
+            logln(stopReason);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write why sampling stopped early, if it did, to the report folder.
+     *
+     * @param reportFolder The report folder
+     */
+    protected void outputStopReason(File reportFolder) {
+        if (stopReason == null) {
+            return;
+        }
+        try {
+            BufferedWriter writer = IOUtils.getBufferedWriter(
+                    new File(reportFolder, StopReasonFile));
+            writer.write(stopReason + "\n");
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Exception while outputing stop reason to "
+                    + reportFolder);
+        }
+    }
+
+    /**
+     * Share a stop signal, e.g., to stop several samplers together.
+     *
+     * @param stopSignal The stop signal
+     */
+    public void setStopSignal(StopSignal stopSignal) {
+        this.stopSignal = stopSignal;
+    }
+
+    public StopSignal getStopSignal() {
+        return this.stopSignal;
+    }
+
+    /**
+     * Request that sampling stop. This is safe to call from another thread.
+     * Samplers stop after the document being sampled, leaving a consistent
+     * state, and output their final state as if MAX_ITER had been reached.
+     * The request stays in effect until the stop signal is reset.
+     */
+    public void cancel() {
+        this.stopSignal.cancel();
+    }
+
+    /**
+     * Stop sampling once the given time from now has elapsed.
+     *
+     * @param budget Time budget in milliseconds
+     */
+    public void setTimeBudget(long budget) {
+        this.stopSignal.setTimeBudget(budget);
+    }
+
+    /**
+     * Set the time budget from the time-budget option (in seconds), if given.
+     */
+    protected void setTimeBudget(CommandLine cmd) {
+        if (cmd.hasOption("time-budget")) {
+            setTimeBudget((long) (Double.parseDouble(
+                    cmd.getOptionValue("time-budget")) * 1000));
+        }
+    }
+
+    /**
+     * Return true if sampling has been cancelled or the time budget has run
+     * out. Sweeps poll this between documents, and only while every token of
+     * a document is removed and added back, so that stopping leaves the
+     * counts consistent.
+     */
+    protected boolean isStopRequested() {
+        return this.stopSignal.isStopRequested();
+    }
+
+    /**
+     * Return true if sampling should stop now, recording why. This is called
+     * at the end of every iteration.
+     */
+    protected boolean checkStopRequested() {
+        if (!stopSignal.isStopRequested()) {
+            return false;
+        }
+        if (stopSignal.isCancelled()) {
+            stopReason = "Cancelled at iteration " + iter + "/" + MAX_ITER;
+        } else {
+            stopReason = "Time budget ran out at iteration " + iter + "/" + MAX_ITER;
+        }
+        logln(stopReason);
+        return true;
+    }
+
+    /**
+     * Set the maximum number of report states waiting to be written in the
+     * background. If this is 0, the default, or if the sampler cannot snapshot
+     * its state, sampling waits while report states are written. Each pending
+     * state holds a copy of the counts and assignments.
+     *
+     * @param maxPending Maximum number of pending checkpoints
+     */
+    public void setMaxPendingCheckpoints(int maxPending) {
+        this.maxPendingCheckpoints = maxPending;
+    }
+
+    /**
+     * Return a copy of this sampler that can output its state and top words
+     * while this sampler keeps sampling, or null if this is not supported.
+     * Implementations start from {@link #cloneForCheckpoint()} and copy the
+     * counts and assignments that outputState reads.
+     */
+    protected AbstractSampler getCheckpointSnapshot() {
+        return null;
+    }
+
+    /**
+     * Return a shallow copy of this sampler for
+     * {@link #getCheckpointSnapshot()}, which does not log.
+     */
+    protected AbstractSampler cloneForCheckpoint() {
+        try {
+            AbstractSampler snapshot = (AbstractSampler) super.clone();
+            snapshot.verbose = false;
+            snapshot.log = false;
+            snapshot.logger = null;
+            snapshot.checkpointWriter = null;
+            return snapshot;
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Exception while cloning " + getClass());
+        }
+    }
+
+    /**
+     * Output a report state and, if topWordFile is not null, the top words of
+     * each topic.
+     *
+     * @param stateFile State file
+     * @param topWordFile Top word file, or null
+     * @param numTopWords Number of top words per topic
+     */
+    protected void writeCheckpoint(File stateFile, File topWordFile, int numTopWords) {
+        outputState(stateFile);
+        if (topWordFile != null) {
+            outputTopicTopWords(topWordFile, numTopWords);
+        }
+    }
+
+    /**
+     * Output a report state during sampling. If background checkpoints are
+     * enabled and the sampler supports snapshots, the snapshot is written by a
+     * background thread and this returns as soon as it is queued.
+     *
+     * @param stateFile State file
+     * @param topWordFile Top word file, or null
+     * @param numTopWords Number of top words per topic
+     */
+    protected void outputCheckpoint(final File stateFile, final File topWordFile,
+            final int numTopWords) {
+        final String resumeInfo = getResumeInfo(iter + 1);
+        if (maxDeltaCheckpoints > 0 && deltaBase == null) {
+            deltaBase = new DeltaBase();
+        }
+        final AbstractSampler snapshot = maxPendingCheckpoints > 0
+                ? getCheckpointSnapshot() : null;
+        if (snapshot == null) {
+            writeCheckpointState(stateFile, topWordFile, numTopWords, resumeInfo);
+            return;
+        }
+        if (checkpointWriter == null) {
+            checkpointWriter = new CheckpointWriter(maxPendingCheckpoints);
+        }
+        if (verbose) {
+            logln("--- Queueing checkpoint " + stateFile);
+        }
+        checkpointWriter.submit(new Runnable() {
+            @Override
+            public void run() {
+                snapshot.writeCheckpointState(stateFile, topWordFile, numTopWords,
+                        resumeInfo);
+            }
+        });
+    }
+
+    private void writeCheckpointState(File stateFile, File topWordFile,
+            int numTopWords, String resumeInfo) {
+        writingCheckpoint = true;
+        try {
+            writeCheckpoint(stateFile, topWordFile, numTopWords);
+        } finally {
+            writingCheckpoint = false;
+        }
+        outputResumeFile(stateFile, resumeInfo);
+    }
+
+    /**
+     * Return what is needed besides the state to resume sampling: the next
+     * iteration, the state of the sampler's generator, the hyperparameters and
+     * their history, and the log likelihoods.
+     *
+     * @param nextIter The iteration to continue from
+     */
+    protected String getResumeInfo(int nextIter) {
+        StringBuilder str = new StringBuilder();
+        str.append("next-iter\t").append(nextIter).append("\n");
+        str.append("master-seed\t").append(RandomStreams.getMasterSeed()).append("\n");
+        long[] rngState = rand.getState();
+        str.append("rng-state\t").append(rngState[0]).append("\t").append(rngState[1]).append("\n");
+        str.append("hyperparams");
+        if (hyperparams != null) {
+            for (double param : hyperparams) {
+                str.append("\t").append(param);
+            }
+        }
+        str.append("\n");
+        int numSampledParams = sampledParams == null ? 0 : sampledParams.size();
+        str.append("sampled-params\t").append(numSampledParams).append("\n");
+        for (int ii = 0; ii < numSampledParams; ii++) {
+            ArrayList<Double> sparams = sampledParams.get(ii);
+            for (int jj = 0; jj < sparams.size(); jj++) {
+                if (jj > 0) {
+                    str.append("\t");
+                }
+                str.append(sparams.get(jj));
+            }
+            str.append("\n");
+        }
+        str.append("log-likelihoods");
+        if (logLikelihoods != null) {
+            for (double llh : logLikelihoods) {
+                str.append("\t").append(llh);
+            }
+        }
+        str.append("\n");
+        return str.toString();
+    }
+
+    /**
+     * Return the resume file of a state file, e.g., iter-100.resume for
+     * iter-100.zip.
+     *
+     * @param stateFile The state file
+     */
+    public static File getResumeFile(File stateFile) {
+        return new File(stateFile.getParentFile(),
+                IOUtils.removeExtension(stateFile.getName()) + ResumeFileExt);
+    }
+
+    /**
+     * Output the resume file of a state file that has been completely
+     * written. It is written to a temporary file first, so that a resume
+     * file only exists for complete checkpoints.
+     *
+     * @param stateFile The state file
+     * @param resumeInfo Content from {@link #getResumeInfo(int)}
+     */
+    protected static void outputResumeFile(File stateFile, String resumeInfo) {
+        File resumeFile = getResumeFile(stateFile);
+        File tempFile = new File(resumeFile.getAbsolutePath() + ".tmp");
+        try {
+            BufferedWriter writer = IOUtils.getBufferedWriter(tempFile);
+            writer.write(resumeInfo);
+            writer.close();
+            if (resumeFile.exists() && !resumeFile.delete()
+                    || !tempFile.renameTo(resumeFile)) {
+                throw new IOException("Cannot rename " + tempFile + " to " + resumeFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Exception while outputing resume file "
+                    + resumeFile);
+        }
+    }
+
+    /**
+     * Return the newest checkpoint in the report folder that has a resume
+     * file and whose state file can be read completely (see
+     * {@link #isReadableState(File)}), or null if there is none.
+     */
+    public File getLatestCheckpoint() {
+        File reportFolder = new File(getSamplerFolderPath(), ReportFolder);
+        File[] files = reportFolder.listFiles();
+        if (files == null) {
+            return null;
+        }
+        File latest = null;
+        int latestIter = -1;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith("iter-") || !name.endsWith(".zip")) {
+                continue;
+            }
+            int fileIter;
+            try {
+                fileIter = Integer.parseInt(name.substring(5, name.length() - 4));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (fileIter > latestIter && getResumeFile(file).exists()
+                    && isReadableState(file)) {
+                latest = file;
+                latestIter = fileIter;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Return whether a state file can be read completely. For a delta
+     * checkpoint, this includes the state files it was written against, back
+     * to the last full state.
+     *
+     * @param stateFile The state file
+     */
+    public static boolean isReadableState(File stateFile) {
+        File file = stateFile.getAbsoluteFile();
+        HashSet<File> visited = new HashSet<File>();
+        while (file != null) {
+            if (!visited.add(file) || !file.exists() || !isCompleteZipFile(file)) {
+                return false;
+            }
+            String filepath = file.getAbsolutePath();
+            File previous = null;
+            try {
+                for (String entryExt : new String[]{BinaryModelFileExt,
+                    BinaryAssignmentFileExt}) {
+                    if (hasStateEntry(filepath, entryExt)
+                            || !hasStateEntry(filepath, getDeltaFileExt(entryExt))) {
+                        continue;
+                    }
+                    String[] previousFilepath = new String[1];
+                    getDeltaInputStream(filepath, entryExt, previousFilepath).close();
+                    File entryPrevious = new File(previousFilepath[0]);
+                    if (previous != null && !previous.equals(entryPrevious)) {
+                        return false;
+                    }
+                    previous = entryPrevious;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            file = previous;
+        }
+        return true;
+    }
+
+    private static boolean isCompleteZipFile(File file) {
+        try {
+            ZipInputStream in = IOUtils.getZipInputStream(file.getAbsolutePath());
+            try {
+                byte[] buffer = new byte[1 << 16];
+                int numEntries = 0;
+                while (in.getNextEntry() != null) { // checks the CRC of each entry
+                    while (in.read(buffer) > 0) {
+                    }
+                    numEntries++;
+                }
+                return numEntries > 0;
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Resume from the newest checkpoint in the report folder, if any. This
+     * restores the state with inputState, the hyperparameters, sampledParams
+     * and logLikelihoods, and the random stream of the calling thread, so
+     * that the next call to the iterating method continues with the
+     * iteration after the checkpoint. Streams of worker threads restart from
+     * their seeds. This is called after train and instead of initialize.
+     *
+     * @return True if a checkpoint was found
+     */
+    public boolean resumeFromCheckpoint() {
+        File stateFile = getLatestCheckpoint();
+        if (stateFile == null) {
+            if (verbose) {
+                logln("No checkpoint to resume from in "
+                        + new File(getSamplerFolderPath(), ReportFolder));
+            }
+            return false;
+        }
+        if (verbose) {
+            logln("Resuming from " + stateFile);
+        }
+        inputCheckpoint(stateFile.getAbsolutePath());
+        inputResumeFile(getResumeFile(stateFile));
+        return true;
+    }
+
+    /**
+     * Input a checkpoint written during training to continue sampling from
+     * it. Samplers whose inputState does not restore every structure used
+     * during training override this.
+     *
+     * @param filepath The state file
+     */
+    protected void inputCheckpoint(String filepath) {
+        inputState(filepath);
+    }
+
+    private void inputResumeFile(File resumeFile) {
+        try {
+            BufferedReader reader = IOUtils.getBufferedReader(resumeFile);
+            int nextIter = Integer.parseInt(readResumeLine(reader, "next-iter")[1]);
+            long masterSeed = Long.parseLong(readResumeLine(reader, "master-seed")[1]);
+            String[] sline = readResumeLine(reader, "rng-state");
+            long[] rngState = {Long.parseLong(sline[1]), Long.parseLong(sline[2])};
+
+            sline = readResumeLine(reader, "hyperparams");
+            ArrayList<Double> params = new ArrayList<Double>();
+            for (int ii = 1; ii < sline.length; ii++) {
+                params.add(Double.parseDouble(sline[ii]));
+            }
+
+            int numSampledParams = Integer.parseInt(readResumeLine(reader, "sampled-params")[1]);
+            ArrayList<ArrayList<Double>> sampled = new ArrayList<ArrayList<Double>>();
+            for (int ii = 0; ii < numSampledParams; ii++) {
+                ArrayList<Double> sparams = new ArrayList<Double>();
+                String line = reader.readLine().trim();
+                if (!line.isEmpty()) {
+                    for (String p : line.split("\t")) {
+                        sparams.add(Double.parseDouble(p));
+                    }
+                }
+                sampled.add(sparams);
+            }
+
+            sline = readResumeLine(reader, "log-likelihoods");
+            ArrayList<Double> llhs = new ArrayList<Double>();
+            for (int ii = 1; ii < sline.length; ii++) {
+                llhs.add(Double.parseDouble(sline[ii]));
+            }
+            reader.close();
+
+            if (hyperparams != null && !params.isEmpty()) {
+                this.hyperparams = params;
+                syncHyperparameters();
+            }
+            this.sampledParams = sampled;
+            this.logLikelihoods = llhs;
+            this.startIter = nextIter;
+            if (RandomStreams.getMasterSeed() != masterSeed) {
+                RandomStreams.setMasterSeed(masterSeed);
+            }
+            rand.setState(rngState);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Exception while inputing resume file "
+                    + resumeFile);
+        }
+    }
+
+    private static String[] readResumeLine(BufferedReader reader, String key)
+            throws IOException {
+        String line = reader.readLine();
+        String[] sline = line == null ? new String[0] : line.split("\t");
+        if (sline.length == 0 || !sline[0].equals(key)) {
+            throw new RuntimeException("Expected " + key + " in resume file. Found " + line);
+        }
+        return sline;
+    }
+
+    /**
+     * Return the first iteration of the iterating method, which is after the
+     * checkpoint if resuming and 0 otherwise.
+     */
+    public int getStartIteration() {
+        return this.startIter;
+    }
+
+    /**
+     * Wait until all report states queued by
+     * {@link #outputCheckpoint(File, File, int)} are written.
+     */
+    protected void waitForCheckpoints() {
+        if (checkpointWriter != null) {
+            CheckpointWriter writer = checkpointWriter;
+            checkpointWriter = null;
+            writer.close();
+        }
+    }
+
+    /**
+     * Set the format of output state files. Samplers that do not support the
+     * binary format always output text. States are read in whichever format
+     * they were written.
+     *
+     * @param stateFormat The state format
+     */
+    public void setStateFormat(StateFormat stateFormat) {
+        this.stateFormat = stateFormat;
+    }
+
+    public StateFormat getStateFormat() {
+        return this.stateFormat;
+    }
+
+    /**
+     * Set the state format from the state-format option, if given.
+     */
+    protected void setStateFormat(CommandLine cmd) {
+        if (cmd.hasOption("state-format")) {
+            setStateFormat(StateFormat.valueOf(
+                    cmd.getOptionValue("state-format").toUpperCase()));
+        }
+    }
+
+    /**
+     * Set the number of delta checkpoints between two full ones. A delta
+     * checkpoint is a binary report state that only stores the assignments
+     * and model counts that changed since the previous report state, which
+     * it names. It is read like a full state by replaying the changes from
+     * the last full state, so at most maxDeltas previous files are read.
+     * States in the text format and states output outside of checkpoints are
+     * always full.
+     *
+     * Since a delta checkpoint cannot be read without the report states
+     * before it, report states cannot be deleted individually: only all
+     * states from a full one on can be removed. States whose chain is broken
+     * are skipped when resuming and rejected when predicting. While delta
+     * checkpoints are enabled, the sampler keeps a copy of the models and
+     * assignments of the last report state, except when the next one is full.
+     *
+     * @param maxDeltas Number of delta checkpoints, 0 to disable
+     */
+    public void setMaxDeltaCheckpoints(int maxDeltas) {
+        if (maxDeltas < 0) {
+            throw new IllegalArgumentException("Negative number of delta checkpoints: "
+                    + maxDeltas);
+        }
+        this.maxDeltaCheckpoints = maxDeltas;
+    }
+
+    /**
+     * Set the number of delta checkpoints from the delta-checkpoints option,
+     * if given.
+     */
+    protected void setMaxDeltaCheckpoints(CommandLine cmd) {
+        if (cmd.hasOption("delta-checkpoints")) {
+            setMaxDeltaCheckpoints(CLIUtils.getIntegerArgument(cmd, "delta-checkpoints", 0));
+        }
+    }
+
+    /**
+     * Copy of the last checkpoint that the next delta checkpoint is written
+     * against, or no copy if the next checkpoint is full. Only the thread
+     * writing checkpoints uses it.
+     */
+    private static class DeltaBase {
+
+        File stateFile;
+        int numDeltas; // delta checkpoints written since the last full one
+        DirMult[] topicModels;
+        DirMult[] docModels;
+        AssignmentStore zStore;
+        int[][] z;
+
+        boolean canWriteDelta(File file, DirMult[] topicModels,
+                DirMult[] docModels, AssignmentStore zStore, int[][] z,
+                int maxDeltas) {
+            return stateFile != null && numDeltas < maxDeltas
+                    && stateFile.exists()
+                    && stateFile.getParentFile().equals(file.getParentFile())
+                    && (this.topicModels == null) == (topicModels == null)
+                    && (this.docModels == null) == (docModels == null)
+                    && (this.zStore == null) == (zStore == null)
+                    && (this.z == null) == (z == null);
+        }
+
+        void update(File file, boolean isDelta, DirMult[] topicModels,
+                DirMult[] docModels, AssignmentStore zStore, int[][] z, int maxDeltas) {
+            this.numDeltas = isDelta ? numDeltas + 1 : 0;
+            if (numDeltas >= maxDeltas) { // the next checkpoint is full
+                this.stateFile = null;
+                this.topicModels = null;
+                this.docModels = null;
+                this.zStore = null;
+                this.z = null;
+                return;
+            }
+            this.stateFile = file;
+            this.topicModels = topicModels == null ? null : DirMult.copy(topicModels);
+            this.docModels = docModels == null ? null : DirMult.copy(docModels);
+            this.zStore = zStore == null ? null : zStore.copy();
+            if (z == null) {
+                this.z = null;
+            } else {
+                this.z = new int[z.length][];
+                for (int d = 0; d < z.length; d++) {
+                    this.z[d] = z[d].clone();
+                }
+            }
+        }
+    }
+
+    /**
+     * Output a state in the binary format: the topic models in the model
+     * entry, and the document models followed by the bit-packed assignments
+     * in the assignment entry. Entries are streamed into the zip file as they
+     * are written.
+     *
+     * @param filepath Output file
+     * @param topicModels Topic models, or null to skip the model entry
+     * @param docModels Document models, or null to skip the assignment entry
+     * @param z Assignments
+     */
+    protected void outputBinaryState(String filepath, DirMult[] topicModels,
+            DirMult[] docModels, AssignmentStore z) throws IOException {
+        outputBinaryState(filepath, topicModels, docModels, z, null, 0, 0, null);
+    }
+
+    /**
+     * Output a state in the binary format.
+     *
+     * @param filepath Output file
+     * @param topicModels Topic models, or null to skip the model entry
+     * @param docModels Document models, or null to skip the assignment entry
+     * @param z Assignments
+     * @param minZ Smallest possible assignment
+     * @param maxZ Largest possible assignment
+     */
+    protected void outputBinaryState(String filepath, DirMult[] topicModels,
+            DirMult[] docModels, int[][] z, int minZ, int maxZ) throws IOException {
+        outputBinaryState(filepath, topicModels, docModels, null, z, minZ, maxZ, null);
+    }
+
+    /**
+     * Output a state in the binary format, where the document models whose
+     * mean vector is docCenter are written with a symmetric prior, and
+     * docCenter is written once after the topic models. It is returned by
+     * {@link #inputBinaryModel(String, DirMult[])}.
+     *
+     * @param filepath Output file
+     * @param topicModels Topic models
+     * @param docModels Document models, or null to skip the assignment entry
+     * @param z Assignments
+     * @param minZ Smallest possible assignment
+     * @param maxZ Largest possible assignment
+     * @param docCenter Mean vector shared by the document models, or null
+     */
+    protected void outputBinaryState(String filepath, DirMult[] topicModels,
+            DirMult[] docModels, int[][] z, int minZ, int maxZ, double[] docCenter)
+            throws IOException {
+        if (topicModels == null && docCenter != null) {
+            throw new RuntimeException("The shared document mean vector is stored"
+                    + " with the topic models");
+        }
+        outputBinaryState(filepath, topicModels, docModels, null, z, minZ, maxZ, docCenter);
+    }
+
+    private void outputBinaryState(String filepath, DirMult[] topicModels,
+            DirMult[] docModels, AssignmentStore zStore, int[][] z, int minZ, int maxZ,
+            double[] docCenter) throws IOException {
+        File file = new File(filepath).getAbsoluteFile();
+        DeltaBase base = writingCheckpoint ? deltaBase : null;
+        if (base != null && base.canWriteDelta(file, topicModels, docModels,
+                zStore, z, maxDeltaCheckpoints)) {
+            outputBinaryDelta(file, base, topicModels, docModels, zStore, z, docCenter);
+            base.update(file, true, topicModels, docModels, zStore, z,
+                    maxDeltaCheckpoints);
+            return;
+        }
+
+        String filename = IOUtils.removeExtension(IOUtils.getFilename(filepath));
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(filepath));
+        StateOutputStream out = new StateOutputStream(zip);
+        try {
+            if (topicModels != null) {
+                zip.putNextEntry(new ZipEntry(filename + BinaryModelFileExt));
+                out.writeHeader();
+                out.writeVarInt(topicModels.length);
+                for (DirMult topicModel : topicModels) {
+                    DirMult.output(topicModel, out);
+                }
+                outputDocCenter(out, docCenter);
+                out.flush();
+                zip.closeEntry();
+            }
+
+            if (docModels != null) {
+                zip.putNextEntry(new ZipEntry(filename + BinaryAssignmentFileExt));
+                out.writeHeader();
+                out.writeVarInt(docModels.length);
+                for (DirMult docModel : docModels) {
+                    DirMult.output(docModel, out, docCenter);
+                }
+                if (zStore != null) {
+                    out.writeAssignments(zStore);
+                } else {
+                    out.writeAssignments(z, minZ, maxZ);
+                }
+                out.flush();
+                zip.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        if (base != null) {
+            base.update(file, false, topicModels, docModels, zStore, z,
+                    maxDeltaCheckpoints);
+        }
+    }
+
+    /**
+     * Output a delta checkpoint. Each entry starts with the name of the
+     * previous state file, followed by the changed models and the changed
+     * assignments.
+     */
+    private static void outputBinaryDelta(File file, DeltaBase base,
+            DirMult[] topicModels, DirMult[] docModels, AssignmentStore zStore,
+            int[][] z, double[] docCenter) throws IOException {
+        String filename = IOUtils.removeExtension(file.getName());
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        StateOutputStream out = new StateOutputStream(zip);
+        try {
+            if (topicModels != null) {
+                zip.putNextEntry(new ZipEntry(filename + BinaryModelDeltaFileExt));
+                out.writeHeader();
+                out.writeUTF(base.stateFile.getName());
+                outputModelChanges(out, base.topicModels, topicModels, null);
+                outputDocCenter(out, docCenter);
+                out.flush();
+                zip.closeEntry();
+            }
+
+            if (docModels != null) {
+                zip.putNextEntry(new ZipEntry(filename + BinaryAssignmentDeltaFileExt));
+                out.writeHeader();
+                out.writeUTF(base.stateFile.getName());
+                outputModelChanges(out, base.docModels, docModels, docCenter);
+                if (zStore != null) {
+                    out.writeAssignmentChanges(base.zStore, zStore);
+                } else {
+                    out.writeAssignmentChanges(base.z, z);
+                }
+                out.flush();
+                zip.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Output the models that changed as (index gap, kind, content), where a
+     * model whose prior changed is output in full and other models as count
+     * changes.
+     */
+    private static void outputModelChanges(StateOutputStream out,
+            DirMult[] previous, DirMult[] models, double[] sharedCenter)
+            throws IOException {
+        if (previous.length != models.length) {
+            throw new RuntimeException("Mismatch number of models. "
+                    + previous.length + " vs. " + models.length);
+        }
+        boolean[] samePriors = new boolean[models.length];
+        boolean[] changed = new boolean[models.length];
+        int numChanged = 0;
+        for (int ii = 0; ii < models.length; ii++) {
+            samePriors[ii] = DirMult.hasSamePrior(previous[ii], models[ii]);
+            changed[ii] = !samePriors[ii]
+                    || DirMult.getNumCountChanges(previous[ii], models[ii]) > 0;
+            if (changed[ii]) {
+                numChanged++;
+            }
+        }
+        out.writeVarInt(models.length);
+        out.writeVarInt(numChanged);
+        int prev = -1;
+        for (int ii = 0; ii < models.length; ii++) {
+            if (changed[ii]) {
+                out.writeVarInt(ii - prev - 1);
+                out.writeBoolean(samePriors[ii]);
+                if (samePriors[ii]) {
+                    DirMult.outputCountChanges(previous[ii], models[ii], out);
+                } else {
+                    DirMult.output(models[ii], out, sharedCenter);
+                }
+                prev = ii;
+            }
+        }
+    }
+
+    private static void outputDocCenter(StateOutputStream out, double[] docCenter)
+            throws IOException {
+        out.writeBoolean(docCenter != null);
+        if (docCenter != null) {
+            out.writeVarInt(docCenter.length);
+            for (double value : docCenter) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    private static double[] inputDocCenter(StateInputStream in) throws IOException {
+        boolean hasDocCenter;
+        try {
+            hasDocCenter = in.readBoolean();
+        } catch (EOFException e) { // written before shared mean vectors were stored
+            return null;
+        }
+        if (!hasDocCenter) {
+            return null;
+        }
+        double[] docCenter = new double[in.readVarInt()];
+        for (int ii = 0; ii < docCenter.length; ii++) {
+            docCenter[ii] = in.readDouble();
+        }
+        return docCenter;
+    }
+
+    private static void inputModelChanges(StateInputStream in, DirMult[] models)
+            throws IOException {
+        int numModels = in.readVarInt();
+        if (numModels != models.length) {
+            throw new RuntimeException("Mismatch number of models. "
+                    + numModels + " vs. " + models.length);
+        }
+        int numChanged = in.readVarInt();
+        int ii = -1;
+        for (int jj = 0; jj < numChanged; jj++) {
+            ii += in.readVarInt() + 1;
+            if (in.readBoolean()) {
+                DirMult.inputCountChanges(models[ii], in);
+            } else {
+                models[ii] = DirMult.input(in);
+            }
+        }
+    }
+
+    /**
+     * Return true if a state file has the given binary entry, i.e., was
+     * output in the binary format.
+     *
+     * @param zipFilepath The state file
+     * @param entryExt BinaryModelFileExt or BinaryAssignmentFileExt
+     */
+    protected static boolean isBinaryState(String zipFilepath, String entryExt)
+            throws IOException {
+        return hasStateEntry(zipFilepath, entryExt)
+                || hasStateEntry(zipFilepath, getDeltaFileExt(entryExt));
+    }
+
+    private static boolean hasStateEntry(String zipFilepath, String entryExt)
+            throws IOException {
+        String filename = IOUtils.removeExtension(IOUtils.getFilename(zipFilepath));
+        return IOUtils.hasZipEntry(zipFilepath, filename + entryExt);
+    }
+
+    private static String getDeltaFileExt(String entryExt) {
+        if (entryExt.equals(BinaryModelFileExt)) {
+            return BinaryModelDeltaFileExt;
+        } else if (entryExt.equals(BinaryAssignmentFileExt)) {
+            return BinaryAssignmentDeltaFileExt;
+        }
+        throw new IllegalArgumentException("Not a binary state entry: " + entryExt);
+    }
+
+    /**
+     * Open the delta entry of a delta checkpoint and return the path of the
+     * previous state file it was written against.
+     */
+    private static StateInputStream getDeltaInputStream(String zipFilepath,
+            String entryExt, String[] previousFilepath) throws IOException {
+        StateInputStream in = getStateInputStream(zipFilepath, getDeltaFileExt(entryExt));
+        previousFilepath[0] = new File(new File(zipFilepath).getAbsoluteFile().getParentFile(),
+                in.readUTF()).getAbsolutePath();
+        return in;
+    }
+
+    private static StateInputStream getStateInputStream(String zipFilepath,
+            String entryExt) throws IOException {
+        String filename = IOUtils.removeExtension(IOUtils.getFilename(zipFilepath));
+        StateInputStream in = new StateInputStream(
+                IOUtils.getZipEntryInputStream(zipFilepath, filename + entryExt));
+        in.readHeader();
+        return in;
+    }
+
+    private static void inputModels(StateInputStream in, DirMult[] models)
+            throws IOException {
+        int numModels = in.readVarInt();
+        if (numModels != models.length) {
+            throw new RuntimeException("Mismatch number of models. "
+                    + numModels + " vs. " + models.length);
+        }
+        for (int ii = 0; ii < numModels; ii++) {
+            models[ii] = DirMult.input(in);
+        }
+    }
+
+    /**
+     * Input the topic models of a binary state.
+     *
+     * @param zipFilepath The state file
+     * @param topicModels Array to fill with the topic models
+     * @return The mean vector shared by the document models, if it was output
+     * with the topic models, or null. Document models written with it have a
+     * symmetric prior when read and should be given this vector.
+     */
+    protected static double[] inputBinaryModel(String zipFilepath, DirMult[] topicModels)
+            throws IOException {
+        if (!hasStateEntry(zipFilepath, BinaryModelFileExt)) { // delta checkpoint
+            String[] previousFilepath = new String[1];
+            StateInputStream in = getDeltaInputStream(zipFilepath,
+                    BinaryModelFileExt, previousFilepath);
+            try {
+                inputBinaryModel(previousFilepath[0], topicModels);
+                inputModelChanges(in, topicModels);
+                return inputDocCenter(in);
+            } finally {
+                in.close();
+            }
+        }
+        StateInputStream in = getStateInputStream(zipFilepath, BinaryModelFileExt);
+        try {
+            inputModels(in, topicModels);
+            return inputDocCenter(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Input the document models and the assignments of a binary state.
+     *
+     * @param zipFilepath The state file
+     * @param docModels Array to fill with the document models
+     * @param z Assignment store to fill, of the current document lengths
+     */
+    protected static void inputBinaryAssignments(String zipFilepath,
+            DirMult[] docModels, AssignmentStore z) throws IOException {
+        if (!hasStateEntry(zipFilepath, BinaryAssignmentFileExt)) { // delta checkpoint
+            String[] previousFilepath = new String[1];
+            StateInputStream in = getDeltaInputStream(zipFilepath,
+                    BinaryAssignmentFileExt, previousFilepath);
+            try {
+                inputBinaryAssignments(previousFilepath[0], docModels, z);
+                inputModelChanges(in, docModels);
+                in.readAssignmentChanges(z);
+            } finally {
+                in.close();
+            }
+            return;
+        }
+        StateInputStream in = getStateInputStream(zipFilepath, BinaryAssignmentFileExt);
+        try {
+            inputModels(in, docModels);
+            in.readAssignments(z);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Input the document models and the assignments of a binary state.
+     *
+     * @param zipFilepath The state file
+     * @param docModels Array to fill with the document models
+     * @param z Arrays to fill, of the current document lengths
+     */
+    protected static void inputBinaryAssignments(String zipFilepath,
+            DirMult[] docModels, int[][] z) throws IOException {
+        if (!hasStateEntry(zipFilepath, BinaryAssignmentFileExt)) { // delta checkpoint
+            String[] previousFilepath = new String[1];
+            StateInputStream in = getDeltaInputStream(zipFilepath,
+                    BinaryAssignmentFileExt, previousFilepath);
+            try {
+                inputBinaryAssignments(previousFilepath[0], docModels, z);
+                inputModelChanges(in, docModels);
+                in.readAssignmentChanges(z);
+            } finally {
+                in.close();
+            }
+            return;
+        }
+        StateInputStream in = getStateInputStream(zipFilepath, BinaryAssignmentFileExt);
+        try {
+            inputModels(in, docModels);
+            in.readAssignments(z);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void setParamOptimizer(ParamOptimizer paramOptimizer) {
+        this.paramOptimizer = paramOptimizer;
+    }
+
+    public ParamOptimizer getParamOptimizer() {
+        return this.paramOptimizer;
+    }
+
     public void outputLogLikelihoods(File file) throws Exception {
         IOUtils.outputLogLikelihoods(logLikelihoods, file.getAbsolutePath());
     }
@@ -757,12 +2007,12 @@ public abstract class AbstractSampler implements Serializable {
 
     protected void updateHyperparameters() {
         if (verbose) {
-            logln("*** *** Optimizing hyperparameters by slice sampling ...");
+            logln("*** *** Optimizing hyperparameters. " + paramOptimizer + " ...");
             logln("*** *** cur param:" + MiscUtils.listToString(hyperparams));
             logln("*** *** new llh = " + this.getLogLikelihood());
         }
 
-        sliceSample();
+        optimizeHyperparameters();
         ArrayList<Double> sparams = new ArrayList<Double>();
         for (double param : this.hyperparams) {
             sparams.add(param);
@@ -775,6 +2025,63 @@ public abstract class AbstractSampler implements Serializable {
         }
     }
 
+    /**
+     * Return the fork-join pool shared by all samplers for parallel
+     * reductions over documents and topics. Its threads are daemon threads.
+     */
+    protected static ForkJoinPool getForkJoinPool() {
+        ForkJoinPool pool = forkJoinPool;
+        if (pool == null) {
+            synchronized (AbstractSampler.class) {
+                if (forkJoinPool == null) {
+                    forkJoinPool = new ForkJoinPool();
+                }
+                pool = forkJoinPool;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Update the hyperparameters using the configured optimizer.
+     */
+    protected void optimizeHyperparameters() {
+        if (paramOptimizer == ParamOptimizer.FIXED_POINT) {
+            fixedPointOptimize();
+        } else {
+            sliceSample();
+        }
+    }
+
+    /**
+     * Update the Dirichlet hyperparameters by Minka's fixed-point iterations
+     * on the current counts (see DirichletOptimizer). Samplers that support
+     * it override this. By default, this falls back to slice sampling.
+     */
+    protected void fixedPointOptimize() {
+        if (verbose) {
+            logln("*** *** Fixed-point optimization is not supported by "
+                    + getClass().getSimpleName() + ". Using slice sampling.");
+        }
+        sliceSample();
+    }
+
+    /**
+     * Called before slice sampling. The counts do not change while the
+     * hyperparameters are being sampled, so samplers can summarize them here
+     * once and use the summaries in getLogLikelihood(double[]) for all
+     * proposals.
+     */
+    protected void prepareSliceSample() {
+    }
+
+    /**
+     * Called after slice sampling to release the summaries built by
+     * prepareSliceSample().
+     */
+    protected void finishSliceSample() {
+    }
+
     /**
      * Slice sampling for hyper-parameter optimization.
      */
@@ -782,13 +2089,26 @@ public abstract class AbstractSampler implements Serializable {
         if (hyperparams == null) { // no hyperparameter to optimize
             return;
         }
+        prepareSliceSample();
+        try {
+            sliceSampleHyperparameters();
+        } finally {
+            finishSliceSample();
+        }
+    }
+
+    private void sliceSampleHyperparameters() {
         int dim = hyperparams.size();
         double[] lefts = new double[dim];
         double[] rights = new double[dim];
-        ArrayList<Double> tempParams = hyperparams;
+        double[] tempParams = new double[dim];
+        double[] newParams = new double[dim];
+        for (int i = 0; i < dim; i++) {
+            tempParams[i] = hyperparams.get(i);
+        }
 
         if (debug) {
-            logln("ori params: " + MiscUtils.listToString(hyperparams));
+            logln("ori params: " + MiscUtils.arrayToString(tempParams));
         }
 
         for (int s = 0; s < numSliceSamples; s++) {
@@ -801,7 +2121,7 @@ public abstract class AbstractSampler implements Serializable {
             double log_u_prime = Math.log(rand.nextDouble()) + cur_llh;
             for (int i = 0; i < dim; i++) {
                 double r = rand.nextDouble();
-                lefts[i] = tempParams.get(i) - r * stepSize;
+                lefts[i] = tempParams[i] - r * stepSize;
                 rights[i] = lefts[i] + stepSize;
                 if (lefts[i] < 0) {
                     lefts[i] = 0;
@@ -814,39 +2134,39 @@ public abstract class AbstractSampler implements Serializable {
                 logln("rights: " + MiscUtils.arrayToString(rights));
             }
 
-            ArrayList<Double> newParams = null;
             while (true) {
-                newParams = new ArrayList<Double>();
                 for (int i = 0; i < dim; i++) {
-                    newParams.add(rand.nextDouble() * (rights[i] - lefts[i]) + lefts[i]);
+                    newParams[i] = rand.nextDouble() * (rights[i] - lefts[i]) + lefts[i];
                 }
                 double new_llh = getLogLikelihood(newParams);
 
                 if (debug) {
-                    logln("new params: " + MiscUtils.listToString(newParams) + "; new llh = " + new_llh);
+                    logln("new params: " + MiscUtils.arrayToString(newParams) + "; new llh = " + new_llh);
                 }
 
                 if (new_llh > log_u_prime) {
                     break;
                 } else {
                     for (int i = 0; i < dim; i++) {
-                        if (newParams.get(i) < tempParams.get(i)) {
-                            lefts[i] = newParams.get(i);
+                        if (newParams[i] < tempParams[i]) {
+                            lefts[i] = newParams[i];
                         } else {
-                            rights[i] = newParams.get(i);
+                            rights[i] = newParams[i];
                         }
                     }
                 }
             }
 
+            double[] swap = tempParams;
             tempParams = newParams;
+            newParams = swap;
         }
 
         updateHyperparameters(tempParams);
 
         if (debug) {
             logln("sampled params: " + MiscUtils.listToString(hyperparams)
-                    + "; final llh = " + getLogLikelihood(hyperparams));
+                    + "; final llh = " + getLogLikelihood(tempParams));
         }
     }
 
@@ -854,6 +2174,10 @@ public abstract class AbstractSampler implements Serializable {
         return cmd.hasOption("train");
     }
 
+    public static boolean isResuming() {
+        return cmd.hasOption("resume");
+    }
+
     public static boolean isDeveloping() {
         return cmd.hasOption("dev");
     }
@@ -863,28 +2187,49 @@ public abstract class AbstractSampler implements Serializable {
     }
 
     /**
-     * Run multiple threads in parallel.
+     * Set the limits of the executor running tasks in parallel.
      *
-     * @param threads
-     * @throws java.lang.Exception
+     * @param maxNumTasks Maximum number of tasks run at the same time, or 0
+     * for the number of available processors
+     * @param taskMemory Memory in bytes needed by each task, or 0 if unknown
+     */
+    public static synchronized void setParallelTaskLimits(int maxNumTasks, long taskMemory) {
+        maxNumParallelTasks = maxNumTasks;
+        parallelTaskMemory = taskMemory;
+        if (taskExecutor != null) {
+            taskExecutor.shutdown();
+            taskExecutor = null;
+        }
+    }
+
+    /**
+     * Return the executor shared by all samplers for running independent
+     * tasks, such as testing each stored model, in parallel. Its limits come
+     * from {@link #setParallelTaskLimits(int, long)}, or from the command
+     * line options parallel-tasks and task-memory.
      */
-    public static void runThreads(ArrayList<Thread> threads) throws Exception {
-        int c = 0;
-        for (int ii = 0; ii < threads.size() / MAX_NUM_PARALLEL_THREADS; ii++) {
-            for (int jj = 0; jj < MAX_NUM_PARALLEL_THREADS; jj++) {
-                threads.get(ii * MAX_NUM_PARALLEL_THREADS + jj).start();
+    protected static synchronized ParallelTaskExecutor getTaskExecutor() {
+        if (taskExecutor == null) {
+            int maxNumTasks = maxNumParallelTasks;
+            long taskMemory = parallelTaskMemory;
+            if (cmd != null && cmd.hasOption("parallel-tasks")) {
+                maxNumTasks = CLIUtils.getIntegerArgument(cmd, "parallel-tasks", 0);
             }
-            for (int jj = 0; jj < MAX_NUM_PARALLEL_THREADS; jj++) {
-                threads.get(ii * MAX_NUM_PARALLEL_THREADS + jj).join();
-                c++;
+            if (cmd != null && cmd.hasOption("task-memory")) {
+                taskMemory = CLIUtils.getIntegerArgument(cmd, "task-memory", 0) * (1L << 20);
             }
+            taskExecutor = new ParallelTaskExecutor(maxNumTasks, taskMemory);
         }
-        for (int jj = c; jj < threads.size(); jj++) {
-            threads.get(jj).start();
-        }
-        for (int jj = c; jj < threads.size(); jj++) {
-            threads.get(jj).join();
-        }
+        return taskExecutor;
+    }
+
+    /**
+     * Run multiple tasks in parallel and wait for all of them to finish.
+     *
+     * @param tasks The tasks
+     */
+    public static void runTasks(ArrayList<? extends Runnable> tasks) {
+        getTaskExecutor().runAll(tasks);
     }
 
     public static PathAssumption getPathAssumption(String path) {
@@ -0,0 +1,108 @@
+package edu.umd.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes checkpoints on a background thread so that sampling does not wait
+ * for states to be serialized and compressed. Checkpoints are written one at
+ * a time in the order they are submitted. At most maxPending checkpoints
+ * wait in the queue; submitting another one blocks until the oldest starts
+ * being written, which bounds the memory held by pending snapshots.
+ *
+ * If writing a checkpoint fails, the failure is rethrown by the next call to
+ * {@link #submit(Runnable)} or {@link #close()}.
+ *
+ * @author vietan
+ */
+public class CheckpointWriter {
+
+    private final ThreadPoolExecutor executor;
+    private volatile RuntimeException failure;
+
+    /**
+     * @param maxPending Maximum number of checkpoints waiting to be written
+     */
+    public CheckpointWriter(int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+        }
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxPending),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "checkpoint-writer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                        try {
+                            e.getQueue().put(r); // wait for room in the queue
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            throw new RuntimeException("Interrupted while queueing checkpoint");
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Queue a checkpoint, blocking while the queue is full.
+     *
+     * @param checkpoint Task writing a checkpoint from a snapshot of the
+     * state, which must not change after submission
+     */
+    public void submit(final Runnable checkpoint) {
+        checkFailure();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkpoint.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the number of checkpoints submitted but not yet written.
+     */
+    public int getNumPending() {
+        return executor.getQueue().size() + executor.getActiveCount();
+    }
+
+    /**
+     * Wait for all submitted checkpoints to be written and stop the
+     * background thread.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting, large states can take a while
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for checkpoints");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Exception while writing checkpoint", failure);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package edu.umd.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import edu.umd.util.IOUtils;
+import edu.umd.util.PredictionUtils;
+import edu.umd.util.RandomStreams;
+
+/**
+ * Predicts with all models stored in a report folder. Each state file is read
+ * once into a read-only model that all threads share. Models are loaded in
+ * batches that fit in half of the free heap, estimated from the size of the
+ * first model, and each batch is released before the next one is loaded.
+ * Loading and prediction run on the samplers' task executor, so the limits on
+ * parallel tasks apply. Each document is run through every model of a batch,
+ * and the predictions are averaged in memory.
+ *
+ * Each pair of document and model draws from its own random stream, so
+ * predictions depend neither on how documents are scheduled on threads nor
+ * on how models are batched.
+ *
+ * @author vietan
+ */
+public class EnsemblePredictor {
+
+    // number of documents per fork-join task
+    private static final int TASK_SIZE = 4;
+    // stream ids of test documents, apart from those of runTasks
+    private static final long DOC_STREAM_OFFSET = 1L << 32;
+
+    /**
+     * A learned model, loaded for prediction. Models are shared by all
+     * threads, so predicting must not modify them.
+     */
+    public interface Model {
+
+        /**
+         * Sample a test document and return the predictions at the stored
+         * test iterations.
+         *
+         * @param words Words of the document
+         */
+        double[] sample(int[] words);
+
+        /**
+         * Return the approximate number of bytes the model holds.
+         */
+        long getMemorySize();
+    }
+
+    /**
+     * Loads the model of a state file.
+     */
+    public interface ModelLoader {
+
+        Model load(File stateFile);
+    }
+
+    private final ArrayList<File> stateFiles;
+    private final ModelLoader loader;
+
+    /**
+     * Predict with the models of the given state files, which are loaded when
+     * predicting.
+     *
+     * @param stateFiles State files
+     * @param loader Loader of each model
+     */
+    public EnsemblePredictor(ArrayList<File> stateFiles, ModelLoader loader) {
+        if (stateFiles.isEmpty()) {
+            throw new RuntimeException("No model to predict with");
+        }
+        this.stateFiles = stateFiles;
+        this.loader = loader;
+    }
+
+    /**
+     * Return the state files in a report folder, ordered by iteration. Each
+     * must be readable, including the delta checkpoints it depends on (see
+     * {@link AbstractSampler#isReadableState(File)}).
+     *
+     * @param reportFolder The report folder
+     */
+    public static ArrayList<File> getStateFiles(File reportFolder) {
+        if (!reportFolder.exists()) {
+            throw new RuntimeException("Report folder not found. " + reportFolder);
+        }
+        String[] filenames = reportFolder.list();
+        Arrays.sort(filenames);
+        ArrayList<File> files = new ArrayList<File>();
+        for (String filename : filenames) {
+            if (filename.endsWith(".zip")) {
+                File file = new File(reportFolder, filename);
+                if (!AbstractSampler.isReadableState(file)) {
+                    throw new RuntimeException("State file " + file + " is incomplete"
+                            + " or depends on a missing delta checkpoint");
+                }
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Return the number of stored iterations of a test chain, which are the
+     * iterations ii with testBurnIn <= ii < testMaxIter and ii % testSampleLag
+     * == 0. Models call this when loaded, so that a schedule that stores no
+     * prediction fails before any document is sampled.
+     *
+     * @param testBurnIn Number of burn-in test iterations
+     * @param testMaxIter Number of test iterations
+     * @param testSampleLag Lag between stored test iterations
+     */
+    public static int getNumTestSamples(int testBurnIn, int testMaxIter, int testSampleLag) {
+        if (testSampleLag <= 0) {
+            throw new RuntimeException("Test sample lag must be positive. Found "
+                    + testSampleLag);
+        }
+        int numSamples = 0;
+        for (int ii = Math.max(testBurnIn, 0); ii < testMaxIter; ii++) {
+            if (ii % testSampleLag == 0) {
+                numSamples++;
+            }
+        }
+        if (numSamples == 0) {
+            throw new RuntimeException("No test iteration is stored. Burn-in = "
+                    + testBurnIn + ". Max iter = " + testMaxIter
+                    + ". Lag = " + testSampleLag);
+        }
+        return numSamples;
+    }
+
+    public int getNumModels() {
+        return this.stateFiles.size();
+    }
+
+    /**
+     * Predict test documents with all models. For each model, the
+     * predictions of a document at the stored test iterations are averaged;
+     * these are then averaged over models.
+     *
+     * @param docWords Test documents
+     * @param iterPredFolder Folder to output the predictions of each model,
+     * in the format of PredictionUtils.outputSingleModelRegressions, or null
+     * @return The average prediction of each document
+     */
+    public double[] predict(int[][] docWords, File iterPredFolder) {
+        int numModels = stateFiles.size();
+        double[] predictions = new double[docWords.length];
+        Model[] batch = new Model[]{loader.load(stateFiles.get(0))};
+        int batchSize = getBatchSize(batch[0].getMemorySize());
+        int start = 0;
+        while (true) {
+            predictBatch(batch, start, docWords, iterPredFolder, predictions);
+            start += batch.length;
+            if (start == numModels) {
+                break;
+            }
+            batch = null; // release the models before loading the next batch
+            batch = new Model[Math.min(batchSize, numModels - start)];
+            AbstractSampler.getTaskExecutor().invoke(
+                    new LoadTask(batch, start, 0, batch.length));
+        }
+        for (int dd = 0; dd < docWords.length; dd++) {
+            predictions[dd] /= numModels;
+        }
+        return predictions;
+    }
+
+    /**
+     * Return the number of models loaded at once, given the size of one
+     * model. Half of the free heap is left for loading and sampling.
+     */
+    private int getBatchSize(long modelSize) {
+        Runtime runtime = Runtime.getRuntime();
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long batchSize = freeMemory / 2 / Math.max(modelSize, 1L);
+        return (int) Math.max(1L, Math.min(batchSize, stateFiles.size()));
+    }
+
+    /**
+     * Predict test documents with a batch of models, and add the average
+     * prediction of each model on each document to predictions.
+     *
+     * @param batch Models of state files start, ..., start + batch.length - 1
+     */
+    private void predictBatch(Model[] batch, int start, int[][] docWords,
+            File iterPredFolder, double[] predictions) {
+        // [model][document][test sample]
+        double[][][] samples = new double[batch.length][docWords.length][];
+        AbstractSampler.getTaskExecutor().invoke(
+                new PredictTask(batch, start, docWords, samples, 0, docWords.length));
+
+        if (iterPredFolder != null) {
+            IOUtils.createFolder(iterPredFolder);
+            for (int mm = 0; mm < batch.length; mm++) {
+                String filename = IOUtils.removeExtension(
+                        stateFiles.get(start + mm).getName());
+                PredictionUtils.outputSingleModelRegressions(
+                        new File(iterPredFolder, filename + ".txt"),
+                        getIterationPredictions(samples[mm]));
+            }
+        }
+
+        for (int dd = 0; dd < docWords.length; dd++) {
+            for (int mm = 0; mm < batch.length; mm++) {
+                double[] docSamples = samples[mm][dd];
+                if (docSamples.length == 0) {
+                    throw new RuntimeException("No prediction of document " + dd
+                            + " from model " + stateFiles.get(start + mm));
+                }
+                double mean = 0.0;
+                for (double sample : docSamples) {
+                    mean += sample;
+                }
+                predictions[dd] += mean / docSamples.length;
+            }
+        }
+    }
+
+    /**
+     * Transpose the [document][test sample] predictions of a model into one
+     * array of predictions on all documents per test sample.
+     */
+    private static ArrayList<double[]> getIterationPredictions(double[][] docSamples) {
+        int numSamples = docSamples.length == 0 ? 0 : docSamples[0].length;
+        ArrayList<double[]> iterPreds = new ArrayList<double[]>();
+        for (int ii = 0; ii < numSamples; ii++) {
+            double[] preds = new double[docSamples.length];
+            for (int dd = 0; dd < docSamples.length; dd++) {
+                preds[dd] = docSamples[dd][ii];
+            }
+            iterPreds.add(preds);
+        }
+        return iterPreds;
+    }
+
+    class LoadTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1123581321L;
+        final Model[] batch;
+        final int fileOffset; // state file of batch[0]
+        final int start;
+        final int end;
+
+        LoadTask(Model[] batch, int fileOffset, int start, int end) {
+            this.batch = batch;
+            this.fileOffset = fileOffset;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new LoadTask(batch, fileOffset, start, mid),
+                        new LoadTask(batch, fileOffset, mid, end));
+                return;
+            }
+            for (int mm = start; mm < end; mm++) {
+                batch[mm] = loader.load(stateFiles.get(fileOffset + mm));
+            }
+        }
+    }
+
+    class PredictTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1123581321L;
+        final Model[] batch;
+        final int fileOffset; // state file of batch[0]
+        final int[][] docWords;
+        final double[][][] samples;
+        final int start;
+        final int end;
+
+        PredictTask(Model[] batch, int fileOffset, int[][] docWords,
+                double[][][] samples, int start, int end) {
+            this.batch = batch;
+            this.fileOffset = fileOffset;
+            this.docWords = docWords;
+            this.samples = samples;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > TASK_SIZE) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new PredictTask(batch, fileOffset, docWords, samples, start, mid),
+                        new PredictTask(batch, fileOffset, docWords, samples, mid, end));
+                return;
+            }
+            for (int dd = start; dd < end; dd++) {
+                for (int mm = 0; mm < batch.length; mm++) {
+                    RandomStreams.setCurrentStream(DOC_STREAM_OFFSET
+                            + (long) (fileOffset + mm) * docWords.length + dd);
+                    samples[mm][dd] = batch[mm].sample(docWords[dd]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package edu.umd.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import edu.umd.util.RandomStreams;
+
+/**
+ * Runs independent tasks, such as testing each stored model, on a
+ * work-stealing pool. Each thread takes the next task as soon as it is done
+ * with its current one, so a slow task does not hold up the others.
+ *
+ * The number of threads defaults to the number of available processors. If
+ * each task needs a known amount of memory, it is capped so that the running
+ * tasks fit in the maximum heap size.
+ *
+ * Task i draws from random stream i + 1, however tasks are scheduled. If a
+ * task fails, the tasks not yet started are cancelled and
+ * {@link #runAll(List)} throws a RuntimeException caused by the failure.
+ * Fork-join tasks that split their own work, such as predicting test
+ * documents, run on the same threads using {@link #invoke(ForkJoinTask)}.
+ *
+ * @author vietan
+ */
+public class ParallelTaskExecutor {
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param maxNumThreads Maximum number of threads, or non-positive for the
+     * number of available processors
+     * @param taskMemory Memory in bytes needed by each task, or non-positive
+     * if not known
+     */
+    public ParallelTaskExecutor(int maxNumThreads, long taskMemory) {
+        this.pool = new ForkJoinPool(getNumThreads(maxNumThreads, taskMemory));
+    }
+
+    /**
+     * Return the number of threads to run tasks on.
+     *
+     * @param maxNumThreads Maximum number of threads, or non-positive for the
+     * number of available processors
+     * @param taskMemory Memory in bytes needed by each task, or non-positive
+     * if not known
+     */
+    public static int getNumThreads(int maxNumThreads, long taskMemory) {
+        int numThreads = maxNumThreads > 0 ? maxNumThreads
+                : Runtime.getRuntime().availableProcessors();
+        if (taskMemory > 0) {
+            long numFit = Runtime.getRuntime().maxMemory() / taskMemory;
+            numThreads = (int) Math.max(1, Math.min(numThreads, numFit));
+        }
+        return numThreads;
+    }
+
+    public int getNumThreads() {
+        return this.pool.getParallelism();
+    }
+
+    /**
+     * Run all tasks and wait for them to finish.
+     *
+     * @param tasks The tasks
+     */
+    public void runAll(List<? extends Runnable> tasks) {
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int ii = 0; ii < tasks.size(); ii++) {
+            final Runnable task = tasks.get(ii);
+            final long streamId = ii + 1;
+            FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+                    RandomStreams.setCurrentStream(streamId);
+                    task.run();
+                }
+            }, null);
+            pool.execute(future);
+            futures.add(future);
+        }
+
+        for (int ii = 0; ii < futures.size(); ii++) {
+            try {
+                futures.get(ii).get();
+            } catch (ExecutionException e) {
+                cancel(futures);
+                throw new RuntimeException("Exception while running task " + ii, e.getCause());
+            } catch (InterruptedException e) {
+                cancel(futures);
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for tasks");
+            }
+        }
+    }
+
+    /**
+     * Run a fork-join task on this executor's threads and wait for its
+     * result.
+     *
+     * @param task The task
+     */
+    public <T> T invoke(ForkJoinTask<T> task) {
+        return pool.invoke(task);
+    }
+
+    /**
+     * Stop the threads once the running tasks finish.
+     */
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+
+    private static void cancel(ArrayList<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(false);
+        }
+    }
+}
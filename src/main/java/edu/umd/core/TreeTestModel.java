@@ -0,0 +1,241 @@
+package edu.umd.core;
+
+import java.util.Arrays;
+import edu.umd.util.SamplingWorkspace;
+
+/**
+ * Read-only topic tree for sampling test documents, shared by the threads of
+ * an {@link EnsemblePredictor}. Nodes are stored in flat arrays and word
+ * probabilities word-major as floats, so sampling a token reads the
+ * probabilities of all nodes for its word from one contiguous block. The
+ * per-document counts live in each call of {@link #sample(int[])}.
+ *
+ * A token is assigned by walking down from the root: at each node it either
+ * stays, with probability (n_{d,node} + gamma * pi) / (n_{d,subtree} +
+ * gamma) weighted by the node's word probability, or moves to a child, with
+ * probability (n_{d,child} + prior_{child}) / (n_{d,passing} + c) weighted by
+ * the child's subtree word probability. The prediction of a document is the
+ * average path regression parameter of its tokens, plus an optional lexical
+ * term.
+ *
+ * @author vietan
+ */
+public class TreeTestModel implements EnsemblePredictor.Model {
+
+    private final int V;
+    private final int testBurnIn;
+    private final int testMaxIter;
+    private final int testSampleLag;
+    private final int numTestSamples;
+    private int numNodes;
+    private int[] parents;
+    private int[][] children;
+    private boolean[] canStay;
+    private double[] gammas;
+    private double[] pis;
+    private double[] pathConcentrations;
+    private double[] pathPriors;
+    private double[] pathEtas;
+    private float[] nodeWordProbs;
+    private float[] subtreeWordProbs;
+    private double[] lexicalWeights;
+
+    /**
+     * @param V Vocabulary size
+     * @param testBurnIn Number of burn-in test iterations
+     * @param testMaxIter Number of test iterations
+     * @param testSampleLag Lag between stored test iterations
+     */
+    public TreeTestModel(int V, int testBurnIn, int testMaxIter, int testSampleLag) {
+        this.V = V;
+        this.testBurnIn = testBurnIn;
+        this.testMaxIter = testMaxIter;
+        this.testSampleLag = testSampleLag;
+        this.numTestSamples = EnsemblePredictor.getNumTestSamples(testBurnIn,
+                testMaxIter, testSampleLag);
+        this.numNodes = 0;
+        this.parents = new int[16];
+        this.canStay = new boolean[16];
+        this.gammas = new double[16];
+        this.pis = new double[16];
+        this.pathConcentrations = new double[16];
+        this.pathPriors = new double[16];
+        this.pathEtas = new double[16];
+    }
+
+    /**
+     * Add a node. Parents must be added before their children, the root
+     * first.
+     *
+     * @param parent Index of the parent node, -1 for the root
+     * @param canStay Whether tokens can be assigned to this node
+     * @param gamma Concentration of staying at this node
+     * @param pi Prior probability of staying at this node
+     * @param pathConcentration Concentration c of moving to the children
+     * @param pathPrior Prior count of moving from the parent to this node
+     * @param pathEta Regression parameter of a token assigned to this node
+     * @return Index of the added node
+     */
+    public int addNode(int parent, boolean canStay, double gamma, double pi,
+            double pathConcentration, double pathPrior, double pathEta) {
+        if (parent >= numNodes || (parent < 0 && numNodes > 0)) {
+            throw new RuntimeException("Invalid parent " + parent + " of node " + numNodes);
+        }
+        if (numNodes == parents.length) {
+            int capacity = numNodes * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            this.canStay = Arrays.copyOf(this.canStay, capacity);
+            gammas = Arrays.copyOf(gammas, capacity);
+            pis = Arrays.copyOf(pis, capacity);
+            pathConcentrations = Arrays.copyOf(pathConcentrations, capacity);
+            pathPriors = Arrays.copyOf(pathPriors, capacity);
+            pathEtas = Arrays.copyOf(pathEtas, capacity);
+        }
+        parents[numNodes] = parent;
+        this.canStay[numNodes] = canStay;
+        gammas[numNodes] = gamma;
+        pis[numNodes] = pi;
+        pathConcentrations[numNodes] = pathConcentration;
+        pathPriors[numNodes] = pathPrior;
+        pathEtas[numNodes] = pathEta;
+        return numNodes++;
+    }
+
+    /**
+     * Allocate the word probabilities of all nodes and link the nodes to their
+     * children, after all nodes are added. The probabilities are then set with
+     * {@link #setWordProbability(int, int, double, double)}.
+     */
+    public void allocateWordProbabilities() {
+        if ((long) V * numNodes > Integer.MAX_VALUE) {
+            throw new RuntimeException("Word probabilities too large. V = " + V
+                    + ". # nodes = " + numNodes);
+        }
+        nodeWordProbs = new float[V * numNodes];
+        subtreeWordProbs = new float[V * numNodes];
+
+        int[] numChildren = new int[numNodes];
+        for (int nd = 1; nd < numNodes; nd++) {
+            numChildren[parents[nd]]++;
+        }
+        children = new int[numNodes][];
+        for (int nd = 0; nd < numNodes; nd++) {
+            children[nd] = new int[numChildren[nd]];
+            numChildren[nd] = 0;
+        }
+        for (int nd = 1; nd < numNodes; nd++) {
+            children[parents[nd]][numChildren[parents[nd]]++] = nd;
+        }
+    }
+
+    /**
+     * Set the probability of a word at a node.
+     *
+     * @param nd Node index
+     * @param vv Word type
+     * @param nodeProb Probability of the word under the node's distribution
+     * @param subtreeProb Probability of the word under the distribution of
+     * the subtree rooted at the node
+     */
+    public void setWordProbability(int nd, int vv, double nodeProb, double subtreeProb) {
+        nodeWordProbs[vv * numNodes + nd] = (float) nodeProb;
+        subtreeWordProbs[vv * numNodes + nd] = (float) subtreeProb;
+    }
+
+    /**
+     * Set per-word regression parameters, adding the average weight of the
+     * words of a document to its prediction.
+     *
+     * @param weights Weight of each word
+     */
+    public void setLexicalWeights(double[] weights) {
+        this.lexicalWeights = weights;
+    }
+
+    public int getNumNodes() {
+        return this.numNodes;
+    }
+
+    @Override
+    public long getMemorySize() {
+        long size = 8L * V * numNodes + 64L * parents.length;
+        if (lexicalWeights != null) {
+            size += 8L * lexicalWeights.length;
+        }
+        return size;
+    }
+
+    @Override
+    public double[] sample(int[] words) {
+        int N = words.length;
+        int[] zs = new int[N];
+        int[] nodeCounts = new int[numNodes];
+        int[] subtreeCounts = new int[numNodes];
+        double pred = 0.0;
+        if (lexicalWeights != null) {
+            for (int nn = 0; nn < N; nn++) {
+                pred += lexicalWeights[words[nn]] / N;
+            }
+        }
+
+        SamplingWorkspace workspace = new SamplingWorkspace();
+        double[] samples = new double[numTestSamples];
+        int ss = 0;
+        for (int ii = 0; ii < testMaxIter; ii++) {
+            for (int nn = 0; nn < N; nn++) {
+                if (ii > 0) {
+                    pred -= pathEtas[zs[nn]] / N;
+                    nodeCounts[zs[nn]]--;
+                    for (int nd = zs[nn]; nd >= 0; nd = parents[nd]) {
+                        subtreeCounts[nd]--;
+                    }
+                }
+                zs[nn] = sampleNode(words[nn], nodeCounts, subtreeCounts, workspace);
+                pred += pathEtas[zs[nn]] / N;
+                nodeCounts[zs[nn]]++;
+                for (int nd = zs[nn]; nd >= 0; nd = parents[nd]) {
+                    subtreeCounts[nd]++;
+                }
+            }
+            if (ii >= testBurnIn && ii % testSampleLag == 0) {
+                samples[ss++] = pred;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Walk down from the root to sample the node of a token.
+     */
+    private int sampleNode(int vv, int[] nodeCounts, int[] subtreeCounts,
+            SamplingWorkspace workspace) {
+        int offset = vv * numNodes;
+        int curNode = 0;
+        while (children[curNode].length > 0) {
+            int[] nodeChildren = children[curNode];
+            double[] weights = workspace.getBuffer(nodeChildren.length + 1);
+            double stayprob = 0.0;
+            if (canStay[curNode]) {
+                stayprob = (nodeCounts[curNode] + gammas[curNode] * pis[curNode])
+                        / (subtreeCounts[curNode] + gammas[curNode]);
+            }
+            weights[0] = stayprob * nodeWordProbs[offset + curNode];
+
+            double passprob = 1.0 - stayprob;
+            double norm = subtreeCounts[curNode] - nodeCounts[curNode]
+                    + pathConcentrations[curNode];
+            for (int kk = 0; kk < nodeChildren.length; kk++) {
+                int child = nodeChildren[kk];
+                double pathprob = (subtreeCounts[child] + pathPriors[child]) / norm;
+                weights[kk + 1] = passprob * pathprob * subtreeWordProbs[offset + child];
+            }
+
+            int sampledIdx = workspace.scaleSample();
+            if (sampledIdx == 0) {
+                return curNode;
+            }
+            curNode = nodeChildren[sampledIdx - 1];
+        }
+        return curNode;
+    }
+}
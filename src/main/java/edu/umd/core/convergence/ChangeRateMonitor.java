@@ -0,0 +1,69 @@
+package edu.umd.core.convergence;
+
+/**
+ * Converged when the fraction of tokens whose assignments change per
+ * iteration has plateaued: its means over the last two consecutive windows
+ * of iterations differ by less than a tolerance. A Gibbs sampler keeps
+ * changing assignments at stationarity, so the rate levels off instead of
+ * going to zero.
+ *
+ * @author vietan
+ */
+public class ChangeRateMonitor extends ConvergenceMonitor {
+
+    public static final int DEFAULT_WINDOW = 25;
+    public static final double DEFAULT_TOLERANCE = 0.002;
+    private final int window;
+    private final double tolerance;
+    private final double[] ratios; // circular buffer of the last 2 windows
+    private int numValues;
+
+    public ChangeRateMonitor() {
+        this(DEFAULT_WINDOW, DEFAULT_TOLERANCE);
+    }
+
+    public ChangeRateMonitor(int window, double tolerance) {
+        this.window = window;
+        this.tolerance = tolerance;
+        this.ratios = new double[2 * window];
+    }
+
+    @Override
+    public boolean needsLogLikelihood() {
+        return false;
+    }
+
+    @Override
+    public boolean update(int iter, double logLikelihood, double changeRatio) {
+        if (Double.isNaN(changeRatio)) {
+            return false;
+        }
+        ratios[numValues % ratios.length] = changeRatio;
+        numValues++;
+        if (numValues < ratios.length) {
+            return false;
+        }
+
+        int start = numValues % ratios.length; // oldest value
+        double prevMean = 0.0;
+        double lastMean = 0.0;
+        for (int ii = 0; ii < window; ii++) {
+            prevMean += ratios[(start + ii) % ratios.length];
+            lastMean += ratios[(start + window + ii) % ratios.length];
+        }
+        prevMean /= window;
+        lastMean /= window;
+        if (Math.abs(lastMean - prevMean) < tolerance) {
+            reason = "Token change rate plateaued at " + lastMean
+                    + " (previous " + window + " iterations: " + prevMean + ")";
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        this.numValues = 0;
+        this.reason = null;
+    }
+}
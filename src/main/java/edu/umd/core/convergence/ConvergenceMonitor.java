@@ -0,0 +1,61 @@
+package edu.umd.core.convergence;
+
+/**
+ * Decides when a Markov chain has converged so that a sampler can stop
+ * before its maximum number of iterations. The sampler calls
+ * {@link #update(int, double, double)} once per iteration after burn-in.
+ *
+ * @author vietan
+ */
+public abstract class ConvergenceMonitor {
+
+    protected String reason;
+
+    /**
+     * Return true if the monitor uses the log likelihood, in which case the
+     * sampler computes it at every monitored iteration.
+     */
+    public abstract boolean needsLogLikelihood();
+
+    /**
+     * Record the statistics of an iteration.
+     *
+     * @param iter The iteration
+     * @param logLikelihood The log likelihood, or NaN if not computed
+     * @param changeRatio The fraction of tokens whose assignments changed,
+     * or NaN if not available
+     * @return True if the chain is considered converged
+     */
+    public abstract boolean update(int iter, double logLikelihood, double changeRatio);
+
+    /**
+     * Forget all recorded statistics.
+     */
+    public abstract void reset();
+
+    /**
+     * Return a description of why the chain is considered converged.
+     */
+    public String getReason() {
+        return this.reason;
+    }
+
+    /**
+     * Create a monitor with default settings.
+     *
+     * @param name One of llh-slope, change-rate or geweke
+     */
+    public static ConvergenceMonitor create(String name) {
+        switch (name) {
+            case "llh-slope":
+                return new LikelihoodSlopeMonitor();
+            case "change-rate":
+                return new ChangeRateMonitor();
+            case "geweke":
+                return new GewekeMonitor();
+            default:
+                throw new RuntimeException("Convergence monitor " + name
+                        + " is not supported");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package edu.umd.core.convergence;
+
+import java.util.ArrayList;
+
+/**
+ * Geweke's diagnostic on the log likelihood trace recorded after burn-in:
+ * converged when the means of the first and the last parts of the trace do
+ * not differ significantly. The first half of the trace is discarded as
+ * additional burn-in, so that the steep rise right after a short burn-in
+ * does not keep the test from passing. Since successive samples are autocorrelated,
+ * the variance of each mean is estimated by batch means, using about
+ * sqrt(n) batches of about sqrt(n) samples each.
+ *
+ * @author vietan
+ */
+public class GewekeMonitor extends ConvergenceMonitor {
+
+    public static final int DEFAULT_MIN_SAMPLES = 100;
+    public static final double DEFAULT_FIRST_FRACTION = 0.1;
+    public static final double DEFAULT_LAST_FRACTION = 0.5;
+    public static final double DEFAULT_Z_THRESHOLD = 1.96;
+    private final int minSamples;
+    private final double firstFraction;
+    private final double lastFraction;
+    private final double zThreshold;
+    private final ArrayList<Double> llhs;
+
+    public GewekeMonitor() {
+        this(DEFAULT_MIN_SAMPLES, DEFAULT_FIRST_FRACTION, DEFAULT_LAST_FRACTION,
+                DEFAULT_Z_THRESHOLD);
+    }
+
+    public GewekeMonitor(int minSamples, double firstFraction, double lastFraction,
+            double zThreshold) {
+        if (firstFraction + lastFraction > 1) {
+            throw new RuntimeException("The first and last parts overlap");
+        }
+        this.minSamples = minSamples;
+        this.firstFraction = firstFraction;
+        this.lastFraction = lastFraction;
+        this.zThreshold = zThreshold;
+        this.llhs = new ArrayList<Double>();
+    }
+
+    @Override
+    public boolean needsLogLikelihood() {
+        return true;
+    }
+
+    @Override
+    public boolean update(int iter, double logLikelihood, double changeRatio) {
+        if (Double.isNaN(logLikelihood)) {
+            return false;
+        }
+        llhs.add(logLikelihood);
+        if (llhs.size() < 2 * minSamples) {
+            return false;
+        }
+        int start = llhs.size() / 2;
+        int n = llhs.size() - start;
+        int nA = Math.max(2, (int) (firstFraction * n));
+        int nB = Math.max(2, (int) (lastFraction * n));
+        double[] a = meanAndVarianceOfMean(start, start + nA);
+        double[] b = meanAndVarianceOfMean(llhs.size() - nB, llhs.size());
+        double se = Math.sqrt(a[1] + b[1]);
+        double z = se > 0 ? (a[0] - b[0]) / se : 0.0;
+        if (Math.abs(z) < zThreshold) {
+            reason = "Geweke z-score over the last " + n + " iterations is " + z
+                    + " (|z| < " + zThreshold + ")";
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the mean of the values in [start, end) and the batch-means
+     * estimate of the variance of that mean.
+     */
+    private double[] meanAndVarianceOfMean(int start, int end) {
+        int n = end - start;
+        int batchSize = Math.max(1, (int) Math.sqrt(n));
+        int numBatches = n / batchSize;
+        if (numBatches < 2) {
+            numBatches = n;
+            batchSize = 1;
+        }
+        double[] batchMeans = new double[numBatches];
+        double mean = 0.0;
+        for (int bb = 0; bb < numBatches; bb++) {
+            for (int ii = 0; ii < batchSize; ii++) {
+                batchMeans[bb] += llhs.get(start + bb * batchSize + ii);
+            }
+            batchMeans[bb] /= batchSize;
+            mean += batchMeans[bb];
+        }
+        mean /= numBatches;
+        double var = 0.0;
+        for (double batchMean : batchMeans) {
+            double diff = batchMean - mean;
+            var += diff * diff;
+        }
+        var /= numBatches - 1;
+        return new double[]{mean, var / numBatches};
+    }
+
+    @Override
+    public void reset() {
+        this.llhs.clear();
+        this.reason = null;
+    }
+}
@@ -0,0 +1,78 @@
+package edu.umd.core.convergence;
+
+/**
+ * Converged when the least-squares slope of the log likelihood over a
+ * moving window of iterations is small: the total change along the fitted
+ * line over the window, relative to the mean log likelihood, must be less
+ * than a tolerance.
+ *
+ * @author vietan
+ */
+public class LikelihoodSlopeMonitor extends ConvergenceMonitor {
+
+    public static final int DEFAULT_WINDOW = 50;
+    public static final double DEFAULT_TOLERANCE = 1e-4;
+    private final int window;
+    private final double tolerance;
+    private final double[] llhs; // circular buffer
+    private int numValues;
+
+    public LikelihoodSlopeMonitor() {
+        this(DEFAULT_WINDOW, DEFAULT_TOLERANCE);
+    }
+
+    public LikelihoodSlopeMonitor(int window, double tolerance) {
+        if (window < 2) {
+            throw new RuntimeException("Window must have at least 2 iterations");
+        }
+        this.window = window;
+        this.tolerance = tolerance;
+        this.llhs = new double[window];
+    }
+
+    @Override
+    public boolean needsLogLikelihood() {
+        return true;
+    }
+
+    @Override
+    public boolean update(int iter, double logLikelihood, double changeRatio) {
+        if (Double.isNaN(logLikelihood)) {
+            return false;
+        }
+        llhs[numValues % window] = logLikelihood;
+        numValues++;
+        if (numValues < window) {
+            return false;
+        }
+
+        // values in order are llhs[(start + ii) % window] at x = ii
+        int start = numValues % window;
+        double meanX = (window - 1) / 2.0;
+        double meanY = 0.0;
+        for (double llh : llhs) {
+            meanY += llh;
+        }
+        meanY /= window;
+        double sxy = 0.0;
+        double sxx = 0.0;
+        for (int ii = 0; ii < window; ii++) {
+            double dx = ii - meanX;
+            sxy += dx * (llhs[(start + ii) % window] - meanY);
+            sxx += dx * dx;
+        }
+        double relChange = Math.abs(sxy / sxx * (window - 1) / meanY);
+        if (relChange < tolerance) {
+            reason = "Relative log likelihood change over the last " + window
+                    + " iterations is " + relChange + " < " + tolerance;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        this.numValues = 0;
+        this.reason = null;
+    }
+}
@@ -19,6 +19,7 @@ public abstract class AbstractTokenizeDataset extends AbstractDataset {
     public static final String wordVocabExt = ".wvoc";
     public static final String speakerVocabExt = ".svoc";
     public static final String numDocDataExt = ".dat";
+    public static final String numDocBinaryDataExt = ".bdat";
     public static final String numSentDataExt = ".sent-dat";
     public static final String docIdExt = ".docid";
     public static final String docTextExt = ".text";
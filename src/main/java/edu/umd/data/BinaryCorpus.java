@@ -0,0 +1,306 @@
+package edu.umd.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary version of the LDA-C formatted document data, read through memory
+ * mapping. Opening a corpus maps the file instead of parsing it, documents
+ * are decoded from the mapped pages on demand, and processes mapping the
+ * same file share its pages in the OS page cache.
+ *
+ * Layout (big-endian):
+ * <ul>
+ * <li>header: magic (int), version (int), number of documents D (int),
+ * reserved (int), number of entries E (long), number of tokens (long)</li>
+ * <li>entries: E (word type, count) pairs of ints, document by document</li>
+ * <li>offsets: D + 1 longs, the index of the first entry of each document
+ * followed by E</li>
+ * </ul>
+ *
+ * @author vietan
+ */
+public class BinaryCorpus {
+
+    public static final int MAGIC = 0x4C444143; // "LDAC"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    // bytes per mapped chunk; a multiple of 8 so that no value spans chunks
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+    private final int numDocs;
+    private final long numEntries;
+    private final long numTokens;
+    private final long offsetsPosition;
+    private final MappedByteBuffer[] chunks;
+
+    private BinaryCorpus(MappedByteBuffer[] chunks) {
+        this.chunks = chunks;
+        if (getInt(0) != MAGIC) {
+            throw new RuntimeException("Not a binary corpus file");
+        }
+        if (getInt(4) != VERSION) {
+            throw new RuntimeException("Unsupported binary corpus version " + getInt(4));
+        }
+        this.numDocs = getInt(8);
+        this.numEntries = getLong(16);
+        this.numTokens = getLong(24);
+        this.offsetsPosition = HEADER_SIZE + 8 * numEntries;
+    }
+
+    /**
+     * Map a binary corpus file into memory.
+     *
+     * @param file The binary corpus file
+     */
+    public static BinaryCorpus map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new RuntimeException("Truncated binary corpus file " + file);
+            }
+            int numChunks = (int) ((size + CHUNK_MASK) >>> CHUNK_BITS);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[numChunks];
+            for (int ii = 0; ii < numChunks; ii++) {
+                long start = (long) ii << CHUNK_BITS;
+                chunks[ii] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(size - start, 1L << CHUNK_BITS));
+            }
+            BinaryCorpus corpus = new BinaryCorpus(chunks);
+            long expectedSize = corpus.offsetsPosition + 8L * (corpus.numDocs + 1);
+            if (size != expectedSize) {
+                throw new RuntimeException("Size mismatch in binary corpus file " + file
+                        + ". " + size + " vs. " + expectedSize);
+            }
+            return corpus;
+        } finally {
+            raf.close(); // the mapping stays valid
+        }
+    }
+
+    private int getInt(long pos) {
+        return chunks[(int) (pos >>> CHUNK_BITS)].getInt((int) (pos & CHUNK_MASK));
+    }
+
+    private long getLong(long pos) {
+        return chunks[(int) (pos >>> CHUNK_BITS)].getLong((int) (pos & CHUNK_MASK));
+    }
+
+    public int getNumDocs() {
+        return this.numDocs;
+    }
+
+    public long getNumEntries() {
+        return this.numEntries;
+    }
+
+    public long getNumTokens() {
+        return this.numTokens;
+    }
+
+    /**
+     * Return the index of the first entry of a document.
+     *
+     * @param d Document index
+     */
+    public long getEntryStart(int d) {
+        return getLong(offsetsPosition + 8L * d);
+    }
+
+    /**
+     * Return the number of unique word types of a document.
+     *
+     * @param d Document index
+     */
+    public int getNumTypes(int d) {
+        return (int) (getEntryStart(d + 1) - getEntryStart(d));
+    }
+
+    public int getEntryType(long entry) {
+        return getInt(HEADER_SIZE + 8 * entry);
+    }
+
+    public int getEntryCount(long entry) {
+        return getInt(HEADER_SIZE + 8 * entry + 4);
+    }
+
+    /**
+     * Return the number of tokens of a document.
+     *
+     * @param d Document index
+     */
+    public int getDocLength(int d) {
+        int length = 0;
+        for (long e = getEntryStart(d); e < getEntryStart(d + 1); e++) {
+            length += getEntryCount(e);
+        }
+        return length;
+    }
+
+    /**
+     * Return the tokens of a document, each word type repeated as many times
+     * as its count.
+     *
+     * @param d Document index
+     */
+    public int[] getDocWords(int d) {
+        int[] docWords = new int[getDocLength(d)];
+        fillDocWords(d, docWords, 0);
+        return docWords;
+    }
+
+    private void fillDocWords(int d, int[] dest, int pos) {
+        long end = getEntryStart(d + 1);
+        for (long e = getEntryStart(d); e < end; e++) {
+            int type = getEntryType(e);
+            int count = getEntryCount(e);
+            for (int c = 0; c < count; c++) {
+                dest[pos++] = type;
+            }
+        }
+    }
+
+    /**
+     * Return the tokens of all documents, one array per document.
+     */
+    public int[][] getDocWords() {
+        int[][] docWords = new int[numDocs][];
+        for (int d = 0; d < numDocs; d++) {
+            docWords[d] = getDocWords(d);
+        }
+        return docWords;
+    }
+
+    /**
+     * Return the tokens of all documents as a flat corpus.
+     */
+    public FlatCorpus getFlatCorpus() {
+        if (numTokens > Integer.MAX_VALUE) {
+            throw new RuntimeException("Too many tokens for a flat corpus: " + numTokens);
+        }
+        int[] offsets = new int[numDocs + 1];
+        for (int d = 0; d < numDocs; d++) {
+            offsets[d + 1] = offsets[d] + getDocLength(d);
+        }
+        int[] tokens = new int[offsets[numDocs]];
+        for (int d = 0; d < numDocs; d++) {
+            fillDocWords(d, tokens, offsets[d]);
+        }
+        return new FlatCorpus(tokens, offsets);
+    }
+
+    /**
+     * Convert an LDA-C formatted file (one document per line, "N type:count
+     * ... type:count") into a binary corpus file. Lines are parsed as when
+     * loading the text version, see {@link FormattedDataParser}.
+     *
+     * @param datFile The LDA-C formatted file
+     * @param binFile The binary corpus file to write
+     */
+    public static void convert(File datFile, File binFile) throws IOException {
+        final Writer writer = new Writer(binFile);
+        try {
+            FormattedDataParser.parseDocuments(datFile,
+                    new FormattedDataParser.DocumentHandler() {
+                @Override
+                public void handle(int[] types, int[] counts, int numTypes)
+                        throws IOException {
+                    writer.addDocument(types, counts, numTypes);
+                }
+            });
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write a binary corpus document by document. Offsets are buffered in a
+     * temporary file and appended when the writer is closed.
+     */
+    public static class Writer {
+
+        private final File file;
+        private final File offsetFile;
+        private final DataOutputStream entryOut;
+        private final DataOutputStream offsetOut;
+        private int numDocs = 0;
+        private long numEntries = 0;
+        private long numTokens = 0;
+        private boolean closed = false;
+
+        public Writer(File file) throws IOException {
+            this.file = file;
+            this.offsetFile = new File(file.getAbsolutePath() + ".offsets.tmp");
+            this.entryOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), 1 << 16));
+            this.offsetOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(offsetFile), 1 << 16));
+            this.entryOut.write(new byte[HEADER_SIZE]); // filled in by close()
+        }
+
+        /**
+         * Add a document.
+         *
+         * @param types Word types of the document
+         * @param counts Counts of the word types
+         * @param numTypes Number of word types
+         */
+        public void addDocument(int[] types, int[] counts, int numTypes) throws IOException {
+            if (numDocs == Integer.MAX_VALUE - 1) {
+                throw new RuntimeException("Too many documents");
+            }
+            offsetOut.writeLong(numEntries);
+            for (int ii = 0; ii < numTypes; ii++) {
+                entryOut.writeInt(types[ii]);
+                entryOut.writeInt(counts[ii]);
+                numTokens += counts[ii];
+            }
+            numEntries += numTypes;
+            numDocs++;
+        }
+
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            offsetOut.writeLong(numEntries);
+            offsetOut.close();
+            InputStream in = new BufferedInputStream(new FileInputStream(offsetFile), 1 << 16);
+            try {
+                byte[] buffer = new byte[1 << 16];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    entryOut.write(buffer, 0, len);
+                }
+            } finally {
+                in.close();
+                entryOut.close();
+                offsetFile.delete();
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(numDocs);
+                raf.writeInt(0);
+                raf.writeLong(numEntries);
+                raf.writeLong(numTokens);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package edu.umd.data;
+
+import java.util.ArrayList;
+
+/**
+ * Documents stored as one contiguous token array with document offsets, the
+ * tokens of document d being tokens[offsets[d]], ..., tokens[offsets[d + 1] -
+ * 1]. Compared to an int[][] with one array per document, a sweep over the
+ * corpus reads memory sequentially instead of following one pointer per
+ * document.
+ *
+ * Per-token values such as topic assignments are stored in flat arrays of
+ * the same layout (see {@link #newAssignments()}), which can be copied from
+ * and to per-document arrays with {@link #gather(int[][], int[])} and
+ * {@link #scatter(int[], int[][])}.
+ *
+ * @author vietan
+ */
+public class FlatCorpus {
+
+    private final int[] tokens; // [N]
+    private final int[] offsets; // [D + 1]
+
+    public FlatCorpus(int[] tokens, int[] offsets) {
+        if (offsets.length == 0 || offsets[0] != 0
+                || offsets[offsets.length - 1] != tokens.length) {
+            throw new RuntimeException("Invalid offsets. # tokens = " + tokens.length);
+        }
+        this.tokens = tokens;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Flatten per-document token arrays.
+     *
+     * @param docWords Tokens of each document
+     */
+    public FlatCorpus(int[][] docWords) {
+        this.offsets = new int[docWords.length + 1];
+        for (int d = 0; d < docWords.length; d++) {
+            offsets[d + 1] = offsets[d] + docWords[d].length;
+        }
+        this.tokens = new int[offsets[docWords.length]];
+        for (int d = 0; d < docWords.length; d++) {
+            System.arraycopy(docWords[d], 0, tokens, offsets[d], docWords[d].length);
+        }
+    }
+
+    public int getNumDocs() {
+        return this.offsets.length - 1;
+    }
+
+    public int getNumTokens() {
+        return this.tokens.length;
+    }
+
+    /**
+     * Return the underlying token array. It is not copied and should not be
+     * modified.
+     */
+    public int[] getTokens() {
+        return this.tokens;
+    }
+
+    /**
+     * Return the underlying offset array of length D + 1. It is not copied
+     * and should not be modified.
+     */
+    public int[] getOffsets() {
+        return this.offsets;
+    }
+
+    /**
+     * Return the position of the first token of a document.
+     *
+     * @param d Document index
+     */
+    public int getDocStart(int d) {
+        return this.offsets[d];
+    }
+
+    /**
+     * Return the position after the last token of a document.
+     *
+     * @param d Document index
+     */
+    public int getDocEnd(int d) {
+        return this.offsets[d + 1];
+    }
+
+    public int getDocLength(int d) {
+        return this.offsets[d + 1] - this.offsets[d];
+    }
+
+    public int getToken(int d, int n) {
+        return this.tokens[offsets[d] + n];
+    }
+
+    /**
+     * Return a copy of the tokens of a document.
+     *
+     * @param d Document index
+     */
+    public int[] getDocWords(int d) {
+        int[] docWords = new int[getDocLength(d)];
+        System.arraycopy(tokens, offsets[d], docWords, 0, docWords.length);
+        return docWords;
+    }
+
+    /**
+     * Return a copy of the tokens of all documents, one array per document.
+     */
+    public int[][] getDocWords() {
+        int[][] docWords = new int[getNumDocs()][];
+        for (int d = 0; d < docWords.length; d++) {
+            docWords[d] = getDocWords(d);
+        }
+        return docWords;
+    }
+
+    /**
+     * Return a flat corpus of a subset of documents, in the given order.
+     *
+     * @param instances Indices of the selected documents
+     */
+    public FlatCorpus getDocWords(ArrayList<Integer> instances) {
+        int[] subOffsets = new int[instances.size() + 1];
+        for (int i = 0; i < instances.size(); i++) {
+            subOffsets[i + 1] = subOffsets[i] + getDocLength(instances.get(i));
+        }
+        int[] subTokens = new int[subOffsets[instances.size()]];
+        for (int i = 0; i < instances.size(); i++) {
+            int d = instances.get(i);
+            System.arraycopy(tokens, offsets[d], subTokens, subOffsets[i], getDocLength(d));
+        }
+        return new FlatCorpus(subTokens, subOffsets);
+    }
+
+    /**
+     * Create a flat array with one entry per token.
+     */
+    public int[] newAssignments() {
+        return new int[tokens.length];
+    }
+
+    /**
+     * Copy per-document values into a flat array.
+     *
+     * @param docValues Values of each document, of the same lengths as the
+     * documents
+     * @param flat The flat array to copy to
+     */
+    public void gather(int[][] docValues, int[] flat) {
+        for (int d = 0; d < docValues.length; d++) {
+            System.arraycopy(docValues[d], 0, flat, offsets[d], docValues[d].length);
+        }
+    }
+
+    /**
+     * Copy a flat array into per-document values.
+     *
+     * @param flat The flat array to copy from
+     * @param docValues Values of each document, of the same lengths as the
+     * documents
+     */
+    public void scatter(int[] flat, int[][] docValues) {
+        for (int d = 0; d < docValues.length; d++) {
+            System.arraycopy(flat, offsets[d], docValues[d], 0, docValues[d].length);
+        }
+    }
+
+    /**
+     * Copy a flat array into new per-document arrays.
+     *
+     * @param flat The flat array to copy from
+     * @return Values of each document
+     */
+    public int[][] scatter(int[] flat) {
+        int[][] docValues = new int[getNumDocs()][];
+        for (int d = 0; d < docValues.length; d++) {
+            docValues[d] = new int[getDocLength(d)];
+        }
+        scatter(flat, docValues);
+        return docValues;
+    }
+}
@@ -0,0 +1,494 @@
+package edu.umd.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Parser of the formatted document data (LDA-C format, one document per line,
+ * "N type:count ... type:count") and of the sentence-level formatted data
+ * (one document per line, sentences separated by tabs, each a list of
+ * "type:count" separated by spaces).
+ *
+ * Integers are parsed directly from the bytes of the file, without creating
+ * Strings. Large files are split into line-aligned chunks which are parsed in
+ * parallel and concatenated in file order. The results are the same as
+ * splitting each line with String.split and parsing the fields with
+ * Integer.parseInt, including for sentences the order of the tokens and the
+ * handling of repeated types.
+ *
+ * @author vietan
+ */
+public class FormattedDataParser {
+
+    // files smaller than this are parsed by the calling thread
+    private static final long MIN_CHUNK_SIZE = 1 << 22;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Receives the entries of each document of a formatted document file.
+     */
+    public interface DocumentHandler {
+
+        /**
+         * @param types Word types of the document
+         * @param counts Counts of the word types
+         * @param numTypes Number of word types
+         */
+        void handle(int[] types, int[] counts, int numTypes) throws IOException;
+    }
+
+    /**
+     * Receives each line of a chunk.
+     */
+    private interface LineHandler {
+
+        void handle(byte[] line, int length, long lineStart) throws IOException;
+    }
+
+    /**
+     * Parse a formatted document file into the tokens of each document,
+     * using all available processors.
+     *
+     * @param file The formatted document file
+     */
+    public static int[][] parseDocuments(File file) throws IOException {
+        return parseDocuments(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parse a formatted document file into the tokens of each document.
+     *
+     * @param file The formatted document file
+     * @param numThreads Number of threads
+     */
+    public static int[][] parseDocuments(File file, int numThreads) throws IOException {
+        ArrayList<Object> docs = parse(file, numThreads, false);
+        return docs.toArray(new int[docs.size()][]);
+    }
+
+    /**
+     * Parse a formatted document file with the calling thread, passing the
+     * word types and counts of each document to a handler instead of storing
+     * the documents.
+     *
+     * @param file The formatted document file
+     * @param handler Handler of each document, in file order
+     */
+    public static void parseDocuments(final File file, final DocumentHandler handler)
+            throws IOException {
+        parseChunk(file, 0, file.length(), new LineHandler() {
+            @Override
+            public void handle(byte[] line, int length, long lineStart) throws IOException {
+                LineParser parser = new LineParser(line, lineStart);
+                int numTypes;
+                try {
+                    numTypes = parser.parseEntries(0, length);
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("Malformed line at byte " + lineStart
+                            + " of " + file + ". " + e.getMessage());
+                }
+                handler.handle(parser.types, parser.counts, numTypes);
+            }
+        });
+    }
+
+    /**
+     * Parse a sentence-level formatted file into the tokens of each sentence
+     * of each document, using all available processors.
+     *
+     * @param file The sentence-level formatted file
+     */
+    public static int[][][] parseSentences(File file) throws IOException {
+        return parseSentences(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parse a sentence-level formatted file into the tokens of each sentence
+     * of each document.
+     *
+     * @param file The sentence-level formatted file
+     * @param numThreads Number of threads
+     */
+    public static int[][][] parseSentences(File file, int numThreads) throws IOException {
+        ArrayList<Object> docs = parse(file, numThreads, true);
+        return docs.toArray(new int[docs.size()][][]);
+    }
+
+    /**
+     * Parse one LDA-C formatted line into its tokens.
+     *
+     * @param line The line
+     */
+    public static int[] parseDocument(String line) {
+        byte[] bytes = new byte[line.length()];
+        for (int ii = 0; ii < bytes.length; ii++) {
+            char c = line.charAt(ii);
+            bytes[ii] = c < 128 ? (byte) c : (byte) '?'; // never part of a number
+        }
+        return new LineParser(bytes, 0).parseDocument(0, bytes.length);
+    }
+
+    private static ArrayList<Object> parse(File file, int numThreads,
+            final boolean sentences) throws IOException {
+        final File f = file;
+        long[] bounds = getChunkBounds(file, numThreads);
+        int numChunks = bounds.length - 1;
+        ArrayList<Object> docs = new ArrayList<Object>();
+        if (numChunks == 1) {
+            parseChunk(f, bounds[0], bounds[1], sentences, docs);
+            return docs;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(numThreads, numChunks), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "formatted-data-parser");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            ArrayList<Future<ArrayList<Object>>> futures
+                    = new ArrayList<Future<ArrayList<Object>>>();
+            for (int ii = 0; ii < numChunks; ii++) {
+                final long start = bounds[ii];
+                final long end = bounds[ii + 1];
+                futures.add(executor.submit(new Callable<ArrayList<Object>>() {
+                    @Override
+                    public ArrayList<Object> call() throws Exception {
+                        ArrayList<Object> chunkDocs = new ArrayList<Object>();
+                        parseChunk(f, start, end, sentences, chunkDocs);
+                        return chunkDocs;
+                    }
+                }));
+            }
+            for (Future<ArrayList<Object>> future : futures) {
+                docs.addAll(future.get());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Exception while parsing " + file);
+        } finally {
+            executor.shutdown();
+        }
+        return docs;
+    }
+
+    /**
+     * Split a file into chunks that start at the beginning of a line.
+     *
+     * @return Chunk boundaries, from 0 to the file size
+     */
+    private static long[] getChunkBounds(File file, int numThreads) throws IOException {
+        long size = file.length();
+        int numChunks = (int) Math.max(1, Math.min(4L * numThreads, size / MIN_CHUNK_SIZE));
+        long[] bounds = new long[numChunks + 1];
+        bounds[numChunks] = size;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] buffer = new byte[1 << 12];
+            for (int ii = 1; ii < numChunks; ii++) {
+                // first line start at or after the approximate boundary
+                long pos = Math.max(bounds[ii - 1], size / numChunks * ii) - 1;
+                raf.seek(pos);
+                boolean found = false;
+                while (!found && pos < size) {
+                    int len = raf.read(buffer);
+                    if (len <= 0) {
+                        break;
+                    }
+                    for (int jj = 0; jj < len; jj++) {
+                        if (buffer[jj] == '\n') {
+                            pos += jj + 1;
+                            found = true;
+                            break;
+                        }
+                    }
+                    if (!found) {
+                        pos += len;
+                    }
+                }
+                bounds[ii] = Math.min(pos, size);
+            }
+        } finally {
+            raf.close();
+        }
+        return bounds;
+    }
+
+    /**
+     * Parse the lines starting in [start, end) of a file into docs.
+     */
+    private static void parseChunk(final File file, long start, long end,
+            final boolean sentences, final ArrayList<Object> docs) throws IOException {
+        parseChunk(file, start, end, new LineHandler() {
+            @Override
+            public void handle(byte[] line, int length, long lineStart) {
+                docs.add(parseLine(line, length, lineStart, sentences, file));
+            }
+        });
+    }
+
+    /**
+     * Pass the lines starting in [start, end) of a file to a handler.
+     */
+    private static void parseChunk(File file, long start, long end,
+            LineHandler handler) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(start);
+            byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, end - start))];
+            byte[] line = new byte[1 << 12];
+            int lineLength = 0;
+            long lineStart = start;
+            boolean afterCR = false;
+            long pos = start;
+            while (pos < end) {
+                int len = raf.read(buffer, 0, (int) Math.min(buffer.length, end - pos));
+                if (len <= 0) {
+                    break;
+                }
+                int segStart = 0;
+                for (int ii = 0; ii < len; ii++) {
+                    byte b = buffer[ii];
+                    if (b == '\n' || b == '\r') {
+                        if (b == '\n' && afterCR && ii == segStart && lineLength == 0) {
+                            // second half of \r\n
+                            afterCR = false;
+                            segStart = ii + 1;
+                            lineStart = pos + ii + 1;
+                            continue;
+                        }
+                        line = append(line, lineLength, buffer, segStart, ii);
+                        lineLength += ii - segStart;
+                        handler.handle(line, lineLength, lineStart);
+                        lineLength = 0;
+                        afterCR = b == '\r';
+                        segStart = ii + 1;
+                        lineStart = pos + ii + 1;
+                    } else {
+                        afterCR = false;
+                    }
+                }
+                line = append(line, lineLength, buffer, segStart, len);
+                lineLength += len - segStart;
+                pos += len;
+            }
+            if (lineLength > 0) { // last line without a line break
+                handler.handle(line, lineLength, lineStart);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] append(byte[] line, int lineLength, byte[] src, int from, int to) {
+        int len = to - from;
+        if (lineLength + len > line.length) {
+            byte[] newLine = new byte[Math.max(line.length * 2, lineLength + len)];
+            System.arraycopy(line, 0, newLine, 0, lineLength);
+            line = newLine;
+        }
+        System.arraycopy(src, from, line, lineLength, len);
+        return line;
+    }
+
+    private static Object parseLine(byte[] line, int length, long lineStart,
+            boolean sentences, File file) {
+        try {
+            LineParser parser = new LineParser(line, lineStart);
+            if (sentences) {
+                return parser.parseSentences(0, length);
+            }
+            return parser.parseDocument(0, length);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Malformed line at byte " + lineStart
+                    + " of " + file + ". " + e.getMessage());
+        }
+    }
+
+    static class LineParser {
+
+        final byte[] bytes;
+        final long lineStart;
+        int pos;
+        int[] types; // entries of the last document parsed
+        int[] counts;
+
+        LineParser(byte[] bytes, long lineStart) {
+            this.bytes = bytes;
+            this.lineStart = lineStart;
+        }
+
+        /**
+         * Parse an integer field ending at the first delimiter or at end.
+         */
+        int parseInt(int end, byte delim1, byte delim2) {
+            int start = pos;
+            boolean negative = false;
+            if (pos < end && (bytes[pos] == '-' || bytes[pos] == '+')) {
+                negative = bytes[pos] == '-';
+                pos++;
+            }
+            long value = 0;
+            int numDigits = 0;
+            while (pos < end && bytes[pos] != delim1 && bytes[pos] != delim2) {
+                byte b = bytes[pos];
+                if (b < '0' || b > '9') {
+                    throw new NumberFormatException("Invalid character at offset " + pos);
+                }
+                value = value * 10 + (b - '0');
+                if (value > 1L + Integer.MAX_VALUE) {
+                    throw new NumberFormatException("Integer out of range at offset " + start);
+                }
+                numDigits++;
+                pos++;
+            }
+            if (numDigits == 0) {
+                throw new NumberFormatException("Empty field at offset " + start);
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Integer out of range at offset " + start);
+            }
+            return (int) value;
+        }
+
+        /**
+         * Return the end of the line without trailing delimiters, which
+         * String.split ignores.
+         */
+        int trimTrailing(int start, int end, byte delim) {
+            while (end > start && bytes[end - 1] == delim) {
+                end--;
+            }
+            return end;
+        }
+
+        /**
+         * Parse "N type:count ... type:count" into its tokens.
+         */
+        int[] parseDocument(int start, int end) {
+            int numTypes = parseEntries(start, end);
+            int numTokens = 0;
+            for (int ii = 0; ii < numTypes; ii++) {
+                numTokens += counts[ii];
+            }
+
+            int[] gibbsString = new int[numTokens];
+            int index = 0;
+            for (int ii = 0; ii < numTypes; ++ii) {
+                for (int jj = 0; jj < counts[ii]; ++jj) {
+                    gibbsString[index++] = types[ii];
+                }
+            }
+            return gibbsString;
+        }
+
+        /**
+         * Parse "N type:count ... type:count" into types and counts, and
+         * return N. Fields beyond the N-th entry are ignored, and so is
+         * anything after a second colon in an entry.
+         */
+        int parseEntries(int start, int end) {
+            end = trimTrailing(start, end, (byte) ' ');
+            pos = start;
+            int numTypes = parseInt(end, (byte) ' ', (byte) ' ');
+            if (numTypes < 0) {
+                throw new NegativeArraySizeException("Negative number of types " + numTypes);
+            }
+            types = new int[numTypes];
+            counts = new int[numTypes];
+            for (int ii = 0; ii < numTypes; ii++) {
+                if (pos >= end) {
+                    throw new RuntimeException("Expected " + numTypes + " entries. Found " + ii);
+                }
+                pos++; // space
+                int fieldEnd = findField(end, (byte) ' ');
+                types[ii] = parseInt(fieldEnd, (byte) ':', (byte) ':');
+                if (pos >= fieldEnd) {
+                    throw new RuntimeException("Missing count in entry " + ii);
+                }
+                pos++; // colon
+                counts[ii] = parseInt(fieldEnd, (byte) ':', (byte) ':');
+                pos = fieldEnd;
+            }
+            return numTypes;
+        }
+
+        int findField(int end, byte delim) {
+            int fieldEnd = pos;
+            while (fieldEnd < end && bytes[fieldEnd] != delim) {
+                fieldEnd++;
+            }
+            return fieldEnd;
+        }
+
+        /**
+         * Parse tab-separated sentences of space-separated "type:count".
+         * Repeated types keep their last count, while the array is sized by
+         * the sum of all counts, and tokens follow the iteration order of a
+         * HashMap, as in the original String-based parser.
+         */
+        int[][] parseSentences(int start, int end) {
+            if (end == start) {
+                throw new NumberFormatException("Empty line");
+            }
+            end = trimTrailing(start, end, (byte) '\t');
+            ArrayList<int[]> sents = new ArrayList<int[]>();
+            pos = start;
+            while (pos < end) {
+                int sentEnd = findField(end, (byte) '\t');
+                sents.add(parseSentence(sentEnd));
+                pos = sentEnd + 1;
+            }
+            return sents.toArray(new int[sents.size()][]);
+        }
+
+        int[] parseSentence(int sentEnd) {
+            if (sentEnd == pos) {
+                throw new NumberFormatException("Empty sentence");
+            }
+            int end = trimTrailing(pos, sentEnd, (byte) ' ');
+            if (end == pos) { // only spaces
+                return new int[0];
+            }
+            int numTokens = 0;
+            HashMap<Integer, Integer> typeCounts = new HashMap<Integer, Integer>();
+            while (true) {
+                int fieldEnd = findField(end, (byte) ' ');
+                int type = parseInt(fieldEnd, (byte) ':', (byte) ':');
+                if (pos >= fieldEnd) {
+                    throw new RuntimeException("Missing count");
+                }
+                pos++; // colon
+                int count = parseInt(fieldEnd, (byte) ':', (byte) ':');
+                numTokens += count;
+                typeCounts.put(type, count);
+                pos = fieldEnd;
+                if (pos >= end) {
+                    break;
+                }
+                pos++; // space
+            }
+
+            int[] tokens = new int[numTokens];
+            int idx = 0;
+            for (int type : typeCounts.keySet()) {
+                for (int ii = 0; ii < typeCounts.get(type); ii++) {
+                    tokens[idx++] = type;
+                }
+            }
+            return tokens;
+        }
+    }
+}
@@ -32,7 +32,9 @@ public class TextDataset extends AbstractTokenizeDataset {
     protected ArrayList<Integer> processedDocIndices; // list of document ids after pre-processing
     protected ArrayList<String> wordVocab;
     protected String[] docIds;
-    protected int[][] words;
+    protected int[][] words; // built from binaryWords on first use, if mapped
+    protected FlatCorpus flatWords; // built on first use
+    protected BinaryCorpus binaryWords; // mapped binary document data, or null
     protected int[][][] sentWords;
     protected String[][] sentRawWords;
     protected MimnoTopicCoherence topicCoherence;
@@ -77,8 +79,9 @@ public class TextDataset extends AbstractTokenizeDataset {
      * Compute the TF-IDF score of each item in the vocabulary.
      */
     public void computeTFIDFs() {
+        int[][] words = getWords();
         int V = this.wordVocab.size();
-        int D = this.words.length;
+        int D = words.length;
         SparseCount tfs = new SparseCount();
         SparseCount dfs = new SparseCount();
         for (int d = 0; d < D; d++) {
@@ -124,7 +127,7 @@ public class TextDataset extends AbstractTokenizeDataset {
     }
 
     public void prepareTopicCoherence(int numTopWords) {
-        this.topicCoherence = new MimnoTopicCoherence(words, wordVocab.size(), numTopWords);
+        this.topicCoherence = new MimnoTopicCoherence(getWords(), wordVocab.size(), numTopWords);
         this.topicCoherence.prepare();
     }
 
@@ -150,14 +153,24 @@ public class TextDataset extends AbstractTokenizeDataset {
     }
 
     public int[][] getDocWords(ArrayList<Integer> instances) {
+        int[][] words = getWords();
         int[][] revWords = new int[instances.size()][];
         for (int i = 0; i < revWords.length; i++) {
             int idx = instances.get(i);
-            revWords[i] = this.words[idx];
+            revWords[i] = words[idx];
         }
         return revWords;
     }
 
+    /**
+     * Return the tokens of the given documents as a flat corpus.
+     *
+     * @param instances Indices of the selected documents
+     */
+    public FlatCorpus getFlatDocWords(ArrayList<Integer> instances) {
+        return getFlatWords().getDocWords(instances);
+    }
+
     /**
      * Set the raw texts with their IDs
      *
@@ -285,6 +298,7 @@ public class TextDataset extends AbstractTokenizeDataset {
 
         outputWordVocab(outputFolder);
         outputTextData(outputFolder);
+        outputBinaryTextData(outputFolder);
         outputDocumentInfo(outputFolder);
         if (sent) {
             outputSentTextData(outputFolder);
@@ -350,6 +364,23 @@ public class TextDataset extends AbstractTokenizeDataset {
         dataWriter.close();
     }
 
+    /**
+     * Output the binary version of the formatted document data (see
+     * {@link BinaryCorpus}), which is loaded instead of the text version
+     * when it is up to date.
+     *
+     * @param outputFolder Output folder
+     * @throws java.lang.Exception
+     */
+    protected void outputBinaryTextData(String outputFolder) throws Exception {
+        File datFile = new File(outputFolder, formatFilename + numDocDataExt);
+        File binFile = new File(outputFolder, formatFilename + numDocBinaryDataExt);
+        if (verbose) {
+            logln("--- Outputing binary numeric data ... " + binFile);
+        }
+        BinaryCorpus.convert(datFile, binFile);
+    }
+
     /**
      * Output the formatted data.
      *
@@ -423,10 +454,35 @@ public class TextDataset extends AbstractTokenizeDataset {
         return docIds;
     }
 
+    /**
+     * Return the tokens of each document. If the documents were loaded from
+     * binary data, this copies them from the mapped file on the first call;
+     * samplers that take a flat corpus should use {@link #getFlatWords()}
+     * instead.
+     */
     public int[][] getWords() {
+        if (this.words == null && this.binaryWords != null) {
+            this.words = this.binaryWords.getDocWords();
+        }
         return this.words;
     }
 
+    /**
+     * Return the tokens of all documents as a flat corpus. If the documents
+     * were loaded from binary data and {@link #getWords()} was not called,
+     * the corpus is filled directly from the mapped file.
+     */
+    public FlatCorpus getFlatWords() {
+        if (this.flatWords == null) {
+            if (this.words == null && this.binaryWords != null) {
+                this.flatWords = this.binaryWords.getFlatCorpus();
+            } else {
+                this.flatWords = new FlatCorpus(this.words);
+            }
+        }
+        return this.flatWords;
+    }
+
     public void loadFormattedData(File fFolder) {
         this.loadFormattedData(fFolder.getAbsolutePath());
     }
@@ -436,16 +492,33 @@ public class TextDataset extends AbstractTokenizeDataset {
             logln("--- Loading formatted data from " + fFolder);
         }
         loadFormattedData(new File(fFolder, formatFilename + wordVocabExt),
-                new File(fFolder, formatFilename + numDocDataExt),
+                getDocWordFile(fFolder),
                 new File(fFolder, formatFilename + docInfoExt),
                 new File(fFolder, formatFilename + numSentDataExt));
     }
 
+    /**
+     * Return the binary document data file if it exists and is at least as
+     * recent as the text version, and the text version otherwise.
+     *
+     * @param fFolder Folder of the formatted data
+     */
+    protected File getDocWordFile(String fFolder) {
+        File datFile = new File(fFolder, formatFilename + numDocDataExt);
+        File binFile = new File(fFolder, formatFilename + numDocBinaryDataExt);
+        if (binFile.exists() && (!datFile.exists()
+                || binFile.lastModified() >= datFile.lastModified())) {
+            return binFile;
+        }
+        return datFile;
+    }
+
     /**
      * Load formatted data.
      *
      * @param wordVocabFile File contains the word vocabulary
-     * @param docWordFile File contains document tokens
+     * @param docWordFile File contains document tokens, in text or binary
+     * format
      * @param docInfoFile File contains document info
      * @param sentFile (Optional) File contains sentences
      */
@@ -501,57 +574,49 @@ public class TextDataset extends AbstractTokenizeDataset {
             logln("--- Reading text data from " + file);
         }
 
-        words = inputFormattedTextData(file);
+        words = null;
+        flatWords = null;
+        binaryWords = null;
+        if (file.getName().endsWith(numDocBinaryDataExt)) {
+            binaryWords = inputBinaryTextData(file);
+        } else {
+            words = inputFormattedTextData(file);
+        }
 
         if (verbose) {
-            logln("--- --- # docs: " + words.length);
-            int numTokens = 0;
-            for (int[] word : words) {
-                numTokens += word.length;
+            if (binaryWords != null) {
+                logln("--- --- # docs: " + binaryWords.getNumDocs());
+                logln("--- --- # tokens: " + binaryWords.getNumTokens());
+            } else {
+                logln("--- --- # docs: " + words.length);
+                int numTokens = 0;
+                for (int[] word : words) {
+                    numTokens += word.length;
+                }
+                logln("--- --- # tokens: " + numTokens);
             }
-            logln("--- --- # tokens: " + numTokens);
         }
     }
 
+    /**
+     * Map the binary document data. Documents are only copied to the heap
+     * when {@link #getWords()} or {@link #getFlatWords()} is called.
+     *
+     * @param file The binary document data file
+     */
+    protected BinaryCorpus inputBinaryTextData(File file) throws Exception {
+        if (verbose) {
+            logln("--- Mapping binary text data from " + file);
+        }
+        return BinaryCorpus.map(file);
+    }
+
     protected int[][] inputFormattedTextData(File file) throws Exception {
         if (verbose) {
             logln("--- Reading text data from " + file);
         }
 
-        BufferedReader reader = IOUtils.getBufferedReader(file);
-
-        ArrayList<int[]> wordList = new ArrayList<int[]>();
-        String line;
-        String[] sline;
-        while ((line = reader.readLine()) != null) {
-            sline = line.split(" ");
-
-            int numTypes = Integer.parseInt(sline[0]);
-            int[] types = new int[numTypes];
-            int[] counts = new int[numTypes];
-
-            int numTokens = 0;
-            for (int ii = 0; ii < numTypes; ++ii) {
-                String[] entry = sline[ii + 1].split(":");
-                int count = Integer.parseInt(entry[1]);
-                int id = Integer.parseInt(entry[0]);
-                numTokens += count;
-                types[ii] = id;
-                counts[ii] = count;
-            }
-
-            int[] gibbsString = new int[numTokens];
-            int index = 0;
-            for (int ii = 0; ii < numTypes; ++ii) {
-                for (int jj = 0; jj < counts[ii]; ++jj) {
-                    gibbsString[index++] = types[ii];
-                }
-            }
-            wordList.add(gibbsString);
-        }
-        reader.close();
-        int[][] wds = wordList.toArray(new int[wordList.size()][]);
-        return wds;
+        return FormattedDataParser.parseDocuments(file);
     }
 
     /**
@@ -561,30 +626,7 @@ public class TextDataset extends AbstractTokenizeDataset {
      * @return Gibbs-formatted string
      */
     protected int[] getGibbsString(String ldacString) {
-        String[] sline = ldacString.split(" ");
-
-        int numTypes = Integer.parseInt(sline[0]);
-        int[] types = new int[numTypes];
-        int[] counts = new int[numTypes];
-
-        int numTokens = 0;
-        for (int ii = 0; ii < numTypes; ++ii) {
-            String[] entry = sline[ii + 1].split(":");
-            int count = Integer.parseInt(entry[1]);
-            int id = Integer.parseInt(entry[0]);
-            numTokens += count;
-            types[ii] = id;
-            counts[ii] = count;
-        }
-
-        int[] gibbsString = new int[numTokens];
-        int index = 0;
-        for (int ii = 0; ii < numTypes; ++ii) {
-            for (int jj = 0; jj < counts[ii]; ++jj) {
-                gibbsString[index++] = types[ii];
-            }
-        }
-        return gibbsString;
+        return FormattedDataParser.parseDocument(ldacString);
     }
 
     /**
@@ -598,43 +640,7 @@ public class TextDataset extends AbstractTokenizeDataset {
             logln("--- Reading sentence text data from " + file);
         }
 
-        BufferedReader numSentReader = IOUtils.getBufferedReader(file);
-        ArrayList<int[][]> sentWordList = new ArrayList<int[][]>();
-        String line;
-        String[] sline;
-        while ((line = numSentReader.readLine()) != null) {
-            sline = line.split("\t");
-            int numSents = sline.length;
-            int[][] sents = new int[numSents][];
-            for (int s = 0; s < numSents; s++) {
-                String[] sSent = sline[s].split(" ");
-                int numTokens = 0;
-                HashMap<Integer, Integer> typeCounts = new HashMap<Integer, Integer>();
-
-                for (String sSentWord : sSent) {
-                    int type = Integer.parseInt(sSentWord.split(":")[0]);
-                    int count = Integer.parseInt(sSentWord.split(":")[1]);
-                    numTokens += count;
-                    typeCounts.put(type, count);
-                }
-
-                int[] tokens = new int[numTokens];
-                int idx = 0;
-                for (int type : typeCounts.keySet()) {
-                    for (int ii = 0; ii < typeCounts.get(type); ii++) {
-                        tokens[idx++] = type;
-                    }
-                }
-                sents[s] = tokens;
-            }
-            sentWordList.add(sents);
-        }
-        numSentReader.close();
-
-        sentWords = new int[sentWordList.size()][][];
-        for (int i = 0; i < sentWords.length; i++) {
-            sentWords[i] = sentWordList.get(i);
-        }
+        sentWords = FormattedDataParser.parseSentences(file);
 
         if (verbose) {
             logln("--- --- # docs: " + sentWords.length);
@@ -659,6 +665,7 @@ public class TextDataset extends AbstractTokenizeDataset {
                 sentRawWords = new String[sentWords.length][];
                 int count = 0;
                 BufferedReader rawSentReader = IOUtils.getBufferedReader(rawSentFile);
+                String line;
                 while ((line = rawSentReader.readLine()) != null) {
                     int numSents = Integer.parseInt(line);
                     String[] docRawSents = new String[numSents];
@@ -693,6 +700,7 @@ public class TextDataset extends AbstractTokenizeDataset {
      * @param minSentTokenCount Number of tokens that a sentence must have
      */
     public void filterShortSentences(int minSentTokenCount) {
+        int[][] words = getWords();
         if (words == null) {
             throw new RuntimeException("Empty documents");
         }
@@ -712,6 +720,7 @@ public class TextDataset extends AbstractTokenizeDataset {
                 words[d][n] = filteredDocWords.get(n);
             }
         }
+        flatWords = null;
     }
 
     protected void inputDocumentInfo(File file) throws Exception {
@@ -842,6 +851,9 @@ public class TextDataset extends AbstractTokenizeDataset {
                 case "load":
                     load();
                     break;
+                case "binarize":
+                    binarize();
+                    break;
                 case "cross-validation":
                     crossValidate();
                     break;
@@ -964,6 +976,21 @@ public class TextDataset extends AbstractTokenizeDataset {
         return data;
     }
 
+    /**
+     * Write the binary version of already formatted document data.
+     */
+    private static void binarize() throws Exception {
+        String datasetName = cmd.getOptionValue("dataset");
+        String datasetFolder = cmd.getOptionValue("data-folder");
+        String formatFolder = cmd.getOptionValue("format-folder");
+        String formatFile = CLIUtils.getStringArgument(cmd, "format-file", datasetName);
+
+        TextDataset data = new TextDataset(datasetName, datasetFolder);
+        data.setFormatFilename(formatFile);
+        data.outputBinaryTextData(new File(data.getDatasetFolderPath(), formatFolder)
+                .getAbsolutePath());
+    }
+
     private static void process() throws Exception {
         String datasetName = CLIUtils.getStringArgument(cmd, "dataset", "amazon-data");
         String datasetFolder = CLIUtils.getStringArgument(cmd, "data-folder", "demo");
@@ -5,6 +5,8 @@ import java.io.BufferedWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import edu.umd.sampling.likelihood.DirMult;
+import edu.umd.sampling.util.CountHistogram;
+import edu.umd.sampling.util.DirichletOptimizer;
 import edu.umd.sampling.util.FullTable;
 import edu.umd.sampling.util.Restaurant;
 import edu.umd.util.IOUtils;
@@ -35,6 +37,12 @@ public class HDP extends AbstractSampler {
     private HDPDish emptyDish;
     private int numTokenAssignmentsChange;
     private int numTableAssignmentsChange;
+    // reused buffers of the dishes a table can be assigned to, the last
+    // being a new dish with index PSEUDO_INDEX
+    private int numDishes;
+    private int[] dishIndices = new int[16];
+    private double[] dishLogPriors = new double[16];
+    private double[] dishLogLikelihoods = new double[16];
 
     public void configure(String folder,
             int[][] words,
@@ -187,7 +195,7 @@ public class HDP extends AbstractSampler {
 
             // add customers to tables
             for (int n = 0; n < words[d].length; n++) {
-                z[d][n] = lda.z[d][n];
+                z[d][n] = lda.z.get(d, n);
                 this.localRestaurants[d].addCustomerToTable(n, z[d][n]);
             }
 
@@ -238,6 +246,9 @@ public class HDP extends AbstractSampler {
             numTokenAssignmentsChange = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int n = 0; n < words[d].length; n++) {
                     this.sampleTableForToken(d, n, REMOVE);
                 }
@@ -250,10 +261,10 @@ public class HDP extends AbstractSampler {
             if (iter >= BURN_IN) {
                 if (paramOptimized) {
                     if (verbose) {
-                        logln("--- --- Slice sampling ...");
+                        logln("--- --- Optimizing hyperparameters ...");
                     }
 
-                    sliceSample();
+                    optimizeHyperparameters();
                     this.sampledParams.add(this.cloneHyperparameters());
 
                     if (verbose) {
@@ -266,6 +277,10 @@ public class HDP extends AbstractSampler {
                 this.validate("Iteration " + iter);
             }
             System.out.println();
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
     }
 
@@ -386,14 +401,10 @@ public class HDP extends AbstractSampler {
 //            System.out.println();
 //        }
 
-        HashMap<Integer, Double> dishLogPriors = getDishLogPriors();
-        HashMap<Integer, Double> dishLogLikelihoods = getDishLogLikelihoods(observations);
-
-        if (dishLogPriors.size() != dishLogLikelihoods.size()) {
-            throw new RuntimeException("Numbers of dishes mismatch");
-        }
+        computeDishLogPriors();
+        computeDishLogLikelihoods(observations);
 
-        int sampledDish = sampleDish(dishLogPriors, dishLogLikelihoods);
+        int sampledDish = sampleDish();
         if (curDish != sampledDish) {
             numTableAssignmentsChange++;
         }
@@ -426,35 +437,27 @@ public class HDP extends AbstractSampler {
     }
 
     /**
-     * Sample a dish given precomputed log priors and log likelihoods
-     *
-     * @param dishLogPriors Precomputed log priors
-     * @param dishLogLikelihoods Precomputed log likelihoods
+     * Sample a dish given the log priors and log likelihoods precomputed in
+     * the dish buffers
      */
-    private int sampleDish(
-            HashMap<Integer, Double> dishLogPriors,
-            HashMap<Integer, Double> dishLogLikelihoods) {
-        ArrayList<Integer> dishIndices = new ArrayList<Integer>();
-        ArrayList<Double> logprobs = new ArrayList<Double>();
-
-        for (int dishIndex : dishLogPriors.keySet()) {
-            dishIndices.add(dishIndex);
-            double logprob = dishLogPriors.get(dishIndex) + dishLogLikelihoods.get(dishIndex);
-            logprobs.add(logprob);
-        }
-        int sampledIndex = SamplerUtils.logMaxRescaleSample(logprobs);
-
-        if (sampledIndex == logprobs.size()) {
-            for (int dishIndex : dishLogPriors.keySet()) {
-                logln(dishIndex
-                        + "\tlog prior: " + MiscUtils.formatDouble(dishLogPriors.get(dishIndex))
-                        + "\tlog likelihood: " + MiscUtils.formatDouble(dishLogLikelihoods.get(dishIndex))
-                        + "\ttotal = " + MiscUtils.formatDouble(dishLogPriors.get(dishIndex) + dishLogLikelihoods.get(dishIndex)));
+    private int sampleDish() {
+        double[] logprobs = workspace.getBuffer(numDishes);
+        for (int ii = 0; ii < numDishes; ii++) {
+            logprobs[ii] = dishLogPriors[ii] + dishLogLikelihoods[ii];
+        }
+        int sampledIndex = workspace.logMaxRescaleSample();
+
+        if (sampledIndex == workspace.size()) {
+            for (int ii = 0; ii < numDishes; ii++) {
+                logln(dishIndices[ii]
+                        + "\tlog prior: " + MiscUtils.formatDouble(dishLogPriors[ii])
+                        + "\tlog likelihood: " + MiscUtils.formatDouble(dishLogLikelihoods[ii])
+                        + "\ttotal = " + MiscUtils.formatDouble(dishLogPriors[ii] + dishLogLikelihoods[ii]));
             }
             throw new RuntimeException("Out-of-bound sampling");
         }
 
-        return dishIndices.get(sampledIndex);
+        return dishIndices[sampledIndex];
     }
 
     /**
@@ -472,32 +475,25 @@ public class HDP extends AbstractSampler {
             removeCustomerFromTable(d, curTableIndex, n);
         }
 
-        ArrayList<Integer> tableIndices = new ArrayList<Integer>();
-        ArrayList<Double> logprobs = new ArrayList<Double>();
+        workspace.clear();
 
         double normalizer = Math.log(this.localRestaurants[d].getTotalNumCustomers()
                 + hyperparams.get(ALPHA_LOCAL));
 
         // for existing tables
         for (HDPTable table : this.localRestaurants[d].getTables()) {
-            tableIndices.add(table.getIndex());
             double logprob = Math.log(table.getNumCustomers()) - normalizer
                     + table.getContent().getContent().getLogLikelihood(curObs);
-            logprobs.add(logprob);
+            workspace.add(table.getIndex(), logprob);
         }
 
         // for new tables
-        tableIndices.add(PSEUDO_INDEX);
-        HashMap<Integer, Double> dishLogPriors = getDishLogPriors();
-        HashMap<Integer, Double> dishLogLikelihoods = getDishLogLikelihoods(curObs);
-
-        if (dishLogPriors.size() != dishLogLikelihoods.size()) {
-            throw new RuntimeException("Numbers of dishes mismatch");
-        }
+        computeDishLogPriors();
+        computeDishLogLikelihoods(curObs);
 
         double marginalLogLikelihood = 0.0;
-        for (int dishIndex : dishLogPriors.keySet()) {
-            double lp = dishLogPriors.get(dishIndex) + dishLogLikelihoods.get(dishIndex);
+        for (int ii = 0; ii < numDishes; ii++) {
+            double lp = dishLogPriors[ii] + dishLogLikelihoods[ii];
             if (marginalLogLikelihood == 0.0) {
                 marginalLogLikelihood = lp;
             } else {
@@ -506,11 +502,11 @@ public class HDP extends AbstractSampler {
         }
         double logprob = Math.log(hyperparams.get(ALPHA_LOCAL)) - normalizer
                 + marginalLogLikelihood;
-        logprobs.add(logprob);
+        workspace.add(PSEUDO_INDEX, logprob);
 
         // sample
-        int sampledIndex = SamplerUtils.logMaxRescaleSample(logprobs);
-        int tableIndex = tableIndices.get(sampledIndex);
+        int sampledIndex = workspace.logMaxRescaleSample();
+        int tableIndex = workspace.getIndex(sampledIndex);
 
         if (curTableIndex != tableIndex) {
             numTokenAssignmentsChange++;
@@ -519,7 +515,7 @@ public class HDP extends AbstractSampler {
         HDPTable table;
         if (tableIndex == PSEUDO_INDEX) {
             // sample dish
-            int sampledDish = sampleDish(dishLogPriors, dishLogLikelihoods);
+            int sampledDish = sampleDish();
             HDPDish dish;
             if (sampledDish == PSEUDO_INDEX) {
                 dish = createDish();
@@ -547,33 +543,52 @@ public class HDP extends AbstractSampler {
         }
     }
 
-    private HashMap<Integer, Double> getDishLogPriors() {
-        HashMap<Integer, Double> dishLogPriors = new HashMap<Integer, Double>();
+    /**
+     * Fill the dish buffers with the index and log prior of each dish. This
+     * must be called before computing the log likelihoods, which are stored
+     * in the same order.
+     */
+    private void computeDishLogPriors() {
+        int capacity = this.globalRestaurant.getNumTables() + 1;
+        if (capacity > dishIndices.length) {
+            capacity = Math.max(capacity, dishIndices.length * 2);
+            dishIndices = new int[capacity];
+            dishLogPriors = new double[capacity];
+            dishLogLikelihoods = new double[capacity];
+        }
         double normalizer = Math.log(this.globalRestaurant.getTotalNumCustomers()
                 + hyperparams.get(ALPHA_GLOBAL));
+        numDishes = 0;
         for (HDPDish dish : this.globalRestaurant.getTables()) {
-            dishLogPriors.put(dish.getIndex(), Math.log(dish.getNumCustomers()) - normalizer);
+            dishIndices[numDishes] = dish.getIndex();
+            dishLogPriors[numDishes++] = Math.log(dish.getNumCustomers()) - normalizer;
         }
-        dishLogPriors.put(PSEUDO_INDEX, Math.log(hyperparams.get(ALPHA_GLOBAL)) - normalizer);
-        return dishLogPriors;
+        dishIndices[numDishes] = PSEUDO_INDEX;
+        dishLogPriors[numDishes++] = Math.log(hyperparams.get(ALPHA_GLOBAL)) - normalizer;
     }
 
-    private HashMap<Integer, Double> getDishLogLikelihoods(int observation) {
-        HashMap<Integer, Double> dishLogLikelihoods = new HashMap<Integer, Double>();
+    private void computeDishLogLikelihoods(int observation) {
+        int idx = 0;
         for (HDPDish dish : this.globalRestaurant.getTables()) {
-            dishLogLikelihoods.put(dish.getIndex(), dish.getContent().getLogLikelihood(observation));
+            checkDishIndex(idx, dish);
+            dishLogLikelihoods[idx++] = dish.getContent().getLogLikelihood(observation);
         }
-        dishLogLikelihoods.put(PSEUDO_INDEX, emptyDish.getContent().getLogLikelihood(observation));
-        return dishLogLikelihoods;
+        dishLogLikelihoods[idx] = emptyDish.getContent().getLogLikelihood(observation);
     }
 
-    private HashMap<Integer, Double> getDishLogLikelihoods(HashMap<Integer, Integer> observations) {
-        HashMap<Integer, Double> dishLogLikelihoods = new HashMap<Integer, Double>();
+    private void computeDishLogLikelihoods(HashMap<Integer, Integer> observations) {
+        int idx = 0;
         for (HDPDish dish : this.globalRestaurant.getTables()) {
-            dishLogLikelihoods.put(dish.getIndex(), dish.getContent().getLogLikelihood(observations));
+            checkDishIndex(idx, dish);
+            dishLogLikelihoods[idx++] = dish.getContent().getLogLikelihood(observations);
+        }
+        dishLogLikelihoods[idx] = emptyDish.getContent().getLogLikelihood(observations);
+    }
+
+    private void checkDishIndex(int idx, HDPDish dish) {
+        if (idx >= numDishes - 1 || dishIndices[idx] != dish.getIndex()) {
+            throw new RuntimeException("Dishes mismatch at " + idx + ". " + dish.getIndex());
         }
-        dishLogLikelihoods.put(PSEUDO_INDEX, emptyDish.getContent().getLogLikelihood(observations));
-        return dishLogLikelihoods;
     }
 
     @Override
@@ -634,6 +649,28 @@ public class HDP extends AbstractSampler {
         }
     }
 
+    /**
+     * Optimize the topic-word concentration beta by fixed-point iterations on
+     * count histograms. The DP concentrations have no Dirichlet-multinomial
+     * fixed point and keep their current values.
+     */
+    @Override
+    protected void fixedPointOptimize() {
+        DirMult[] dishContents = new DirMult[globalRestaurant.getNumTables()];
+        int ii = 0;
+        for (HDPDish dish : globalRestaurant.getTables()) {
+            dishContents[ii++] = dish.getContent();
+        }
+        if (dishContents.length == 0) {
+            return;
+        }
+        CountHistogram hist = CountHistogram.build(dishContents, getForkJoinPool());
+        ArrayList<Double> newParams = cloneHyperparameters();
+        newParams.set(BETA, V * DirichletOptimizer.optimizeSymmetric(
+                hyperparams.get(BETA) / V, hist));
+        updateHyperparameters(newParams);
+    }
+
     @Override
     public void validate(String msg) {
         globalRestaurant.validate(msg);
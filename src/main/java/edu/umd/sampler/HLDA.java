@@ -9,6 +9,7 @@ import java.util.Queue;
 import java.util.Stack;
 import edu.umd.sampling.likelihood.DirMult;
 import edu.umd.sampling.likelihood.TruncatedStickBreaking;
+import edu.umd.sampling.util.LogGammaTable;
 import edu.umd.sampling.util.TreeNode;
 import edu.umd.util.IOUtils;
 import edu.umd.util.MiscUtils;
@@ -243,6 +244,9 @@ public class HLDA extends AbstractSampler {
             numChangeLevel = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 samplePathAssignments(d, REMOVE);
 
                 for (int n = 0; n < words[d].length; n++) {
@@ -275,6 +279,10 @@ public class HLDA extends AbstractSampler {
                     }
                 }
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
     }
 
@@ -333,13 +341,13 @@ public class HLDA extends AbstractSampler {
         double[] dataLlhNewTopic = new double[L];
         for (int l = 1; l < L; l++) { // skip the root
             HashMap<Integer, Integer> docTokenCount = docTypeCountPerLevel[l];
+            LogGammaTable typeTable = LogGammaTable.get(betas[l] / V);
             int j = 0;
-            for (int type : docTokenCount.keySet()) {
-                for (int i = 0; i < docTokenCount.get(type); i++) {
-                    dataLlhNewTopic[l] += Math.log(betas[l] / V + i) - Math.log(betas[l] + j);
-                    j++;
-                }
+            for (int count : docTokenCount.values()) {
+                dataLlhNewTopic[l] += typeTable.logGammaRatio(0, count);
+                j += count;
             }
+            dataLlhNewTopic[l] -= LogGammaTable.get(betas[l]).logGammaRatio(0, j);
         }
 
         // --- 3. Compute the data likelihood for all possible paths
@@ -452,6 +460,19 @@ public class HLDA extends AbstractSampler {
             HashMap<Integer, Integer> docTokenCount) {
         double nodeDataLlh = 0;
         int level = curNode.getLevel();
+        DirMult content = curNode.getContent();
+        if (content.isShortRepresented()) {
+            // the sums of logs telescope to log Gamma differences
+            LogGammaTable typeTable = LogGammaTable.get(betas[level] * content.getCenterElement(0));
+            int j = 0;
+            for (int type : docTokenCount.keySet()) {
+                int count = docTokenCount.get(type);
+                nodeDataLlh += typeTable.logGammaRatio(content.getCount(type), count);
+                j += count;
+            }
+            nodeDataLlh -= LogGammaTable.get(betas[level]).logGammaRatio(content.getCountSum(), j);
+            return nodeDataLlh;
+        }
         int j = 0;
         for (int type : docTokenCount.keySet()) {
             for (int i = 0; i < docTokenCount.get(type); i++) {
@@ -500,14 +521,14 @@ public class HLDA extends AbstractSampler {
             this.removeObservation(words[d][n], z[d][n], c[d]);
         }
 
-        double[] logprobs = new double[L];
+        double[] logprobs = workspace.getBuffer(L);
         for (int l = 0; l < L; l++) {
             HLDANode node = this.getNode(l, c[d]);
             logprobs[l] =
                     doc_level_distr[d].getLogProbability(l)
                     + node.getContent().getLogLikelihood(words[d][n]);
         }
-        int sampledL = SamplerUtils.logMinRescaleSample(logprobs);
+        int sampledL = workspace.logMaxRescaleSample();
 
         if (z[d][n] != sampledL) {
             numChangeLevel++;
@@ -5,6 +5,8 @@ import cc.mallet.optimize.LimitedMemoryBFGS;
 import cc.mallet.util.Randoms;
 import edu.umd.core.AbstractExperiment;
 import edu.umd.core.AbstractSampler;
+import edu.umd.core.EnsemblePredictor;
+import edu.umd.core.TreeTestModel;
 import edu.umd.data.LabelTextDataset;
 import edu.umd.data.ResponseTextDataset;
 import edu.umd.data.TextDataset;
@@ -808,6 +810,57 @@ public class HTM extends AbstractSampler {
         return predictions;
     }
 
+    /**
+     * Return a read-only copy of the loaded model for sampling test
+     * documents, with the same test chain as
+     * {@link #sampleTest(File, File, File)}. The tree is not extended.
+     */
+    public TreeTestModel getTestModel() {
+        TreeTestModel model = new TreeTestModel(V, BURN_IN / 2, MAX_ITER / 2, LAG / 2);
+        ArrayList<Node> nodes = new ArrayList<>();
+        HashMap<Node, Integer> nodeIndices = new HashMap<>();
+        Queue<Node> queue = new LinkedList<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            int parentIdx = -1;
+            double pathPrior = 0.0;
+            if (!node.isRoot()) {
+                Node parent = node.getParent();
+                parentIdx = nodeIndices.get(parent);
+                pathPrior = getLocalAlpha(parent.getLevel())
+                        * parent.theta.get(node.getIndex());
+            }
+            double gamma = 0.0;
+            double pathConcentration = 0.0;
+            if (!node.isLeaf()) {
+                gamma = getGamma(node.getLevel());
+                pathConcentration = getLocalAlpha(node.getLevel());
+            }
+            boolean canStay = !(node.isRoot() && !isRooted);
+            double pathEta = isSupervised() ? node.pathEta : 0.0;
+            nodeIndices.put(node, model.addNode(parentIdx, canStay, gamma, node.pi,
+                    pathConcentration, pathPrior, pathEta));
+            nodes.add(node);
+            for (Node child : node.getChildren()) {
+                queue.add(child);
+            }
+        }
+
+        model.allocateWordProbabilities();
+        for (int ii = 0; ii < nodes.size(); ii++) {
+            Node node = nodes.get(ii);
+            for (int vv = 0; vv < V; vv++) {
+                model.setWordProbability(ii, vv, node.getNodeWordProbability(vv),
+                        node.getSubtreeWordProbability(vv));
+            }
+        }
+        if (isSupervised() && isLexical) {
+            model.setLexicalWeights(tau);
+        }
+        return model;
+    }
+
     @Override
     public void initialize() {
         initialize(priors);
@@ -1017,9 +1070,10 @@ public class HTM extends AbstractSampler {
     private void initializePresetAssignments() {
         if (Ks[0] > 0) {
             LDA lda = runLDA(words, Ks[0], V, priors);
+            int[][] ldaZs = lda.getZs();
             for (int dd = 0; dd < D; dd++) {
                 for (int nn = 0; nn < words[dd].length; nn++) {
-                    int kk = lda.getZs()[dd][nn];
+                    int kk = ldaZs[dd][nn];
                     Node node = sampleNode(dd, nn, root.getChild(kk), EXTEND, false);
                     z[dd][nn] = node;
                     addToken(dd, nn, z[dd][nn], ADD, ADD);
@@ -1200,6 +1254,10 @@ public class HTM extends AbstractSampler {
 
         long sTime = System.currentTimeMillis();
         for (int dd = 0; dd < D; dd++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int nn = 0; nn < words[dd].length; nn++) {
                 // remove
                 removeToken(dd, nn, z[dd][nn], removeFromData, removeFromModel);
@@ -1249,6 +1307,10 @@ public class HTM extends AbstractSampler {
 
         long sTime = System.currentTimeMillis();
         for (int dd = 0; dd < D; dd++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int nn = 0; nn < words[dd].length; nn++) {
                 // remove
                 removeToken(dd, nn, z[dd][nn], removeFromData, removeFromModel);
@@ -2884,6 +2946,8 @@ public class HTM extends AbstractSampler {
         sampler.setDebug(cmd.hasOption("d"));
         sampler.setLog(true);
         sampler.setReport(true);
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
 
         File samplerFolder;
         String modeStr = CLIUtils.getStringArgument(cmd, "mode", "unsupervised");
@@ -2943,6 +3007,7 @@ public class HTM extends AbstractSampler {
                 }
 
                 if (isTesting()) {
+                    sampler.getStopSignal().reset(); // the time budget only bounds training
                     ArrayList<Integer> testDocIndices = sampler.getSelectedDocIndices(binData.getDocIds());
 
                     File testAssignmentFolder = new File(samplerFolder, AbstractSampler.IterAssignmentFolder);
@@ -3007,6 +3072,7 @@ public class HTM extends AbstractSampler {
                 }
 
                 if (isTesting()) {
+                    sampler.getStopSignal().reset(); // the time budget only bounds training
                     ArrayList<Integer> testDocIndices = sampler.getSelectedDocIndices(contData.getDocIds());
 
                     File testAssignmentFolder = new File(samplerFolder, AbstractSampler.IterAssignmentFolder);
@@ -3122,60 +3188,50 @@ public class HTM extends AbstractSampler {
 
     /**
      * Run Gibbs sampling on test data using multiple models learned which are
-     * stored in the ReportFolder. The runs on multiple models are parallel.
+     * stored in the ReportFolder. All models are loaded once and shared by
+     * the threads sampling the test documents. Assignments of test documents
+     * are not stored.
      *
      * @param newWords Words of new documents
      * @param newDocIndices Indices of test documents
      * @param iterPredFolder Output folder
-     * @param iterStateFolder Folder to store assignments
+     * @param iterStateFolder Folder to store assignments, unused
      * @param sampler The configured sampler
      */
     public static double[] parallelTest(int[][] newWords,
             ArrayList<Integer> newDocIndices,
             File iterPredFolder,
             File iterStateFolder,
-            HTM sampler) {
+            final HTM sampler) {
         File reportFolder = new File(sampler.getSamplerFolderPath(), ReportFolder);
-        if (!reportFolder.exists()) {
-            throw new RuntimeException("Report folder not found. " + reportFolder);
+        int[][] testWords = newWords;
+        if (newDocIndices != null) {
+            testWords = new int[newDocIndices.size()][];
+            for (int ii = 0; ii < testWords.length; ii++) {
+                testWords[ii] = newWords[newDocIndices.get(ii)];
+            }
         }
-        String[] filenames = reportFolder.list();
-        double[] avgPredictions = null;
         try {
-            IOUtils.createFolder(iterPredFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
-            ArrayList<File> partPredFiles = new ArrayList<>();
-            for (String filename : filenames) { // all learned models
-                if (!filename.contains("zip")) {
-                    continue;
-                }
-
-                File stateFile = new File(reportFolder, filename);
-
-                String stateFilename = IOUtils.removeExtension(filename);
-                File iterOutputPredFile = new File(iterPredFolder, stateFilename + ".txt");
-                File iterOutputStateFile = new File(iterStateFolder, stateFilename + ".zip");
-
-                HTMTestRunner runner = new HTMTestRunner(sampler,
-                        newWords, newDocIndices,
-                        stateFile.getAbsolutePath(),
-                        iterOutputStateFile.getAbsolutePath(),
-                        iterOutputPredFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
-                partPredFiles.add(iterOutputPredFile);
-            }
-
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
-
-            // average predictions
-            avgPredictions = PredictionUtils.computeMultipleAverage(partPredFiles);
+            EnsemblePredictor ensemble = new EnsemblePredictor(
+                    EnsemblePredictor.getStateFiles(reportFolder),
+                    new EnsemblePredictor.ModelLoader() {
+                        @Override
+                        public EnsemblePredictor.Model load(File stateFile) {
+                            HTM testSampler = new HTM();
+                            testSampler.setVerbose(false);
+                            testSampler.setDebug(false);
+                            testSampler.setLog(false);
+                            testSampler.setReport(false);
+                            testSampler.configure(sampler);
+                            testSampler.inputModel(stateFile.getAbsolutePath());
+                            return testSampler.getTestModel();
+                        }
+                    });
+            return ensemble.predict(testWords, iterPredFolder);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Exception while sampling during parallel test.");
         }
-        return avgPredictions;
     }
 
     public void debugRegression(File outputFile) {
@@ -3211,48 +3267,3 @@ public class HTM extends AbstractSampler {
         }
     }
 }
-
-class HTMTestRunner implements Runnable {
-
-    HTM sampler;
-    int[][] newWords;
-    ArrayList<Integer> newDocIndices;
-    String stateFile;
-    String testStateFile;
-    String outputFile;
-
-    public HTMTestRunner(HTM sampler,
-            int[][] newWords,
-            ArrayList<Integer> newDocIndices,
-            String stateFile,
-            String testStateFile,
-            String outputFile) {
-        this.sampler = sampler;
-        this.newWords = newWords;
-        this.newDocIndices = newDocIndices;
-        this.stateFile = stateFile;
-        this.testStateFile = testStateFile;
-        this.outputFile = outputFile;
-    }
-
-    @Override
-    public void run() {
-        HTM testSampler = new HTM();
-        testSampler.setVerbose(true);
-        testSampler.setDebug(false);
-        testSampler.setLog(false);
-        testSampler.setReport(false);
-        testSampler.configure(sampler);
-        testSampler.setTestConfigurations(sampler.getBurnIn(),
-                sampler.getMaxIters(), sampler.getSampleLag());
-
-        try {
-            testSampler.test(newWords, newDocIndices);
-            testSampler.sampleTest(new File(stateFile), new File(testStateFile),
-                    new File(outputFile));
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException();
-        }
-    }
-}
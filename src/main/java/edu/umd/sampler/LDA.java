@@ -10,6 +10,9 @@ import java.util.Collections;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.Options;
 import edu.umd.sampling.likelihood.DirMult;
+import edu.umd.sampling.util.AliasMHTopicSampler;
+import edu.umd.sampling.util.AssignmentStore;
+import edu.umd.sampling.util.CountHistogram;
 import edu.umd.sampling.util.SparseCount;
 import edu.umd.util.CLIUtils;
 import edu.umd.util.IOUtils;
@@ -35,16 +38,23 @@ public class LDA extends AbstractSampler {
     protected int V; // vocabulary size
     protected int D; // number of documents
     protected int[][] words;  // [D] x [Nd]: words
-    protected int[][] z;
+    protected AssignmentStore z;
     protected DirMult[] doc_topics;
     protected DirMult[] topic_words;
+    protected SamplingType samplingType = SamplingType.GIBBS;
+    protected double totalAlpha; // alpha * K, see updateHyperparameterCache
+    protected double totalBeta; // beta * V
+    // count summaries shared by all slice sampling proposals
+    protected CountHistogram docCountHist;
+    protected CountHistogram topicCountHist;
+    private AliasMHTopicSampler aliasSampler; // used when sampling type is MH
 
     public void configure(LDA sampler) {
         this.configure(sampler.folder,
                 sampler.V,
                 sampler.K,
-                sampler.hyperparams.get(ALPHA),
-                sampler.hyperparams.get(BETA),
+                sampler.hyperparamValues[ALPHA],
+                sampler.hyperparamValues[BETA],
                 sampler.initState,
                 sampler.paramOptimized,
                 sampler.BURN_IN,
@@ -78,6 +88,7 @@ public class LDA extends AbstractSampler {
         this.hyperparams = new ArrayList<Double>();
         this.hyperparams.add(alpha);
         this.hyperparams.add(beta);
+        syncHyperparameters();
 
         this.sampledParams = new ArrayList<ArrayList<Double>>();
         this.sampledParams.add(cloneHyperparameters());
@@ -103,8 +114,8 @@ public class LDA extends AbstractSampler {
             logln("--- # topics:\t" + K);
             logln("--- # tokens:\t" + numTokens);
             logln("--- vocab size:\t" + V);
-            logln("--- alpha:\t" + MiscUtils.formatDouble(hyperparams.get(ALPHA)));
-            logln("--- beta:\t" + MiscUtils.formatDouble(hyperparams.get(BETA)));
+            logln("--- alpha:\t" + MiscUtils.formatDouble(hyperparamValues[ALPHA]));
+            logln("--- beta:\t" + MiscUtils.formatDouble(hyperparamValues[BETA]));
             logln("--- burn-in:\t" + BURN_IN);
             logln("--- max iter:\t" + MAX_ITER);
             logln("--- sample lag:\t" + LAG);
@@ -131,6 +142,7 @@ public class LDA extends AbstractSampler {
         this.hyperparams = new ArrayList<Double>();
         this.hyperparams.add(alpha);
         this.hyperparams.add(beta);
+        syncHyperparameters();
 
         this.sampledParams = new ArrayList<ArrayList<Double>>();
         this.sampledParams.add(cloneHyperparameters());
@@ -149,8 +161,8 @@ public class LDA extends AbstractSampler {
             logln("--- folder\t" + folder);
             logln("--- # topics:\t" + K);
             logln("--- vocab size:\t" + V);
-            logln("--- alpha:\t" + MiscUtils.formatDouble(hyperparams.get(ALPHA)));
-            logln("--- beta:\t" + MiscUtils.formatDouble(hyperparams.get(BETA)));
+            logln("--- alpha:\t" + MiscUtils.formatDouble(hyperparamValues[ALPHA]));
+            logln("--- beta:\t" + MiscUtils.formatDouble(hyperparamValues[BETA]));
             logln("--- burn-in:\t" + BURN_IN);
             logln("--- max iter:\t" + MAX_ITER);
             logln("--- sample lag:\t" + LAG);
@@ -180,13 +192,37 @@ public class LDA extends AbstractSampler {
                 + "_B-" + BURN_IN
                 + "_M-" + MAX_ITER
                 + "_L-" + LAG
-                + "_a-" + formatter.format(this.hyperparams.get(ALPHA))
-                + "_b-" + formatter.format(this.hyperparams.get(BETA))
+                + "_a-" + formatter.format(this.hyperparamValues[ALPHA])
+                + "_b-" + formatter.format(this.hyperparamValues[BETA])
                 + "_opt-" + this.paramOptimized;
     }
 
+    /**
+     * Return a copy of the topic assignments.
+     */
     public int[][] getZ() {
-        return this.z;
+        return this.z.toArrays();
+    }
+
+    /**
+     * Create the store of topic assignments of the given documents. The
+     * store picks the smallest width that holds all topic indices.
+     *
+     * @param docWords Tokens of each document
+     */
+    protected AssignmentStore createAssignmentStore(int[][] docWords) {
+        return AssignmentStore.create(docWords, K);
+    }
+
+    /**
+     * Set how topic assignments are sampled. GIBBS computes the full
+     * conditional over all K topics; MH uses alias-table Metropolis-Hastings
+     * proposals whose per-token cost does not depend on K.
+     *
+     * @param samplingType Sampling type
+     */
+    public void setSamplingType(SamplingType samplingType) {
+        this.samplingType = samplingType;
     }
 
     public DirMult[] getDocTopics() {
@@ -210,10 +246,9 @@ public class LDA extends AbstractSampler {
 
         // initialize assignments for new documents
         for (int d = 0; d < D; d++) {
-            z[d] = new int[words[d].length];
             for (int n = 0; n < words[d].length; n++) {
-                z[d][n] = rand.nextInt(K);
-                doc_topics[d].increment(z[d][n]);
+                z.set(d, n, rand.nextInt(K));
+                doc_topics[d].increment(z.get(d, n));
             }
         }
     }
@@ -263,11 +298,19 @@ public class LDA extends AbstractSampler {
                 }
             }
             if (report && iter > BURN_IN && iter % LAG == 0) {
-                outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+                outputCheckpoint(new File(reportFolderPath, "iter-" + iter + ".zip"), null, 0);
+            }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
             }
         }
+        shutdownAliasSampler();
         if (report) { // output the final model
+            waitForCheckpoints();
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
         logln("Total runtime iterating: " + ellapsedSeconds + " seconds");
@@ -318,11 +361,13 @@ public class LDA extends AbstractSampler {
         topic_words = new DirMult[K];
         for (int k = 0; k < K; k++) {
             if (topics != null) {
-                topic_words[k] = new DirMult(V, hyperparams.get(BETA) * V, topics[k]);
+                topic_words[k] = new DirMult(V, totalBeta, topics[k]);
             } else {
-                topic_words[k] = new DirMult(V, hyperparams.get(BETA) * V, 1.0 / V);
+                topic_words[k] = new DirMult(V, totalBeta, 1.0 / V);
             }
         }
+        attachDenseCounts(topic_words);
+        trackLogLikelihoods(topic_words);
     }
 
     protected void initializeDataStructure(double[][] docTopicPrior) {
@@ -333,16 +378,14 @@ public class LDA extends AbstractSampler {
         doc_topics = new DirMult[D];
         for (int d = 0; d < D; d++) {
             if (docTopicPrior != null) {
-                doc_topics[d] = new DirMult(K, hyperparams.get(ALPHA) * K, docTopicPrior[d]);
+                doc_topics[d] = new DirMult(K, totalAlpha, docTopicPrior[d]);
             } else {
-                doc_topics[d] = new DirMult(K, hyperparams.get(ALPHA) * K, 1.0 / K);
+                doc_topics[d] = new DirMult(K, totalAlpha, 1.0 / K);
             }
         }
+        trackLogLikelihoods(doc_topics);
 
-        z = new int[D][];
-        for (int d = 0; d < D; d++) {
-            z[d] = new int[words[d].length];
-        }
+        z = createAssignmentStore(words);
     }
 
     protected void initializeAssignments() {
@@ -352,9 +395,9 @@ public class LDA extends AbstractSampler {
 
         for (int d = 0; d < D; d++) {
             for (int n = 0; n < words[d].length; n++) {
-                z[d][n] = rand.nextInt(K);
-                doc_topics[d].increment(z[d][n]);
-                topic_words[z[d][n]].increment(words[d][n]);
+                z.set(d, n, rand.nextInt(K));
+                doc_topics[d].increment(z.get(d, n));
+                topic_words[z.get(d, n)].increment(words[d][n]);
             }
         }
     }
@@ -395,8 +438,12 @@ public class LDA extends AbstractSampler {
                         + ". llh = " + MiscUtils.formatDouble(loglikelihood)
                         + ". numTokensChanged = " + numTokensChanged
                         + ". change ratio = " + MiscUtils.formatDouble(changeRatio)
-                        + ". time = " + eTime
-                        + "\n" + getSamplerFolderPath();
+                        + ". time = " + eTime;
+                if (aliasSampler != null) {
+                    str += ". MH acceptance rate = "
+                            + MiscUtils.formatDouble(aliasSampler.getAcceptanceRate());
+                }
+                str += "\n" + getSamplerFolderPath();
                 if (iter < BURN_IN) {
                     logln("--- Burning in. " + str + "\n");
                 } else {
@@ -404,11 +451,19 @@ public class LDA extends AbstractSampler {
                 }
             }
             if (report && iter > BURN_IN && iter % LAG == 0) {
-                outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+                outputCheckpoint(new File(reportFolderPath, "iter-" + iter + ".zip"), null, 0);
+            }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
             }
         }
+        shutdownAliasSampler();
         if (report) { // output the final model
+            waitForCheckpoints();
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
         logln("Total runtime iterating: " + ellapsedSeconds + " seconds");
@@ -429,40 +484,101 @@ public class LDA extends AbstractSampler {
      */
     protected long sampleZs(boolean removeFromModel, boolean addToModel,
             boolean removeFromData, boolean addToData) {
+        if (samplingType == SamplingType.MH && removeFromData && addToData
+                && removeFromModel == addToModel) {
+            return sampleZsMH(removeFromModel, addToModel);
+        }
         long sTime = System.currentTimeMillis();
-        double totalBeta = V * hyperparams.get(BETA);
         for (int d = 0; d < D; d++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int n = 0; n < words[d].length; n++) {
+                int curZ = z.get(d, n);
                 if (removeFromData) {
-                    doc_topics[d].decrement(z[d][n]);
+                    doc_topics[d].decrement(curZ);
                 }
                 if (removeFromModel) {
-                    topic_words[z[d][n]].decrement(words[d][n]);
+                    topic_words[curZ].decrement(words[d][n]);
                 }
 
-                double[] probs = new double[K];
+                double[] probs = workspace.getBuffer(K);
                 for (int k = 0; k < K; k++) {
-                    probs[k] = (doc_topics[d].getCount(k) + hyperparams.get(ALPHA))
-                            * (topic_words[k].getCount(words[d][n]) + hyperparams.get(BETA))
+                    probs[k] = (doc_topics[d].getCount(k) + hyperparamValues[ALPHA])
+                            * (topic_words[k].getCount(words[d][n]) + hyperparamValues[BETA])
                             / (topic_words[k].getCountSum() + totalBeta);
                 }
-                int sampledZ = SamplerUtils.scaleSample(probs);
-                if (sampledZ != z[d][n]) {
+                int sampledZ = workspace.scaleSample();
+                if (sampledZ != curZ) {
                     numTokensChanged++;
                 }
-                z[d][n] = sampledZ;
+                z.set(d, n, sampledZ);
 
                 if (addToData) {
-                    doc_topics[d].increment(z[d][n]);
+                    doc_topics[d].increment(sampledZ);
+                }
+                if (addToModel) {
+                    topic_words[sampledZ].increment(words[d][n]);
+                }
+            }
+        }
+        return System.currentTimeMillis() - sTime;
+    }
+
+    /**
+     * Sample the topic assignments for all tokens using Metropolis-Hastings
+     * with alias-table word proposals and document proposals. The number of
+     * accepted moves to a different topic is recorded in numTokensChanged.
+     *
+     * @param removeFromModel
+     * @param addToModel
+     * @return Elapsed time
+     */
+    protected long sampleZsMH(boolean removeFromModel, boolean addToModel) {
+        long sTime = System.currentTimeMillis();
+        if (aliasSampler == null) {
+            aliasSampler = new AliasMHTopicSampler(K, V);
+        }
+        aliasSampler.resetStatistics();
+        aliasSampler.update(topic_words);
+
+        int[] docZ = null; // the document proposal reads the document's assignments
+        for (int d = 0; d < D; d++) {
+            if (removeFromModel && addToModel && isStopRequested()) {
+                break;
+            }
+            docZ = z.getDocAssignments(d, docZ);
+            for (int n = 0; n < words[d].length; n++) {
+                doc_topics[d].decrement(docZ[n]);
+                if (removeFromModel) {
+                    topic_words[docZ[n]].decrement(words[d][n]);
+                }
+
+                int sampledZ = aliasSampler.sample(doc_topics[d], topic_words,
+                        docZ, 0, words[d].length, n, words[d][n], rand);
+                if (sampledZ != docZ[n]) {
+                    numTokensChanged++;
                 }
+                docZ[n] = sampledZ;
+
+                doc_topics[d].increment(sampledZ);
                 if (addToModel) {
-                    topic_words[z[d][n]].increment(words[d][n]);
+                    topic_words[sampledZ].increment(words[d][n]);
                 }
             }
+            z.setDocAssignments(d, docZ);
         }
         return System.currentTimeMillis() - sTime;
     }
 
+    private void shutdownAliasSampler() {
+        if (aliasSampler != null) {
+            aliasSampler.shutdown();
+            aliasSampler = null;
+        }
+    }
+
     /**
      * Sample the topic assignment for each token
      *
@@ -473,50 +589,49 @@ public class LDA extends AbstractSampler {
      * @param add Whether this token should be added to the sampled topic
      */
     protected void sampleZ(int d, int n, boolean remove, boolean add) {
-        double totalBeta = V * hyperparams.get(BETA);
-        doc_topics[d].decrement(z[d][n]);
+        doc_topics[d].decrement(z.get(d, n));
         if (remove) {
-            topic_words[z[d][n]].decrement(words[d][n]);
+            topic_words[z.get(d, n)].decrement(words[d][n]);
         }
 
-        double[] probs = new double[K];
+        double[] probs = workspace.getBuffer(K);
         for (int k = 0; k < K; k++) {
-            probs[k] = (doc_topics[d].getCount(k) + hyperparams.get(ALPHA))
-                    * (topic_words[k].getCount(words[d][n]) + hyperparams.get(BETA))
+            probs[k] = (doc_topics[d].getCount(k) + hyperparamValues[ALPHA])
+                    * (topic_words[k].getCount(words[d][n]) + hyperparamValues[BETA])
                     / (topic_words[k].getCountSum() + totalBeta);
         }
-        int sampledZ = SamplerUtils.scaleSample(probs);
-        if (sampledZ != z[d][n]) {
+        int sampledZ = workspace.scaleSample();
+        if (sampledZ != z.get(d, n)) {
             numTokensChanged++;
         }
-        z[d][n] = sampledZ;
+        z.set(d, n, sampledZ);
 
-        doc_topics[d].increment(z[d][n]);
+        doc_topics[d].increment(z.get(d, n));
         if (add) {
-            topic_words[z[d][n]].increment(words[d][n]);
+            topic_words[z.get(d, n)].increment(words[d][n]);
         }
     }
 
     protected void sampleZ(int d, int ii, int n,
             boolean removeFromData, boolean addToData) {
         if (removeFromData) {
-            doc_topics[d].decrement(z[d][ii]);
+            doc_topics[d].decrement(z.get(d, ii));
         }
 
-        double[] probs = new double[K];
+        double[] probs = workspace.getBuffer(K);
         for (int k = 0; k < K; k++) {
-            probs[k] = (doc_topics[d].getCount(k) + hyperparams.get(ALPHA))
-                    * (topic_words[k].getCount(words[d][n]) + hyperparams.get(BETA))
-                    / (topic_words[k].getCountSum() + V * hyperparams.get(BETA));
+            probs[k] = (doc_topics[d].getCount(k) + hyperparamValues[ALPHA])
+                    * (topic_words[k].getCount(words[d][n]) + hyperparamValues[BETA])
+                    / (topic_words[k].getCountSum() + totalBeta);
         }
-        int sampledZ = SamplerUtils.scaleSample(probs);
-        if (sampledZ != z[d][ii]) {
+        int sampledZ = workspace.scaleSample();
+        if (sampledZ != z.get(d, ii)) {
             numTokensChanged++;
         }
-        z[d][ii] = sampledZ;
+        z.set(d, ii, sampledZ);
 
         if (addToData) {
-            doc_topics[d].increment(z[d][ii]);
+            doc_topics[d].increment(z.get(d, ii));
         }
     }
 
@@ -540,27 +655,55 @@ public class LDA extends AbstractSampler {
 
     @Override
     public double getLogLikelihood(ArrayList<Double> newParams) {
-        if (newParams.size() != this.hyperparams.size()) {
+        return getLogLikelihood(toArray(newParams));
+    }
+
+    @Override
+    protected void prepareSliceSample() {
+        docCountHist = CountHistogram.build(doc_topics, getForkJoinPool());
+        topicCountHist = CountHistogram.build(topic_words, getForkJoinPool());
+    }
+
+    @Override
+    protected void finishSliceSample() {
+        docCountHist = null;
+        topicCountHist = null;
+    }
+
+    @Override
+    public double getLogLikelihood(double[] newParams) {
+        if (newParams.length != this.hyperparams.size()) {
             throw new RuntimeException("Number of hyperparameters mismatched");
         }
+        if (docCountHist != null) {
+            return docCountHist.getLogLikelihood(newParams[ALPHA])
+                    + topicCountHist.getLogLikelihood(newParams[BETA]);
+        }
         double llh = 0;
         for (int d = 0; d < D; d++) {
-            llh += doc_topics[d].getLogLikelihood(newParams.get(ALPHA) * K, 1.0 / K);
+            llh += doc_topics[d].getLogLikelihood(newParams[ALPHA] * K, 1.0 / K);
         }
         for (int k = 0; k < K; k++) {
-            llh += topic_words[k].getLogLikelihood(newParams.get(BETA) * V, 1.0 / V);
+            llh += topic_words[k].getLogLikelihood(newParams[BETA] * V, 1.0 / V);
         }
         return llh;
     }
 
+    @Override
+    protected void updateHyperparameterCache() {
+        this.totalAlpha = hyperparamValues[ALPHA] * K;
+        this.totalBeta = hyperparamValues[BETA] * V;
+    }
+
     @Override
     public void updateHyperparameters(ArrayList<Double> newParams) {
         this.hyperparams = newParams;
+        syncHyperparameters();
         for (int d = 0; d < D; d++) {
-            this.doc_topics[d].setConcentration(this.hyperparams.get(ALPHA) * K);
+            this.doc_topics[d].setConcentration(this.totalAlpha);
         }
         for (int k = 0; k < K; k++) {
-            this.topic_words[k].setConcentration(this.hyperparams.get(BETA) * V);
+            this.topic_words[k].setConcentration(this.totalBeta);
         }
     }
 
@@ -742,12 +885,26 @@ public class LDA extends AbstractSampler {
         }
     }
 
+    @Override
+    protected AbstractSampler getCheckpointSnapshot() {
+        LDA snapshot = (LDA) cloneForCheckpoint();
+        snapshot.topic_words = DirMult.copy(topic_words);
+        snapshot.doc_topics = DirMult.copy(doc_topics);
+        snapshot.z = z.copy();
+        return snapshot;
+    }
+
     @Override
     public void outputState(String filepath) {
         if (verbose) {
             logln("--- Outputing current state to " + filepath);
         }
         try {
+            if (stateFormat == StateFormat.BINARY) {
+                outputBinaryState(filepath, topic_words, doc_topics, z);
+                return;
+            }
+
             StringBuilder modelStr = new StringBuilder();
             for (int k = 0; k < K; k++) {
                 modelStr.append(k).append("\n");
@@ -759,7 +916,7 @@ public class LDA extends AbstractSampler {
                 assignStr.append(d).append("\n");
                 assignStr.append(DirMult.output(doc_topics[d])).append("\n");
                 for (int n = 0; n < words[d].length; n++) {
-                    assignStr.append(z[d][n]).append("\t");
+                    assignStr.append(z.get(d, n)).append("\t");
                 }
                 assignStr.append("\n");
             }
@@ -800,15 +957,20 @@ public class LDA extends AbstractSampler {
             this.initializeModelStructure(null);
 
             String filename = IOUtils.removeExtension(IOUtils.getFilename(zipFilepath));
-            BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + ModelFileExt);
-            for (int k = 0; k < K; k++) {
-                int topicIdx = Integer.parseInt(reader.readLine());
-                if (topicIdx != k) {
-                    throw new RuntimeException("Indices mismatch when loading model");
+            if (isBinaryState(zipFilepath, BinaryModelFileExt)) {
+                inputBinaryModel(zipFilepath, topic_words);
+            } else {
+                BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + ModelFileExt);
+                for (int k = 0; k < K; k++) {
+                    int topicIdx = Integer.parseInt(reader.readLine());
+                    if (topicIdx != k) {
+                        throw new RuntimeException("Indices mismatch when loading model");
+                    }
+                    topic_words[k] = DirMult.input(reader.readLine());
                 }
-                topic_words[k] = DirMult.input(reader.readLine());
+                reader.close();
             }
-            reader.close();
+            attachDenseCounts(topic_words);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Exception while inputing model from "
@@ -826,20 +988,24 @@ public class LDA extends AbstractSampler {
             this.initializeDataStructure(null);
 
             String filename = IOUtils.removeExtension(IOUtils.getFilename(zipFilepath));
-            BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + AssignmentFileExt);
-            for (int d = 0; d < D; d++) {
-                int docIdx = Integer.parseInt(reader.readLine());
-                if (docIdx != d) {
-                    throw new RuntimeException("Indices mismatch when loading assignments");
-                }
-                doc_topics[d] = DirMult.input(reader.readLine());
+            if (isBinaryState(zipFilepath, BinaryAssignmentFileExt)) {
+                inputBinaryAssignments(zipFilepath, doc_topics, z);
+            } else {
+                BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + AssignmentFileExt);
+                for (int d = 0; d < D; d++) {
+                    int docIdx = Integer.parseInt(reader.readLine());
+                    if (docIdx != d) {
+                        throw new RuntimeException("Indices mismatch when loading assignments");
+                    }
+                    doc_topics[d] = DirMult.input(reader.readLine());
 
-                String[] sline = reader.readLine().split("\t");
-                for (int n = 0; n < words[d].length; n++) {
-                    z[d][n] = Integer.parseInt(sline[n]);
+                    String[] sline = reader.readLine().split("\t");
+                    for (int n = 0; n < words[d].length; n++) {
+                        z.set(d, n, Integer.parseInt(sline[n]));
+                    }
                 }
+                reader.close();
             }
-            reader.close();
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Exception while inputing assignments from "
@@ -933,14 +1099,14 @@ public class LDA extends AbstractSampler {
             for (int d = 0; d < D; d++) {
                 totalTokenCount += words[d].length;
                 for (int n = 0; n < words[d].length; n++) {
-                    empWordCounts[z[d][n]].increment(words[d][n]);
+                    empWordCounts[z.get(d, n)].increment(words[d][n]);
                 }
             }
         } else {
             for (int d : docIndices) {
                 totalTokenCount += words[d].length;
                 for (int n = 0; n < words[d].length; n++) {
-                    empWordCounts[z[d][n]].increment(words[d][n]);
+                    empWordCounts[z.get(d, n)].increment(words[d][n]);
                 }
             }
         }
@@ -1005,13 +1171,13 @@ public class LDA extends AbstractSampler {
         if (docIndices == null) {
             for (int d = 0; d < D; d++) {
                 for (int n = 0; n < words[d].length; n++) {
-                    empWordCounts[z[d][n]].increment(words[d][n]);
+                    empWordCounts[z.get(d, n)].increment(words[d][n]);
                 }
             }
         } else {
             for (int d : docIndices) {
                 for (int n = 0; n < words[d].length; n++) {
-                    empWordCounts[z[d][n]].increment(words[d][n]);
+                    empWordCounts[z.get(d, n)].increment(words[d][n]);
                 }
             }
         }
@@ -1073,17 +1239,16 @@ public class LDA extends AbstractSampler {
 
         // initialize structure
         doc_topics = new DirMult[D];
-        z = new int[D][];
+        int[] trainLengths = new int[D];
         for (int d = 0; d < D; d++) {
-            doc_topics[d] = new DirMult(K, hyperparams.get(ALPHA) * K, 1.0 / K);
-            z[d] = new int[trainIndices[d].size()];
+            doc_topics[d] = new DirMult(K, totalAlpha, 1.0 / K);
+            trainLengths[d] = trainIndices[d].size();
         }
+        z = AssignmentStore.create(trainLengths, 0, K - 1);
 
         if (verbose) {
             logln("--- Sampling on test data ...");
         }
-
-        double totalBeta = hyperparams.get(BETA) * V;
         ArrayList<double[][]> tokenProbsList = new ArrayList<double[][]>();
         for (iter = 0; iter < testMaxIter; iter++) {
             if (iter % testSampleLag == 0) {
@@ -1110,15 +1275,15 @@ public class LDA extends AbstractSampler {
                     tokenProbs[d] = new double[testIndices[d].size()];
                     double[] theta = new double[K];
                     for (int kk = 0; kk < K; kk++) {
-                        theta[kk] = (doc_topics[d].getCount(kk) + hyperparams.get(ALPHA))
-                                / (doc_topics[d].getCountSum() + hyperparams.get(ALPHA) * K);
+                        theta[kk] = (doc_topics[d].getCount(kk) + hyperparamValues[ALPHA])
+                                / (doc_topics[d].getCountSum() + totalAlpha);
                     }
 
                     for (int i = 0; i < testIndices[d].size(); i++) {
                         int n = testIndices[d].get(i);
                         double val = 0.0;
                         for (int k = 0; k < K; k++) {
-                            double phi = (topic_words[k].getCount(words[d][n]) + hyperparams.get(BETA))
+                            double phi = (topic_words[k].getCount(words[d][n]) + hyperparamValues[BETA])
                                     / (topic_words[k].getCountSum() + totalBeta);
                             val += theta[k] * phi;
                         }
@@ -1167,11 +1332,12 @@ public class LDA extends AbstractSampler {
         }
 
         doc_topics = new DirMult[D];
-        z = new int[D][];
+        int[] trainLengths = new int[D];
         for (int d = 0; d < D; d++) {
-            doc_topics[d] = new DirMult(K, hyperparams.get(ALPHA) * K, 1.0 / K);
-            z[d] = new int[trainIndices[d].size()];
+            doc_topics[d] = new DirMult(K, totalAlpha, 1.0 / K);
+            trainLengths[d] = trainIndices[d].size();
         }
+        z = AssignmentStore.create(trainLengths, 0, K - 1);
 
         ArrayList<Double> perplexities = new ArrayList<Double>();
         if (verbose) {
@@ -1209,7 +1375,6 @@ public class LDA extends AbstractSampler {
     }
 
     private double computePerplexity(ArrayList<Integer>[] testIndices, String outFile) {
-        double totalBeta = hyperparams.get(BETA) * V;
         double totalLogprob = 0.0;
         int numTestTokens = 0;
         for (int d = 0; d < D; d++) {
@@ -1220,15 +1385,15 @@ public class LDA extends AbstractSampler {
             for (int d = 0; d < D; d++) {
                 double[] docTheta = new double[K];
                 for (int kk = 0; kk < K; kk++) {
-                    docTheta[kk] = (doc_topics[d].getCount(kk) + hyperparams.get(ALPHA))
-                            / (doc_topics[d].getCountSum() + hyperparams.get(ALPHA) * K);
+                    docTheta[kk] = (doc_topics[d].getCount(kk) + hyperparamValues[ALPHA])
+                            / (doc_topics[d].getCountSum() + totalAlpha);
                 }
 
                 double docLogProb = 0.0;
                 for (int n : testIndices[d]) {
                     double val = 0.0;
                     for (int k = 0; k < K; k++) {
-                        double phi = (topic_words[k].getCount(words[d][n]) + hyperparams.get(BETA))
+                        double phi = (topic_words[k].getCount(words[d][n]) + hyperparamValues[BETA])
                                 / (topic_words[k].getCountSum() + totalBeta);
                         val += docTheta[k] * phi;
                     }
@@ -1270,12 +1435,9 @@ public class LDA extends AbstractSampler {
 
         doc_topics = new DirMult[D];
         for (int d = 0; d < D; d++) {
-            doc_topics[d] = new DirMult(K, hyperparams.get(ALPHA) * K, 1.0 / K);
-        }
-        z = new int[D][];
-        for (int d = 0; d < D; d++) {
-            z[d] = new int[words[d].length];
+            doc_topics[d] = new DirMult(K, totalAlpha, 1.0 / K);
         }
+        z = createAssignmentStore(words);
 
         ArrayList<Double> perplexities = new ArrayList<Double>();
         if (verbose) {
@@ -1295,7 +1457,6 @@ public class LDA extends AbstractSampler {
             }
 
             // compute perplexity
-            double totalBeta = hyperparams.get(BETA) * V;
             if (iter >= this.testBurnIn && iter % this.testSampleLag == 0) {
                 double totalLogprob = 0.0;
                 for (int d = 0; d < D; d++) {
@@ -1303,9 +1464,9 @@ public class LDA extends AbstractSampler {
                     for (int n = 0; n < words[d].length; n++) {
                         double val = 0.0;
                         for (int k = 0; k < K; k++) {
-                            double theta = (doc_topics[d].getCount(k) + hyperparams.get(ALPHA))
-                                    / (doc_topics[d].getCountSum() + hyperparams.get(ALPHA) * K);
-                            double phi = (topic_words[k].getCount(words[d][n]) + hyperparams.get(BETA))
+                            double theta = (doc_topics[d].getCount(k) + hyperparamValues[ALPHA])
+                                    / (doc_topics[d].getCountSum() + totalAlpha);
+                            double phi = (topic_words[k].getCount(words[d][n]) + hyperparamValues[BETA])
                                     / (topic_words[k].getCountSum() + totalBeta);
                             val += theta * phi;
                         }
@@ -1359,6 +1520,11 @@ public class LDA extends AbstractSampler {
         addOption("maxIter", "Maximum number of iterations");
         addOption("sampleLag", "Sample lag");
         addOption("report", "Report interval");
+        addOption("state-format", "(Optional) Format of output state files: "
+                + "text (default) or binary");
+        addOption("delta-checkpoints", "(Optional) Number of binary report "
+                + "states storing only changes from the previous one, between "
+                + "two full states. Default: 0");
 
         // model parameters
         addOption("K", "Number of topics");
@@ -1372,6 +1538,10 @@ public class LDA extends AbstractSampler {
 
         options.addOption("paramOpt", false, "Whether hyperparameter "
                 + "optimization using slice sampling is performed");
+        options.addOption("mh", false, "Whether topic assignments are sampled "
+                + "using alias-table Metropolis-Hastings");
+        options.addOption("dense-counts", false, "Whether topic-word counts are "
+                + "stored in a dense matrix when it fits in memory");
         options.addOption("v", false, "verbose");
         options.addOption("d", false, "debug");
         options.addOption("help", false, "Help");
@@ -1422,6 +1592,12 @@ public class LDA extends AbstractSampler {
         sampler.setDebug(debug);
         sampler.setWordVocab(dataset.getWordVocab());
         sampler.setPrefix("prior_");
+        if (cmd.hasOption("mh")) {
+            sampler.setSamplingType(SamplingType.MH);
+        }
+        sampler.setDenseCounts(cmd.hasOption("dense-counts"));
+        sampler.setStateFormat(cmd);
+        sampler.setMaxDeltaCheckpoints(cmd);
 
         sampler.configure(outputFolder, dataset.getWords(),
                 V, K, alpha, beta, initState, paramOpt,
@@ -1461,7 +1637,7 @@ public class LDA extends AbstractSampler {
         String[] filenames = reportFolder.list();
         try {
             IOUtils.createFolder(iterPerplexityFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             for (String filename : filenames) {
                 if (!filename.endsWith("zip")) {
                     continue;
@@ -1474,12 +1650,10 @@ public class LDA extends AbstractSampler {
                         newWords, trainIndices, testIndices,
                         stateFile.getAbsolutePath(),
                         partialResultFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
+                tasks.add(runner);
             }
 
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
+            runTasks(tasks);
 
             // summarize multiple perplexities
             String[] ppxFiles = iterPerplexityFolder.list();
@@ -1512,7 +1686,7 @@ public class LDA extends AbstractSampler {
         String[] filenames = reportFolder.list();
         try {
             IOUtils.createFolder(iterPerplexityFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             for (String filename : filenames) {
                 if (!filename.contains("zip")) {
                     continue;
@@ -1526,12 +1700,10 @@ public class LDA extends AbstractSampler {
                         newWords, trainIndices, testIndices,
                         stateFile.getAbsolutePath(),
                         partialResultFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
+                tasks.add(runner);
             }
 
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
+            runTasks(tasks);
 
             // summarize multiple perplexities
             String[] ppxFiles = iterPerplexityFolder.list();
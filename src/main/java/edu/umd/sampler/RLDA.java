@@ -1,7 +1,7 @@
 package edu.umd.sampler;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import edu.umd.sampling.util.AssignmentStore;
 import edu.umd.util.MiscUtils;
 
 /**
@@ -77,18 +77,23 @@ public class RLDA extends LDA {
         }
     }
 
+    @Override
+    protected AssignmentStore createAssignmentStore(int[][] docWords) {
+        return AssignmentStore.create(AssignmentStore.getDocLengths(docWords), INVALID, K - 1);
+    }
+
     protected void initializeAssignments(int[][] seededZs) {
         if (verbose) {
             logln("--- Initializing assignments with seeded assignments ...");
         }
 
         for (int d = 0; d < D; d++) {
-            Arrays.fill(z[d], INVALID);
+            z.fill(d, INVALID);
             for (int n = 0; n < words[d].length; n++) {
                 if (valid[d][n]) {
-                    z[d][n] = seededZs[d][n];
-                    doc_topics[d].increment(z[d][n]);
-                    topic_words[z[d][n]].increment(words[d][n]);
+                    z.set(d, n, seededZs[d][n]);
+                    doc_topics[d].increment(z.get(d, n));
+                    topic_words[z.get(d, n)].increment(words[d][n]);
                 }
             }
         }
@@ -101,12 +106,12 @@ public class RLDA extends LDA {
         }
 
         for (int d = 0; d < D; d++) {
-            Arrays.fill(z[d], INVALID);
+            z.fill(d, INVALID);
             for (int n = 0; n < words[d].length; n++) {
                 if (valid[d][n]) {
-                    z[d][n] = rand.nextInt(K);
-                    doc_topics[d].increment(z[d][n]);
-                    topic_words[z[d][n]].increment(words[d][n]);
+                    z.set(d, n, rand.nextInt(K));
+                    doc_topics[d].increment(z.get(d, n));
+                    topic_words[z.get(d, n)].increment(words[d][n]);
                 }
             }
         }
@@ -124,6 +129,9 @@ public class RLDA extends LDA {
             numTokensChanged = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int n = 0; n < words[d].length; n++) {
                     if (valid[d][n]) {
                         sampleZ(d, n, REMOVE, ADD);
@@ -150,6 +158,11 @@ public class RLDA extends LDA {
                     logln("--- Sampling. " + str);
                 }
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
     }
 
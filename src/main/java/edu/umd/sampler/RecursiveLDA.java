@@ -215,6 +215,7 @@ public class RecursiveLDA extends AbstractSampler {
         rlda.setDebug(debug);
         rlda.setLog(false);
         rlda.setReport(false);
+        rlda.setStopSignal(stopSignal);
         rlda.configure(null, words, V, Ks[level],
                 alphas[level], betas[level],
                 initState,
@@ -246,7 +247,7 @@ public class RecursiveLDA extends AbstractSampler {
             for (int d = 0; d < D; d++) {
                 for (int n = 0; n < words[d].length; n++) {
                     if (rlda.getValid()[d][n]) {
-                        zs[level][d][n] = rlda.z[d][n];
+                        zs[level][d][n] = rlda.z.get(d, n);
                     }
                 }
             }
@@ -289,10 +290,10 @@ public class RecursiveLDA extends AbstractSampler {
                     if (!rlda.getValid()[d][n]) {
                         continue;
                     }
-                    if (level == 1 && hasBackground() && rlda.z[d][n] == BACKGROUND) {
+                    if (level == 1 && hasBackground() && rlda.z.get(d, n) == BACKGROUND) {
                         continue;
                     }
-                    if (rlda.z[d][n] == k) {
+                    if (rlda.z.get(d, n) == k) {
                         subValid[d][n] = true;
                     }
                 }
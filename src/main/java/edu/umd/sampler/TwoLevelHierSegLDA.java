@@ -268,6 +268,9 @@ public class TwoLevelHierSegLDA extends AbstractSampler {
             numTokensChanged = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int n = 0; n < words[d].length; n++) {
                     int firstTopic = z[d][n];
 
@@ -343,10 +346,16 @@ public class TwoLevelHierSegLDA extends AbstractSampler {
             if (report && iter >= BURN_IN && iter % LAG == 0) {
                 outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) { // output the final model
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -413,6 +413,9 @@ public class DoubleSLDA extends AbstractSampler {
 
             // sample topic assignments
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int n = 0; n < words[d].length; n++) {
                     sampleZ(d, n, REMOVE, ADD, REMOVE, ADD, OBSERVED);
                 }
@@ -466,10 +469,16 @@ public class DoubleSLDA extends AbstractSampler {
             if (report && iter >= BURN_IN && iter % LAG == 0) {
                 outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) { // output the final model
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -356,6 +356,9 @@ public class RCRPSampler extends AbstractSampler {
             numTokenAssignmentsChange = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int n = 0; n < words[d].length; n++) {
                     this.sampleTableForToken(d, n, REMOVE);
                 }
@@ -397,6 +400,10 @@ public class RCRPSampler extends AbstractSampler {
                 this.validate("Iteration " + iter);
             }
             System.out.println();
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
     }
 
@@ -509,6 +509,9 @@ public class SGHLDASampler extends AbstractSampler {
             numConverged = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int t = 0; t < words[d].length; t++) {
                     for (int n = 0; n < words[d][t].length; n++) {
                         this.sampleTableLevelForToken(d, t, n, REMOVE, OBSERVED, EXTEND);
@@ -568,6 +571,10 @@ public class SGHLDASampler extends AbstractSampler {
                     System.exit(1);
                 }
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
 
         if (verbose) {
@@ -577,6 +584,7 @@ public class SGHLDASampler extends AbstractSampler {
 
         if (report) {
             outputState(this.folder + this.getSamplerFolder() + "final.zip");
+            outputStopReason(new File(this.folder + this.getSamplerFolder() + ReportFolder));
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -333,6 +333,9 @@ public class SHLDASampler extends AbstractSampler {
             numChangeLevel = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 samplePathAssignments(d, REMOVE, ADD, OBSERVED);
 
                 for (int n = 0; n < words[d].length; n++) {
@@ -391,6 +394,10 @@ public class SHLDASampler extends AbstractSampler {
                     }
                 }
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
     }
 
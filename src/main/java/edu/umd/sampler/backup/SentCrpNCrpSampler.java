@@ -577,6 +577,9 @@ public class SentCrpNCrpSampler extends AbstractSampler {
             numConverged = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int s = 0; s < words[d].length; s++) {
                     sampleTableForSentence(d, s, REMOVE, ADD, OBSERVED, EXTEND);
 
@@ -638,6 +641,10 @@ public class SentCrpNCrpSampler extends AbstractSampler {
                     System.exit(1);
                 }
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
 
         if (verbose) {
@@ -647,6 +654,7 @@ public class SentCrpNCrpSampler extends AbstractSampler {
 
         if (report) {
             outputState(this.folder + this.getSamplerFolder() + "final.zip");
+            outputStopReason(new File(this.folder + this.getSamplerFolder() + ReportFolder));
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
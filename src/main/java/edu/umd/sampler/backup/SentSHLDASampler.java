@@ -389,6 +389,9 @@ public class SentSHLDASampler extends AbstractSampler {
             numChangeLevel = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int s = 0; s < words[d].length; s++) {
                     samplePathAssignments(d, s, REMOVE, ADD, OBSERVED, EXTEND);
 
@@ -452,10 +455,15 @@ public class SentSHLDASampler extends AbstractSampler {
                     System.exit(1);
                 }
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) {
             outputState(this.folder + this.getSamplerFolder() + "final.zip");
+            outputStopReason(new File(this.folder + this.getSamplerFolder() + ReportFolder));
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
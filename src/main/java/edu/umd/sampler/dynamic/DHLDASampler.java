@@ -737,6 +737,9 @@ public class DHLDASampler extends AbstractSampler {
 
             for (int t = 0; t < T; t++) {
                 for (int d = 0; d < words[t].length; d++) {
+                    if (isStopRequested()) {
+                        break;
+                    }
                     samplePathAssignment(t, d, OBSERVED, REMOVE, AHEAD);
 
                     for (int n = 0; n < words[t][d].length; n++) {
@@ -773,6 +776,10 @@ public class DHLDASampler extends AbstractSampler {
                     }
                 }
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
     }
 
@@ -2167,7 +2174,7 @@ public class DHLDASampler extends AbstractSampler {
         for (int t = 0; t < T; t++) {
             for (int d = 0; d < D; d++) {
                 for (int n = 0; n < N; n++) {
-                    observations[t][d][n] = rand.nextInt(V);
+                    observations[t][d][n] = SamplerUtils.rand.nextInt(V);
                 }
             }
         }
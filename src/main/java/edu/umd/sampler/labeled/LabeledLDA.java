@@ -11,6 +11,10 @@ import java.util.ArrayList;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.Options;
 import edu.umd.sampling.likelihood.DirMult;
+import edu.umd.sampling.util.AssignmentStore;
+import edu.umd.sampling.util.CountHistogram;
+import edu.umd.sampling.util.DirichletOptimizer;
+import edu.umd.sampling.util.HogwildTopicSampler;
 import edu.umd.sampling.util.SparseCount;
 import edu.umd.util.CLIUtils;
 import edu.umd.util.IOUtils;
@@ -42,9 +46,14 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
     protected int D;
     private DirMult[] docLabels;
     private DirMult[] labelWords;
-    private int[][] z;
+    // count summaries shared by all slice sampling proposals
+    private CountHistogram docCountHist;
+    private CountHistogram labelCountHist;
+    private AssignmentStore z;
     private ArrayList<String> labelVocab;
     private int numTokensChange;
+    private int numThreads = 1;
+    private HogwildTopicSampler hogwildSampler;
 
     public LabeledLDA() {
         this.basename = "L-LDA";
@@ -58,16 +67,33 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
         this.labelVocab = labelVocab;
     }
 
+    /**
+     * Return a copy of the label assignments.
+     */
     public int[][] getZ() {
-        return this.z;
+        return this.z.toArrays();
+    }
+
+    /**
+     * Set the number of threads used to sample label assignments. With more
+     * than one thread, documents are partitioned across threads which share
+     * one lock-free label-word count matrix.
+     *
+     * @param numThreads Number of threads
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new RuntimeException("Invalid number of threads " + numThreads);
+        }
+        this.numThreads = numThreads;
     }
 
     public void configure(LabeledLDA sampler) {
         this.configure(sampler.folder,
                 sampler.V,
                 sampler.L,
-                sampler.hyperparams.get(ALPHA),
-                sampler.hyperparams.get(BETA),
+                sampler.hyperparamValues[ALPHA],
+                sampler.hyperparamValues[BETA],
                 sampler.initState,
                 sampler.paramOptimized,
                 sampler.BURN_IN,
@@ -94,6 +120,7 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
         this.hyperparams = new ArrayList<Double>();
         this.hyperparams.add(alpha);
         this.hyperparams.add(beta);
+        syncHyperparameters();
 
         this.sampledParams = new ArrayList<ArrayList<Double>>();
         this.sampledParams.add(cloneHyperparameters());
@@ -130,8 +157,8 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
                 .append("_B-").append(BURN_IN)
                 .append("_M-").append(MAX_ITER)
                 .append("_L-").append(LAG)
-                .append("_a-").append(MiscUtils.formatDouble(hyperparams.get(ALPHA)))
-                .append("_b-").append(MiscUtils.formatDouble(hyperparams.get(BETA)));
+                .append("_a-").append(MiscUtils.formatDouble(hyperparamValues[ALPHA]))
+                .append("_b-").append(MiscUtils.formatDouble(hyperparamValues[BETA]));
         str.append("_opt-").append(this.paramOptimized);
         this.name = str.toString();
     }
@@ -226,8 +253,10 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
 
         labelWords = new DirMult[L];
         for (int ll = 0; ll < L; ll++) {
-            labelWords[ll] = new DirMult(V, hyperparams.get(BETA) * V, 1.0 / V);
+            labelWords[ll] = new DirMult(V, hyperparamValues[BETA] * V, 1.0 / V);
         }
+        attachDenseCounts(labelWords);
+        trackLogLikelihoods(labelWords);
     }
 
     private void initializeDataStructure() {
@@ -237,13 +266,11 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
 
         docLabels = new DirMult[D];
         for (int d = 0; d < D; d++) {
-            docLabels[d] = new DirMult(L, hyperparams.get(ALPHA) * L, 1.0 / L);
+            docLabels[d] = new DirMult(L, hyperparamValues[ALPHA] * L, 1.0 / L);
         }
+        trackLogLikelihoods(docLabels);
 
-        z = new int[D][];
-        for (int d = 0; d < D; d++) {
-            z[d] = new int[words[d].length];
-        }
+        z = AssignmentStore.create(words, L, numThreads > 1);
     }
 
     private void initializeAssignments() {
@@ -255,12 +282,12 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
             for (int n = 0; n < words[d].length; n++) {
                 int[] dls = labels[d];
                 if (dls.length > 0) {
-                    z[d][n] = dls[rand.nextInt(dls.length)];
+                    z.set(d, n, dls[rand.nextInt(dls.length)]);
                 } else {
-                    z[d][n] = rand.nextInt(L);
+                    z.set(d, n, rand.nextInt(L));
                 }
-                docLabels[d].increment(z[d][n]);
-                labelWords[z[d][n]].increment(words[d][n]);
+                docLabels[d].increment(z.get(d, n));
+                labelWords[z.get(d, n)].increment(words[d][n]);
             }
         }
     }
@@ -320,14 +347,26 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
 
             // store model
             if (report && iter > BURN_IN && iter % LAG == 0) {
-                outputState(new File(reportFolderPath, getIteratedStateFile()), true, false);
-                outputTopicTopWords(new File(reportFolderPath, getIteratedTopicFile()), 20);
+                outputCheckpoint(new File(reportFolderPath, getIteratedStateFile()),
+                        new File(reportFolderPath, getIteratedTopicFile()), 20);
             }
+
+            if (isConverged((double) numTokensChange / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
+        }
+
+        if (hogwildSampler != null) {
+            hogwildSampler.shutdown();
+            hogwildSampler = null;
         }
 
         if (report) {
+            waitForCheckpoints();
             outputState(new File(reportFolderPath, getIteratedStateFile()), true, false);
             outputTopicTopWords(new File(reportFolderPath, getIteratedTopicFile()), 20);
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -351,46 +390,62 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
      */
     public void sampleZs(boolean removeFromModel, boolean addToModel,
             boolean removeFromData, boolean addToData) {
-        double totalBeta = V * hyperparams.get(BETA);
+        if (numThreads > 1 && D > 1
+                && removeFromModel && addToModel && removeFromData && addToData) {
+            if (hogwildSampler == null) {
+                hogwildSampler = new HogwildTopicSampler(L, V, numThreads);
+                hogwildSampler.setStopSignal(stopSignal);
+                hogwildSampler.setDebug(debug);
+            }
+            numTokensChange += hogwildSampler.sweep(words, z, docLabels, labels,
+                    labelWords, rand);
+            return;
+        }
+        double totalBeta = V * hyperparamValues[BETA];
         for (int d = 0; d < D; d++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int n = 0; n < words[d].length; n++) {
+                int curZ = z.get(d, n);
                 if (removeFromModel) {
-                    labelWords[z[d][n]].decrement(words[d][n]);
+                    labelWords[curZ].decrement(words[d][n]);
                 }
                 if (removeFromData) {
-                    docLabels[d].decrement(z[d][n]);
+                    docLabels[d].decrement(curZ);
                 }
 
                 int sampledZ;
                 if (labels != null && labels[d].length > 0) {
-                    double[] probs = new double[labels[d].length];
+                    double[] probs = workspace.getBuffer(labels[d].length);
                     for (int ii = 0; ii < labels[d].length; ii++) {
                         int k = labels[d][ii];
-                        probs[ii] = (docLabels[d].getCount(k) + hyperparams.get(ALPHA))
-                                * (labelWords[k].getCount(words[d][n]) + hyperparams.get(BETA))
+                        probs[ii] = (docLabels[d].getCount(k) + hyperparamValues[ALPHA])
+                                * (labelWords[k].getCount(words[d][n]) + hyperparamValues[BETA])
                                 / (labelWords[k].getCountSum() + totalBeta);
                     }
-                    sampledZ = labels[d][SamplerUtils.scaleSample(probs)];
+                    sampledZ = labels[d][workspace.scaleSample()];
                 } else { // for documents without labels and for test documents
-                    double[] probs = new double[L];
+                    double[] probs = workspace.getBuffer(L);
                     for (int ll = 0; ll < L; ll++) {
-                        probs[ll] = (docLabels[d].getCount(ll) + hyperparams.get(ALPHA))
-                                * (labelWords[ll].getCount(words[d][n]) + hyperparams.get(BETA))
+                        probs[ll] = (docLabels[d].getCount(ll) + hyperparamValues[ALPHA])
+                                * (labelWords[ll].getCount(words[d][n]) + hyperparamValues[BETA])
                                 / (labelWords[ll].getCountSum() + totalBeta);
                     }
-                    sampledZ = SamplerUtils.scaleSample(probs);
+                    sampledZ = workspace.scaleSample();
                 }
 
-                if (sampledZ != z[d][n]) {
+                if (sampledZ != curZ) {
                     numTokensChange++;
                 }
-                z[d][n] = sampledZ;
+                z.set(d, n, sampledZ);
 
                 if (addToModel) {
-                    labelWords[z[d][n]].increment(words[d][n]);
+                    labelWords[sampledZ].increment(words[d][n]);
                 }
                 if (addToData) {
-                    docLabels[d].increment(z[d][n]);
+                    docLabels[d].increment(sampledZ);
                 }
             }
         }
@@ -398,7 +453,7 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
 
     public double[] predictNewDocument(int[] newDoc) throws Exception {
         // initialize assignments
-        DirMult docTopic = new DirMult(L, hyperparams.get(ALPHA) * L, 1.0 / L);
+        DirMult docTopic = new DirMult(L, hyperparamValues[ALPHA] * L, 1.0 / L);
         int[] newZ = new int[newDoc.length];
         for (int n = 0; n < newZ.length; n++) {
             newZ[n] = rand.nextInt(L);
@@ -447,15 +502,50 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
 
     @Override
     public double getLogLikelihood(ArrayList<Double> newParams) {
-        if (newParams.size() != this.hyperparams.size()) {
+        return getLogLikelihood(toArray(newParams));
+    }
+
+    /**
+     * Optimize the symmetric alpha and beta by fixed-point iterations on
+     * count histograms.
+     */
+    @Override
+    protected void fixedPointOptimize() {
+        ArrayList<Double> newParams = cloneHyperparameters();
+        newParams.set(ALPHA, DirichletOptimizer.optimizeSymmetric(hyperparamValues[ALPHA],
+                CountHistogram.build(docLabels, getForkJoinPool())));
+        newParams.set(BETA, DirichletOptimizer.optimizeSymmetric(hyperparamValues[BETA],
+                CountHistogram.build(labelWords, getForkJoinPool())));
+        updateHyperparameters(newParams);
+    }
+
+    @Override
+    protected void prepareSliceSample() {
+        docCountHist = CountHistogram.build(docLabels, getForkJoinPool());
+        labelCountHist = CountHistogram.build(labelWords, getForkJoinPool());
+    }
+
+    @Override
+    protected void finishSliceSample() {
+        docCountHist = null;
+        labelCountHist = null;
+    }
+
+    @Override
+    public double getLogLikelihood(double[] newParams) {
+        if (newParams.length != this.hyperparams.size()) {
             throw new RuntimeException("Number of hyperparameters mismatched");
         }
+        if (docCountHist != null) {
+            return docCountHist.getLogLikelihood(newParams[ALPHA])
+                    + labelCountHist.getLogLikelihood(newParams[BETA]);
+        }
         double llh = 0;
         for (int d = 0; d < D; d++) {
-            llh += docLabels[d].getLogLikelihood(newParams.get(ALPHA) * L, 1.0 / L);
+            llh += docLabels[d].getLogLikelihood(newParams[ALPHA] * L, 1.0 / L);
         }
         for (int l = 0; l < L; l++) {
-            llh += labelWords[l].getLogLikelihood(newParams.get(BETA) * V, 1.0 / V);
+            llh += labelWords[l].getLogLikelihood(newParams[BETA] * V, 1.0 / V);
         }
         return llh;
     }
@@ -463,11 +553,12 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
     @Override
     public void updateHyperparameters(ArrayList<Double> newParams) {
         this.hyperparams = newParams;
+        syncHyperparameters();
         for (int d = 0; d < D; d++) {
-            this.docLabels[d].setConcentration(this.hyperparams.get(ALPHA) * L);
+            this.docLabels[d].setConcentration(this.hyperparamValues[ALPHA] * L);
         }
         for (int l = 0; l < L; l++) {
-            this.labelWords[l].setConcentration(this.hyperparams.get(BETA) * V);
+            this.labelWords[l].setConcentration(this.hyperparamValues[BETA] * V);
         }
     }
 
@@ -498,6 +589,25 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
         }
     }
 
+    /**
+     * Snapshot the model only, as report states do not include the
+     * assignments.
+     */
+    @Override
+    protected AbstractSampler getCheckpointSnapshot() {
+        LabeledLDA snapshot = (LabeledLDA) cloneForCheckpoint();
+        snapshot.labelWords = DirMult.copy(labelWords);
+        snapshot.docLabels = null;
+        snapshot.z = null;
+        return snapshot;
+    }
+
+    @Override
+    protected void writeCheckpoint(File stateFile, File topWordFile, int numTopWords) {
+        outputState(stateFile, true, false);
+        outputTopicTopWords(topWordFile, numTopWords);
+    }
+
     /**
      * Output current state including the learned model and the current
      * assignments.
@@ -535,6 +645,12 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
         }
 
         try {
+            if (stateFormat == StateFormat.BINARY) {
+                outputBinaryState(filepath, outputModel ? labelWords : null,
+                        outputData ? docLabels : null, z);
+                return;
+            }
+
             // model
             String modelStr = null;
             if (outputModel) {
@@ -555,7 +671,7 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
                     assignStrBuilder.append(DirMult.output(docLabels[d])).append("\n");
 
                     for (int n = 0; n < words[d].length; n++) {
-                        assignStrBuilder.append(z[d][n]).append("\t");
+                        assignStrBuilder.append(z.get(d, n)).append("\t");
                     }
                     assignStrBuilder.append("\n");
                 }
@@ -627,15 +743,20 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
             this.initializeModelStructure();
 
             String filename = IOUtils.removeExtension(IOUtils.getFilename(zipFilepath));
-            BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + ModelFileExt);
-            for (int k = 0; k < L; k++) {
-                int topicIdx = Integer.parseInt(reader.readLine());
-                if (topicIdx != k) {
-                    throw new RuntimeException("Indices mismatch when loading model");
+            if (isBinaryState(zipFilepath, BinaryModelFileExt)) {
+                inputBinaryModel(zipFilepath, labelWords);
+            } else {
+                BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + ModelFileExt);
+                for (int k = 0; k < L; k++) {
+                    int topicIdx = Integer.parseInt(reader.readLine());
+                    if (topicIdx != k) {
+                        throw new RuntimeException("Indices mismatch when loading model");
+                    }
+                    labelWords[k] = DirMult.input(reader.readLine());
                 }
-                labelWords[k] = DirMult.input(reader.readLine());
+                reader.close();
             }
-            reader.close();
+            attachDenseCounts(labelWords);
             validateModel("Loaded from " + zipFilepath);
         } catch (Exception e) {
             e.printStackTrace();
@@ -659,20 +780,24 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
             this.initializeDataStructure();
 
             String filename = IOUtils.removeExtension(IOUtils.getFilename(zipFilepath));
-            BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + AssignmentFileExt);
-            for (int d = 0; d < D; d++) {
-                int docIdx = Integer.parseInt(reader.readLine());
-                if (docIdx != d) {
-                    throw new RuntimeException("Indices mismatch when loading assignments");
-                }
-                docLabels[d] = DirMult.input(reader.readLine());
+            if (isBinaryState(zipFilepath, BinaryAssignmentFileExt)) {
+                inputBinaryAssignments(zipFilepath, docLabels, z);
+            } else {
+                BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + AssignmentFileExt);
+                for (int d = 0; d < D; d++) {
+                    int docIdx = Integer.parseInt(reader.readLine());
+                    if (docIdx != d) {
+                        throw new RuntimeException("Indices mismatch when loading assignments");
+                    }
+                    docLabels[d] = DirMult.input(reader.readLine());
 
-                String[] sline = reader.readLine().split("\t");
-                for (int n = 0; n < words[d].length; n++) {
-                    z[d][n] = Integer.parseInt(sline[n]);
+                    String[] sline = reader.readLine().split("\t");
+                    for (int n = 0; n < words[d].length; n++) {
+                        z.set(d, n, Integer.parseInt(sline[n]));
+                    }
                 }
+                reader.close();
             }
-            reader.close();
 
             validateData("Loaded from " + zipFilepath);
         } catch (Exception e) {
@@ -1045,38 +1170,39 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
 
     public void sampleZ(int d, int i, int n,
             boolean removeFromData, boolean addToData) {
-        double totalBeta = V * hyperparams.get(BETA);
+        double totalBeta = V * hyperparamValues[BETA];
+        int curZ = z.get(d, i);
         if (removeFromData) {
-            docLabels[d].decrement(z[d][i]);
+            docLabels[d].decrement(curZ);
         }
 
         int sampledZ;
         if (labels != null && labels[d].length > 0) {
-            double[] probs = new double[labels[d].length];
+            double[] probs = workspace.getBuffer(labels[d].length);
             for (int ii = 0; ii < labels[d].length; ii++) {
                 int k = labels[d][ii];
-                probs[ii] = (docLabels[d].getCount(k) + hyperparams.get(ALPHA) * labels[d].length / L)
-                        * (labelWords[k].getCount(words[d][n]) + hyperparams.get(BETA))
+                probs[ii] = (docLabels[d].getCount(k) + hyperparamValues[ALPHA] * labels[d].length / L)
+                        * (labelWords[k].getCount(words[d][n]) + hyperparamValues[BETA])
                         / (labelWords[k].getCountSum() + totalBeta);
             }
-            sampledZ = labels[d][SamplerUtils.scaleSample(probs)];
+            sampledZ = labels[d][workspace.scaleSample()];
         } else { // for documents without labels and for test documents
-            double[] probs = new double[L];
+            double[] probs = workspace.getBuffer(L);
             for (int ll = 0; ll < L; ll++) {
-                probs[ll] = (docLabels[d].getCount(ll) + hyperparams.get(ALPHA))
-                        * (labelWords[ll].getCount(words[d][n]) + hyperparams.get(BETA))
+                probs[ll] = (docLabels[d].getCount(ll) + hyperparamValues[ALPHA])
+                        * (labelWords[ll].getCount(words[d][n]) + hyperparamValues[BETA])
                         / (labelWords[ll].getCountSum() + totalBeta);
             }
-            sampledZ = SamplerUtils.scaleSample(probs);
+            sampledZ = workspace.scaleSample();
         }
 
-        if (sampledZ != z[d][i]) {
+        if (sampledZ != curZ) {
             numTokensChange++;
         }
-        z[d][i] = sampledZ;
+        z.set(d, i, sampledZ);
 
         if (addToData) {
-            docLabels[d].increment(z[d][i]);
+            docLabels[d].increment(sampledZ);
         }
     }
 
@@ -1131,11 +1257,12 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
         }
 
         docLabels = new DirMult[D];
-        z = new int[D][];
+        int[] trainLengths = new int[D];
         for (int d = 0; d < D; d++) {
-            docLabels[d] = new DirMult(L, hyperparams.get(ALPHA) * L, 1.0 / L);
-            z[d] = new int[trainIndices[d].size()];
+            docLabels[d] = new DirMult(L, hyperparamValues[ALPHA] * L, 1.0 / L);
+            trainLengths[d] = trainIndices[d].size();
         }
+        z = AssignmentStore.create(trainLengths, 0, L - 1);
 
         ArrayList<Double> perplexities = new ArrayList<Double>();
         if (verbose) {
@@ -1169,7 +1296,7 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
     }
 
     private double computePerplexity(ArrayList<Integer>[] testIndices, String outFile) {
-        double totalBeta = hyperparams.get(BETA) * V;
+        double totalBeta = hyperparamValues[BETA] * V;
         double totalLogprob = 0.0;
         int numTestTokens = 0;
         for (int d = 0; d < D; d++) {
@@ -1184,17 +1311,17 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
                     if (labels[d].length > 0) {
                         for (int ii = 0; ii < labels[d].length; ii++) {
                             int k = labels[d][ii];
-                            double theta = (docLabels[d].getCount(k) + hyperparams.get(ALPHA))
-                                    / (docLabels[d].getCountSum() + hyperparams.get(ALPHA) * labels[d].length);
-                            double phi = (labelWords[k].getCount(words[d][n]) + hyperparams.get(BETA))
+                            double theta = (docLabels[d].getCount(k) + hyperparamValues[ALPHA])
+                                    / (docLabels[d].getCountSum() + hyperparamValues[ALPHA] * labels[d].length);
+                            double phi = (labelWords[k].getCount(words[d][n]) + hyperparamValues[BETA])
                                     / (labelWords[k].getCountSum() + totalBeta);
                             val += theta * phi;
                         }
                     } else { // for documents without labels and for test documents
                         for (int k = 0; k < L; k++) {
-                            double theta = (docLabels[d].getCount(k) + hyperparams.get(ALPHA))
-                                    / (docLabels[d].getCountSum() + hyperparams.get(ALPHA) * L);
-                            double phi = (labelWords[k].getCount(words[d][n]) + hyperparams.get(BETA))
+                            double theta = (docLabels[d].getCount(k) + hyperparamValues[ALPHA])
+                                    / (docLabels[d].getCountSum() + hyperparamValues[ALPHA] * L);
+                            double phi = (labelWords[k].getCount(words[d][n]) + hyperparamValues[BETA])
                                     / (labelWords[k].getCountSum() + totalBeta);
                             val += theta * phi;
                         }
@@ -1307,7 +1434,7 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
         String[] filenames = reportFolder.list();
         try {
             IOUtils.createFolder(iterPerplexityFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             for (String filename : filenames) {
                 if (!filename.endsWith("zip")) {
                     continue;
@@ -1320,12 +1447,10 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
                         newWords, newLabels, trainIndices, testIndices,
                         stateFile.getAbsolutePath(),
                         partialResultFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
+                tasks.add(runner);
             }
 
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
+            runTasks(tasks);
 
             // summarize multiple perplexities
             String[] ppxFiles = iterPerplexityFolder.list();
@@ -1352,7 +1477,7 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
         String[] filenames = reportFolder.list();
         try {
             IOUtils.createFolder(iterPredFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             for (String filename : filenames) {
                 if (!filename.contains("zip")) {
                     continue;
@@ -1364,12 +1489,10 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
                 LabeledLDATestRunner runner = new LabeledLDATestRunner(sampler,
                         newWords, stateFile.getAbsolutePath(),
                         partialResultFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
+                tasks.add(runner);
             }
 
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
+            runTasks(tasks);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -1410,6 +1533,10 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
             addOption("beta", "Hyperparameter of the symmetric Dirichlet prior "
                     + "for word distributions");
 
+            addOption("num-threads", "Number of sampling threads");
+            options.addOption("dense-counts", false, "Whether label-word counts are "
+                    + "stored in a dense matrix when it fits in memory");
+
             options.addOption("paramOpt", false, "Whether hyperparameter "
                     + "optimization using slice sampling is performed");
             options.addOption("v", false, "verbose");
@@ -1476,6 +1603,12 @@ import edu.umd.util.evaluation.MimnoTopicCoherence;
         sampler.setDebug(debug);
         sampler.setWordVocab(data.getWordVocab());
         sampler.setLabelVocab(data.getLabelVocab());
+        sampler.setNumThreads(CLIUtils.getIntegerArgument(cmd, "num-threads", 1));
+        sampler.setDenseCounts(cmd.hasOption("dense-counts"));
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
+        sampler.setStateFormat(cmd);
+        sampler.setMaxDeltaCheckpoints(cmd);
 
         sampler.configure(outputFolder,
                 V, K, alpha, beta, initState, paramOpt,
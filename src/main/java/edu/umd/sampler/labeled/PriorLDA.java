@@ -6,6 +6,10 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.util.ArrayList;
 import edu.umd.sampling.likelihood.DirMult;
+import edu.umd.sampling.util.AssignmentStore;
+import edu.umd.sampling.util.CountHistogram;
+import edu.umd.sampling.util.DirichletOptimizer;
+import edu.umd.sampling.util.HogwildTopicSampler;
 import edu.umd.util.IOUtils;
 import edu.umd.util.MiscUtils;
 import edu.umd.util.SamplerUtils;
@@ -30,23 +34,39 @@ public class PriorLDA extends AbstractSampler {
     // latent
     private DirMult[] labelWords; // K multinomials over V words
     private DirMult[] docLabels; // D multinomials over K topics
-    protected int[][] z;
+    protected AssignmentStore z;
     // internal
     private int numTokens;      // number of token assignments to be sampled
     private int numTokensChange;
     private ArrayList<String> labelVocab;
+    private int numThreads = 1;
+    private HogwildTopicSampler hogwildSampler;
 
     public void setLabelVocab(ArrayList<String> labelVoc) {
         this.labelVocab = labelVoc;
     }
 
+    /**
+     * Set the number of threads used to sample topic assignments. With more
+     * than one thread, documents are partitioned across threads which share
+     * one lock-free topic-word count matrix.
+     *
+     * @param numThreads Number of threads
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new RuntimeException("Invalid number of threads " + numThreads);
+        }
+        this.numThreads = numThreads;
+    }
+
     public void configure(PriorLDA sampler) {
         this.configure(sampler.folder,
                 sampler.V,
                 sampler.K,
-                sampler.hyperparams.get(ALPHA),
-                sampler.hyperparams.get(BETA),
-                sampler.hyperparams.get(ETA),
+                sampler.hyperparamValues[ALPHA],
+                sampler.hyperparamValues[BETA],
+                sampler.hyperparamValues[ETA],
                 sampler.initState,
                 sampler.paramOptimized,
                 sampler.BURN_IN,
@@ -74,6 +94,7 @@ public class PriorLDA extends AbstractSampler {
         this.hyperparams.add(alpha);
         this.hyperparams.add(beta);
         this.hyperparams.add(eta);
+        syncHyperparameters();
 
         this.sampledParams = new ArrayList<ArrayList<Double>>();
         this.sampledParams.add(cloneHyperparameters());
@@ -92,9 +113,9 @@ public class PriorLDA extends AbstractSampler {
             logln("--- folder\t" + folder);
             logln("--- num topics:\t" + K);
             logln("--- vocab size:\t" + V);
-            logln("--- alpha:\t" + MiscUtils.formatDouble(hyperparams.get(ALPHA)));
-            logln("--- beta:\t" + MiscUtils.formatDouble(hyperparams.get(BETA)));
-            logln("--- eta:\t" + MiscUtils.formatDouble(hyperparams.get(ETA)));
+            logln("--- alpha:\t" + MiscUtils.formatDouble(hyperparamValues[ALPHA]));
+            logln("--- beta:\t" + MiscUtils.formatDouble(hyperparamValues[BETA]));
+            logln("--- eta:\t" + MiscUtils.formatDouble(hyperparamValues[ETA]));
             logln("--- burn-in:\t" + BURN_IN);
             logln("--- max iter:\t" + MAX_ITER);
             logln("--- sample lag:\t" + LAG);
@@ -111,9 +132,9 @@ public class PriorLDA extends AbstractSampler {
                 .append("_M-").append(MAX_ITER)
                 .append("_L-").append(LAG)
                 .append("_K-").append(K)
-                .append("_a-").append(formatter.format(hyperparams.get(ALPHA)))
-                .append("_b-").append(formatter.format(hyperparams.get(BETA)))
-                .append("_e-").append(formatter.format(hyperparams.get(ETA)));
+                .append("_a-").append(formatter.format(hyperparamValues[ALPHA]))
+                .append("_b-").append(formatter.format(hyperparamValues[BETA]))
+                .append("_e-").append(formatter.format(hyperparamValues[ETA]));
         str.append("_opt-").append(this.paramOptimized);
         this.name = str.toString();
     }
@@ -165,8 +186,10 @@ public class PriorLDA extends AbstractSampler {
     protected void initializeModelStructure() {
         this.labelWords = new DirMult[K];
         for (int kk = 0; kk < K; kk++) {
-            this.labelWords[kk] = new DirMult(V, hyperparams.get(BETA) * V, 1.0 / V);
+            this.labelWords[kk] = new DirMult(V, hyperparamValues[BETA] * V, 1.0 / V);
         }
+        attachDenseCounts(labelWords);
+        trackLogLikelihoods(labelWords);
     }
 
     protected void initializeDataStructure() {
@@ -176,13 +199,11 @@ public class PriorLDA extends AbstractSampler {
 
         docLabels = new DirMult[D];
         for (int d = 0; d < D; d++) {
-            docLabels[d] = new DirMult(K, hyperparams.get(ALPHA) * K, 1.0 / K);
+            docLabels[d] = new DirMult(K, hyperparamValues[ALPHA] * K, 1.0 / K);
         }
+        trackLogLikelihoods(docLabels);
 
-        z = new int[D][];
-        for (int d = 0; d < D; d++) {
-            z[d] = new int[words[d].length];
-        }
+        z = AssignmentStore.create(words, K, numThreads > 1);
     }
 
     protected void initializeAssignments() {
@@ -192,9 +213,9 @@ public class PriorLDA extends AbstractSampler {
 
         for (int d = 0; d < D; d++) {
             for (int n = 0; n < words[d].length; n++) {
-                z[d][n] = rand.nextInt(K);
-                docLabels[d].increment(z[d][n]);
-                labelWords[z[d][n]].increment(words[d][n]);
+                z.set(d, n, rand.nextInt(K));
+                docLabels[d].increment(z.get(d, n));
+                labelWords[z.get(d, n)].increment(words[d][n]);
             }
         }
     }
@@ -244,12 +265,27 @@ public class PriorLDA extends AbstractSampler {
                     logln("--- Sampling. " + str + "\n");
                 }
             }
+            if (paramOptimized && iter % LAG == 0 && iter >= BURN_IN) {
+                this.updateHyperparameters();
+            }
+
             if (report && iter > BURN_IN && iter % LAG == 0) {
-                outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+                outputCheckpoint(new File(reportFolderPath, "iter-" + iter + ".zip"), null, 0);
+            }
+
+            if (isConverged((double) numTokensChange / numTokens)
+                    || checkStopRequested()) {
+                break;
             }
         }
+        if (hogwildSampler != null) {
+            hogwildSampler.shutdown();
+            hogwildSampler = null;
+        }
         if (report) { // output the final model
+            waitForCheckpoints();
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
         logln("Total runtime iterating: " + ellapsedSeconds + " seconds");
@@ -270,33 +306,49 @@ public class PriorLDA extends AbstractSampler {
     protected long sampleZs(boolean removeFromModel, boolean addToModel,
             boolean removeFromData, boolean addToData) {
         long sTime = System.currentTimeMillis();
-        double totalBeta = V * hyperparams.get(BETA);
+        if (numThreads > 1 && D > 1
+                && removeFromModel && addToModel && removeFromData && addToData) {
+            if (hogwildSampler == null) {
+                hogwildSampler = new HogwildTopicSampler(K, V, numThreads);
+                hogwildSampler.setStopSignal(stopSignal);
+                hogwildSampler.setDebug(debug);
+            }
+            numTokensChange += hogwildSampler.sweep(words, z, docLabels, null,
+                    labelWords, rand);
+            return System.currentTimeMillis() - sTime;
+        }
+        double totalBeta = V * hyperparamValues[BETA];
         for (int d = 0; d < D; d++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int n = 0; n < words[d].length; n++) {
+                int curZ = z.get(d, n);
                 if (removeFromData) {
-                    docLabels[d].decrement(z[d][n]);
+                    docLabels[d].decrement(curZ);
                 }
                 if (removeFromModel) {
-                    labelWords[z[d][n]].decrement(words[d][n]);
+                    labelWords[curZ].decrement(words[d][n]);
                 }
 
-                double[] probs = new double[K];
+                double[] probs = workspace.getBuffer(K);
                 for (int k = 0; k < K; k++) {
-                    probs[k] = (docLabels[d].getCount(k) + hyperparams.get(ALPHA))
-                            * (labelWords[k].getCount(words[d][n]) + hyperparams.get(BETA))
+                    probs[k] = (docLabels[d].getCount(k) + hyperparamValues[ALPHA])
+                            * (labelWords[k].getCount(words[d][n]) + hyperparamValues[BETA])
                             / (labelWords[k].getCountSum() + totalBeta);
                 }
-                int sampledZ = SamplerUtils.scaleSample(probs);
-                if (sampledZ != z[d][n]) {
+                int sampledZ = workspace.scaleSample();
+                if (sampledZ != curZ) {
                     numTokensChange++;
                 }
-                z[d][n] = sampledZ;
+                z.set(d, n, sampledZ);
 
                 if (addToData) {
-                    docLabels[d].increment(z[d][n]);
+                    docLabels[d].increment(sampledZ);
                 }
                 if (addToModel) {
-                    labelWords[z[d][n]].increment(words[d][n]);
+                    labelWords[sampledZ].increment(words[d][n]);
                 }
             }
         }
@@ -323,12 +375,43 @@ public class PriorLDA extends AbstractSampler {
 
     @Override
     public double getLogLikelihood(ArrayList<Double> newParams) {
-        throw new RuntimeException("Not supported yet");
+        if (newParams.size() != this.hyperparams.size()) {
+            throw new RuntimeException("Number of hyperparameters mismatched");
+        }
+        double llh = 0;
+        for (int d = 0; d < D; d++) {
+            llh += docLabels[d].getLogLikelihood(newParams.get(ALPHA) * K, 1.0 / K);
+        }
+        for (int k = 0; k < K; k++) {
+            llh += labelWords[k].getLogLikelihood(newParams.get(BETA) * V, 1.0 / V);
+        }
+        return llh;
     }
 
     @Override
     public void updateHyperparameters(ArrayList<Double> newParams) {
-        throw new RuntimeException("Not supported yet");
+        this.hyperparams = newParams;
+        syncHyperparameters();
+        for (int d = 0; d < D; d++) {
+            this.docLabels[d].setConcentration(this.hyperparamValues[ALPHA] * K);
+        }
+        for (int k = 0; k < K; k++) {
+            this.labelWords[k].setConcentration(this.hyperparamValues[BETA] * V);
+        }
+    }
+
+    /**
+     * Optimize the symmetric alpha and beta by fixed-point iterations on
+     * count histograms.
+     */
+    @Override
+    protected void fixedPointOptimize() {
+        ArrayList<Double> newParams = cloneHyperparameters();
+        newParams.set(ALPHA, DirichletOptimizer.optimizeSymmetric(hyperparamValues[ALPHA],
+                CountHistogram.build(docLabels, getForkJoinPool())));
+        newParams.set(BETA, DirichletOptimizer.optimizeSymmetric(hyperparamValues[BETA],
+                CountHistogram.build(labelWords, getForkJoinPool())));
+        updateHyperparameters(newParams);
     }
 
     public void outputTopicTopWords(File file, int numTopWords) {
@@ -375,12 +458,26 @@ public class PriorLDA extends AbstractSampler {
         }
     }
 
+    @Override
+    protected AbstractSampler getCheckpointSnapshot() {
+        PriorLDA snapshot = (PriorLDA) cloneForCheckpoint();
+        snapshot.labelWords = DirMult.copy(labelWords);
+        snapshot.docLabels = DirMult.copy(docLabels);
+        snapshot.z = z.copy();
+        return snapshot;
+    }
+
     @Override
     public void outputState(String filepath) {
         if (verbose) {
             logln("--- Outputing current state to " + filepath);
         }
         try {
+            if (stateFormat == StateFormat.BINARY) {
+                outputBinaryState(filepath, labelWords, docLabels, z);
+                return;
+            }
+
             StringBuilder modelStr = new StringBuilder();
             for (int k = 0; k < K; k++) {
                 modelStr.append(k).append("\n");
@@ -392,7 +489,7 @@ public class PriorLDA extends AbstractSampler {
                 assignStr.append(d).append("\n");
                 assignStr.append(DirMult.output(docLabels[d])).append("\n");
                 for (int n = 0; n < words[d].length; n++) {
-                    assignStr.append(z[d][n]).append("\t");
+                    assignStr.append(z.get(d, n)).append("\t");
                 }
                 assignStr.append("\n");
             }
@@ -433,15 +530,20 @@ public class PriorLDA extends AbstractSampler {
             this.initializeModelStructure();
 
             String filename = IOUtils.removeExtension(IOUtils.getFilename(zipFilepath));
-            BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + ModelFileExt);
-            for (int k = 0; k < K; k++) {
-                int topicIdx = Integer.parseInt(reader.readLine());
-                if (topicIdx != k) {
-                    throw new RuntimeException("Indices mismatch when loading model");
+            if (isBinaryState(zipFilepath, BinaryModelFileExt)) {
+                inputBinaryModel(zipFilepath, labelWords);
+            } else {
+                BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + ModelFileExt);
+                for (int k = 0; k < K; k++) {
+                    int topicIdx = Integer.parseInt(reader.readLine());
+                    if (topicIdx != k) {
+                        throw new RuntimeException("Indices mismatch when loading model");
+                    }
+                    labelWords[k] = DirMult.input(reader.readLine());
                 }
-                labelWords[k] = DirMult.input(reader.readLine());
+                reader.close();
             }
-            reader.close();
+            attachDenseCounts(labelWords);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Exception while inputing model from "
@@ -459,20 +561,24 @@ public class PriorLDA extends AbstractSampler {
             this.initializeDataStructure();
 
             String filename = IOUtils.removeExtension(IOUtils.getFilename(zipFilepath));
-            BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + AssignmentFileExt);
-            for (int d = 0; d < D; d++) {
-                int docIdx = Integer.parseInt(reader.readLine());
-                if (docIdx != d) {
-                    throw new RuntimeException("Indices mismatch when loading assignments");
-                }
-                docLabels[d] = DirMult.input(reader.readLine());
+            if (isBinaryState(zipFilepath, BinaryAssignmentFileExt)) {
+                inputBinaryAssignments(zipFilepath, docLabels, z);
+            } else {
+                BufferedReader reader = IOUtils.getBufferedReader(zipFilepath, filename + AssignmentFileExt);
+                for (int d = 0; d < D; d++) {
+                    int docIdx = Integer.parseInt(reader.readLine());
+                    if (docIdx != d) {
+                        throw new RuntimeException("Indices mismatch when loading assignments");
+                    }
+                    docLabels[d] = DirMult.input(reader.readLine());
 
-                String[] sline = reader.readLine().split("\t");
-                for (int n = 0; n < words[d].length; n++) {
-                    z[d][n] = Integer.parseInt(sline[n]);
+                    String[] sline = reader.readLine().split("\t");
+                    for (int n = 0; n < words[d].length; n++) {
+                        z.set(d, n, Integer.parseInt(sline[n]));
+                    }
                 }
+                reader.close();
             }
-            reader.close();
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Exception while inputing assignments from "
@@ -521,16 +627,16 @@ public class PriorLDA extends AbstractSampler {
             }
 
             // compute perplexity
-            double totalBeta = hyperparams.get(BETA) * V;
+            double totalBeta = hyperparamValues[BETA] * V;
             if (iter >= this.testBurnIn && iter % this.testSampleLag == 0) {
                 double totalLogprob = 0.0;
                 for (int d = 0; d < D; d++) {
                     for (int n = 0; n < words[d].length; n++) {
                         double val = 0.0;
                         for (int k = 0; k < K; k++) {
-                            double theta = (docLabels[d].getCount(k) + hyperparams.get(ALPHA))
-                                    / (docLabels[d].getCountSum() + hyperparams.get(ALPHA) * K);
-                            double phi = (labelWords[k].getCount(words[d][n]) + hyperparams.get(BETA))
+                            double theta = (docLabels[d].getCount(k) + hyperparamValues[ALPHA])
+                                    / (docLabels[d].getCountSum() + hyperparamValues[ALPHA] * K);
+                            double phi = (labelWords[k].getCount(words[d][n]) + hyperparamValues[BETA])
                                     / (labelWords[k].getCountSum() + totalBeta);
                             val += theta * phi;
                         }
@@ -1082,7 +1188,7 @@ public class PriorLDA extends AbstractSampler {
         String[] filenames = reportFolder.list();
         try {
             IOUtils.createFolder(iterPerplexityFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             for (int i = 0; i < filenames.length; i++) {
                 String filename = filenames[i];
                 if (!filename.contains("zip")) {
@@ -1096,12 +1202,10 @@ public class PriorLDA extends AbstractSampler {
                         newWords, newLabels,
                         stateFile.getAbsolutePath(),
                         partialResultFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
+                tasks.add(runner);
             }
 
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
+            runTasks(tasks);
 
             // summarize multiple perplexities
             String[] ppxFiles = iterPerplexityFolder.list();
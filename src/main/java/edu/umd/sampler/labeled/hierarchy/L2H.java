@@ -547,11 +547,17 @@ public class L2H extends AbstractSampler {
                 outputState(new File(reportFolderPath, getIteratedStateFile()), true, false);
                 outputGlobalTree(new File(reportFolderPath, getIteratedTopicFile()), 20);
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) {
             outputState(new File(reportFolderPath, getIteratedStateFile()), true, false);
             outputGlobalTree(new File(reportFolderPath, getIteratedTopicFile()), 20);
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -846,6 +852,10 @@ public class L2H extends AbstractSampler {
         numTokensChanged = 0;
         long sTime = System.currentTimeMillis();
         for (int d = 0; d < D; d++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int n = 0; n < words[d].length; n++) {
                 sampleXZExact(d, n, removeFromModel, addToModel, removeFromData, addToData);
             }
@@ -931,6 +941,10 @@ public class L2H extends AbstractSampler {
         numTokensChanged = 0;
         long sTime = System.currentTimeMillis();
         for (int d = 0; d < D; d++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int n = 0; n < words[d].length; n++) {
                 sampleXZMH(d, n, removeFromModel, addToModel, removeFromData, addToData);
             }
@@ -1627,7 +1641,7 @@ public class L2H extends AbstractSampler {
         String[] filenames = reportFolder.list();
         try {
             IOUtils.createFolder(iterPredFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             for (String filename : filenames) {
                 if (!filename.contains("zip")) {
                     continue;
@@ -1642,10 +1656,9 @@ public class L2H extends AbstractSampler {
                         newWords, stateFile.getAbsolutePath(),
                         partialResultFile.getAbsolutePath(),
                         initPredictions, topK);
-                Thread thread = new Thread(runner);
-                threads.add(thread);
+                tasks.add(runner);
             }
-            runThreads(threads); // run MAX_NUM_PARALLEL_THREADS threads at a time
+            runTasks(tasks);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Exception while sampling during parallel test.");
@@ -2113,6 +2126,8 @@ public class L2H extends AbstractSampler {
         sampler.setVerbose(verbose);
         sampler.setDebug(debug);
         sampler.setWordVocab(data.getWordVocab());
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
         sampler.setLabelVocab(data.getLabelVocab());
 
         sampler.configure(outputFolder,
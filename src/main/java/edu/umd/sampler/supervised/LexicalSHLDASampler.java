@@ -413,6 +413,9 @@ public class LexicalSHLDASampler extends AbstractSampler {
             backgroundConverge = false;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 samplePathAssignments(d, REMOVE, ADD, OBSERVED, EXTEND);
 
                 for (int n = 0; n < words[d].length; n++) {
@@ -484,10 +487,15 @@ public class LexicalSHLDASampler extends AbstractSampler {
                     System.exit(1);
                 }
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) {
             outputState(this.folder + this.getSamplerFolder() + "final.zip");
+            outputStopReason(new File(this.folder + this.getSamplerFolder() + ReportFolder));
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -453,10 +453,16 @@ public class BinarySLDA extends AbstractSampler {
             if (report && iter >= BURN_IN && iter % LAG == 0) {
                 outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) { // output the final model
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -493,6 +499,10 @@ public class BinarySLDA extends AbstractSampler {
         long sTime = System.currentTimeMillis();
         double totalBeta = V * hyperparams.get(BETA);
         for (int ii = 0; ii < D; ii++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             int dd = docIndices.get(ii);
             for (int nn = 0; nn < words[dd].length; nn++) {
                 if (removeFromModel) {
@@ -1106,6 +1116,8 @@ public class BinarySLDA extends AbstractSampler {
         sampler.setLog(true);
         sampler.setReport(true);
         sampler.setWordVocab(data.getWordVocab());
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
 
         sampler.configure(outputFolder, V, K,
                 alpha, beta, mu, sigma,
@@ -1145,6 +1157,7 @@ public class BinarySLDA extends AbstractSampler {
         }
 
         if (cmd.hasOption("test")) {
+            sampler.getStopSignal().reset(); // the time budget only bounds training
             File predictionFolder = new File(sampler.getSamplerFolderPath(),
                     CLIUtils.getStringArgument(cmd, "prediction-folder", "predictions"));
             IOUtils.createFolder(predictionFolder);
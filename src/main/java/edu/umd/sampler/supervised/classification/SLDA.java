@@ -427,10 +427,16 @@ public class SLDA extends AbstractSampler {
             if (report && iter > BURN_IN && iter % LAG == 0) {
                 outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) { // output the final model
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -448,6 +454,10 @@ public class SLDA extends AbstractSampler {
         numTokensChanged = 0;
 
         for (int d = 0; d < D; d++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int n = 0; n < words[d].length; n++) {
                 if (removeFromModel) {
                     topicWords[z[d][n]].decrement(words[d][n]);
@@ -1004,7 +1014,7 @@ public class SLDA extends AbstractSampler {
         String[] filenames = reportFolder.list();
         try {
             IOUtils.createFolder(iterPredFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             for (String filename : filenames) {
                 if (!filename.contains("zip")) {
                     continue;
@@ -1016,12 +1026,10 @@ public class SLDA extends AbstractSampler {
                 ClassSLDATestRunner runner = new ClassSLDATestRunner(sampler,
                         newWords, stateFile.getAbsolutePath(),
                         partialResultFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
+                tasks.add(runner);
             }
 
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
+            runTasks(tasks);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -417,6 +417,9 @@ public class MSHDPSampler extends AbstractSampler {
             numConverged = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int t = 0; t < words[d].length; t++) {
                     for (int n = 0; n < words[d][t].length; n++) {
                         this.sampleTableForToken(d, t, n, REMOVE, OBSERVED, ADD, EXTEND);
@@ -476,9 +479,16 @@ public class MSHDPSampler extends AbstractSampler {
             if (report && iter >= BURN_IN && iter % LAG == 0) {
                 outputState(this.folder + this.getSamplerFolder() + ReportFolder + "iter-" + iter + ".zip");
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
 
         outputState(this.folder + this.getSamplerFolder() + "final.zip");
+        if (report) {
+            outputStopReason(new File(this.folder + this.getSamplerFolder() + ReportFolder));
+        }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
         logln("Total runtime iterating: " + ellapsedSeconds + " seconds");
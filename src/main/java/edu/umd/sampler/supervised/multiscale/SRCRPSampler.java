@@ -484,6 +484,9 @@ public class SRCRPSampler extends AbstractSampler {
             numConverged = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int t = 0; t < words[d].length; t++) {
                     for (int n = 0; n < words[d][t].length; n++) {
                         this.sampleTableForToken(d, t, n, REMOVE, OBSERVED, ADD, EXTEND);
@@ -544,10 +547,15 @@ public class SRCRPSampler extends AbstractSampler {
                     System.exit(1);
                 }
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) {
             outputState(this.folder + this.getSamplerFolder() + "final.zip");
+            outputStopReason(new File(this.folder + this.getSamplerFolder() + ReportFolder));
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -438,10 +438,16 @@ public class SHDP extends AbstractSampler {
             if (debug) {
                 validate("iter " + iter);
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) { // output the final model
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -477,6 +483,10 @@ public class SHDP extends AbstractSampler {
         long sTime = System.currentTimeMillis();
         double totalBeta = hyperparams.get(BETA) * V;
         for (int ii = 0; ii < D; ii++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             int dd = docIndices.get(ii);
             for (int nn = 0; nn < words[dd].length; nn++) {
                 int curZ = z[ii][nn];
@@ -1061,6 +1071,8 @@ public class SHDP extends AbstractSampler {
         sampler.setLog(true);
         sampler.setReport(true);
         sampler.setWordVocab(data.getWordVocab());
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
 
         if (initState == InitialState.PRESET) { // for initialization
             sampler.setK(K);
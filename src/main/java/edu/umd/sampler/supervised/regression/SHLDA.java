@@ -869,7 +869,9 @@ public class SHLDA extends AbstractSampler
         if (verbose) {
             logln("Iterating ...");
         }
-        this.logLikelihoods = new ArrayList<Double>();
+        if (startIter == 0 || logLikelihoods == null) {
+            this.logLikelihoods = new ArrayList<Double>();
+        }
         File repFolderPath = new File(getSamplerFolderPath(), ReportFolder);
         try {
             if (report && !repFolderPath.exists()) {
@@ -887,7 +889,7 @@ public class SHLDA extends AbstractSampler
         logln(getClass().toString());
         startTime = System.currentTimeMillis();
 
-        for (iter = 0; iter < MAX_ITER; iter++) {
+        for (iter = startIter; iter < MAX_ITER; iter++) {
             double loglikelihood = this.getLogLikelihood();
             logLikelihoods.add(loglikelihood);
 
@@ -924,6 +926,9 @@ public class SHLDA extends AbstractSampler
             long pathTab = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int s = 0; s < words[d].length; s++) {
                     if (!isValidSentence(d, s)) {
                         continue;
@@ -978,17 +983,24 @@ public class SHLDA extends AbstractSampler
 
             // store model
             if (report && iter > BURN_IN && iter % LAG == 0) {
-                outputState(new File(repFolderPath, "iter-" + iter + ".zip"));
-                outputTopicTopWords(new File(repFolderPath,
-                        "iter-" + iter + "-top-words.txt"), 15);
+                outputCheckpoint(new File(repFolderPath, "iter-" + iter + ".zip"),
+                        new File(repFolderPath, "iter-" + iter + "-top-words.txt"), 15);
+            }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
             }
         }
 
         // output final model
         if (report) {
-            outputState(new File(repFolderPath, "iter-" + iter + ".zip"));
+            waitForCheckpoints();
+            File stateFile = new File(repFolderPath, "iter-" + iter + ".zip");
+            outputState(stateFile);
+            outputResumeFile(stateFile, getResumeInfo(iter < MAX_ITER ? iter + 1 : iter));
             outputTopicTopWords(new File(repFolderPath,
                     "iter-" + iter + "-top-words.txt"), 15);
+            outputStopReason(repFolderPath);
         }
 
         if (verbose) {
@@ -2550,6 +2562,31 @@ public class SHLDA extends AbstractSampler
     }
 
     void inputAssignments(String zipFilepath) throws Exception {
+        inputAssignments(zipFilepath, ADD);
+    }
+
+    /**
+     * Resume from a training checkpoint. The word counts of each node are
+     * part of the model, so the assignments only restore the restaurants.
+     *
+     * @param filepath Compressed learned state file
+     */
+    @Override
+    protected void inputCheckpoint(String filepath) {
+        try {
+            inputModel(filepath);
+            inputAssignments(filepath, !ADD);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Exception while resuming from " + filepath);
+        }
+        if (debug) {
+            validate("--- Resumed.");
+        }
+    }
+
+    private void inputAssignments(String zipFilepath, boolean addToModel)
+            throws Exception {
         if (verbose) {
             logln("--- --- Loading assignments from " + zipFilepath + "\n");
         }
@@ -2614,7 +2651,9 @@ public class SHLDA extends AbstractSampler
                                 + (d + ":" + s + ":" + n));
                     }
                     z[d][s][n] = Integer.parseInt(sline[1]);
-                    path[z[d][s][n]].getContent().increment(words[d][s][n]);
+                    if (addToModel) {
+                        path[z[d][s][n]].getContent().increment(words[d][s][n]);
+                    }
                     sentLevelCounts[d][s][z[d][s][n]]++;
                 }
             }
@@ -3647,7 +3686,7 @@ public class SHLDA extends AbstractSampler
 //        String[] filenames = reportFolder.list();
 //        try {
 //            IOUtils.createFolder(iterPredFolder);
-//            ArrayList<Thread> threads = new ArrayList<Thread>();
+//            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
 //            for (int i = 0; i < filenames.length; i++) {
 //                String filename = filenames[i];
 //                if (!filename.contains("zip")) {
@@ -3661,12 +3700,10 @@ public class SHLDA extends AbstractSampler
 //                        newWords, newAuthors,
 //                        numAuthors, stateFile.getAbsolutePath(),
 //                        partialResultFile.getAbsolutePath());
-//                Thread thread = new Thread(runner);
-//                threads.add(thread);
+//                tasks.add(runner);
 //            }
 //
-//            // run MAX_NUM_PARALLEL_THREADS threads at a time
-//            runThreads(threads);
+//            runTasks(tasks);
 //
 //        } catch (Exception e) {
 //            e.printStackTrace();
@@ -3735,6 +3772,7 @@ public class SHLDA extends AbstractSampler
         options.addOption("help", false, "Help");
 
         options.addOption("train", false, "train");
+        options.addOption("resume", false, "Resume training from the latest checkpoint");
         options.addOption("dev", false, "development");
         options.addOption("test", false, "test");
         options.addOption("z", false, "z-normalization");
@@ -3880,7 +3918,9 @@ public class SHLDA extends AbstractSampler
         // train
         if (cmd.hasOption("train")) {
             sampler.train(data.getSentenceWords(), data.getResponses());
-            sampler.initialize();
+            if (!(isResuming() && sampler.resumeFromCheckpoint())) {
+                sampler.initialize();
+            }
             sampler.iterate();
             sampler.outputTopicTopWords(new File(samplerFolder, TopWordFile), numTopWords);
         }
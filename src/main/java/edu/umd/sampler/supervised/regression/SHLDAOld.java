@@ -855,6 +855,9 @@ public class SHLDAOld extends AbstractSampler implements Regressor<ResponseTextD
             numTokenAsgnsChange = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int s = 0; s < words[d].length; s++) {
                     sampleTableForSentence(d, s, REMOVE, ADD, OBSERVED, EXTEND);
 
@@ -905,11 +908,16 @@ public class SHLDAOld extends AbstractSampler implements Regressor<ResponseTextD
                 outputTopicTopWords(new File(repFolderPath,
                         "iter-" + iter + "-top-words.txt"), 15);
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
 
         // output final model
         if (report) {
             outputState(new File(repFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(repFolderPath);
         }
 
         if (verbose) {
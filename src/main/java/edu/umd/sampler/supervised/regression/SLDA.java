@@ -3,6 +3,7 @@ package edu.umd.sampler.supervised.regression;
 import cc.mallet.optimize.LimitedMemoryBFGS;
 import edu.umd.core.AbstractExperiment;
 import edu.umd.core.AbstractSampler;
+import edu.umd.core.EnsemblePredictor;
 import edu.umd.data.ResponseTextDataset;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -25,6 +26,7 @@ import edu.umd.util.MismatchRuntimeException;
 import edu.umd.util.PredictionUtils;
 import edu.umd.util.RankingItem;
 import edu.umd.util.SamplerUtils;
+import edu.umd.util.SamplingWorkspace;
 import edu.umd.util.SparseVector;
 import edu.umd.util.StatUtils;
 import edu.umd.util.evaluation.Measurement;
@@ -111,6 +113,7 @@ public class SLDA extends AbstractSampler {
         this.hyperparams = new ArrayList<Double>();
         this.hyperparams.add(alpha);
         this.hyperparams.add(beta);
+        syncHyperparameters();
 
         this.rho = rho;
         this.mu = mu;
@@ -532,10 +535,16 @@ public class SLDA extends AbstractSampler {
             if (report && iter > BURN_IN && iter % LAG == 0) {
                 outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) { // output the final model
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -565,6 +574,10 @@ public class SLDA extends AbstractSampler {
         numTokensChanged = 0;
         long sTime = System.currentTimeMillis();
         for (int dd = 0; dd < D; dd++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int nn = 0; nn < words[dd].length; nn++) {
                 if (removeFromModel) {
                     topicWords[z[dd][nn]].decrement(words[dd][nn]);
@@ -574,9 +587,9 @@ public class SLDA extends AbstractSampler {
                     docMeans[dd] -= regParams[z[dd][nn]] / words[dd].length;
                 }
 
-                double[] logprobs = new double[K];
+                double[] logprobs = workspace.getBuffer(K);
                 for (int k = 0; k < K; k++) {
-                    logprobs[k] = Math.log(docTopics[dd].getCount(k) + hyperparams.get(ALPHA))
+                    logprobs[k] = Math.log(docTopics[dd].getCount(k) + hyperparamValues[ALPHA])
                             + Math.log(topicWords[k].getProbability(words[dd][nn]));
                     if (observe) {
                         double mean = docMeans[dd] + regParams[k] / words[dd].length;
@@ -584,7 +597,7 @@ public class SLDA extends AbstractSampler {
                     }
                 }
 
-                int sampledZ = SamplerUtils.logMaxRescaleSample(logprobs);
+                int sampledZ = workspace.logMaxRescaleSample();
 
                 if (z[dd][nn] != sampledZ) {
                     numTokensChanged++; // for debugging
@@ -756,11 +769,12 @@ public class SLDA extends AbstractSampler {
     @Override
     public void updateHyperparameters(ArrayList<Double> newParams) {
         this.hyperparams = newParams;
+        syncHyperparameters();
         for (int d = 0; d < D; d++) {
-            this.docTopics[d].setConcentration(this.hyperparams.get(ALPHA) * K);
+            this.docTopics[d].setConcentration(this.hyperparamValues[ALPHA] * K);
         }
         for (int k = 0; k < K; k++) {
-            this.topicWords[k].setConcentration(this.hyperparams.get(BETA) * V);
+            this.topicWords[k].setConcentration(this.hyperparamValues[BETA] * V);
         }
     }
 
@@ -944,7 +958,8 @@ public class SLDA extends AbstractSampler {
 
     /**
      * Run Gibbs sampling on test data using multiple models learned which are
-     * stored in the ReportFolder. The runs on multiple models are parallel.
+     * stored in the ReportFolder. All models are loaded once and shared by
+     * the threads sampling the test documents.
      *
      * @param newWords Words of new documents
      * @param newDocIndices Indices of test documents
@@ -954,43 +969,115 @@ public class SLDA extends AbstractSampler {
     public static double[] parallelTest(int[][] newWords,
             ArrayList<Integer> newDocIndices,
             File iterPredFolder,
-            SLDA sampler) {
+            final SLDA sampler) {
         File reportFolder = new File(sampler.getSamplerFolderPath(), ReportFolder);
-        if (!reportFolder.exists()) {
-            throw new RuntimeException("Report folder not found. " + reportFolder);
+        int[][] testWords = newWords;
+        if (newDocIndices != null) {
+            testWords = new int[newDocIndices.size()][];
+            for (int ii = 0; ii < testWords.length; ii++) {
+                testWords[ii] = newWords[newDocIndices.get(ii)];
+            }
         }
-        double[] avgPredictions = null;
-        String[] filenames = reportFolder.list();
         try {
-            IOUtils.createFolder(iterPredFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
-            ArrayList<File> partPredFiles = new ArrayList<>();
-            for (String filename : filenames) { // all learned models
-                if (!filename.contains("zip")) {
-                    continue;
-                }
-
-                File stateFile = new File(reportFolder, filename);
-                File partialResultFile = new File(iterPredFolder,
-                        IOUtils.removeExtension(filename) + ".txt");
-                SLDATestRunner runner = new SLDATestRunner(sampler,
-                        newWords, newDocIndices, stateFile.getAbsolutePath(),
-                        partialResultFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
-                partPredFiles.add(partialResultFile);
-            }
-
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
-
-            // average predictions
-            avgPredictions = PredictionUtils.computeMultipleAverage(partPredFiles);
+            EnsemblePredictor ensemble = new EnsemblePredictor(
+                    EnsemblePredictor.getStateFiles(reportFolder),
+                    new EnsemblePredictor.ModelLoader() {
+                        @Override
+                        public EnsemblePredictor.Model load(File stateFile) {
+                            return new TestModel(sampler, stateFile);
+                        }
+                    });
+            return ensemble.predict(testWords, iterPredFolder);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Exception while sampling during parallel test.");
         }
-        return avgPredictions;
+    }
+
+    /**
+     * Read-only learned model for sampling test documents, with the same
+     * test chain as {@link #test(int[][], ArrayList, File, File)}.
+     */
+    static class TestModel implements EnsemblePredictor.Model {
+
+        final int K;
+        final double alpha;
+        final double[] regParams;
+        final boolean hasBias;
+        final int testBurnIn;
+        final int testMaxIter;
+        final int testSampleLag;
+        final int numTestSamples;
+        // log word probabilities, word-major: logPhis[v * K + k]
+        final float[] logPhis;
+
+        TestModel(SLDA sampler, File stateFile) {
+            SLDA testSampler = new SLDA();
+            testSampler.setVerbose(false);
+            testSampler.setDebug(false);
+            testSampler.setLog(false);
+            testSampler.setReport(false);
+            testSampler.configure(sampler);
+            testSampler.inputModel(stateFile.getAbsolutePath());
+
+            this.K = testSampler.K;
+            this.alpha = testSampler.hyperparams.get(ALPHA);
+            this.regParams = testSampler.regParams;
+            this.hasBias = testSampler.hasBias;
+            this.testBurnIn = testSampler.BURN_IN / 2;
+            this.testMaxIter = testSampler.MAX_ITER / 2;
+            this.testSampleLag = testSampler.LAG / 2;
+            this.numTestSamples = EnsemblePredictor.getNumTestSamples(testBurnIn,
+                    testMaxIter, testSampleLag);
+            int V = testSampler.V;
+            if ((long) V * K > Integer.MAX_VALUE) {
+                throw new RuntimeException("Word probabilities too large. V = " + V
+                        + ". K = " + K);
+            }
+            this.logPhis = new float[V * K];
+            for (int k = 0; k < K; k++) {
+                DirMult topic = testSampler.topicWords[k];
+                for (int v = 0; v < V; v++) {
+                    logPhis[v * K + k] = (float) Math.log(topic.getProbability(v));
+                }
+            }
+        }
+
+        @Override
+        public long getMemorySize() {
+            return 4L * logPhis.length + 8L * regParams.length;
+        }
+
+        @Override
+        public double[] sample(int[] words) {
+            int N = words.length;
+            int[] zs = new int[N];
+            int[] topicCounts = new int[K];
+            double docMean = hasBias ? regParams[K] : 0.0;
+            SamplingWorkspace workspace = new SamplingWorkspace(K);
+            double[] samples = new double[numTestSamples];
+            int ss = 0;
+            for (int ii = 0; ii < testMaxIter; ii++) {
+                for (int nn = 0; nn < N; nn++) {
+                    if (ii > 0) {
+                        topicCounts[zs[nn]]--;
+                        docMean -= regParams[zs[nn]] / N;
+                    }
+                    double[] logprobs = workspace.getBuffer(K);
+                    int offset = words[nn] * K;
+                    for (int k = 0; k < K; k++) {
+                        logprobs[k] = Math.log(topicCounts[k] + alpha) + logPhis[offset + k];
+                    }
+                    zs[nn] = workspace.logMaxRescaleSample();
+                    topicCounts[zs[nn]]++;
+                    docMean += regParams[zs[nn]] / N;
+                }
+                if (ii >= testBurnIn && ii % testSampleLag == 0) {
+                    samples[ss++] = docMean;
+                }
+            }
+            return samples;
+        }
     }
 
     public static String getHelpString() {
@@ -1127,6 +1214,8 @@ public class SLDA extends AbstractSampler {
         sampler.setLog(true);
         sampler.setReport(true);
         sampler.setWordVocab(data.getWordVocab());
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
 
         sampler.configure(outputFolder, V, K,
                 alpha, beta, rho, mu, sigma,
@@ -1175,6 +1264,7 @@ public class SLDA extends AbstractSampler {
         }
 
         if (cmd.hasOption("test")) {
+            sampler.getStopSignal().reset(); // the time budget only bounds training
             File predictionFolder = new File(sampler.getSamplerFolderPath(),
                     CLIUtils.getStringArgument(cmd, "prediction-folder", "predictions"));
             IOUtils.createFolder(predictionFolder);
@@ -1251,43 +1341,3 @@ public class SLDA extends AbstractSampler {
         }
     }
 }
-
-class SLDATestRunner implements Runnable {
-
-    SLDA sampler;
-    int[][] newWords;
-    ArrayList<Integer> newDocIndices;
-    String stateFile;
-    String outputFile;
-
-    public SLDATestRunner(SLDA sampler,
-            int[][] newWords,
-            ArrayList<Integer> newDocIndices,
-            String stateFile,
-            String outputFile) {
-        this.sampler = sampler;
-        this.newWords = newWords;
-        this.newDocIndices = newDocIndices;
-        this.stateFile = stateFile;
-        this.outputFile = outputFile;
-    }
-
-    @Override
-    public void run() {
-        SLDA testSampler = new SLDA();
-        testSampler.setVerbose(true);
-        testSampler.setDebug(false);
-        testSampler.setLog(false);
-        testSampler.setReport(false);
-        testSampler.configure(sampler);
-        testSampler.setTestConfigurations(sampler.getBurnIn(),
-                sampler.getMaxIters(), sampler.getSampleLag());
-
-        try {
-            testSampler.test(newWords, newDocIndices, new File(stateFile), new File(outputFile));
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException();
-        }
-    }
-}
@@ -3,6 +3,8 @@ package edu.umd.sampler.supervised.regression;
 import cc.mallet.optimize.LimitedMemoryBFGS;
 import edu.umd.core.AbstractExperiment;
 import edu.umd.core.AbstractSampler;
+import edu.umd.core.EnsemblePredictor;
+import edu.umd.core.TreeTestModel;
 import edu.umd.data.LabelTextDataset;
 import edu.umd.data.ResponseTextDataset;
 import java.io.BufferedReader;
@@ -51,6 +53,7 @@ public class SNLDA extends AbstractSampler {
 
     public static final int POSITVE = 1;
     public static final int NEGATIVE = -1;
+    private static final int STAY_INDEX = -1; // sampled index of staying at a node
     // hyperparameters for fixed-height tree
     protected double[] alphas;          // [L-1]
     protected double[] betas;           // [L]
@@ -82,8 +85,12 @@ public class SNLDA extends AbstractSampler {
     private double uniform;
     private boolean isRooted;
 
-    // cached probabilities computed at the first level
-    private HashMap<Node, Double> cachedProbabilities;
+    // cached probabilities computed at the first level, reused across tokens:
+    // of each child of the root, indexed by child index, and of staying at
+    // the root, NaN where not computed
+    private double[] cachedProbabilities;
+    private double cachedStayProbability;
+    private double cachedTotalProbability;
 
     public SNLDA() {
         this.basename = "SNLDA";
@@ -563,6 +570,53 @@ public class SNLDA extends AbstractSampler {
         return predictions;
     }
 
+    /**
+     * Return a read-only copy of the loaded model for sampling test
+     * documents, with the same test chain as
+     * {@link #sampleTest(File, File, File)}.
+     */
+    public TreeTestModel getTestModel() {
+        TreeTestModel model = new TreeTestModel(V, BURN_IN / 2, MAX_ITER / 2, LAG / 2);
+        ArrayList<Node> nodes = new ArrayList<>();
+        HashMap<Node, Integer> nodeIndices = new HashMap<>();
+        Queue<Node> queue = new LinkedList<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            int parentIdx = -1;
+            double pathPrior = 0.0;
+            if (!node.isRoot()) {
+                Node parent = node.getParent();
+                parentIdx = nodeIndices.get(parent);
+                pathPrior = getAlpha(parent.getLevel()) * parent.getNumChildren()
+                        * parent.theta[node.getIndex()];
+            }
+            double gamma = 0.0;
+            double pathConcentration = 0.0;
+            if (!node.isLeaf()) {
+                gamma = getGamma(node.getLevel());
+                pathConcentration = getAlpha(node.getLevel()) * node.getNumChildren();
+            }
+            boolean canStay = !(node.isRoot() && !isRooted);
+            nodeIndices.put(node, model.addNode(parentIdx, canStay, gamma, node.pi,
+                    pathConcentration, pathPrior, node.pathEta));
+            nodes.add(node);
+            for (Node child : node.getChildren()) {
+                queue.add(child);
+            }
+        }
+
+        model.allocateWordProbabilities();
+        for (int ii = 0; ii < nodes.size(); ii++) {
+            Node node = nodes.get(ii);
+            for (int vv = 0; vv < V; vv++) {
+                model.setWordProbability(ii, vv, node.getNodeWordProbability(vv),
+                        node.getSubtreeWordProbability(vv));
+            }
+        }
+        return model;
+    }
+
     @Override
     public void initialize() {
         initialize(null, null);
@@ -824,6 +878,10 @@ public class SNLDA extends AbstractSampler {
         numTokensChanged = 0;
         long sTime = System.currentTimeMillis();
         for (int dd = 0; dd < D; dd++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int nn = 0; nn < words[dd].length; nn++) {
                 // remove
                 removeToken(dd, nn, z[dd][nn], removeFromData, removeFromModel);
@@ -870,6 +928,10 @@ public class SNLDA extends AbstractSampler {
 
         long sTime = System.currentTimeMillis();
         for (int dd = 0; dd < D; dd++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int nn = 0; nn < words[dd].length; nn++) {
                 // remove
                 removeToken(dd, nn, z[dd][nn], removeFromData, removeFromModel);
@@ -925,12 +987,17 @@ public class SNLDA extends AbstractSampler {
             return curNode;
         }
         if (curNode.isRoot()) {
-            cachedProbabilities = new HashMap<>();
+            if (cachedProbabilities == null
+                    || cachedProbabilities.length < curNode.theta.length) {
+                cachedProbabilities = new double[curNode.theta.length];
+            }
+            Arrays.fill(cachedProbabilities, Double.NaN);
+            cachedStayProbability = Double.NaN;
+            cachedTotalProbability = 0.0;
         }
 
         int level = curNode.getLevel();
-        ArrayList<Node> nodeList = new ArrayList<>();
-        ArrayList<Double> probList = new ArrayList<>();
+        workspace.clear();
 
         // staying at this node
         double gamma = getGamma(level);
@@ -942,11 +1009,11 @@ public class SNLDA extends AbstractSampler {
                     / (curNode.subtreeDocCounts.getCount(dd) + gamma);
             double wordprob = curNode.getNodeWordProbability(words[dd][nn]);
             double prob = stayprob * wordprob;
-            probList.add(prob);
-            nodeList.add(curNode);
+            workspace.add(STAY_INDEX, prob);
 
             if (curNode.isRoot()) {
-                cachedProbabilities.put(curNode, prob);
+                cachedStayProbability = prob;
+                cachedTotalProbability += prob;
             }
         }
 
@@ -961,21 +1028,21 @@ public class SNLDA extends AbstractSampler {
                     + alpha * KK * curNode.theta[kk]) / norm;
             double wordprob = child.getSubtreeWordProbability(words[dd][nn]);
             double prob = passprob * pathprob * wordprob;
-            probList.add(prob);
-            nodeList.add(child);
+            workspace.add(kk, prob);
 
             if (curNode.isRoot()) {
-                cachedProbabilities.put(child, prob);
+                cachedProbabilities[kk] = prob;
+                cachedTotalProbability += prob;
             }
         }
 
-        int sampledIdx = SamplerUtils.scaleSample(probList);
-        Node sampledNode = nodeList.get(sampledIdx);
+        int sampledIdx = workspace.scaleSample();
+        int sampledIndex = workspace.getIndex(sampledIdx);
 
-        if (sampledNode.equals(curNode)) {
+        if (sampledIndex == STAY_INDEX) {
             return curNode;
         } else {
-            return sampleNode(dd, nn, sampledNode);
+            return sampleNode(dd, nn, curNode.getChild(sampledIndex));
         }
     }
 
@@ -1055,15 +1122,12 @@ public class SNLDA extends AbstractSampler {
     private double getProposalPathProbability(int dd, int nn, Node source, Node target) {
         int level = source.getLevel();
         if (level == 0) { // use cached probabilities
-            double totalProb = 0.0;
-            for (double prob : cachedProbabilities.values()) {
-                totalProb += prob;
-            }
-            Double prob = cachedProbabilities.get(target);
-            if (prob == null) {
+            double prob = target.equals(source) ? cachedStayProbability
+                    : cachedProbabilities[target.getIndex()];
+            if (Double.isNaN(prob)) {
                 throw new RuntimeException("Null probability");
             }
-            return (prob / totalProb);
+            return (prob / cachedTotalProbability);
         } else if (level == L - 1) { // leaf node
             return 1.0;
         }
@@ -1463,6 +1527,23 @@ public class SNLDA extends AbstractSampler {
      * @param zipFilepath Compressed learned state file
      */
     public void inputAssignments(String zipFilepath) {
+        inputAssignments(zipFilepath, ADD);
+    }
+
+    /**
+     * Resume from a training checkpoint. The word counts of each node are
+     * part of the model, so the assignments only add to the data.
+     *
+     * @param filepath Compressed learned state file
+     */
+    @Override
+    protected void inputCheckpoint(String filepath) {
+        initializeDataStructure();
+        inputModel(filepath);
+        inputAssignments(filepath, !ADD);
+    }
+
+    private void inputAssignments(String zipFilepath, boolean addToModel) {
         if (verbose) {
             logln("--- --- Loading assignments from " + zipFilepath);
         }
@@ -1485,7 +1566,7 @@ public class SNLDA extends AbstractSampler {
                     }
                     String pathStr = sline[2];
                     z[dd][nn] = getNode(pathStr);
-                    addToken(dd, nn, z[dd][nn], ADD, ADD);
+                    addToken(dd, nn, z[dd][nn], ADD, addToModel);
                 }
             }
 
@@ -1979,6 +2060,7 @@ public class SNLDA extends AbstractSampler {
         addOption("init", "Initialization");
 
         options.addOption("train", false, "train");
+        options.addOption("resume", false, "Resume training from the latest checkpoint");
         options.addOption("test", false, "test");
         options.addOption("parallel", false, "parallel");
 
@@ -2056,6 +2138,8 @@ public class SNLDA extends AbstractSampler {
         sampler.setDebug(cmd.hasOption("d"));
         sampler.setLog(true);
         sampler.setReport(true);
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
 
         boolean isBinary = cmd.hasOption("binary");
         boolean isRooted = cmd.hasOption("root");
@@ -2104,13 +2188,16 @@ public class SNLDA extends AbstractSampler {
                 sampler.train(contData.getWords(), trainDocIndices, docResponses);
             }
 
-            sampler.initialize(priorTopics, initEtas);
+            if (!(isResuming() && sampler.resumeFromCheckpoint())) {
+                sampler.initialize(priorTopics, initEtas);
+            }
             sampler.metaIterate();
             sampler.outputTopicTopWords(new File(samplerFolder, TopWordFile), numTopWords);
             sampler.outputNodePosteriors(new File(samplerFolder, "train-node-posteriors.txt"));
         }
 
         if (isTesting()) {
+            sampler.getStopSignal().reset(); // the time budget only bounds training
             int[][] testWords;
             ArrayList<Integer> testDocIndices;
             if (isBinary) {
@@ -2198,103 +2285,49 @@ public class SNLDA extends AbstractSampler {
 
     /**
      * Run Gibbs sampling on test data using multiple models learned which are
-     * stored in the ReportFolder. The runs on multiple models are parallel.
+     * stored in the ReportFolder. All models are loaded once and shared by
+     * the threads sampling the test documents. Assignments of test documents
+     * are not stored.
      *
      * @param newWords Words of new documents
      * @param newDocIndices Indices of test documents
      * @param iterPredFolder Output folder
-     * @param iterStateFolder Folder to store assignments
+     * @param iterStateFolder Folder to store assignments, unused
      * @param sampler The configured sampler
      */
     public static double[] parallelTest(int[][] newWords,
             ArrayList<Integer> newDocIndices,
             File iterPredFolder,
             File iterStateFolder,
-            SNLDA sampler) {
+            final SNLDA sampler) {
         File reportFolder = new File(sampler.getSamplerFolderPath(), ReportFolder);
-        if (!reportFolder.exists()) {
-            throw new RuntimeException("Report folder not found. " + reportFolder);
-        }
-        String[] filenames = reportFolder.list();
-        double[] avgPredictions = null;
-        try {
-            IOUtils.createFolder(iterPredFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
-            ArrayList<File> partPredFiles = new ArrayList<>();
-            for (String filename : filenames) { // all learned models
-                if (!filename.contains("zip")) {
-                    continue;
-                }
-
-                File stateFile = new File(reportFolder, filename);
-
-                String stateFilename = IOUtils.removeExtension(filename);
-                File iterOutputPredFile = new File(iterPredFolder, stateFilename + ".txt");
-                File iterOutputStateFile = new File(iterStateFolder, stateFilename + ".zip");
-
-                SNLDATestRunner runner = new SNLDATestRunner(sampler,
-                        newWords, newDocIndices,
-                        stateFile.getAbsolutePath(),
-                        iterOutputStateFile.getAbsolutePath(),
-                        iterOutputPredFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
-                partPredFiles.add(iterOutputPredFile);
+        int[][] testWords = newWords;
+        if (newDocIndices != null) {
+            testWords = new int[newDocIndices.size()][];
+            for (int ii = 0; ii < testWords.length; ii++) {
+                testWords[ii] = newWords[newDocIndices.get(ii)];
             }
-
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
-
-            // average predictions
-            avgPredictions = PredictionUtils.computeMultipleAverage(partPredFiles);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Exception while sampling during parallel test.");
         }
-        return avgPredictions;
-    }
-}
-
-class SNLDATestRunner implements Runnable {
-
-    SNLDA sampler;
-    int[][] newWords;
-    ArrayList<Integer> newDocIndices;
-    String stateFile;
-    String outputStateFile;
-    String outputPredictionFile;
-
-    public SNLDATestRunner(SNLDA sampler,
-            int[][] newWords,
-            ArrayList<Integer> newDocIndices,
-            String stateFile,
-            String outputStateFile,
-            String outputPredFile) {
-        this.sampler = sampler;
-        this.newWords = newWords;
-        this.newDocIndices = newDocIndices;
-        this.stateFile = stateFile;
-        this.outputStateFile = outputStateFile;
-        this.outputPredictionFile = outputPredFile;
-    }
-
-    @Override
-    public void run() {
-        SNLDA testSampler = new SNLDA();
-        testSampler.setVerbose(true);
-        testSampler.setDebug(false);
-        testSampler.setLog(false);
-        testSampler.setReport(false);
-        testSampler.configure(sampler);
         try {
-            testSampler.test(newWords, newDocIndices);
-            testSampler.sampleTest(
-                    new File(stateFile),
-                    new File(outputStateFile),
-                    new File(outputPredictionFile));
+            EnsemblePredictor ensemble = new EnsemblePredictor(
+                    EnsemblePredictor.getStateFiles(reportFolder),
+                    new EnsemblePredictor.ModelLoader() {
+                        @Override
+                        public EnsemblePredictor.Model load(File stateFile) {
+                            SNLDA testSampler = new SNLDA();
+                            testSampler.setVerbose(false);
+                            testSampler.setDebug(false);
+                            testSampler.setLog(false);
+                            testSampler.setReport(false);
+                            testSampler.configure(sampler);
+                            testSampler.inputModel(stateFile.getAbsolutePath());
+                            return testSampler.getTestModel();
+                        }
+                    });
+            return ensemble.predict(testWords, iterPredFolder);
         } catch (Exception e) {
             e.printStackTrace();
-            throw new RuntimeException();
+            throw new RuntimeException("Exception while sampling during parallel test.");
         }
     }
 }
@@ -453,10 +453,16 @@ public class SHDP extends AbstractSampler implements Regressor<ResponseTextDatas
             if (debug) {
                 validate("iter " + iter);
             }
+
+            if (isConverged((double) numTokensChange / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) { // output the final model
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -480,6 +486,9 @@ public class SHDP extends AbstractSampler implements Regressor<ResponseTextDatas
     public void iterate(int iteration) {
         // sample topic assignments
         for (int d = 0; d < D; d++) {
+            if (isStopRequested()) {
+                break;
+            }
             for (int n = 0; n < words[d].length; n++) {
                 sampleZ(d, n, REMOVE, ADD, REMOVE, ADD, OBSERVED);
             }
@@ -1146,7 +1155,7 @@ public class SHDP extends AbstractSampler implements Regressor<ResponseTextDatas
         String[] filenames = reportFolder.list();
         try {
             IOUtils.createFolder(iterPredFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             for (int i = 0; i < filenames.length; i++) {
                 String filename = filenames[i];
                 if (!filename.contains("zip")) {
@@ -1159,12 +1168,10 @@ public class SHDP extends AbstractSampler implements Regressor<ResponseTextDatas
                 SHDPTestRunner runner = new SHDPTestRunner(sampler,
                         newWords, stateFile.getAbsolutePath(),
                         partialResultFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
+                tasks.add(runner);
             }
 
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
+            runTasks(tasks);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -390,6 +390,9 @@ public class SHDP_CRF extends AbstractSampler implements Regressor<ResponseTextD
             numConverged = 0;
 
             for (int d = 0; d < D; d++) {
+                if (isStopRequested()) {
+                    break;
+                }
                 for (int n = 0; n < words[d].length; n++) {
                     this.sampleTableForToken(d, n, REMOVE, ADD,
                             REMOVE, ADD, OBSERVED, EXTEND);
@@ -448,10 +451,15 @@ public class SHDP_CRF extends AbstractSampler implements Regressor<ResponseTextD
             if (report && iter > BURN_IN && iter % LAG == 0) {
                 outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
             }
+
+            if (isConverged(Double.NaN) || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) {
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -424,10 +424,16 @@ public class SLDA extends AbstractSampler implements Regressor<ResponseTextDatas
             if (report && iter > BURN_IN && iter % LAG == 0) {
                 outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) { // output the final model
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -454,6 +460,10 @@ public class SLDA extends AbstractSampler implements Regressor<ResponseTextDatas
         double totalBeta = V * hyperparams.get(BETA);
         double sqrtRho = Math.sqrt(hyperparams.get(RHO));
         for (int d = 0; d < D; d++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int n = 0; n < words[d].length; n++) {
                 if (removeFromModel) {
                     topicWords[z[d][n]].decrement(words[d][n]);
@@ -1091,7 +1101,7 @@ public class SLDA extends AbstractSampler implements Regressor<ResponseTextDatas
         String[] filenames = reportFolder.list();
         try {
             IOUtils.createFolder(iterPredFolder);
-            ArrayList<Thread> threads = new ArrayList<Thread>();
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             for (int i = 0; i < filenames.length; i++) {
                 String filename = filenames[i];
                 if (!filename.contains("zip")) {
@@ -1104,12 +1114,10 @@ public class SLDA extends AbstractSampler implements Regressor<ResponseTextDatas
                 SLDATestRunner runner = new SLDATestRunner(sampler,
                         newWords, stateFile.getAbsolutePath(),
                         partialResultFile.getAbsolutePath());
-                Thread thread = new Thread(runner);
-                threads.add(thread);
+                tasks.add(runner);
             }
 
-            // run MAX_NUM_PARALLEL_THREADS threads at a time
-            runThreads(threads);
+            runTasks(tasks);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -1231,6 +1239,8 @@ public class SLDA extends AbstractSampler implements Regressor<ResponseTextDatas
         sampler.setLog(true);
         sampler.setReport(true);
         sampler.setWordVocab(data.getWordVocab());
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
         sampler.setOptimizerType(optType);
 
         sampler.configure(resultFolder,
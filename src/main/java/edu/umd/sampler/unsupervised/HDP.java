@@ -18,6 +18,8 @@ import java.util.TreeSet;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.Options;
 import edu.umd.sampling.likelihood.DirMult;
+import edu.umd.sampling.util.CountHistogram;
+import edu.umd.sampling.util.DirichletOptimizer;
 import edu.umd.sampling.util.SparseCount;
 import edu.umd.util.CLIUtils;
 import edu.umd.util.IOUtils;
@@ -76,6 +78,7 @@ public class HDP extends AbstractSampler {
         this.hyperparams.add(alpha_global);
         this.hyperparams.add(alpha_local);
         this.hyperparams.add(beta);
+        syncHyperparameters();
 
         this.sampledParams = new ArrayList<ArrayList<Double>>();
         this.sampledParams.add(cloneHyperparameters());
@@ -343,8 +346,8 @@ public class HDP extends AbstractSampler {
 
             // parameter optimization
             if (iter % LAG == 0 && iter > BURN_IN) {
-                if (paramOptimized) { // slice sampling
-                    sliceSample();
+                if (paramOptimized) {
+                    optimizeHyperparameters();
                     ArrayList<Double> sparams = new ArrayList<Double>();
                     for (double param : this.hyperparams) {
                         sparams.add(param);
@@ -367,10 +370,16 @@ public class HDP extends AbstractSampler {
             if (debug) {
                 validate("iter " + iter);
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) { // output the final model
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -393,8 +402,12 @@ public class HDP extends AbstractSampler {
 
     private void sampleZs(boolean removeFromModel, boolean addToModel,
             boolean removeFromData, boolean addToData) {
-        double totalBeta = hyperparams.get(BETA) * V;
+        double totalBeta = hyperparamValues[BETA] * V;
         for (int ii = 0; ii < D; ii++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             int dd = docIndices.get(ii);
             for (int nn = 0; nn < words[dd].length; nn++) {
                 int curZ = z[ii][nn];
@@ -410,26 +423,27 @@ public class HDP extends AbstractSampler {
                     }
                 }
 
-                ArrayList<Integer> indices = new ArrayList<Integer>();
-                ArrayList<Double> probs = new ArrayList<Double>();
+                workspace.clear();
                 for (int k : topicWords.getIndices()) {
-                    indices.add(k);
                     double docTopicProb = docTopics[ii].getCount(k)
-                            + hyperparams.get(ALPHA_LOCAL) * globalWeights.get(k);
+                            + hyperparamValues[ALPHA_LOCAL] * globalWeights.get(k);
                     double topicWordProb = topicWords.getComponent(k).getPhi(words[dd][nn]);
-                    probs.add(docTopicProb * topicWordProb);
+                    workspace.add(k, docTopicProb * topicWordProb);
                 }
 
                 if (addToModel) {
-                    indices.add(NEW_COMPONENT_INDEX);
-                    double docTopicProb = hyperparams.get(ALPHA_LOCAL)
+                    double docTopicProb = hyperparamValues[ALPHA_LOCAL]
                             * globalWeights.get(NEW_COMPONENT_INDEX);
                     double topicWordProb = uniform;
-                    probs.add(docTopicProb * topicWordProb);
+                    workspace.add(NEW_COMPONENT_INDEX, docTopicProb * topicWordProb);
                 }
 
-                int sampledIdx = SamplerUtils.scaleSample(probs);
-                int newZ = indices.get(sampledIdx);
+                int sampledIdx = workspace.scaleSample();
+                if (sampledIdx == workspace.size()) {
+                    throw new RuntimeException("Out-of-bound sampling. d = " + dd
+                            + ". n = " + nn);
+                }
+                int newZ = workspace.getIndex(sampledIdx);
 
                 if (curZ != newZ) {
                     numTokensChanged++;
@@ -475,7 +489,7 @@ public class HDP extends AbstractSampler {
                 int count = docTopics[ii].getCount(k);
                 if (count > 1) {
                     int c = SamplerUtils.randAntoniak(
-                            hyperparams.get(ALPHA_LOCAL) * globalWeights.get(k),
+                            hyperparamValues[ALPHA_LOCAL] * globalWeights.get(k),
                             count);
                     counts.changeCount(k, c);
                 } else {
@@ -517,6 +531,32 @@ public class HDP extends AbstractSampler {
     public void updateHyperparameters(ArrayList<Double> newParams) {
     }
 
+    /**
+     * Optimize the topic-word beta by fixed-point iterations on count
+     * histograms. The DP concentrations have no Dirichlet-multinomial fixed
+     * point and keep their current values.
+     */
+    @Override
+    protected void fixedPointOptimize() {
+        DirMult[] phis = new DirMult[topicWords.getNumComponents()];
+        int ii = 0;
+        for (int k : topicWords.getIndices()) {
+            phis[ii++] = topicWords.getComponent(k).phi;
+        }
+        if (phis.length == 0) {
+            return;
+        }
+        double beta = DirichletOptimizer.optimizeSymmetric(hyperparams.get(BETA),
+                CountHistogram.build(phis, getForkJoinPool()));
+        ArrayList<Double> newParams = cloneHyperparameters();
+        newParams.set(BETA, beta);
+        this.hyperparams = newParams;
+        syncHyperparameters();
+        for (DirMult phi : phis) {
+            phi.setConcentration(beta * V);
+        }
+    }
+
     @Override
     public void validate(String msg) {
         for (int ii = 0; ii < D; ii++) {
@@ -890,6 +930,8 @@ public class HDP extends AbstractSampler {
         sampler.setLog(true);
         sampler.setReport(true);
         sampler.setWordVocab(data.getWordVocab());
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
 
         if (initState == InitialState.PRESET) { // for initialization
             sampler.setK(K);
@@ -1,6 +1,7 @@
 package edu.umd.sampler.unsupervised;
 
 import edu.umd.core.AbstractSampler;
+import edu.umd.data.FlatCorpus;
 import edu.umd.data.TextDataset;
 
 import java.io.BufferedReader;
@@ -10,15 +11,27 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.Options;
 import edu.umd.sampling.likelihood.DirMult;
+import edu.umd.sampling.util.AliasMHTopicSampler;
+import edu.umd.sampling.util.CountHistogram;
+import edu.umd.sampling.util.DirichletOptimizer;
+import edu.umd.sampling.util.HogwildTopicSampler;
+import edu.umd.sampling.util.SparseCount;
 import edu.umd.util.CLIUtils;
 import edu.umd.util.IOUtils;
 import edu.umd.util.MiscUtils;
-import edu.umd.util.SamplerUtils;
+import edu.umd.util.XoroshiroRandom;
 
 /**
  * Implementation of Latent Dirichlet Allocation (LDA).
@@ -27,13 +40,23 @@ import edu.umd.util.SamplerUtils;
  */
 public class LDA extends AbstractSampler {
 
-    public volatile boolean continueRunning = true; //To allow for premature exit of thread
+    /**
+     * Strategy used to sample the topic assignment of each token.
+     * <ul>
+     * <li>DENSE: compute the full conditional over all K topics</li>
+     * <li>SPARSE: SparseLDA bucketed sampling (Yao et al. KDD 09)</li>
+     * <li>ALIAS: Metropolis-Hastings with alias-table word proposals and
+     * document proposals (Yuan et al. WWW 15)</li>
+     * </ul>
+     */
+    public static enum ZSamplingMode {
 
+        DENSE, SPARSE, ALIAS
+    }
     // hyperparameters
     public static final int ALPHA = 0;
     public static final int BETA = 1;
     // inputs
-    protected int[][] words; // original documents
     protected ArrayList<Integer> docIndices; // [D]: indices of considered docs
     protected int K;
     protected int V;
@@ -42,8 +65,34 @@ public class LDA extends AbstractSampler {
     // latent
     protected DirMult[] docTopics;
     protected DirMult[] topicWords;
-    protected int[][] z;
+    protected int[] z; // [N]: topic assignments, in the layout of corpus
+    // the selected documents as one flat token array, the only copy of the
+    // words kept by the sampler; token n of document d is at
+    // corpus.getDocStart(d) + n in both the tokens and z
+    protected FlatCorpus corpus;
     protected String priorTopicFile;
+    protected ZSamplingMode zSamplingMode = ZSamplingMode.DENSE;
+    // SparseLDA caches
+    private SparseCount[] wordTopics; // [V]: per-word topic counts
+    private double[] topicDenoms; // [K]: 1 / (n_k + V * beta)
+    private double[] sparseCoeffs; // [K]: (n_dk + alpha) / (n_k + V * beta)
+    private int[] sparseTopics; // [K]: buffer of topics in the topic-word bucket
+    private double[] sparseMasses; // [K]: buffer of cumulative masses
+    // alias-table Metropolis-Hastings sampler
+    private AliasMHTopicSampler aliasSampler;
+    // approximate distributed (AD-LDA) sampling
+    protected int numThreads = 1;
+    protected double totalAlpha; // alpha * K, see updateHyperparameterCache
+    protected double totalBeta; // beta * V
+    // count summaries shared by all slice sampling proposals
+    protected CountHistogram docCountHist;
+    protected CountHistogram topicCountHist;
+    // normalized asymmetric alpha shared by all documents, set by
+    // fixedPointOptimize(); null if alpha is symmetric
+    protected double[] alphaCenter;
+    protected boolean hogwild = false;
+    private ExecutorService sweepExecutor;
+    private HogwildTopicSampler hogwildSampler;
 
     //For Distillery - stores the iteration id of the particular model of models
     //Used for keeping track of status of the sampler
@@ -77,6 +126,7 @@ public class LDA extends AbstractSampler {
         this.hyperparams = new ArrayList<Double>();
         this.hyperparams.add(alpha);
         this.hyperparams.add(beta);
+        syncHyperparameters();
 
         this.sampledParams = new ArrayList<ArrayList<Double>>();
         this.sampledParams.add(cloneHyperparameters());
@@ -95,13 +145,16 @@ public class LDA extends AbstractSampler {
             logln("--- folder\t" + folder);
             logln("--- num topics:\t" + K);
             logln("--- vocab size:\t" + V);
-            logln("--- alpha:\t" + MiscUtils.formatDouble(hyperparams.get(ALPHA)));
-            logln("--- beta:\t" + MiscUtils.formatDouble(hyperparams.get(BETA)));
+            logln("--- alpha:\t" + MiscUtils.formatDouble(hyperparamValues[ALPHA]));
+            logln("--- beta:\t" + MiscUtils.formatDouble(hyperparamValues[BETA]));
             logln("--- burn-in:\t" + BURN_IN);
             logln("--- max iter:\t" + MAX_ITER);
             logln("--- sample lag:\t" + LAG);
             logln("--- paramopt:\t" + paramOptimized);
             logln("--- initialize:\t" + initState);
+            logln("--- z sampler:\t" + zSamplingMode);
+            logln("--- # threads:\t" + numThreads);
+            logln("--- hogwild:\t" + hogwild);
         }
     }
 
@@ -112,13 +165,64 @@ public class LDA extends AbstractSampler {
                 + "_B-" + BURN_IN
                 + "_M-" + MAX_ITER
                 + "_L-" + LAG
-                + "_a-" + formatter.format(hyperparams.get(ALPHA))
-                + "_b-" + formatter.format(hyperparams.get(BETA));
+                + "_a-" + formatter.format(hyperparamValues[ALPHA])
+                + "_b-" + formatter.format(hyperparamValues[BETA]);
         if (this.priorTopicFile != null) {
             this.name += "_reprocess";
         }
     }
 
+    public void setZSamplingMode(ZSamplingMode mode) {
+        checkParallelSampling(mode, numThreads);
+        this.zSamplingMode = mode;
+    }
+
+    public ZSamplingMode getZSamplingMode() {
+        return this.zSamplingMode;
+    }
+
+    /**
+     * Set the number of threads used to sample topic assignments. With more
+     * than one thread, documents are partitioned across threads and sampled
+     * with approximate distributed Gibbs sampling (AD-LDA, Newman et al. JMLR
+     * 09): each thread samples against its own copy of the topic-word counts
+     * and the changes are merged at the end of each sweep. Parallel sweeps
+     * use dense sampling, so only the DENSE topic sampler can be combined with
+     * more than one thread.
+     *
+     * @param numThreads Number of threads
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new RuntimeException("Invalid number of threads " + numThreads);
+        }
+        checkParallelSampling(zSamplingMode, numThreads);
+        this.numThreads = numThreads;
+    }
+
+    private static void checkParallelSampling(ZSamplingMode mode, int numThreads) {
+        if (numThreads > 1 && mode != ZSamplingMode.DENSE) {
+            throw new RuntimeException("Topic assignment sampler " + mode
+                    + " does not support " + numThreads + " threads."
+                    + " Use the DENSE sampler for parallel sampling.");
+        }
+    }
+
+    public int getNumThreads() {
+        return this.numThreads;
+    }
+
+    /**
+     * When sampling with multiple threads, let all threads update one shared
+     * lock-free topic-word count matrix instead of merging per-thread copies
+     * at the end of each sweep.
+     *
+     * @param hogwild Whether to use shared counts
+     */
+    public void setHogwild(boolean hogwild) {
+        this.hogwild = hogwild;
+    }
+
     /*
      * Below functions needed for Distillery
      */
@@ -163,12 +267,13 @@ public class LDA extends AbstractSampler {
 
 
     /**
-     * Return the current topic assignments for all tokens.
+     * Return a copy of the current topic assignments for all tokens, one
+     * array per document.
      *
      * @return Current topic assignments
      */
     public int[][] getZs() {
-        return this.z;
+        return corpus.scatter(z);
     }
 
     /**
@@ -220,17 +325,47 @@ public class LDA extends AbstractSampler {
                 this.docIndices.add(dd);
             }
         }
-        this.numTokens = 0;
         this.D = this.docIndices.size();
-        this.words = new int[D][];
+        int[][] selectedWords = new int[D][];
         for (int ii = 0; ii < D; ii++) {
-            int dd = this.docIndices.get(ii);
-            this.words[ii] = docWords[dd];
-            this.numTokens += this.words[ii].length;
+            selectedWords[ii] = docWords[this.docIndices.get(ii)];
+        }
+        this.corpus = new FlatCorpus(selectedWords);
+        this.numTokens = corpus.getNumTokens();
+        this.z = null;
+
+        if (verbose) {
+            logln("--- # all docs:\t" + docWords.length);
+            logln("--- # selected docs:\t" + D);
+            logln("--- # tokens:\t" + numTokens);
+        }
+    }
+
+    /**
+     * Set training data given as a flat corpus, which is used as is when all
+     * documents are selected.
+     *
+     * @param docWords   All documents
+     * @param docIndices Indices of selected documents. If this is null, all
+     *                   documents are considered.
+     */
+    public void train(FlatCorpus docWords, ArrayList<Integer> docIndices) {
+        this.docIndices = docIndices;
+        if (this.docIndices == null) { // add all documents
+            this.docIndices = new ArrayList<>();
+            for (int dd = 0; dd < docWords.getNumDocs(); dd++) {
+                this.docIndices.add(dd);
+            }
+            this.corpus = docWords;
+        } else {
+            this.corpus = docWords.getDocWords(this.docIndices);
         }
+        this.D = this.docIndices.size();
+        this.numTokens = corpus.getNumTokens();
+        this.z = null;
 
         if (verbose) {
-            logln("--- # all docs:\t" + words.length);
+            logln("--- # all docs:\t" + docWords.getNumDocs());
             logln("--- # selected docs:\t" + D);
             logln("--- # tokens:\t" + numTokens);
         }
@@ -295,11 +430,13 @@ public class LDA extends AbstractSampler {
         topicWords = new DirMult[K];
         for (int k = 0; k < K; k++) {
             if (topics != null) {
-                topicWords[k] = new DirMult(V, hyperparams.get(BETA) * V, topics[k]);
+                topicWords[k] = new DirMult(V, totalBeta, topics[k]);
             } else {
-                topicWords[k] = new DirMult(V, hyperparams.get(BETA) * V, 1.0 / V);
+                topicWords[k] = new DirMult(V, totalBeta, 1.0 / V);
             }
         }
+        attachDenseCounts(topicWords);
+        trackLogLikelihoods(topicWords);
     }
 
     protected void initializeDataStructure(double[][] docTopicPrior) {
@@ -316,16 +453,14 @@ public class LDA extends AbstractSampler {
         docTopics = new DirMult[D];
         for (int d = 0; d < D; d++) {
             if (docTopicPrior != null) {
-                docTopics[d] = new DirMult(K, hyperparams.get(ALPHA) * K, docTopicPrior[d]);
+                docTopics[d] = new DirMult(K, totalAlpha, docTopicPrior[d]);
             } else {
-                docTopics[d] = new DirMult(K, hyperparams.get(ALPHA) * K, 1.0 / K);
+                docTopics[d] = new DirMult(K, totalAlpha, 1.0 / K);
             }
         }
+        trackLogLikelihoods(docTopics);
 
-        z = new int[D][];
-        for (int d = 0; d < D; d++) {
-            z[d] = new int[words[d].length];
-        }
+        z = corpus.newAssignments();
     }
 
     protected void initializeAssignments() {
@@ -361,78 +496,89 @@ public class LDA extends AbstractSampler {
         startTime = System.currentTimeMillis();
 
         for (iter = 0; iter < MAX_ITER; iter++) {
-            if (continueRunning) { //Allows for premature exit of thread
-
-                isReporting = isReporting();
-                numTokensChanged = 0;
-                if (isReporting) {
-                    // store llh after every iteration
-                    double loglikelihood = this.getLogLikelihood();
-                    logLikelihoods.add(loglikelihood);
-
-                    //Write iteration status to file
-                    if (iter % (REP_INTERVAL*2) == 0) { //Every 50 iterations
-                        String curIter = iter + "/" + MAX_ITER;
-                        writeIterationStatus(curIter);
-                    }
+            isReporting = isReporting();
+            numTokensChanged = 0;
+            if (isReporting) {
+                // store llh after every iteration
+                double loglikelihood = this.getLogLikelihood();
+                logLikelihoods.add(loglikelihood);
+
+                //Write iteration status to file
+                if (iter % (REP_INTERVAL*2) == 0) { //Every 50 iterations
+                    String curIter = iter + "/" + MAX_ITER;
+                    writeIterationStatus(curIter);
+                }
 
-                    String str = "Iter " + iter + "/" + MAX_ITER
-                            + "\t llh = " + loglikelihood;
-                            //+ "\n" + getCurrentState();
-                    if (iter < BURN_IN) {
-                        logln("--- Burning in. " + str);
-                    } else {
-                        logln("--- Sampling. " + str);
-                    }
+                String str = "Iter " + iter + "/" + MAX_ITER
+                        + "\t llh = " + loglikelihood;
+                        //+ "\n" + getCurrentState();
+                if (iter < BURN_IN) {
+                    logln("--- Burning in. " + str);
+                } else {
+                    logln("--- Sampling. " + str);
                 }
+            }
 
-                // sample topic assignments
-                long topicTime = sampleZs(REMOVE, ADD, REMOVE, ADD);
+            // sample topic assignments
+            long topicTime = sampleZs(REMOVE, ADD, REMOVE, ADD);
 
-                // parameter optimization by slice sampling
-                if (paramOptimized && iter % LAG == 0 && iter >= BURN_IN) {
-                    sliceSample();
-                    ArrayList<Double> sparams = new ArrayList<Double>();
-                    for (double param : this.hyperparams) {
-                        sparams.add(param);
-                    }
-                    this.sampledParams.add(sparams);
+            // parameter optimization by slice sampling
+            if (paramOptimized && iter % LAG == 0 && iter >= BURN_IN) {
+                optimizeHyperparameters();
+                ArrayList<Double> sparams = new ArrayList<Double>();
+                for (double param : this.hyperparams) {
+                    sparams.add(param);
+                }
+                this.sampledParams.add(sparams);
 
-                    if (verbose) {
-                        for (double p : sparams) {
-                            System.out.println(p);
-                        }
+                if (verbose) {
+                    for (double p : sparams) {
+                        System.out.println(p);
                     }
                 }
+            }
 
-                if (isReporting) {
-                    logln("--- --- Time. topic: " + topicTime);
-                    logln("--- --- # tokens: " + numTokens
-                            + ". # token changed: " + numTokensChanged
-                            + ". change ratio: "
-                            + MiscUtils.formatDouble((double) numTokensChanged / numTokens)
-                            + "\n\n");
+            if (isReporting) {
+                logln("--- --- Time. topic: " + topicTime);
+                if (aliasSampler != null) {
+                    logln("--- --- MH acceptance rate: "
+                            + MiscUtils.formatDouble(aliasSampler.getAcceptanceRate()));
                 }
+                logln("--- --- # tokens: " + numTokens
+                        + ". # token changed: " + numTokensChanged
+                        + ". change ratio: "
+                        + MiscUtils.formatDouble((double) numTokensChanged / numTokens)
+                        + "\n\n");
+            }
 
-                if (debug) {
-                    validate("iter " + iter);
-                }
+            if (debug) {
+                validate("iter " + iter);
+            }
 
-                // store model
-                if (report && iter > BURN_IN && iter % LAG == 0) {
-                    outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
-                    outputTopicTopWords(new File(reportFolderPath,
-                            "topwords-" + iter + ".txt"), 20);
-                }
+            // store model
+            if (report && iter > BURN_IN && iter % LAG == 0) {
+                outputCheckpoint(new File(reportFolderPath, "iter-" + iter + ".zip"),
+                        new File(reportFolderPath, "topwords-" + iter + ".txt"), 20);
             }
 
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
+        if (aliasSampler != null) {
+            aliasSampler.shutdown();
+            aliasSampler = null;
+        }
+        shutdownSweepExecutor();
 
         if (report) { // output the final model
+            waitForCheckpoints();
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
             outputTopicTopWords(new File(reportFolderPath,
                     "topwords-" + iter + ".txt"), 20);
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -454,10 +600,29 @@ public class LDA extends AbstractSampler {
      */
     protected long sampleZs(boolean removeFromModel, boolean addToModel,
                             boolean removeFromData, boolean addToData) {
+        if (numThreads > 1 && D > 1) {
+            if (hogwild && removeFromModel && addToModel && removeFromData && addToData) {
+                return sampleZsHogwild();
+            }
+            return sampleZsParallel(removeFromModel, addToModel, removeFromData, addToData);
+        }
+        if (zSamplingMode == ZSamplingMode.SPARSE && isSparseSamplable()) {
+            return sampleZsSparse(removeFromModel, addToModel, removeFromData, addToData);
+        }
+        // MH needs every token to be in the counts already
+        if (zSamplingMode == ZSamplingMode.ALIAS && removeFromData && addToData
+                && removeFromModel == addToModel) {
+            return sampleZsAlias(removeFromModel, addToModel);
+        }
         long sTime = System.currentTimeMillis();
+        int[] tokens = corpus.getTokens();
         for (int dd = 0; dd < D; dd++) {
-            for (int nn = 0; nn < z[dd].length; nn++) {
-                sampleZ(dd, nn, removeFromModel, addToModel,
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
+            for (int ii = corpus.getDocStart(dd); ii < corpus.getDocEnd(dd); ii++) {
+                z[ii] = sampleZ(dd, tokens[ii], z[ii], removeFromModel, addToModel,
                         removeFromData, addToData);
             }
         }
@@ -477,30 +642,495 @@ public class LDA extends AbstractSampler {
     protected void sampleZ(int dd, int nn,
                            boolean removeFromModel, boolean addToModel,
                            boolean removeFromData, boolean addToData) {
+        int ii = corpus.getDocStart(dd) + nn;
+        z[ii] = sampleZ(dd, corpus.getTokens()[ii], z[ii], removeFromModel, addToModel,
+                removeFromData, addToData);
+    }
+
+    /**
+     * Sample the topic assignment of a token given its word type and current
+     * assignment
+     *
+     * @param dd              The document index
+     * @param word            The word type of the token
+     * @param curZ            The current topic assignment of the token
+     * @param removeFromModel
+     * @param addToModel
+     * @param removeFromData
+     * @param addToData
+     * @return The sampled topic
+     */
+    protected int sampleZ(int dd, int word, int curZ,
+                          boolean removeFromModel, boolean addToModel,
+                          boolean removeFromData, boolean addToData) {
         if (removeFromData) {
-            docTopics[dd].decrement(z[dd][nn]);
+            docTopics[dd].decrement(curZ);
         }
         if (removeFromModel) {
-            topicWords[z[dd][nn]].decrement(words[dd][nn]);
+            topicWords[curZ].decrement(word);
         }
 
-        double[] probs = new double[K];
+        double[] probs = workspace.getBuffer(K);
         for (int k = 0; k < K; k++) {
             probs[k] = (docTopics[dd].getCount(k)
-                    + hyperparams.get(ALPHA) * K * docTopics[dd].getCenterElement(k))
-                    * topicWords[k].getProbability(words[dd][nn]);
+                    + totalAlpha * docTopics[dd].getCenterElement(k))
+                    * topicWords[k].getProbability(word);
         }
-        int sampledZ = SamplerUtils.scaleSample(probs);
-        if (sampledZ != z[dd][nn]) {
+        int sampledZ = workspace.scaleSample();
+        if (sampledZ != curZ) {
             numTokensChanged++;
         }
-        z[dd][nn] = sampledZ;
 
         if (addToData) {
-            docTopics[dd].increment(z[dd][nn]);
+            docTopics[dd].increment(sampledZ);
         }
         if (addToModel) {
-            topicWords[z[dd][nn]].increment(words[dd][nn]);
+            topicWords[sampledZ].increment(word);
+        }
+        return sampledZ;
+    }
+
+    /**
+     * Return true if the SparseLDA decomposition applies, i.e., all
+     * document-topic and topic-word distributions have symmetric priors.
+     */
+    protected boolean isSparseSamplable() {
+        for (int k = 0; k < K; k++) {
+            if (!topicWords[k].isShortRepresented()) {
+                return false;
+            }
+        }
+        for (int d = 0; d < D; d++) {
+            if (!docTopics[d].isShortRepresented()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sample the topic assignments for all tokens using the SparseLDA bucket
+     * decomposition. The unnormalized conditional of topic k
+     *
+     * (n_dk + alpha) (n_kw + beta) / (n_k + V beta)
+     *
+     * is split into a smoothing bucket (alpha beta / (n_k + V beta)), a
+     * document bucket (n_dk beta / (n_k + V beta)) and a topic-word bucket
+     * ((n_dk + alpha) n_kw / (n_k + V beta)). Only the topic-word bucket is
+     * computed for every token, over the topics in which the word currently
+     * appears, so that the per-token cost depends on the number of non-zero
+     * counts instead of K.
+     *
+     * @param removeFromModel
+     * @param addToModel
+     * @param removeFromData
+     * @param addToData
+     * @return Elapsed time
+     */
+    protected long sampleZsSparse(boolean removeFromModel, boolean addToModel,
+                                  boolean removeFromData, boolean addToData) {
+        long sTime = System.currentTimeMillis();
+        double alpha = hyperparamValues[ALPHA];
+        double beta = hyperparamValues[BETA];
+        double betaSum = beta * V;
+
+        // build caches from the current counts
+        wordTopics = new SparseCount[V];
+        for (int v = 0; v < V; v++) {
+            wordTopics[v] = new SparseCount();
+        }
+        for (int k = 0; k < K; k++) {
+            for (int v : topicWords[k].getUniqueObservations()) {
+                wordTopics[v].changeCount(k, topicWords[k].getCount(v));
+            }
+        }
+        topicDenoms = new double[K];
+        sparseCoeffs = new double[K];
+        sparseTopics = new int[K];
+        sparseMasses = new double[K];
+        double smoothingMass = 0.0;
+        for (int k = 0; k < K; k++) {
+            topicDenoms[k] = 1.0 / (topicWords[k].getCountSum() + betaSum);
+            sparseCoeffs[k] = alpha * topicDenoms[k];
+            smoothingMass += alpha * beta * topicDenoms[k];
+        }
+
+        int[] tokens = corpus.getTokens();
+        for (int dd = 0; dd < D; dd++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
+            SparseCount docCounts = docTopics[dd].getSparseCounts();
+            double docMass = 0.0;
+            for (int slot = 0; slot < docCounts.getNumSlots(); slot++) {
+                int count = docCounts.getSlotCount(slot);
+                if (count > 0) {
+                    int k = docCounts.getSlotIndex(slot);
+                    docMass += count * beta * topicDenoms[k];
+                    sparseCoeffs[k] = (count + alpha) * topicDenoms[k];
+                }
+            }
+
+            for (int ii = corpus.getDocStart(dd); ii < corpus.getDocEnd(dd); ii++) {
+                int ww = tokens[ii];
+                int curZ = z[ii];
+
+                if (removeFromData || removeFromModel) {
+                    smoothingMass -= alpha * beta * topicDenoms[curZ];
+                    docMass -= docCounts.getCount(curZ) * beta * topicDenoms[curZ];
+                    if (removeFromData) {
+                        docTopics[dd].decrement(curZ);
+                    }
+                    if (removeFromModel) {
+                        topicWords[curZ].decrement(ww);
+                        wordTopics[ww].decrement(curZ);
+                        topicDenoms[curZ] = 1.0 / (topicWords[curZ].getCountSum() + betaSum);
+                    }
+                    smoothingMass += alpha * beta * topicDenoms[curZ];
+                    docMass += docCounts.getCount(curZ) * beta * topicDenoms[curZ];
+                    sparseCoeffs[curZ] = (docCounts.getCount(curZ) + alpha) * topicDenoms[curZ];
+                }
+
+                // topic-word bucket
+                int numSparse = 0;
+                double topicWordMass = 0.0;
+                SparseCount wordCounts = wordTopics[ww];
+                for (int slot = 0; slot < wordCounts.getNumSlots(); slot++) {
+                    int count = wordCounts.getSlotCount(slot);
+                    if (count > 0) {
+                        int k = wordCounts.getSlotIndex(slot);
+                        topicWordMass += sparseCoeffs[k] * count;
+                        sparseTopics[numSparse] = k;
+                        sparseMasses[numSparse] = topicWordMass;
+                        numSparse++;
+                    }
+                }
+
+                int sampledZ = -1;
+                double u = rand.nextDouble() * (smoothingMass + docMass + topicWordMass);
+                if (u < topicWordMass) {
+                    for (int jj = 0; jj < numSparse; jj++) {
+                        if (u < sparseMasses[jj]) {
+                            sampledZ = sparseTopics[jj];
+                            break;
+                        }
+                    }
+                } else {
+                    u -= topicWordMass;
+                    if (u < docMass) {
+                        for (int slot = 0; slot < docCounts.getNumSlots(); slot++) {
+                            int count = docCounts.getSlotCount(slot);
+                            if (count > 0) {
+                                sampledZ = docCounts.getSlotIndex(slot);
+                                u -= count * beta * topicDenoms[sampledZ];
+                                if (u <= 0) {
+                                    break;
+                                }
+                            }
+                        }
+                    } else {
+                        u -= docMass;
+                        for (int k = 0; k < K; k++) {
+                            sampledZ = k;
+                            u -= alpha * beta * topicDenoms[k];
+                            if (u <= 0) {
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (sampledZ < 0) { // numerical round-off at the bucket boundary
+                    sampledZ = numSparse > 0 ? sparseTopics[numSparse - 1] : curZ;
+                }
+
+                if (sampledZ != curZ) {
+                    numTokensChanged++;
+                }
+                z[ii] = sampledZ;
+
+                if (addToData || addToModel) {
+                    smoothingMass -= alpha * beta * topicDenoms[sampledZ];
+                    docMass -= docCounts.getCount(sampledZ) * beta * topicDenoms[sampledZ];
+                    if (addToData) {
+                        docTopics[dd].increment(sampledZ);
+                    }
+                    if (addToModel) {
+                        topicWords[sampledZ].increment(ww);
+                        wordTopics[ww].increment(sampledZ);
+                        topicDenoms[sampledZ] = 1.0 / (topicWords[sampledZ].getCountSum() + betaSum);
+                    }
+                    smoothingMass += alpha * beta * topicDenoms[sampledZ];
+                    docMass += docCounts.getCount(sampledZ) * beta * topicDenoms[sampledZ];
+                    sparseCoeffs[sampledZ] = (docCounts.getCount(sampledZ) + alpha) * topicDenoms[sampledZ];
+                }
+            }
+
+            // reset the coefficients of this document's topics
+            for (int slot = 0; slot < docCounts.getNumSlots(); slot++) {
+                if (docCounts.getSlotCount(slot) > 0) {
+                    int k = docCounts.getSlotIndex(slot);
+                    sparseCoeffs[k] = alpha * topicDenoms[k];
+                }
+            }
+        }
+        wordTopics = null; // only valid within a sweep
+        return System.currentTimeMillis() - sTime;
+    }
+
+    /**
+     * Sample the topic assignments for all tokens using Metropolis-Hastings
+     * with alias-table word proposals and document proposals. The number of
+     * accepted moves to a different topic is recorded in numTokensChanged.
+     *
+     * @param removeFromModel
+     * @param addToModel
+     * @return Elapsed time
+     */
+    protected long sampleZsAlias(boolean removeFromModel, boolean addToModel) {
+        long sTime = System.currentTimeMillis();
+        if (aliasSampler == null) {
+            aliasSampler = new AliasMHTopicSampler(K, V);
+        }
+        aliasSampler.resetStatistics();
+        aliasSampler.update(topicWords);
+
+        int[] tokens = corpus.getTokens();
+        for (int dd = 0; dd < D; dd++) {
+            if (removeFromModel && addToModel && isStopRequested()) {
+                break;
+            }
+            int start = corpus.getDocStart(dd);
+            int end = corpus.getDocEnd(dd);
+            for (int ii = start; ii < end; ii++) {
+                int ww = tokens[ii];
+                docTopics[dd].decrement(z[ii]);
+                if (removeFromModel) {
+                    topicWords[z[ii]].decrement(ww);
+                }
+
+                int sampledZ = aliasSampler.sample(docTopics[dd], topicWords,
+                        z, start, end, ii, ww, rand);
+                if (sampledZ != z[ii]) {
+                    numTokensChanged++;
+                }
+                z[ii] = sampledZ;
+
+                docTopics[dd].increment(sampledZ);
+                if (addToModel) {
+                    topicWords[sampledZ].increment(ww);
+                }
+            }
+        }
+        return System.currentTimeMillis() - sTime;
+    }
+
+    /**
+     * Sample the topic assignments for all tokens in parallel (AD-LDA).
+     * Documents are split into numThreads contiguous partitions with roughly
+     * equal numbers of tokens. Each worker samples its partition using the
+     * dense conditional against a private copy of the topic-word counts and
+     * records the moves it makes, which are then replayed on the shared
+     * counts in partition order so that the global state stays consistent.
+     *
+     * @param removeFromModel
+     * @param addToModel
+     * @param removeFromData
+     * @param addToData
+     * @return Elapsed time
+     */
+    protected long sampleZsParallel(boolean removeFromModel, boolean addToModel,
+                                    boolean removeFromData, boolean addToData) {
+        long sTime = System.currentTimeMillis();
+        if (sweepExecutor == null) {
+            sweepExecutor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "lda-sweep");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        // partition documents by number of tokens
+        int numParts = Math.min(numThreads, D);
+        ArrayList<ADLDAWorker> workers = new ArrayList<ADLDAWorker>();
+        long tokensPerPart = (numTokens + numParts - 1) / numParts;
+        int startDoc = 0;
+        long partTokens = 0;
+        for (int dd = 0; dd < D; dd++) {
+            partTokens += corpus.getDocLength(dd);
+            if ((partTokens >= tokensPerPart && workers.size() < numParts - 1)
+                    || dd == D - 1) {
+                workers.add(new ADLDAWorker(startDoc, dd + 1, rand.nextLong(),
+                        removeFromModel, addToModel, removeFromData, addToData));
+                startDoc = dd + 1;
+                partTokens = 0;
+            }
+        }
+
+        try {
+            ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (ADLDAWorker worker : workers) {
+                futures.add(sweepExecutor.submit(worker));
+            }
+            for (Future<Integer> future : futures) {
+                numTokensChanged += future.get();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Exception while sampling in parallel");
+        }
+
+        // reconcile the shared topic-word counts
+        for (ADLDAWorker worker : workers) {
+            worker.merge();
+        }
+        return System.currentTimeMillis() - sTime;
+    }
+
+    /**
+     * Sample the topic assignments for all tokens in parallel with all threads
+     * sharing one lock-free topic-word count matrix.
+     *
+     * @return Elapsed time
+     */
+    protected long sampleZsHogwild() {
+        long sTime = System.currentTimeMillis();
+        if (hogwildSampler == null) {
+            hogwildSampler = new HogwildTopicSampler(K, V, numThreads);
+            hogwildSampler.setStopSignal(stopSignal);
+            hogwildSampler.setDebug(debug);
+        }
+        numTokensChanged += hogwildSampler.sweep(corpus, z, docTopics, null,
+                topicWords, rand);
+        return System.currentTimeMillis() - sTime;
+    }
+
+    private void shutdownSweepExecutor() {
+        if (sweepExecutor != null) {
+            sweepExecutor.shutdown();
+            sweepExecutor = null;
+        }
+        if (hogwildSampler != null) {
+            hogwildSampler.shutdown();
+            hogwildSampler = null;
+        }
+    }
+
+    /**
+     * Samples a contiguous range of documents against a private copy of the
+     * topic-word counts.
+     */
+    class ADLDAWorker implements Callable<Integer> {
+
+        final int startDoc;
+        final int endDoc;
+        final Random workerRand;
+        final boolean removeFromModel;
+        final boolean addToModel;
+        final boolean removeFromData;
+        final boolean addToData;
+        // moves made by this worker: word, old topic (-1 if unassigned), new topic
+        int[] moves = new int[3 * 1024];
+        int numMoves = 0;
+
+        ADLDAWorker(int startDoc, int endDoc, long seed,
+                boolean removeFromModel, boolean addToModel,
+                boolean removeFromData, boolean addToData) {
+            this.startDoc = startDoc;
+            this.endDoc = endDoc;
+            this.workerRand = new XoroshiroRandom(seed);
+            this.removeFromModel = removeFromModel;
+            this.addToModel = addToModel;
+            this.removeFromData = removeFromData;
+            this.addToData = addToData;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            DirMult[] localTopicWords = new DirMult[K];
+            for (int k = 0; k < K; k++) {
+                localTopicWords[k] = topicWords[k].clone();
+                localTopicWords[k].setTrackLogLikelihood(false);
+            }
+            double[] probs = new double[K];
+            int[] tokens = corpus.getTokens();
+            int numChanged = 0;
+            for (int dd = startDoc; dd < endDoc; dd++) {
+                if (removeFromModel && addToModel && removeFromData && addToData
+                        && isStopRequested()) {
+                    break;
+                }
+                DirMult docTopic = docTopics[dd];
+                double alphaSum = docTopic.getConcentration();
+                for (int ii = corpus.getDocStart(dd); ii < corpus.getDocEnd(dd); ii++) {
+                    int ww = tokens[ii];
+                    int curZ = z[ii];
+                    if (removeFromData) {
+                        docTopic.decrement(curZ);
+                    }
+                    if (removeFromModel) {
+                        localTopicWords[curZ].decrement(ww);
+                    }
+
+                    double sum = 0.0;
+                    for (int k = 0; k < K; k++) {
+                        sum += (docTopic.getCount(k) + alphaSum * docTopic.getCenterElement(k))
+                                * localTopicWords[k].getProbability(ww);
+                        probs[k] = sum;
+                    }
+                    double u = workerRand.nextDouble() * sum;
+                    int sampledZ = 0;
+                    while (sampledZ < K - 1 && u >= probs[sampledZ]) {
+                        sampledZ++;
+                    }
+                    if (sampledZ != curZ) {
+                        numChanged++;
+                    }
+                    z[ii] = sampledZ;
+
+                    if (addToData) {
+                        docTopic.increment(sampledZ);
+                    }
+                    if (addToModel) {
+                        localTopicWords[sampledZ].increment(ww);
+                    }
+                    if (removeFromModel || addToModel) {
+                        recordMove(ww, removeFromModel ? curZ : -1, sampledZ);
+                    }
+                }
+            }
+            return numChanged;
+        }
+
+        private void recordMove(int ww, int oldZ, int newZ) {
+            if (numMoves * 3 + 3 > moves.length) {
+                moves = Arrays.copyOf(moves, moves.length * 2);
+            }
+            moves[numMoves * 3] = ww;
+            moves[numMoves * 3 + 1] = oldZ;
+            moves[numMoves * 3 + 2] = newZ;
+            numMoves++;
+        }
+
+        /**
+         * Replay the recorded moves on the shared topic-word counts.
+         */
+        void merge() {
+            for (int ii = 0; ii < numMoves; ii++) {
+                int ww = moves[ii * 3];
+                int oldZ = moves[ii * 3 + 1];
+                int newZ = moves[ii * 3 + 2];
+                if (oldZ >= 0) {
+                    topicWords[oldZ].decrement(ww);
+                }
+                if (addToModel) {
+                    topicWords[newZ].increment(ww);
+                }
+            }
+            moves = null;
         }
     }
 
@@ -524,29 +1154,149 @@ public class LDA extends AbstractSampler {
 
     @Override
     public double getLogLikelihood(ArrayList<Double> newParams) {
-        if (newParams.size() != this.hyperparams.size()) {
+        return getLogLikelihood(toArray(newParams));
+    }
+
+    /**
+     * Optimize an asymmetric alpha and a symmetric beta by fixed-point
+     * iterations on count histograms. Documents or topics that were
+     * initialized with their own priors keep them.
+     */
+    @Override
+    protected void fixedPointOptimize() {
+        ArrayList<Double> newParams = cloneHyperparameters();
+        double[] alphas = null;
+        double alphaSum = 0.0;
+        if (hasSharedAlpha()) {
+            CountHistogram docHist = CountHistogram.build(docTopics, getForkJoinPool(), true);
+            alphas = new double[K];
+            for (int k = 0; k < K; k++) {
+                alphas[k] = totalAlpha * docTopics[0].getCenterElement(k);
+            }
+            alphas = DirichletOptimizer.optimizeAsymmetric(alphas, docHist);
+            for (int k = 0; k < K; k++) {
+                alphaSum += alphas[k];
+            }
+            newParams.set(ALPHA, alphaSum / K);
+        }
+        if (isSymmetric(topicWords)) {
+            CountHistogram topicHist = CountHistogram.build(topicWords, getForkJoinPool());
+            newParams.set(BETA, DirichletOptimizer.optimizeSymmetric(
+                    hyperparamValues[BETA], topicHist));
+        }
+        updateHyperparameters(newParams);
+        if (alphas != null) {
+            alphaCenter = new double[K];
+            for (int k = 0; k < K; k++) {
+                alphaCenter[k] = alphas[k] / alphaSum;
+            }
+            for (int d = 0; d < D; d++) {
+                docTopics[d].getCenterVector(alphaCenter);
+            }
+            if (verbose) {
+                logln("--- --- alpha: " + MiscUtils.arrayToString(alphas));
+            }
+        }
+    }
+
+    /**
+     * Let all documents share one alpha mean vector after reading a state,
+     * so that the optimized alpha keeps being optimized: the one stored with
+     * the binary model, or else the one that all documents read from a text
+     * state have, if they have the same.
+     *
+     * @param storedAlpha Alpha mean vector stored with the model, or null
+     */
+    private void shareAlpha(double[] storedAlpha) {
+        alphaCenter = null;
+        double[] alpha = storedAlpha;
+        if (alpha == null) {
+            if (D == 0 || docTopics[0].isShortRepresented()) {
+                return;
+            }
+            alpha = docTopics[0].getCenterVector();
+            for (int d = 1; d < D; d++) {
+                if (docTopics[d].isShortRepresented()
+                        || !Arrays.equals(docTopics[d].getCenterVector(), alpha)) {
+                    return;
+                }
+            }
+        }
+        alphaCenter = alpha;
+        for (int d = 0; d < D; d++) {
+            docTopics[d].getCenterVector(alphaCenter);
+        }
+    }
+
+    /**
+     * Return true if all documents share the same symmetric or optimized
+     * asymmetric alpha.
+     */
+    private boolean hasSharedAlpha() {
+        if (D == 0) {
+            return false;
+        }
+        for (int d = 0; d < D; d++) {
+            if (alphaCenter == null
+                    ? !docTopics[d].isShortRepresented()
+                    : docTopics[d].getCenterVector() != alphaCenter) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void prepareSliceSample() {
+        if (!isSymmetric(docTopics) || !isSymmetric(topicWords)) {
+            return;
+        }
+        docCountHist = CountHistogram.build(docTopics, getForkJoinPool());
+        topicCountHist = CountHistogram.build(topicWords, getForkJoinPool());
+    }
+
+    @Override
+    protected void finishSliceSample() {
+        docCountHist = null;
+        topicCountHist = null;
+    }
+
+    @Override
+    public double getLogLikelihood(double[] newParams) {
+        if (newParams.length != this.hyperparams.size()) {
             throw new RuntimeException("Number of hyperparameters mismatched");
         }
+        if (docCountHist != null) {
+            return docCountHist.getLogLikelihood(newParams[ALPHA])
+                    + topicCountHist.getLogLikelihood(newParams[BETA]);
+        }
         double llh = 0;
         for (int d = 0; d < D; d++) {
-            llh += docTopics[d].getLogLikelihood(newParams.get(ALPHA) * K,
+            llh += docTopics[d].getLogLikelihood(newParams[ALPHA] * K,
                     docTopics[d].getCenterVector());
         }
         for (int k = 0; k < K; k++) {
-            llh += topicWords[k].getLogLikelihood(newParams.get(BETA) * V,
+            llh += topicWords[k].getLogLikelihood(newParams[BETA] * V,
                     topicWords[k].getCenterVector());
         }
         return llh;
     }
 
+    @Override
+    protected void updateHyperparameterCache() {
+        this.totalAlpha = hyperparamValues[ALPHA] * K;
+        this.totalBeta = hyperparamValues[BETA] * V;
+    }
+
     @Override
     public void updateHyperparameters(ArrayList<Double> newParams) {
         this.hyperparams = newParams;
+        syncHyperparameters();
         for (int d = 0; d < D; d++) {
-            this.docTopics[d].setConcentration(this.hyperparams.get(ALPHA) * K);
+            this.docTopics[d].setConcentration(totalAlpha);
         }
         for (int k = 0; k < K; k++) {
-            this.topicWords[k].setConcentration(this.hyperparams.get(BETA) * V);
+            this.topicWords[k].setConcentration(totalBeta);
         }
     }
 
@@ -607,12 +1357,30 @@ public class LDA extends AbstractSampler {
         IOUtils.output2DArray(my_file, postTops);
     }
 
+    @Override
+    protected AbstractSampler getCheckpointSnapshot() {
+        LDA snapshot = (LDA) cloneForCheckpoint();
+        snapshot.topicWords = DirMult.copy(topicWords);
+        snapshot.docTopics = DirMult.copy(docTopics);
+        if (alphaCenter != null && D > 0) { // the copies share one alpha
+            snapshot.alphaCenter = snapshot.docTopics[0].getCenterVector();
+        }
+        snapshot.z = z.clone();
+        return snapshot;
+    }
+
     @Override
     public void outputState(String filepath) {
         if (verbose) {
             logln("--- Outputing current state to " + filepath);
         }
         try {
+            if (stateFormat == StateFormat.BINARY) {
+                outputBinaryState(filepath, topicWords, docTopics, getZs(), 0, K - 1,
+                        alphaCenter != null && hasSharedAlpha() ? alphaCenter : null);
+                return;
+            }
+
             StringBuilder modelStr = new StringBuilder();
             for (int k = 0; k < K; k++) {
                 modelStr.append(k).append("\n");
@@ -623,8 +1391,8 @@ public class LDA extends AbstractSampler {
             for (int d = 0; d < D; d++) {
                 assignStr.append(d).append("\n");
                 assignStr.append(DirMult.output(docTopics[d])).append("\n");
-                for (int n = 0; n < z[d].length; n++) {
-                    assignStr.append(z[d][n]).append("\t");
+                for (int ii = corpus.getDocStart(d); ii < corpus.getDocEnd(d); ii++) {
+                    assignStr.append(z[ii]).append("\t");
                 }
                 assignStr.append("\n");
             }
@@ -644,9 +1412,11 @@ public class LDA extends AbstractSampler {
         }
 
         try {
-            inputModel(filepath);
+            double[] storedAlpha = inputModel(filepath);
 
             inputAssignments(filepath);
+
+            shareAlpha(storedAlpha);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Exception while loading from " + filepath);
@@ -655,7 +1425,11 @@ public class LDA extends AbstractSampler {
         validate("Done reading state from " + filepath);
     }
 
-    private void inputModel(String zipFilepath) {
+    /**
+     * Input the topic models and return the optimized alpha mean vector if
+     * it was stored with them, or null.
+     */
+    private double[] inputModel(String zipFilepath) {
         if (verbose) {
             logln("--- --- Loading model from " + zipFilepath);
         }
@@ -665,16 +1439,23 @@ public class LDA extends AbstractSampler {
             this.initializeModelStructure(null);
 
             String filename = IOUtils.removeExtension(IOUtils.getFilename(zipFilepath));
-            BufferedReader reader = IOUtils.getBufferedReader(zipFilepath,
-                    filename + ModelFileExt);
-            for (int k = 0; k < K; k++) {
-                int topicIdx = Integer.parseInt(reader.readLine());
-                if (topicIdx != k) {
-                    throw new RuntimeException("Indices mismatch when loading model");
+            double[] storedAlpha = null;
+            if (isBinaryState(zipFilepath, BinaryModelFileExt)) {
+                storedAlpha = inputBinaryModel(zipFilepath, topicWords);
+            } else {
+                BufferedReader reader = IOUtils.getBufferedReader(zipFilepath,
+                        filename + ModelFileExt);
+                for (int k = 0; k < K; k++) {
+                    int topicIdx = Integer.parseInt(reader.readLine());
+                    if (topicIdx != k) {
+                        throw new RuntimeException("Indices mismatch when loading model");
+                    }
+                    topicWords[k] = DirMult.input(reader.readLine());
                 }
-                topicWords[k] = DirMult.input(reader.readLine());
+                reader.close();
             }
-            reader.close();
+            attachDenseCounts(topicWords);
+            return storedAlpha;
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Exception while inputing model from "
@@ -692,21 +1473,28 @@ public class LDA extends AbstractSampler {
             this.initializeDataStructure(null);
 
             String filename = IOUtils.removeExtension(IOUtils.getFilename(zipFilepath));
-            BufferedReader reader = IOUtils.getBufferedReader(zipFilepath,
-                    filename + AssignmentFileExt);
-            for (int d = 0; d < D; d++) {
-                int docIdx = Integer.parseInt(reader.readLine());
-                if (docIdx != d) {
-                    throw new RuntimeException("Indices mismatch when loading assignments");
-                }
-                docTopics[d] = DirMult.input(reader.readLine());
+            if (isBinaryState(zipFilepath, BinaryAssignmentFileExt)) {
+                int[][] docZs = corpus.scatter(z);
+                inputBinaryAssignments(zipFilepath, docTopics, docZs);
+                corpus.gather(docZs, z);
+            } else {
+                BufferedReader reader = IOUtils.getBufferedReader(zipFilepath,
+                        filename + AssignmentFileExt);
+                for (int d = 0; d < D; d++) {
+                    int docIdx = Integer.parseInt(reader.readLine());
+                    if (docIdx != d) {
+                        throw new RuntimeException("Indices mismatch when loading assignments");
+                    }
+                    docTopics[d] = DirMult.input(reader.readLine());
 
-                String[] sline = reader.readLine().split("\t");
-                for (int n = 0; n < z[d].length; n++) {
-                    z[d][n] = Integer.parseInt(sline[n]);
+                    String[] sline = reader.readLine().split("\t");
+                    int start = corpus.getDocStart(d);
+                    for (int n = 0; n < corpus.getDocLength(d); n++) {
+                        z[start + n] = Integer.parseInt(sline[n]);
+                    }
                 }
+                reader.close();
             }
-            reader.close();
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Exception while inputing assignments from "
@@ -762,6 +1550,14 @@ public class LDA extends AbstractSampler {
 
         // configurations
         addOption("init", "Initialization");
+        addOption("z-sampler", "Topic assignment sampler: dense, sparse or alias");
+        addOption("num-threads", "Number of threads for parallel (AD-LDA) sampling."
+                + " Requires the dense z-sampler");
+        options.addOption("hogwild", false, "Whether parallel sampling threads "
+                + "share one lock-free topic-word count matrix");
+        options.addOption("dense-counts", false, "Whether topic-word counts are "
+                + "stored in a dense matrix when it fits in memory");
+        addOption("param-optimizer", "Hyperparameter optimizer: slice or fixed-point");
 
         options.addOption("v", false, "verbose");
         options.addOption("d", false, "debug");
@@ -789,6 +1585,22 @@ public class LDA extends AbstractSampler {
             default:
                 throw new RuntimeException("Initialization " + init + " not supported");
         }
+        String zSampler = CLIUtils.getStringArgument(cmd, "z-sampler", "dense");
+        ZSamplingMode zSamplingMode;
+        switch (zSampler) {
+            case "dense":
+                zSamplingMode = ZSamplingMode.DENSE;
+                break;
+            case "sparse":
+                zSamplingMode = ZSamplingMode.SPARSE;
+                break;
+            case "alias":
+                zSamplingMode = ZSamplingMode.ALIAS;
+                break;
+            default:
+                throw new RuntimeException("Topic assignment sampler " + zSampler
+                        + " not supported");
+        }
 
         // model parameters
         double alpha = CLIUtils.getDoubleArgument(cmd, "alpha", 0.1);
@@ -817,6 +1629,17 @@ public class LDA extends AbstractSampler {
         sampler.setLog(true);
         sampler.setReport(true);
         sampler.setWordVocab(data.getWordVocab());
+        sampler.setZSamplingMode(zSamplingMode);
+        sampler.setNumThreads(CLIUtils.getIntegerArgument(cmd, "num-threads", 1));
+        sampler.setHogwild(cmd.hasOption("hogwild"));
+        sampler.setDenseCounts(cmd.hasOption("dense-counts"));
+        if (CLIUtils.getStringArgument(cmd, "param-optimizer", "slice").equals("fixed-point")) {
+            sampler.setParamOptimizer(ParamOptimizer.FIXED_POINT);
+        }
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
+        sampler.setStateFormat(cmd);
+        sampler.setMaxDeltaCheckpoints(cmd);
 
         double[][] priorTopics = null;
         if (cmd.hasOption("prior-topic-file")) {
@@ -848,7 +1671,7 @@ public class LDA extends AbstractSampler {
             reader.close();
         }
 
-        sampler.train(data.getWords(), selectedDocIndices);
+        sampler.train(data.getFlatWords(), selectedDocIndices);
         sampler.initialize(null, priorTopics);
         sampler.iterate();
         sampler.outputTopicTopWords(new File(samplerFolder, TopWordFile), numTopWords);
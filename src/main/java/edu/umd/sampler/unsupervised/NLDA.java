@@ -466,11 +466,17 @@ public class NLDA extends AbstractSampler {
                 outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
                 outputTopicTopWords(new File(reportFolderPath, "topwords-" + iter + ".txt"), 20);
             }
+
+            if (isConverged((double) numTokensChanged / numTokens)
+                    || checkStopRequested()) {
+                break;
+            }
         }
 
         if (report) { // output the final model
             outputState(new File(reportFolderPath, "iter-" + iter + ".zip"));
             outputTopicTopWords(new File(reportFolderPath, "topwords-" + iter + ".txt"), 20);
+            outputStopReason(reportFolderPath);
         }
 
         float ellapsedSeconds = (System.currentTimeMillis() - startTime) / (1000);
@@ -494,6 +500,10 @@ public class NLDA extends AbstractSampler {
             boolean removeFromData, boolean addToData) {
         long sTime = System.currentTimeMillis();
         for (int dd = 0; dd < D; dd++) {
+            if (removeFromModel && addToModel && removeFromData && addToData
+                    && isStopRequested()) {
+                break;
+            }
             for (int nn = 0; nn < words[dd].length; nn++) {
                 // remove
                 removeToken(dd, nn, z[dd][nn], removeFromData, removeFromModel);
@@ -1126,6 +1136,8 @@ public class NLDA extends AbstractSampler {
         sampler.setLog(true);
         sampler.setReport(true);
         sampler.setWordVocab(data.getWordVocab());
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
 
         sampler.configure(outputFolder, V, Ks,
                 alphas, betas, gammaMeans, gammaScales,
@@ -258,6 +258,7 @@ public class RecursiveLDA extends AbstractSampler {
         rlda.setDebug(debug);
         rlda.setLog(false);
         rlda.setReport(false);
+        rlda.setStopSignal(stopSignal);
         if (level == 0) {
             rlda.configure(null, V, Ks[level] + 1,
                     alphas[level], betas[level],
@@ -309,10 +310,11 @@ public class RecursiveLDA extends AbstractSampler {
             }
         } else {
             rlda.iterate();
+            int[][] rldaZs = rlda.getZs();
             for (int d = 0; d < D; d++) {
                 for (int n = 0; n < words[d].length; n++) {
                     if (rlda.getValid()[d][n]) {
-                        zs[level][d][n] = rlda.z[d][n];
+                        zs[level][d][n] = rldaZs[d][n];
                     }
                 }
             }
@@ -322,6 +324,7 @@ public class RecursiveLDA extends AbstractSampler {
             return;
         }
 
+        int[][] rldaZs = rlda.getZs();
         for (int k = 0; k < Ks[level - 1]; k++) {
             boolean[][] subValid = new boolean[D][];
             for (int d = 0; d < D; d++) {
@@ -331,7 +334,7 @@ public class RecursiveLDA extends AbstractSampler {
                     if (!rlda.getValid()[d][n]) {
                         continue;
                     }
-                    if (rlda.z[d][n] == k) {
+                    if (rldaZs[d][n] == k) {
                         subValid[d][n] = true;
                     }
                 }
@@ -583,7 +586,7 @@ public class RecursiveLDA extends AbstractSampler {
         public void updateStatistics() {
             numTokens = 0;
             for (int d = 0; d < D; d++) {
-                for (int n = 0; n < words[d].length; n++) {
+                for (int n = 0; n < corpus.getDocLength(d); n++) {
                     if (this.valid[d][n]) {
                         numTokens++;
                     }
@@ -637,13 +640,15 @@ public class RecursiveLDA extends AbstractSampler {
                 logln("--- Initializing assignments with seeded assignments ...");
             }
 
+            Arrays.fill(z, INVALID);
+            int[] tokens = corpus.getTokens();
             for (int d = 0; d < D; d++) {
-                Arrays.fill(z[d], INVALID);
-                for (int n = 0; n < words[d].length; n++) {
+                int start = corpus.getDocStart(d);
+                for (int n = 0; n < corpus.getDocLength(d); n++) {
                     if (valid[d][n]) {
-                        z[d][n] = seededZs[d][n];
-                        docTopics[d].increment(z[d][n]);
-                        topicWords[z[d][n]].increment(words[d][n]);
+                        z[start + n] = seededZs[d][n];
+                        docTopics[d].increment(z[start + n]);
+                        topicWords[z[start + n]].increment(tokens[start + n]);
                     }
                 }
             }
@@ -655,13 +660,15 @@ public class RecursiveLDA extends AbstractSampler {
                 logln("--- Initializing assignments ...");
             }
 
+            Arrays.fill(z, INVALID);
+            int[] tokens = corpus.getTokens();
             for (int d = 0; d < D; d++) {
-                Arrays.fill(z[d], INVALID);
-                for (int n = 0; n < words[d].length; n++) {
+                int start = corpus.getDocStart(d);
+                for (int n = 0; n < corpus.getDocLength(d); n++) {
                     if (valid[d][n]) {
-                        z[d][n] = rand.nextInt(K);
-                        docTopics[d].increment(z[d][n]);
-                        topicWords[z[d][n]].increment(words[d][n]);
+                        z[start + n] = rand.nextInt(K);
+                        docTopics[d].increment(z[start + n]);
+                        topicWords[z[start + n]].increment(tokens[start + n]);
                     }
                 }
             }
@@ -679,7 +686,10 @@ public class RecursiveLDA extends AbstractSampler {
                 numTokensChanged = 0;
 
                 for (int d = 0; d < D; d++) {
-                    for (int n = 0; n < words[d].length; n++) {
+                    if (isStopRequested()) {
+                        break;
+                    }
+                    for (int n = 0; n < corpus.getDocLength(d); n++) {
                         if (valid[d][n]) {
                             sampleZ(d, n, REMOVE, ADD, REMOVE, ADD);
                         }
@@ -705,6 +715,11 @@ public class RecursiveLDA extends AbstractSampler {
                         logln("--- Sampling. " + str);
                     }
                 }
+
+                if (isConverged((double) numTokensChanged / numTokens)
+                        || checkStopRequested()) {
+                    break;
+                }
             }
         }
 
@@ -843,6 +858,8 @@ public class RecursiveLDA extends AbstractSampler {
         sampler.setLog(true);
         sampler.setReport(true);
         sampler.setWordVocab(data.getWordVocab());
+        sampler.setTimeBudget(cmd);
+        sampler.setConvergenceMonitor(cmd);
 
         sampler.configure(outputFolder, V, Ks, alphas, betas,
                 initState, paramOpt, burnIn, maxIters, sampleLag, repInterval);
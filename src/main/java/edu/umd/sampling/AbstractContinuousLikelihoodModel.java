@@ -1,6 +1,7 @@
 package edu.umd.sampling;
 
 import java.util.Random;
+import edu.umd.util.RandomStreams;
 
 /**
  *
@@ -9,7 +10,7 @@ import java.util.Random;
 public abstract class AbstractContinuousLikelihoodModel {
 
     public static final int RANDOM_SEED = 1123581321;
-    protected static Random rand = new Random(RANDOM_SEED);
+    protected static Random rand = RandomStreams.threadLocalRandom();
 
     public abstract double sampleFromPrior();
 
@@ -4,7 +4,9 @@ import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Random;
 import java.util.Set;
+import edu.umd.sampling.util.DenseCountMatrix;
 import edu.umd.sampling.util.SparseCount;
+import edu.umd.util.RandomStreams;
 
 /**
  * An abstract likelihood model of generating countable finite observations.
@@ -22,10 +24,14 @@ public abstract class AbstractDiscreteFiniteLikelihoodModel
     public static final int RANDOM_SEED = 1123581321;
     // this is currently used for likelihood models that does not have/use
     // conjugate prior and we need to sample from the prior
-    protected static Random rand = new Random(RANDOM_SEED);
+    protected static Random rand = RandomStreams.threadLocalRandom();
     // observations
     protected int dimension;
     protected SparseCount observations;
+    // optional dense backend: if set, counts are stored in a row of this
+    // matrix instead of in observations
+    protected DenseCountMatrix denseCounts;
+    protected int denseRow;
 
     public AbstractDiscreteFiniteLikelihoodModel(int dim) {
         this.dimension = dim;
@@ -47,46 +53,123 @@ public abstract class AbstractDiscreteFiniteLikelihoodModel
      */
     public abstract void sampleFromPrior();
 
+    /**
+     * Attach a group of models of the same dimension to a shared dense count
+     * matrix, one row per model. Existing counts are copied over.
+     *
+     * @param models The models
+     * @return The dense count matrix
+     */
+    public static DenseCountMatrix attachDenseCounts(
+            AbstractDiscreteFiniteLikelihoodModel[] models) {
+        DenseCountMatrix matrix = new DenseCountMatrix(models.length,
+                models[0].getDimension());
+        for (int ii = 0; ii < models.length; ii++) {
+            models[ii].setDenseCounts(matrix, ii);
+        }
+        return matrix;
+    }
+
+    /**
+     * Store the counts of this model in a row of a dense count matrix. The
+     * current counts are copied to the row.
+     *
+     * @param matrix The dense count matrix
+     * @param row The row of this model
+     */
+    public void setDenseCounts(DenseCountMatrix matrix, int row) {
+        if (matrix.getNumCols() != this.dimension) {
+            throw new RuntimeException("Dimension mismatch. " + matrix.getNumCols()
+                    + " vs. " + this.dimension);
+        }
+        int[] counts = getCounts();
+        this.denseCounts = matrix;
+        this.denseRow = row;
+        this.denseCounts.setRow(row, counts);
+        this.observations = null;
+    }
+
+    public boolean isDenseBacked() {
+        return this.denseCounts != null;
+    }
+
     @Override
     public AbstractDiscreteFiniteLikelihoodModel clone() throws CloneNotSupportedException {
         AbstractDiscreteFiniteLikelihoodModel m = (AbstractDiscreteFiniteLikelihoodModel) super.clone();
-        m.observations = this.observations.clone();
+        if (isDenseBacked()) { // detach into a private single-row matrix
+            m.denseCounts = new DenseCountMatrix(1, this.dimension);
+            m.denseRow = 0;
+            m.denseCounts.setRow(0, getCounts());
+        } else {
+            m.observations = this.observations.clone();
+        }
         return m;
     }
 
     public void clear() {
-        this.observations = new SparseCount();
+        if (isDenseBacked()) {
+            this.denseCounts.clearRow(denseRow);
+        } else {
+            this.observations = new SparseCount();
+        }
     }
 
     public boolean isEmpty() {
-        return this.observations.isEmpty();
+        return this.getCountSum() == 0;
     }
 
     public int getCount(int observation) {
+        if (denseCounts != null) {
+            return this.denseCounts.getCount(denseRow, observation);
+        }
         return this.observations.getCount(observation);
     }
 
+    /**
+     * Return the observation counts. For a dense-backed model this is a copy.
+     */
     public HashMap<Integer, Integer> getObservations() {
-        return this.observations.getObservations();
+        return this.getSparseCounts().getObservations();
     }
 
+    /**
+     * Return the set of observations with non-zero counts. For a dense-backed
+     * model this is a copy.
+     */
     public Set<Integer> getUniqueObservations() {
-        return this.observations.getIndices();
+        return this.getSparseCounts().getIndices();
     }
 
     public int[] getCounts() {
         int[] counts = new int[this.dimension];
-        for (int obs : this.observations.getIndices()) {
-            counts[obs] = this.observations.getCount(obs);
+        if (isDenseBacked()) {
+            this.denseCounts.getRow(denseRow, counts);
+            return counts;
+        }
+        for (int slot = 0; slot < this.observations.getNumSlots(); slot++) {
+            int count = this.observations.getSlotCount(slot);
+            if (count > 0) {
+                counts[this.observations.getSlotIndex(slot)] = count;
+            }
         }
         return counts;
     }
 
+    /**
+     * Return the sparse counts. For a dense-backed model this is a copy.
+     */
     public SparseCount getSparseCounts() {
+        if (isDenseBacked()) {
+            return this.denseCounts.getSparseRow(denseRow);
+        }
         return this.observations;
     }
 
     public void setCounts(int[] c) {
+        if (isDenseBacked()) {
+            this.denseCounts.setRow(denseRow, c);
+            return;
+        }
         this.observations = new SparseCount();
         for (int i = 0; i < c.length; i++) {
             if (c[i] > 0) {
@@ -96,6 +179,9 @@ public abstract class AbstractDiscreteFiniteLikelihoodModel
     }
 
     public int getCountSum() {
+        if (denseCounts != null) {
+            return this.denseCounts.getCountSum(denseRow);
+        }
         return this.observations.getCountSum();
     }
 
@@ -111,7 +197,11 @@ public abstract class AbstractDiscreteFiniteLikelihoodModel
      */
     public void changeCount(int observation, int delta) {
         int count = this.getCount(observation);
-        this.observations.setCount(observation, count + delta);
+        if (isDenseBacked()) {
+            this.denseCounts.setCount(denseRow, observation, count + delta);
+        } else {
+            this.observations.setCount(observation, count + delta);
+        }
     }
 
     /**
@@ -120,7 +210,11 @@ public abstract class AbstractDiscreteFiniteLikelihoodModel
      * @param observation The observation whose count is decremented
      */
     public void decrement(int observation) {
-        this.observations.decrement(observation);
+        if (denseCounts != null) {
+            this.denseCounts.decrement(denseRow, observation);
+        } else {
+            this.observations.decrement(observation);
+        }
     }
 
     /**
@@ -129,11 +223,19 @@ public abstract class AbstractDiscreteFiniteLikelihoodModel
      * @param observation The observation whose count is incremented
      */
     public void increment(int observation) {
-        this.observations.increment(observation);
+        if (denseCounts != null) {
+            this.denseCounts.increment(denseRow, observation);
+        } else {
+            this.observations.increment(observation);
+        }
     }
 
     public void validate(String msg) {
-        this.observations.validate(msg);
+        if (isDenseBacked()) {
+            this.denseCounts.validateRow(denseRow, msg);
+        } else {
+            this.observations.validate(msg);
+        }
     }
 
     public String getDebugString() {
@@ -1,12 +1,19 @@
 package edu.umd.sampling.likelihood;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 import edu.umd.sampling.AbstractDiscreteFiniteLikelihoodModel;
+import edu.umd.sampling.util.DenseCountMatrix;
+import edu.umd.sampling.util.LogGammaTable;
 import edu.umd.sampling.util.SparseCount;
 import edu.umd.util.SamplerUtils;
+import edu.umd.util.StateInputStream;
+import edu.umd.util.StateOutputStream;
 import weka.core.SerializedObject;
 
 /**
@@ -22,6 +29,12 @@ public class DirMult extends AbstractDiscreteFiniteLikelihoodModel implements Se
     private double[] center; // the mean vector for asymmetric distribution
     private double centerElement; // an element in the mean vector for symmetric distribution
     private double[] distribution;
+    // log likelihood maintained incrementally as the counts change
+    private transient boolean trackLogLikelihood;
+    private transient boolean logLikelihoodValid;
+    private transient double logLikelihood;
+    private transient LogGammaTable numerTable; // null if not symmetric
+    private transient LogGammaTable denomTable;
 
     public DirMult(int dim, double concentration, double centerElement) {
         super(dim);
@@ -58,6 +71,7 @@ public class DirMult extends AbstractDiscreteFiniteLikelihoodModel implements Se
     }
 
     public void setHyperparameters(double[] p) {
+        this.logLikelihoodValid = false;
         this.concentration = 0.0;
         for (double v : p) {
             this.concentration += v;
@@ -69,13 +83,106 @@ public class DirMult extends AbstractDiscreteFiniteLikelihoodModel implements Se
     }
 
     public void setConcentration(double conc) {
+        this.logLikelihoodValid = false;
         this.concentration = conc;
     }
 
     public void getCenterVector(double[] ce) {
+        this.logLikelihoodValid = false;
         this.center = ce;
     }
 
+    /**
+     * Maintain the log likelihood of the counts incrementally as they change,
+     * so that {@link #getLogLikelihood()} does not have to recompute it. Each
+     * count change then costs two extra logs. The counts of a tracked model
+     * must not be changed by multiple threads at the same time.
+     *
+     * @param track Whether to track the log likelihood
+     */
+    public void setTrackLogLikelihood(boolean track) {
+        this.trackLogLikelihood = track;
+        this.logLikelihoodValid = false;
+    }
+
+    public boolean isTrackingLogLikelihood() {
+        return this.trackLogLikelihood;
+    }
+
+    /**
+     * Return the change in the log likelihood when the count of an
+     * observation is incremented from the given counts.
+     */
+    private double getLogLikelihoodIncrement(int observation, int count, int countSum) {
+        if (numerTable != null) {
+            return numerTable.logGammaRatio(count, 1) - denomTable.logGammaRatio(countSum, 1);
+        }
+        return Math.log(concentration * getCenterElement(observation) + count)
+                - Math.log(concentration + countSum);
+    }
+
+    @Override
+    public void increment(int observation) {
+        if (logLikelihoodValid) {
+            logLikelihood += getLogLikelihoodIncrement(observation,
+                    getCount(observation), getCountSum());
+        }
+        super.increment(observation);
+    }
+
+    @Override
+    public void decrement(int observation) {
+        super.decrement(observation);
+        if (logLikelihoodValid) {
+            logLikelihood -= getLogLikelihoodIncrement(observation,
+                    getCount(observation), getCountSum());
+        }
+    }
+
+    @Override
+    public void changeCount(int observation, int delta) {
+        if (logLikelihoodValid && delta != 0) {
+            double prior = concentration * getCenterElement(observation);
+            int count = getCount(observation);
+            int countSum = getCountSum();
+            logLikelihood += SamplerUtils.logGammaStirling(prior + count + delta)
+                    - SamplerUtils.logGammaStirling(prior + count)
+                    - SamplerUtils.logGammaStirling(concentration + countSum + delta)
+                    + SamplerUtils.logGammaStirling(concentration + countSum);
+        }
+        super.changeCount(observation, delta);
+    }
+
+    @Override
+    public void setCounts(int[] c) {
+        this.logLikelihoodValid = false;
+        super.setCounts(c);
+    }
+
+    @Override
+    public void setDenseCounts(DenseCountMatrix matrix, int row) {
+        this.logLikelihoodValid = false;
+        super.setDenseCounts(matrix, row);
+    }
+
+    @Override
+    public void clear() {
+        this.logLikelihoodValid = false;
+        super.clear();
+    }
+
+    @Override
+    public void validate(String msg) {
+        super.validate(msg);
+        if (logLikelihoodValid) {
+            double llh = computeLogLikelihood();
+            if (Math.abs(llh - logLikelihood) > 1e-6 * Math.max(1.0, Math.abs(llh))) {
+                throw new RuntimeException(msg + ". Tracked log likelihood mismatched. "
+                        + logLikelihood + " vs. " + llh);
+            }
+        }
+    }
+
     public double getConcentration() {
         return concentration;
     }
@@ -155,7 +262,37 @@ public class DirMult extends AbstractDiscreteFiniteLikelihoodModel implements Se
     }
 
     public double getLogLikelihood(SparseCount observations) {
-        return getLogLikelihood(observations.getObservations());
+        if (isShortRepresented()) {
+            // sums of log(a + n + i) telescope to log Gamma differences
+            LogGammaTable numerTable = LogGammaTable.get(concentration * centerElement);
+            double llh = 0.0;
+            for (int slot = 0; slot < observations.getNumSlots(); slot++) {
+                int count = observations.getSlotCount(slot);
+                if (count > 0) {
+                    llh += numerTable.logGammaRatio(
+                            getCount(observations.getSlotIndex(slot)), count);
+                }
+            }
+            llh -= LogGammaTable.get(concentration).logGammaRatio(getCountSum(),
+                    observations.getCountSum());
+            return llh;
+        }
+        double llh = 0.0;
+        int j = 0;
+        for (int slot = 0; slot < observations.getNumSlots(); slot++) {
+            int count = observations.getSlotCount(slot);
+            if (count == 0) {
+                continue;
+            }
+            int observation = observations.getSlotIndex(slot);
+            for (int i = 0; i < count; i++) {
+                llh += Math.log(concentration * getCenterElement(observation)
+                        + getCount(observation) + i)
+                        - Math.log(concentration + getCountSum() + j);
+                j++;
+            }
+        }
+        return llh;
     }
 
     @Override
@@ -170,9 +307,35 @@ public class DirMult extends AbstractDiscreteFiniteLikelihoodModel implements Se
                 - Math.log(this.getCountSum() + this.concentration);
     }
 
+    /**
+     * Return the log likelihood of the counts. If the log likelihood is
+     * tracked, this is the incrementally maintained value.
+     */
     @Override
     public double getLogLikelihood() {
+        if (!trackLogLikelihood) {
+            return computeLogLikelihood();
+        }
+        if (!logLikelihoodValid) {
+            if (isShortRepresented()) {
+                this.numerTable = LogGammaTable.get(concentration * centerElement);
+                this.denomTable = LogGammaTable.get(concentration);
+            } else {
+                this.numerTable = null;
+                this.denomTable = null;
+            }
+            this.logLikelihood = computeLogLikelihood();
+            this.logLikelihoodValid = true;
+        }
+        return this.logLikelihood;
+    }
+
+    private double computeLogLikelihood() {
         if (isShortRepresented()) {
+            if (!isDenseBacked()) {
+                return SamplerUtils.computeLogLhood(observations, getDimension(),
+                        centerElement * concentration);
+            }
             return SamplerUtils.computeLogLhood(getCounts(), getCountSum(), centerElement * concentration);
         } else {
             double[] params = new double[this.getDimension()];
@@ -188,6 +351,9 @@ public class DirMult extends AbstractDiscreteFiniteLikelihoodModel implements Se
     }
 
     public double getLogLikelihood(double concentr, double centerE) {
+        if (!isDenseBacked()) {
+            return SamplerUtils.computeLogLhood(observations, getDimension(), centerE * concentr);
+        }
         return SamplerUtils.computeLogLhood(getCounts(), getCountSum(), centerE * concentr);
     }
 
@@ -304,6 +470,178 @@ public class DirMult extends AbstractDiscreteFiniteLikelihoodModel implements Se
         return model;
     }
 
+    /**
+     * Return a deep copy of each model. Models that share a mean vector share
+     * its copy too.
+     *
+     * @param models The models
+     */
+    public static DirMult[] copy(DirMult[] models) {
+        DirMult[] copies = new DirMult[models.length];
+        IdentityHashMap<double[], double[]> centers = new IdentityHashMap<double[], double[]>();
+        for (int ii = 0; ii < models.length; ii++) {
+            copies[ii] = models[ii].clone();
+            if (!models[ii].isShortRepresented()) {
+                double[] center = centers.get(models[ii].center);
+                if (center == null) {
+                    centers.put(models[ii].center, copies[ii].center);
+                } else {
+                    copies[ii].center = center;
+                }
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Write a model to a binary state. Counts are written sparsely as (index
+     * gap, count) pairs of variable-length ints.
+     *
+     * @param model The model
+     * @param out The binary state stream
+     */
+    public static void output(DirMult model, StateOutputStream out) throws IOException {
+        output(model, out, null);
+    }
+
+    /**
+     * Write a model to a binary state. If its mean vector is sharedCenter,
+     * which is then stored once elsewhere, it is written as a symmetric
+     * prior.
+     *
+     * @param model The model
+     * @param out The binary state stream
+     * @param sharedCenter Mean vector shared by many models, or null
+     */
+    public static void output(DirMult model, StateOutputStream out,
+            double[] sharedCenter) throws IOException {
+        out.writeVarInt(model.dimension);
+        out.writeDouble(model.concentration);
+        boolean shared = sharedCenter != null && model.center == sharedCenter;
+        out.writeBoolean(model.center == null || shared);
+        if (shared) {
+            out.writeDouble(1.0 / model.dimension);
+        } else if (model.center == null) {
+            out.writeDouble(model.centerElement);
+        } else {
+            for (int v = 0; v < model.dimension; v++) {
+                out.writeDouble(model.center[v]);
+            }
+        }
+        int numNonZeros = 0;
+        for (int v = 0; v < model.dimension; v++) {
+            if (model.getCount(v) != 0) {
+                numNonZeros++;
+            }
+        }
+        out.writeVarInt(numNonZeros);
+        int prev = -1;
+        for (int v = 0; v < model.dimension; v++) {
+            int count = model.getCount(v);
+            if (count != 0) {
+                out.writeVarInt(v - prev - 1);
+                out.writeVarInt(count);
+                prev = v;
+            }
+        }
+    }
+
+    /**
+     * Read a model written by {@link #output(DirMult, StateOutputStream)}.
+     *
+     * @param in The binary state stream
+     */
+    public static DirMult input(StateInputStream in) throws IOException {
+        int dim = in.readVarInt();
+        double concentration = in.readDouble();
+        DirMult model;
+        if (in.readBoolean()) {
+            model = new DirMult(dim, concentration, in.readDouble());
+        } else {
+            double[] mean = new double[dim];
+            for (int v = 0; v < dim; v++) {
+                mean[v] = in.readDouble();
+            }
+            model = new DirMult(dim, concentration, mean);
+        }
+        int numNonZeros = in.readVarInt();
+        int v = -1;
+        for (int ii = 0; ii < numNonZeros; ii++) {
+            v += in.readVarInt() + 1;
+            model.changeCount(v, in.readVarInt());
+        }
+        return model;
+    }
+
+    /**
+     * Return true if two models have the same dimension and prior, so that
+     * one can be written as count changes from the other.
+     */
+    public static boolean hasSamePrior(DirMult previous, DirMult model) {
+        if (previous.dimension != model.dimension
+                || previous.concentration != model.concentration) {
+            return false;
+        }
+        if (previous.center == null || model.center == null) {
+            return previous.center == model.center
+                    && previous.centerElement == model.centerElement;
+        }
+        return Arrays.equals(previous.center, model.center);
+    }
+
+    /**
+     * Return the number of dimensions whose counts differ between two models
+     * of the same dimension.
+     */
+    public static int getNumCountChanges(DirMult previous, DirMult model) {
+        int numChanges = 0;
+        for (int v = 0; v < model.dimension; v++) {
+            if (previous.getCount(v) != model.getCount(v)) {
+                numChanges++;
+            }
+        }
+        return numChanges;
+    }
+
+    /**
+     * Write the count changes from a previous state of a model as (index gap,
+     * signed count change) pairs of variable-length ints.
+     *
+     * @param previous The previous state of the model, with the same prior
+     * @param model The model
+     * @param out The binary state stream
+     */
+    public static void outputCountChanges(DirMult previous, DirMult model,
+            StateOutputStream out) throws IOException {
+        out.writeVarInt(getNumCountChanges(previous, model));
+        int prev = -1;
+        for (int v = 0; v < model.dimension; v++) {
+            int change = model.getCount(v) - previous.getCount(v);
+            if (change != 0) {
+                out.writeVarInt(v - prev - 1);
+                out.writeSignedVarInt(change);
+                prev = v;
+            }
+        }
+    }
+
+    /**
+     * Apply count changes written by
+     * {@link #outputCountChanges(DirMult, DirMult, StateOutputStream)}.
+     *
+     * @param model The model in its previous state
+     * @param in The binary state stream
+     */
+    public static void inputCountChanges(DirMult model, StateInputStream in)
+            throws IOException {
+        int numChanges = in.readVarInt();
+        int v = -1;
+        for (int ii = 0; ii < numChanges; ii++) {
+            v += in.readVarInt() + 1;
+            model.changeCount(v, in.readSignedVarInt());
+        }
+    }
+
     public static void main(String[] args) {
         try {
 //            testClone();
@@ -0,0 +1,310 @@
+package edu.umd.sampling.util;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import edu.umd.sampling.likelihood.DirMult;
+
+/**
+ * Metropolis-Hastings topic sampler using stale per-word alias tables
+ * (LightLDA, Yuan et al. WWW 15). Each token alternates between
+ * <ul>
+ * <li>a word proposal q_w(k) ~ (n_kw + beta) / (n_k + V beta), drawn in O(1)
+ * from alias tables built from a snapshot of the topic-word counts, and</li>
+ * <li>a document proposal q_d(k) ~ n_dk + alpha, drawn in O(1) by picking the
+ * assignment of another token in the same document.</li>
+ * </ul>
+ * The alias tables are rebuilt from a copy of the counts on a background
+ * thread while sampling continues with the previous tables. Since the
+ * acceptance ratio uses the weights the tables were built from, stale tables
+ * still give a valid MH chain.
+ *
+ * The caller is responsible for removing the current token from the counts
+ * before calling {@link #sample} and adding it back afterward.
+ *
+ * @author vietan
+ */
+public class AliasMHTopicSampler {
+
+    public static final int DEFAULT_NUM_MH_STEPS = 2;
+    private final int K;
+    private final int V;
+    private int numMHSteps = DEFAULT_NUM_MH_STEPS;
+    private volatile ProposalTables tables;
+    private final ExecutorService builder;
+    private Future<?> pendingBuild;
+    // statistics
+    private long numProposals;
+    private long numAccepted;
+
+    public AliasMHTopicSampler(int K, int V) {
+        this.K = K;
+        this.V = V;
+        this.builder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "alias-table-builder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void setNumMHSteps(int numMHSteps) {
+        this.numMHSteps = numMHSteps;
+    }
+
+    public int getNumMHSteps() {
+        return this.numMHSteps;
+    }
+
+    /**
+     * Take a snapshot of the current topic-word counts and rebuild the alias
+     * tables from it in the background. If the previous rebuild has not
+     * finished, the current (stale) tables are kept. This only blocks when no
+     * tables have been built yet.
+     *
+     * @param topicWords Topic-word distributions
+     */
+    public void update(DirMult[] topicWords) {
+        if (pendingBuild != null) {
+            if (!pendingBuild.isDone()) {
+                return;
+            }
+            waitForBuild();
+        }
+
+        final CountSnapshot snapshot = new CountSnapshot(topicWords);
+        pendingBuild = builder.submit(new Runnable() {
+            @Override
+            public void run() {
+                tables = new ProposalTables(snapshot);
+            }
+        });
+
+        if (tables == null) {
+            waitForBuild();
+        }
+    }
+
+    private void waitForBuild() {
+        try {
+            pendingBuild.get();
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Exception while building alias tables");
+        }
+        pendingBuild = null;
+    }
+
+    /**
+     * Sample a new topic for a token using numMHSteps alternating word and
+     * document proposals.
+     *
+     * @param docTopic Topic counts of the document, excluding the token
+     * @param topicWords Topic-word distributions, excluding the token
+     * @param docZ Current assignments of the document
+     * @param nn Position of the token in the document
+     * @param word The word type of the token
+     * @param rand Random number generator
+     * @return The sampled topic
+     */
+    public int sample(DirMult docTopic, DirMult[] topicWords,
+            int[] docZ, int nn, int word, Random rand) {
+        return sample(docTopic, topicWords, docZ, 0, docZ.length, nn, word, rand);
+    }
+
+    /**
+     * Sample a new topic for a token whose document occupies positions start,
+     * ..., end - 1 of a flat assignment array (see
+     * {@link edu.umd.data.FlatCorpus}).
+     *
+     * @param docTopic Topic counts of the document, excluding the token
+     * @param topicWords Topic-word distributions, excluding the token
+     * @param zs Flat assignment array
+     * @param start Position of the first token of the document
+     * @param end Position after the last token of the document
+     * @param ii Position of the token
+     * @param word The word type of the token
+     * @param rand Random number generator
+     * @return The sampled topic
+     */
+    public int sample(DirMult docTopic, DirMult[] topicWords,
+            int[] zs, int start, int end, int ii, int word, Random rand) {
+        ProposalTables tabs = this.tables;
+        if (tabs == null) {
+            throw new RuntimeException("Alias tables have not been built");
+        }
+        // the document proposal needs a uniform prior to be drawn in O(1)
+        boolean docProposal = docTopic.isShortRepresented();
+        double docAlphaSum = docTopic.getConcentration();
+        int otherLength = end - start - 1;
+
+        int s = zs[ii];
+        for (int step = 0; step < numMHSteps; step++) {
+            int t;
+            double ratio;
+            if (step % 2 == 0 || !docProposal) {
+                t = tabs.proposeWord(word, rand);
+                if (t == s) {
+                    numProposals++;
+                    numAccepted++;
+                    continue;
+                }
+                ratio = getConditional(docTopic, topicWords, t, word)
+                        / getConditional(docTopic, topicWords, s, word)
+                        * tabs.getWordWeight(word, s)
+                        / tabs.getWordWeight(word, t);
+            } else {
+                double u = rand.nextDouble() * (otherLength + docAlphaSum);
+                if (u < otherLength) {
+                    int jj = start + (int) u;
+                    if (jj >= ii) {
+                        jj++;
+                    }
+                    t = zs[jj];
+                } else {
+                    t = rand.nextInt(K);
+                }
+                if (t == s) {
+                    numProposals++;
+                    numAccepted++;
+                    continue;
+                }
+                // document terms cancel with the proposal
+                ratio = topicWords[t].getProbability(word)
+                        / topicWords[s].getProbability(word);
+            }
+
+            numProposals++;
+            if (ratio >= 1.0 || rand.nextDouble() < ratio) {
+                s = t;
+                numAccepted++;
+            }
+        }
+        return s;
+    }
+
+    private static double getConditional(DirMult docTopic, DirMult[] topicWords,
+            int k, int word) {
+        return (docTopic.getCount(k)
+                + docTopic.getConcentration() * docTopic.getCenterElement(k))
+                * topicWords[k].getProbability(word);
+    }
+
+    public double getAcceptanceRate() {
+        if (numProposals == 0) {
+            return 0.0;
+        }
+        return (double) numAccepted / numProposals;
+    }
+
+    public void resetStatistics() {
+        this.numProposals = 0;
+        this.numAccepted = 0;
+    }
+
+    /**
+     * Stop the background builder.
+     */
+    public void shutdown() {
+        this.builder.shutdownNow();
+    }
+
+    /**
+     * Copy of the topic-word counts in compressed sparse row format (by word),
+     * so that the tables can be built while the sampler keeps updating the
+     * counts.
+     */
+    class CountSnapshot {
+
+        final double[] topicDenoms; // [K]: 1 / (n_k + concentration_k)
+        final double[] smoothingWeights; // [K]: mean prior / (n_k + concentration_k)
+        final int[] offsets; // [V + 1]
+        final int[] topics; // topics sorted within each word
+        final int[] counts;
+
+        CountSnapshot(DirMult[] topicWords) {
+            topicDenoms = new double[K];
+            smoothingWeights = new double[K];
+            offsets = new int[V + 1];
+            for (int k = 0; k < K; k++) {
+                topicDenoms[k] = 1.0 / (topicWords[k].getCountSum()
+                        + topicWords[k].getConcentration());
+                smoothingWeights[k] = topicWords[k].getConcentration() / V * topicDenoms[k];
+                for (int v : topicWords[k].getUniqueObservations()) {
+                    offsets[v + 1]++;
+                }
+            }
+            for (int v = 0; v < V; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            topics = new int[offsets[V]];
+            counts = new int[offsets[V]];
+            int[] fill = new int[V];
+            for (int k = 0; k < K; k++) {
+                for (int v : topicWords[k].getUniqueObservations()) {
+                    int idx = offsets[v] + fill[v]++;
+                    topics[idx] = k;
+                    counts[idx] = topicWords[k].getCount(v);
+                }
+            }
+        }
+    }
+
+    /**
+     * One generation of word proposal tables. Each word proposal is a mixture
+     * of a sparse part over the topics the word appears in and a smoothing
+     * part shared by all words.
+     */
+    class ProposalTables {
+
+        final CountSnapshot snapshot;
+        final AliasTable smoothingTable;
+        final AliasTable[] wordTables; // [V]: null if the word is unseen
+        final double[] wordMasses; // [V]
+
+        ProposalTables(CountSnapshot snapshot) {
+            this.snapshot = snapshot;
+            this.smoothingTable = new AliasTable(snapshot.smoothingWeights);
+            this.wordTables = new AliasTable[V];
+            this.wordMasses = new double[V];
+            double[] weights = new double[K];
+            for (int v = 0; v < V; v++) {
+                int start = snapshot.offsets[v];
+                int size = snapshot.offsets[v + 1] - start;
+                if (size == 0) {
+                    continue;
+                }
+                for (int ii = 0; ii < size; ii++) {
+                    weights[ii] = snapshot.counts[start + ii]
+                            * snapshot.topicDenoms[snapshot.topics[start + ii]];
+                }
+                wordTables[v] = new AliasTable(weights, size);
+                wordMasses[v] = wordTables[v].getMass();
+            }
+        }
+
+        int proposeWord(int v, Random rand) {
+            double u = rand.nextDouble() * (wordMasses[v] + smoothingTable.getMass());
+            if (u < wordMasses[v]) {
+                return snapshot.topics[snapshot.offsets[v] + wordTables[v].sample(rand)];
+            }
+            return smoothingTable.sample(rand);
+        }
+
+        double getWordWeight(int v, int k) {
+            double weight = snapshot.smoothingWeights[k];
+            int start = snapshot.offsets[v];
+            int idx = Arrays.binarySearch(snapshot.topics, start,
+                    snapshot.offsets[v + 1], k);
+            if (idx >= 0) {
+                weight += snapshot.counts[idx] * snapshot.topicDenoms[k];
+            }
+            return weight;
+        }
+    }
+}
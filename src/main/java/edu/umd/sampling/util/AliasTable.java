@@ -0,0 +1,110 @@
+package edu.umd.sampling.util;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Immutable alias table (Vose's method) for drawing from a fixed discrete
+ * distribution in O(1) time after O(n) construction.
+ *
+ * @author vietan
+ */
+public class AliasTable implements Serializable {
+
+    private static final long serialVersionUID = 1123581321L;
+    private final int[] alias;
+    private final double[] probs;
+    private final double mass;
+
+    /**
+     * Build an alias table from unnormalized weights.
+     *
+     * @param weights Non-negative weights
+     */
+    public AliasTable(double[] weights) {
+        this(weights, weights.length);
+    }
+
+    /**
+     * Build an alias table from the first size unnormalized weights.
+     *
+     * @param weights Non-negative weights
+     * @param size Number of weights to use
+     */
+    public AliasTable(double[] weights, int size) {
+        if (size <= 0) {
+            throw new RuntimeException("Empty alias table");
+        }
+        this.alias = new int[size];
+        this.probs = new double[size];
+
+        double sum = 0.0;
+        for (int ii = 0; ii < size; ii++) {
+            if (weights[ii] < 0) {
+                throw new RuntimeException("Negative weight " + weights[ii]);
+            }
+            sum += weights[ii];
+        }
+        this.mass = sum;
+
+        int[] small = new int[size];
+        int[] large = new int[size];
+        int numSmall = 0;
+        int numLarge = 0;
+        for (int ii = 0; ii < size; ii++) {
+            probs[ii] = weights[ii] * size / sum;
+            if (probs[ii] < 1.0) {
+                small[numSmall++] = ii;
+            } else {
+                large[numLarge++] = ii;
+            }
+        }
+        while (numSmall > 0 && numLarge > 0) {
+            int ss = small[--numSmall];
+            int ll = large[--numLarge];
+            alias[ss] = ll;
+            probs[ll] = probs[ll] + probs[ss] - 1.0;
+            if (probs[ll] < 1.0) {
+                small[numSmall++] = ll;
+            } else {
+                large[numLarge++] = ll;
+            }
+        }
+        // remaining entries are full up to round-off
+        while (numLarge > 0) {
+            int ll = large[--numLarge];
+            probs[ll] = 1.0;
+            alias[ll] = ll;
+        }
+        while (numSmall > 0) {
+            int ss = small[--numSmall];
+            probs[ss] = 1.0;
+            alias[ss] = ss;
+        }
+    }
+
+    /**
+     * Draw an index.
+     *
+     * @param rand Random number generator
+     * @return Sampled index in [0, size)
+     */
+    public int sample(Random rand) {
+        int ii = rand.nextInt(probs.length);
+        if (rand.nextDouble() < probs[ii]) {
+            return ii;
+        }
+        return alias[ii];
+    }
+
+    /**
+     * Return the total unnormalized mass this table was built from.
+     */
+    public double getMass() {
+        return this.mass;
+    }
+
+    public int size() {
+        return this.probs.length;
+    }
+}
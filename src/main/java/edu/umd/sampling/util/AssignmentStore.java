@@ -0,0 +1,472 @@
+package edu.umd.sampling.util;
+
+/**
+ * Compact storage of one integer assignment (e.g., a topic) per token,
+ * replacing an int[][] of the same shape. All values lie in a range
+ * [minValue, maxValue] known in advance, so each value is stored as its
+ * offset from minValue in as few bits as the range needs:
+ * <ul>
+ * <li>at most 4 bits: packed into longs</li>
+ * <li>at most 8 bits: one byte</li>
+ * <li>at most 16 bits: one short</li>
+ * <li>otherwise: one int</li>
+ * </ul>
+ * With K topics, 4 bytes per token become half a byte for K up to 16, one
+ * byte for K up to 256 and two bytes for K up to 65536.
+ *
+ * A new store holds minValue everywhere, i.e., 0 for topic assignments like
+ * a new int[][]. Stores can be read and written by several threads as long
+ * as no two threads write to the same document at the same time, except for
+ * packed stores in which neighboring documents share words of memory; pass
+ * concurrentWrites to the factory methods to rule those out.
+ *
+ * @author vietan
+ */
+public abstract class AssignmentStore {
+
+    protected final int[] offsets; // [D + 1]
+    protected final int minValue;
+    protected final int maxValue;
+
+    protected AssignmentStore(int[] offsets, int minValue, int maxValue) {
+        this.offsets = offsets;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * Create a store for topic assignments in [0, numValues - 1] of the
+     * tokens of the given documents.
+     *
+     * @param docWords Tokens of each document
+     * @param numValues Number of possible values (e.g., number of topics)
+     */
+    public static AssignmentStore create(int[][] docWords, int numValues) {
+        return create(docWords, numValues, false);
+    }
+
+    /**
+     * Create a store for topic assignments in [0, numValues - 1] of the
+     * tokens of the given documents.
+     *
+     * @param docWords Tokens of each document
+     * @param numValues Number of possible values (e.g., number of topics)
+     * @param concurrentWrites Whether different documents are written by
+     * different threads at the same time
+     */
+    public static AssignmentStore create(int[][] docWords, int numValues,
+            boolean concurrentWrites) {
+        return create(getDocLengths(docWords), 0, numValues - 1, concurrentWrites);
+    }
+
+    /**
+     * Create a store for values in [minValue, maxValue].
+     *
+     * @param docLengths Number of tokens of each document
+     * @param minValue Smallest value
+     * @param maxValue Largest value
+     */
+    public static AssignmentStore create(int[] docLengths, int minValue, int maxValue) {
+        return create(docLengths, minValue, maxValue, false);
+    }
+
+    /**
+     * Create a store for values in [minValue, maxValue].
+     *
+     * @param docLengths Number of tokens of each document
+     * @param minValue Smallest value
+     * @param maxValue Largest value
+     * @param concurrentWrites Whether different documents are written by
+     * different threads at the same time
+     */
+    public static AssignmentStore create(int[] docLengths, int minValue, int maxValue,
+            boolean concurrentWrites) {
+        int[] offsets = getOffsets(docLengths);
+        int bits = getBitsPerValue(minValue, maxValue);
+        if (bits <= PackedStore.MAX_BITS && !concurrentWrites) {
+            return new PackedStore(offsets, minValue, maxValue, bits);
+        } else if (bits <= 8) {
+            return new ByteStore(offsets, minValue, maxValue);
+        } else if (bits <= 16) {
+            return new ShortStore(offsets, minValue, maxValue);
+        } else {
+            return new IntStore(offsets, minValue, maxValue);
+        }
+    }
+
+    /**
+     * Create a store holding the given assignments.
+     *
+     * @param values Assignments of each document
+     * @param minValue Smallest value
+     * @param maxValue Largest value
+     */
+    public static AssignmentStore fromArrays(int[][] values, int minValue, int maxValue) {
+        AssignmentStore store = create(getDocLengths(values), minValue, maxValue);
+        for (int d = 0; d < values.length; d++) {
+            store.setDocAssignments(d, values[d]);
+        }
+        return store;
+    }
+
+    /**
+     * Return the number of bits needed to store values in [minValue,
+     * maxValue].
+     */
+    public static int getBitsPerValue(int minValue, int maxValue) {
+        if (maxValue < minValue) {
+            throw new RuntimeException("Invalid range [" + minValue + ", " + maxValue + "]");
+        }
+        long range = (long) maxValue - minValue;
+        return Math.max(1, 64 - Long.numberOfLeadingZeros(range));
+    }
+
+    /**
+     * Return the lengths of the given arrays.
+     */
+    public static int[] getDocLengths(int[][] docs) {
+        int[] docLengths = new int[docs.length];
+        for (int d = 0; d < docs.length; d++) {
+            docLengths[d] = docs[d].length;
+        }
+        return docLengths;
+    }
+
+    private static int[] getOffsets(int[] docLengths) {
+        int[] offsets = new int[docLengths.length + 1];
+        for (int d = 0; d < docLengths.length; d++) {
+            long end = (long) offsets[d] + docLengths[d];
+            if (end > Integer.MAX_VALUE) {
+                throw new RuntimeException("Too many tokens for one store: " + end);
+            }
+            offsets[d + 1] = (int) end;
+        }
+        return offsets;
+    }
+
+    /**
+     * Return the value at a flat token index.
+     *
+     * @param ii Flat token index (see {@link #getDocStart(int)})
+     */
+    public abstract int get(int ii);
+
+    /**
+     * Set the value at a flat token index.
+     *
+     * @param ii Flat token index (see {@link #getDocStart(int)})
+     * @param value The value
+     */
+    public abstract void set(int ii, int value);
+
+    /**
+     * Return the number of bytes used to store the values.
+     */
+    public abstract long getNumBytes();
+
+    public abstract int getBitsPerValue();
+
+    /**
+     * Return a copy of this store, e.g., to output it while the original
+     * keeps changing.
+     */
+    public abstract AssignmentStore copy();
+
+    /**
+     * Return true if different documents can be written by different threads
+     * at the same time.
+     */
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    public int get(int d, int n) {
+        return get(offsets[d] + n);
+    }
+
+    public void set(int d, int n, int value) {
+        set(offsets[d] + n, value);
+    }
+
+    public int getNumDocs() {
+        return this.offsets.length - 1;
+    }
+
+    public int getNumTokens() {
+        return this.offsets[offsets.length - 1];
+    }
+
+    public int getDocLength(int d) {
+        return this.offsets[d + 1] - this.offsets[d];
+    }
+
+    /**
+     * Return the flat index of the first token of a document. The tokens of
+     * document d have flat indices getDocStart(d), ..., getDocStart(d + 1) -
+     * 1.
+     *
+     * @param d Document index
+     */
+    public int getDocStart(int d) {
+        return this.offsets[d];
+    }
+
+    public int getMinValue() {
+        return this.minValue;
+    }
+
+    public int getMaxValue() {
+        return this.maxValue;
+    }
+
+    /**
+     * Copy the assignments of a document into an array.
+     *
+     * @param d Document index
+     * @param buffer Array of length at least the document length, or null
+     * @return The array holding the assignments
+     */
+    public int[] getDocAssignments(int d, int[] buffer) {
+        int length = getDocLength(d);
+        if (buffer == null || buffer.length < length) {
+            buffer = new int[length];
+        }
+        int start = offsets[d];
+        for (int n = 0; n < length; n++) {
+            buffer[n] = get(start + n);
+        }
+        return buffer;
+    }
+
+    public int[] getDocAssignments(int d) {
+        return getDocAssignments(d, null);
+    }
+
+    /**
+     * Set the assignments of a document.
+     *
+     * @param d Document index
+     * @param values Array holding at least the document length values
+     */
+    public void setDocAssignments(int d, int[] values) {
+        int start = offsets[d];
+        int length = getDocLength(d);
+        for (int n = 0; n < length; n++) {
+            set(start + n, values[n]);
+        }
+    }
+
+    /**
+     * Set all assignments of a document to the same value.
+     *
+     * @param d Document index
+     * @param value The value
+     */
+    public void fill(int d, int value) {
+        for (int ii = offsets[d]; ii < offsets[d + 1]; ii++) {
+            set(ii, value);
+        }
+    }
+
+    /**
+     * Return a copy of all assignments, one array per document.
+     */
+    public int[][] toArrays() {
+        int[][] values = new int[getNumDocs()][];
+        for (int d = 0; d < values.length; d++) {
+            values[d] = getDocAssignments(d);
+        }
+        return values;
+    }
+
+    protected void checkValue(int value) {
+        if (value < minValue || value > maxValue) {
+            throw new RuntimeException("Value " + value + " out of range ["
+                    + minValue + ", " + maxValue + "]");
+        }
+    }
+
+    static class PackedStore extends AssignmentStore {
+
+        static final int MAX_BITS = 4;
+        private final int bits;
+        private final int valuesPerWord;
+        private final long mask;
+        private final long[] words;
+
+        PackedStore(int[] offsets, int minValue, int maxValue, int bits) {
+            super(offsets, minValue, maxValue);
+            this.bits = bits;
+            this.valuesPerWord = 64 / bits;
+            this.mask = (1L << bits) - 1;
+            int numTokens = offsets[offsets.length - 1];
+            this.words = new long[(numTokens + valuesPerWord - 1) / valuesPerWord];
+        }
+
+        private PackedStore(PackedStore store) {
+            super(store.offsets, store.minValue, store.maxValue);
+            this.bits = store.bits;
+            this.valuesPerWord = store.valuesPerWord;
+            this.mask = store.mask;
+            this.words = store.words.clone();
+        }
+
+        @Override
+        public int get(int ii) {
+            int shift = (ii % valuesPerWord) * bits;
+            return (int) ((words[ii / valuesPerWord] >>> shift) & mask) + minValue;
+        }
+
+        @Override
+        public void set(int ii, int value) {
+            checkValue(value);
+            int idx = ii / valuesPerWord;
+            int shift = (ii % valuesPerWord) * bits;
+            words[idx] = (words[idx] & ~(mask << shift))
+                    | ((long) (value - minValue) << shift);
+        }
+
+        @Override
+        public long getNumBytes() {
+            return 8L * words.length;
+        }
+
+        @Override
+        public int getBitsPerValue() {
+            return this.bits;
+        }
+
+        @Override
+        public AssignmentStore copy() {
+            return new PackedStore(this);
+        }
+
+        @Override
+        public boolean supportsConcurrentWrites() {
+            return false;
+        }
+    }
+
+    static class ByteStore extends AssignmentStore {
+
+        private final byte[] values;
+
+        ByteStore(int[] offsets, int minValue, int maxValue) {
+            super(offsets, minValue, maxValue);
+            this.values = new byte[offsets[offsets.length - 1]];
+        }
+
+        private ByteStore(ByteStore store) {
+            super(store.offsets, store.minValue, store.maxValue);
+            this.values = store.values.clone();
+        }
+
+        @Override
+        public int get(int ii) {
+            return (values[ii] & 0xFF) + minValue;
+        }
+
+        @Override
+        public void set(int ii, int value) {
+            checkValue(value);
+            values[ii] = (byte) (value - minValue);
+        }
+
+        @Override
+        public long getNumBytes() {
+            return values.length;
+        }
+
+        @Override
+        public int getBitsPerValue() {
+            return 8;
+        }
+
+        @Override
+        public AssignmentStore copy() {
+            return new ByteStore(this);
+        }
+    }
+
+    static class ShortStore extends AssignmentStore {
+
+        private final short[] values;
+
+        ShortStore(int[] offsets, int minValue, int maxValue) {
+            super(offsets, minValue, maxValue);
+            this.values = new short[offsets[offsets.length - 1]];
+        }
+
+        private ShortStore(ShortStore store) {
+            super(store.offsets, store.minValue, store.maxValue);
+            this.values = store.values.clone();
+        }
+
+        @Override
+        public int get(int ii) {
+            return (values[ii] & 0xFFFF) + minValue;
+        }
+
+        @Override
+        public void set(int ii, int value) {
+            checkValue(value);
+            values[ii] = (short) (value - minValue);
+        }
+
+        @Override
+        public long getNumBytes() {
+            return 2L * values.length;
+        }
+
+        @Override
+        public int getBitsPerValue() {
+            return 16;
+        }
+
+        @Override
+        public AssignmentStore copy() {
+            return new ShortStore(this);
+        }
+    }
+
+    static class IntStore extends AssignmentStore {
+
+        private final int[] values;
+
+        IntStore(int[] offsets, int minValue, int maxValue) {
+            super(offsets, minValue, maxValue);
+            this.values = new int[offsets[offsets.length - 1]];
+        }
+
+        private IntStore(IntStore store) {
+            super(store.offsets, store.minValue, store.maxValue);
+            this.values = store.values.clone();
+        }
+
+        @Override
+        public int get(int ii) {
+            return values[ii] + minValue;
+        }
+
+        @Override
+        public void set(int ii, int value) {
+            checkValue(value);
+            values[ii] = value - minValue;
+        }
+
+        @Override
+        public long getNumBytes() {
+            return 4L * values.length;
+        }
+
+        @Override
+        public int getBitsPerValue() {
+            return 32;
+        }
+
+        @Override
+        public AssignmentStore copy() {
+            return new IntStore(this);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package edu.umd.sampling.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import edu.umd.sampling.likelihood.DirMult;
+import edu.umd.util.MismatchRuntimeException;
+
+/**
+ * Topic-word count matrix shared by multiple sampling threads. Counts are
+ * stored in a flat K x V atomic array together with a K-dimensional atomic
+ * array of per-topic totals, so that threads can update them without locks.
+ *
+ * @author vietan
+ */
+public class AtomicTopicWordCounts {
+
+    private final int K;
+    private final int V;
+    private final AtomicIntegerArray counts; // [K * V]
+    private final AtomicIntegerArray countSums; // [K]
+
+    public AtomicTopicWordCounts(int K, int V) {
+        if ((long) K * V > Integer.MAX_VALUE) {
+            throw new RuntimeException("Topic-word matrix too large. K = " + K
+                    + ". V = " + V);
+        }
+        this.K = K;
+        this.V = V;
+        this.counts = new AtomicIntegerArray(K * V);
+        this.countSums = new AtomicIntegerArray(K);
+    }
+
+    public int getNumTopics() {
+        return this.K;
+    }
+
+    public int getVocabSize() {
+        return this.V;
+    }
+
+    public int getCount(int k, int v) {
+        return this.counts.get(k * V + v);
+    }
+
+    public int getCountSum(int k) {
+        return this.countSums.get(k);
+    }
+
+    public void increment(int k, int v) {
+        this.counts.incrementAndGet(k * V + v);
+        this.countSums.incrementAndGet(k);
+    }
+
+    public void decrement(int k, int v) {
+        this.counts.decrementAndGet(k * V + v);
+        this.countSums.decrementAndGet(k);
+    }
+
+    /**
+     * Reset the counts to those of the given topic-word distributions.
+     *
+     * @param topicWords Topic-word distributions
+     */
+    public void load(DirMult[] topicWords) {
+        for (int k = 0; k < K; k++) {
+            load(k, topicWords[k]);
+        }
+    }
+
+    /**
+     * Reset the counts of one topic to those of the given topic-word
+     * distribution.
+     *
+     * @param k Topic index
+     * @param topicWord Topic-word distribution of topic k
+     */
+    public void load(int k, DirMult topicWord) {
+        for (int v = 0; v < V; v++) {
+            counts.set(k * V + v, 0);
+        }
+        for (int v : topicWord.getUniqueObservations()) {
+            counts.set(k * V + v, topicWord.getCount(v));
+        }
+        countSums.set(k, topicWord.getCountSum());
+    }
+
+    /**
+     * Copy the counts of the given cells back to the topic-word
+     * distributions. This must only be called when no thread is updating the
+     * counts. A cell may be given more than once.
+     *
+     * @param topicWords Topic-word distributions
+     * @param cells Cells (k * V + v) whose counts may have changed
+     * @param numCells Number of cells to copy
+     */
+    public void store(DirMult[] topicWords, int[] cells, int numCells) {
+        for (int ii = 0; ii < numCells; ii++) {
+            int k = cells[ii] / V;
+            int v = cells[ii] % V;
+            int delta = counts.get(cells[ii]) - topicWords[k].getCount(v);
+            if (delta != 0) {
+                topicWords[k].changeCount(v, delta);
+            }
+        }
+    }
+
+    /**
+     * Check the counts against the given expected counts.
+     *
+     * @param expected [K * V]: counts implied by the topic assignments
+     * @param msg Message included in the exception thrown on a mismatch
+     */
+    public void validate(int[] expected, String msg) {
+        if (expected.length != K * V) {
+            throw new MismatchRuntimeException(expected.length, K * V);
+        }
+        for (int k = 0; k < K; k++) {
+            int rowSum = 0;
+            for (int v = 0; v < V; v++) {
+                if (counts.get(k * V + v) != expected[k * V + v]) {
+                    throw new RuntimeException(msg + ". Count mismatch at topic "
+                            + k + ", word " + v + ". " + counts.get(k * V + v)
+                            + " vs. " + expected[k * V + v]);
+                }
+                rowSum += expected[k * V + v];
+            }
+            if (countSums.get(k) != rowSum) {
+                throw new RuntimeException(msg + ". Count sum mismatch at topic "
+                        + k + ". " + countSums.get(k) + " vs. " + rowSum);
+            }
+        }
+    }
+}
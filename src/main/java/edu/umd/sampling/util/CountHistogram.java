@@ -0,0 +1,291 @@
+package edu.umd.sampling.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import edu.umd.sampling.AbstractDiscreteFiniteLikelihoodModel;
+import edu.umd.util.SamplerUtils;
+import edu.umd.util.StatUtils;
+
+/**
+ * Histograms of the counts of a group of likelihood models with the same
+ * dimension (e.g., all document-topic distributions of an LDA model):
+ * how many (model, observation) pairs have each non-zero count, and how many
+ * models have each count sum.
+ *
+ * Under a symmetric Dirichlet prior, the total Dirichlet-multinomial log
+ * likelihood of the group depends on the counts only through these
+ * histograms, so once they are built the log likelihood for any prior value
+ * is computed in time proportional to the largest count instead of the
+ * number of models.
+ *
+ * Count sums are only histogrammed when the largest sum is small compared to
+ * the number of models, as for documents. For a few models with large sums,
+ * such as topics whose sums are numbers of tokens, the terms of the count
+ * sums are computed directly from the sums instead.
+ *
+ * @author vietan
+ */
+public class CountHistogram {
+
+    // number of models per fork-join task
+    private static final int TASK_SIZE = 256;
+    // count sums are histogrammed if the largest is at most this many times
+    // the number of models
+    public static final int MAX_SUM_HIST_RATIO = 16;
+    private final int dimension;
+    private final int[] countHist; // [max count + 1]
+    private final int[] countSums; // [number of models]
+    private final int[] sumHist; // [max count sum + 1]: null if sums are few and large
+    private final int[][] obsCountHists; // [dimension][]: optional
+
+    /**
+     * @param dimension Dimension of the models
+     * @param countHist Number of (model, observation) pairs with each count
+     * @param countSums Count sum of each model
+     * @param obsCountHists Number of models in which each observation has
+     * each count, or null
+     */
+    public CountHistogram(int dimension, int[] countHist, int[] countSums,
+            int[][] obsCountHists) {
+        this.dimension = dimension;
+        this.countHist = countHist;
+        this.countSums = countSums;
+        this.obsCountHists = obsCountHists;
+
+        int maxSum = 0;
+        for (int n : countSums) {
+            maxSum = Math.max(maxSum, n);
+        }
+        if (maxSum <= (long) MAX_SUM_HIST_RATIO * countSums.length) {
+            this.sumHist = new int[maxSum + 1];
+            for (int n : countSums) {
+                this.sumHist[n]++;
+            }
+        } else {
+            this.sumHist = null;
+        }
+    }
+
+    /**
+     * Build the histograms of a group of models, splitting the models among
+     * the threads of a fork-join pool.
+     *
+     * @param models Models of the same dimension
+     * @param pool The fork-join pool
+     */
+    public static CountHistogram build(AbstractDiscreteFiniteLikelihoodModel[] models,
+            ForkJoinPool pool) {
+        return build(models, pool, false);
+    }
+
+    /**
+     * Build the histograms of a group of models, splitting the models among
+     * the threads of a fork-join pool.
+     *
+     * @param models Models of the same dimension
+     * @param pool The fork-join pool
+     * @param perObservation Whether to also build one count histogram per
+     * observation, which is needed for asymmetric priors
+     */
+    public static CountHistogram build(AbstractDiscreteFiniteLikelihoodModel[] models,
+            ForkJoinPool pool, boolean perObservation) {
+        int dim = models.length == 0 ? 0 : models[0].getDimension();
+        int[] countSums = new int[models.length];
+        Partial partial = pool.invoke(new HistogramTask(models, countSums, 0, models.length,
+                perObservation ? dim : 0));
+        return new CountHistogram(dim, partial.countHist, countSums, partial.obsCountHists);
+    }
+
+    public int getDimension() {
+        return this.dimension;
+    }
+
+    public int getNumModels() {
+        return this.countSums.length;
+    }
+
+    /**
+     * Return the number of (model, observation) pairs with count c, for
+     * c = 1, ..., max count. Entry 0 is unused.
+     */
+    public int[] getCountHistogram() {
+        return this.countHist;
+    }
+
+    /**
+     * Return the number of models with count sum n, for n = 0, ..., max count
+     * sum, or null if the sums are not histogrammed.
+     */
+    public int[] getSumHistogram() {
+        return this.sumHist;
+    }
+
+    /**
+     * Return the count sum of each model.
+     */
+    public int[] getCountSums() {
+        return this.countSums;
+    }
+
+    /**
+     * Compute sum_m [digamma(n_m + x) - digamma(x)] over the count sums n_m of
+     * all models.
+     *
+     * @param x The offset, typically the sum of the prior vector
+     */
+    public double getSumDigammaDiffSum(double x) {
+        if (sumHist != null) {
+            return StatUtils.histogramDigammaDiffSum(sumHist, x);
+        }
+        return StatUtils.digammaDiffSum(countSums, countSums.length, x);
+    }
+
+    /**
+     * Return the number of models in which an observation has count c, for
+     * c = 1, ..., max count. Entry 0 is unused.
+     *
+     * @param observation The observation
+     */
+    public int[] getCountHistogram(int observation) {
+        if (obsCountHists == null) {
+            throw new RuntimeException("Per-observation histograms were not built");
+        }
+        return this.obsCountHists[observation];
+    }
+
+    /**
+     * Compute the total log likelihood of all models under a symmetric
+     * Dirichlet prior. The log Gamma values are computed without the shared
+     * LogGammaTable cache, since the prior values tried by slice sampling are
+     * each used only once.
+     *
+     * @param priorVal A single element of the (unnormalized) prior vector
+     */
+    public double getLogLikelihood(double priorVal) {
+        double priorSum = priorVal * dimension;
+        double lgPrior = SamplerUtils.logGammaStirling(priorVal);
+        double lgPriorSum = SamplerUtils.logGammaStirling(priorSum);
+        double llh = 0.0;
+        for (int c = 1; c < countHist.length; c++) {
+            if (countHist[c] > 0) {
+                llh += countHist[c] * (SamplerUtils.logGammaStirling(c + priorVal) - lgPrior);
+            }
+        }
+        if (sumHist != null) {
+            for (int n = 1; n < sumHist.length; n++) {
+                if (sumHist[n] > 0) {
+                    llh -= sumHist[n] * (SamplerUtils.logGammaStirling(n + priorSum) - lgPriorSum);
+                }
+            }
+        } else {
+            for (int n : countSums) {
+                if (n > 0) {
+                    llh -= SamplerUtils.logGammaStirling(n + priorSum) - lgPriorSum;
+                }
+            }
+        }
+        return llh;
+    }
+
+    static class Partial {
+
+        int[] countHist = new int[1];
+        int[][] obsCountHists;
+
+        Partial(int numObservations) {
+            if (numObservations > 0) {
+                obsCountHists = new int[numObservations][1];
+            }
+        }
+
+        void addCount(int obs, int c) {
+            if (c >= countHist.length) {
+                countHist = Arrays.copyOf(countHist, Math.max(c + 1, countHist.length * 2));
+            }
+            countHist[c]++;
+            if (obsCountHists != null) {
+                if (c >= obsCountHists[obs].length) {
+                    obsCountHists[obs] = Arrays.copyOf(obsCountHists[obs],
+                            Math.max(c + 1, obsCountHists[obs].length * 2));
+                }
+                obsCountHists[obs][c]++;
+            }
+        }
+
+        void merge(Partial other) {
+            if (other.countHist.length > countHist.length) {
+                countHist = Arrays.copyOf(countHist, other.countHist.length);
+            }
+            for (int c = 0; c < other.countHist.length; c++) {
+                countHist[c] += other.countHist[c];
+            }
+            if (obsCountHists != null) {
+                for (int obs = 0; obs < obsCountHists.length; obs++) {
+                    int[] hist = other.obsCountHists[obs];
+                    if (hist.length > obsCountHists[obs].length) {
+                        obsCountHists[obs] = Arrays.copyOf(obsCountHists[obs], hist.length);
+                    }
+                    for (int c = 0; c < hist.length; c++) {
+                        obsCountHists[obs][c] += hist[c];
+                    }
+                }
+            }
+        }
+    }
+
+    static class HistogramTask extends RecursiveTask<Partial> {
+
+        private static final long serialVersionUID = 1123581321L;
+        final AbstractDiscreteFiniteLikelihoodModel[] models;
+        final int[] countSums; // each task fills its own range
+        final int start;
+        final int end;
+        final int numObservations; // 0 if no per-observation histograms
+
+        HistogramTask(AbstractDiscreteFiniteLikelihoodModel[] models, int[] countSums,
+                int start, int end, int numObservations) {
+            this.models = models;
+            this.countSums = countSums;
+            this.start = start;
+            this.end = end;
+            this.numObservations = numObservations;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (end - start > TASK_SIZE) {
+                int mid = (start + end) >>> 1;
+                HistogramTask left = new HistogramTask(models, countSums, start, mid,
+                        numObservations);
+                left.fork();
+                Partial partial = new HistogramTask(models, countSums, mid, end,
+                        numObservations).compute();
+                partial.merge(left.join());
+                return partial;
+            }
+            Partial partial = new Partial(numObservations);
+            for (int ii = start; ii < end; ii++) {
+                AbstractDiscreteFiniteLikelihoodModel model = models[ii];
+                if (model.isDenseBacked()) {
+                    int[] counts = model.getCounts();
+                    for (int obs = 0; obs < counts.length; obs++) {
+                        if (counts[obs] > 0) {
+                            partial.addCount(obs, counts[obs]);
+                        }
+                    }
+                } else {
+                    SparseCount counts = model.getSparseCounts();
+                    for (int slot = 0; slot < counts.getNumSlots(); slot++) {
+                        int c = counts.getSlotCount(slot);
+                        if (c > 0) {
+                            partial.addCount(counts.getSlotIndex(slot), c);
+                        }
+                    }
+                }
+                countSums[ii] = model.getCountSum();
+            }
+            return partial;
+        }
+    }
+}
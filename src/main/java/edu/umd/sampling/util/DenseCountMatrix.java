@@ -0,0 +1,145 @@
+package edu.umd.sampling.util;
+
+import java.io.Serializable;
+
+/**
+ * Dense count matrix stored in one flat int array, with one int total per
+ * row. This is used as an alternative backend for the counts of a group of
+ * likelihood models with the same dimension (e.g., all topic-word
+ * distributions of an LDA model) when the full matrix fits in memory, to
+ * avoid boxing and hashing in the inner sampling loop.
+ *
+ * @author vietan
+ */
+public class DenseCountMatrix implements Serializable {
+
+    private static final long serialVersionUID = 1123581321L;
+    private final int numRows;
+    private final int numCols;
+    private final int[] counts; // [numRows * numCols]
+    private final int[] countSums; // [numRows]
+
+    public DenseCountMatrix(int numRows, int numCols) {
+        if ((long) numRows * numCols > Integer.MAX_VALUE) {
+            throw new RuntimeException("Dense count matrix too large. "
+                    + numRows + " x " + numCols);
+        }
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.counts = new int[numRows * numCols];
+        this.countSums = new int[numRows];
+    }
+
+    /**
+     * Return true if a numRows x numCols matrix takes at most the given
+     * fraction of the maximum heap size.
+     *
+     * @param numRows Number of rows
+     * @param numCols Number of columns
+     * @param heapFraction Fraction of the maximum heap size
+     */
+    public static boolean fits(int numRows, int numCols, double heapFraction) {
+        long numCells = (long) numRows * numCols;
+        if (numCells > Integer.MAX_VALUE) {
+            return false;
+        }
+        return numCells * 4 <= Runtime.getRuntime().maxMemory() * heapFraction;
+    }
+
+    public int getNumRows() {
+        return this.numRows;
+    }
+
+    public int getNumCols() {
+        return this.numCols;
+    }
+
+    public int getCount(int row, int col) {
+        return this.counts[row * numCols + col];
+    }
+
+    public int getCountSum(int row) {
+        return this.countSums[row];
+    }
+
+    public void increment(int row, int col) {
+        this.counts[row * numCols + col]++;
+        this.countSums[row]++;
+    }
+
+    public void decrement(int row, int col) {
+        int idx = row * numCols + col;
+        if (this.counts[idx] <= 0) {
+            throw new RuntimeException("Removing observation that does not exist "
+                    + col + " in row " + row);
+        }
+        this.counts[idx]--;
+        this.countSums[row]--;
+    }
+
+    public void setCount(int row, int col, int count) {
+        if (count < 0) {
+            throw new RuntimeException("Setting a negative count. " + count);
+        }
+        int idx = row * numCols + col;
+        this.countSums[row] += count - this.counts[idx];
+        this.counts[idx] = count;
+    }
+
+    /**
+     * Copy the counts of a row into the given array.
+     */
+    public void getRow(int row, int[] dest) {
+        System.arraycopy(counts, row * numCols, dest, 0, numCols);
+    }
+
+    public void setRow(int row, int[] rowCounts) {
+        int sum = 0;
+        for (int col = 0; col < numCols; col++) {
+            int count = col < rowCounts.length ? rowCounts[col] : 0;
+            if (count < 0) {
+                throw new RuntimeException("Setting a negative count. " + count);
+            }
+            this.counts[row * numCols + col] = count;
+            sum += count;
+        }
+        this.countSums[row] = sum;
+    }
+
+    public void clearRow(int row) {
+        for (int col = 0; col < numCols; col++) {
+            this.counts[row * numCols + col] = 0;
+        }
+        this.countSums[row] = 0;
+    }
+
+    /**
+     * Return the non-zero entries of a row as sparse counts.
+     */
+    public SparseCount getSparseRow(int row) {
+        SparseCount sc = new SparseCount();
+        int offset = row * numCols;
+        for (int col = 0; col < numCols; col++) {
+            if (counts[offset + col] > 0) {
+                sc.setCount(col, counts[offset + col]);
+            }
+        }
+        return sc;
+    }
+
+    public void validateRow(int row, String msg) {
+        int total = 0;
+        int offset = row * numCols;
+        for (int col = 0; col < numCols; col++) {
+            if (counts[offset + col] < 0) {
+                throw new RuntimeException(msg + ". Negative count for observation "
+                        + col + ". count = " + counts[offset + col]);
+            }
+            total += counts[offset + col];
+        }
+        if (total != countSums[row]) {
+            throw new RuntimeException(msg + ". Total counts mismatched. "
+                    + total + " vs. " + countSums[row]);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package edu.umd.sampling.util;
+
+import edu.umd.util.StatUtils;
+
+/**
+ * Minka's fixed-point updates of Dirichlet hyperparameters that maximize the
+ * Dirichlet-multinomial likelihood of a group of count vectors. Following
+ * Wallach, the digamma sums are computed from count histograms (see
+ * {@link CountHistogram}), so each update takes time proportional to the
+ * largest count instead of the number of count vectors. Large count sums of
+ * few vectors, such as topic sizes, are summed over directly.
+ *
+ * @author vietan
+ */
+public class DirichletOptimizer {
+
+    public static final int DEFAULT_MAX_ITER = 200;
+    public static final double DEFAULT_TOLERANCE = 1e-6;
+    // keeps the parameter of a never-used dimension positive
+    public static final double MIN_VALUE = 1e-10;
+
+    /**
+     * Optimize a symmetric Dirichlet.
+     *
+     * @param value Current value of one element of the (unnormalized) prior
+     * vector
+     * @param hist Count histograms
+     * @param maxIter Maximum number of fixed-point iterations
+     * @param tolerance Stop when the relative change is smaller than this
+     * @return The new value of one element of the prior vector
+     */
+    public static double optimizeSymmetric(double value, CountHistogram hist,
+            int maxIter, double tolerance) {
+        int dim = hist.getDimension();
+        int[] countHist = hist.getCountHistogram();
+        for (int ii = 0; ii < maxIter; ii++) {
+            double numer = StatUtils.histogramDigammaDiffSum(countHist, value);
+            double denom = dim * hist.getSumDigammaDiffSum(dim * value);
+            if (denom <= 0) { // no observations
+                return value;
+            }
+            double newValue = Math.max(value * numer / denom, MIN_VALUE);
+            boolean converged = Math.abs(newValue - value) < tolerance * value;
+            value = newValue;
+            if (converged) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    public static double optimizeSymmetric(double value, CountHistogram hist) {
+        return optimizeSymmetric(value, hist, DEFAULT_MAX_ITER, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Optimize an asymmetric Dirichlet. The histograms must have been built
+     * with per-observation histograms.
+     *
+     * @param values Current (unnormalized) prior vector
+     * @param hist Count histograms
+     * @param maxIter Maximum number of fixed-point iterations
+     * @param tolerance Stop when the largest relative change is smaller than
+     * this
+     * @return The new prior vector
+     */
+    public static double[] optimizeAsymmetric(double[] values, CountHistogram hist,
+            int maxIter, double tolerance) {
+        int dim = hist.getDimension();
+        if (values.length != dim) {
+            throw new RuntimeException("Dimension mismatch. " + values.length
+                    + " vs. " + dim);
+        }
+        double[] newValues = values.clone();
+        for (int ii = 0; ii < maxIter; ii++) {
+            double valueSum = 0.0;
+            for (double v : newValues) {
+                valueSum += v;
+            }
+            double denom = hist.getSumDigammaDiffSum(valueSum);
+            if (denom <= 0) { // no observations
+                return newValues;
+            }
+            double maxChange = 0.0;
+            for (int kk = 0; kk < dim; kk++) {
+                double value = newValues[kk];
+                double numer = StatUtils.histogramDigammaDiffSum(hist.getCountHistogram(kk), value);
+                newValues[kk] = Math.max(value * numer / denom, MIN_VALUE);
+                maxChange = Math.max(maxChange, Math.abs(newValues[kk] - value) / value);
+            }
+            if (maxChange < tolerance) {
+                break;
+            }
+        }
+        return newValues;
+    }
+
+    public static double[] optimizeAsymmetric(double[] values, CountHistogram hist) {
+        return optimizeAsymmetric(values, hist, DEFAULT_MAX_ITER, DEFAULT_TOLERANCE);
+    }
+}
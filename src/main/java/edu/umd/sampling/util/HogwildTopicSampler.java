@@ -0,0 +1,386 @@
+package edu.umd.sampling.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import edu.umd.data.FlatCorpus;
+import edu.umd.sampling.likelihood.DirMult;
+import edu.umd.util.StopSignal;
+import edu.umd.util.XoroshiroRandom;
+
+/**
+ * Multi-threaded Gibbs sweep over topic assignments in which all threads
+ * update one shared, lock-free topic-word count matrix (Hogwild-style), so
+ * there is no merge barrier. Documents are partitioned across threads, and
+ * each document's topic counts are only touched by the thread that owns it.
+ *
+ * The shared counts are kept across sweeps. They are loaded from the
+ * topic-word distributions on the first sweep, and again for the topics whose
+ * totals no longer match, or after {@link #invalidate()}; so callers that
+ * change the distributions outside sweeps must invalidate them. After a sweep,
+ * only the counts of the cells whose assignments changed are copied back. In
+ * debug mode, the counts are also rebuilt from the assignments and checked.
+ * If a stop signal is set, each thread stops before its next document once a
+ * stop is requested, leaving the remaining documents unchanged.
+ *
+ * @author vietan
+ */
+public class HogwildTopicSampler {
+
+    private final int K;
+    private final int V;
+    private final int numThreads;
+    private final AtomicTopicWordCounts counts;
+    private final ExecutorService executor;
+    private final int[][] changedCells; // [numThreads] x [*]: reused buffers
+    private DirMult[] loadedTopicWords; // distributions the counts mirror
+    private StopSignal stopSignal;
+    private boolean debug;
+
+    public HogwildTopicSampler(int K, int V, int numThreads) {
+        this.K = K;
+        this.V = V;
+        this.numThreads = numThreads;
+        this.counts = new AtomicTopicWordCounts(K, V);
+        this.changedCells = new int[numThreads][];
+        this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "hogwild-sweep");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Set whether the shared counts are checked against the counts rebuilt
+     * from the topic assignments after each sweep.
+     *
+     * @param debug Whether to check the counts
+     */
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    /**
+     * Reload the shared counts from the topic-word distributions before the
+     * next sweep.
+     */
+    public void invalidate() {
+        this.loadedTopicWords = null;
+    }
+
+    /**
+     * Set the signal polled between documents, or null to always finish
+     * sweeps.
+     *
+     * @param stopSignal The stop signal
+     */
+    public void setStopSignal(StopSignal stopSignal) {
+        this.stopSignal = stopSignal;
+    }
+
+    /**
+     * Sample the topic assignments of all tokens once.
+     *
+     * @param words [D] x [N_d]: word types
+     * @param z [D] x [N_d]: topic assignments, updated in place
+     * @param docTopics [D]: document-topic distributions, updated in place
+     * @param docCandidates [D] x [*]: topics each document can be assigned
+     * to. If null, or if a document's row is null or empty, all topics are
+     * considered.
+     * @param topicWords [K]: topic-word distributions, updated after the sweep
+     * @param rand Random number generator used to seed the threads
+     * @return Number of tokens whose assignment changed
+     */
+    public int sweep(int[][] words, int[][] z, DirMult[] docTopics,
+            int[][] docCandidates, DirMult[] topicWords, Random rand) {
+        return sweep(words, null, z, null, null, docTopics, docCandidates, topicWords, rand);
+    }
+
+    /**
+     * Sample the topic assignments of all tokens once.
+     *
+     * @param words [D] x [N_d]: word types
+     * @param z Topic assignments, updated in place. It must have been created
+     * for concurrent writes.
+     * @param docTopics [D]: document-topic distributions, updated in place
+     * @param docCandidates [D] x [*]: topics each document can be assigned
+     * to. If null, or if a document's row is null or empty, all topics are
+     * considered.
+     * @param topicWords [K]: topic-word distributions, updated after the sweep
+     * @param rand Random number generator used to seed the threads
+     * @return Number of tokens whose assignment changed
+     */
+    public int sweep(int[][] words, AssignmentStore z, DirMult[] docTopics,
+            int[][] docCandidates, DirMult[] topicWords, Random rand) {
+        if (!z.supportsConcurrentWrites()) {
+            throw new RuntimeException("Assignment store does not support concurrent writes");
+        }
+        return sweep(words, null, null, null, z, docTopics, docCandidates, topicWords, rand);
+    }
+
+    /**
+     * Sample the topic assignments of all tokens once.
+     *
+     * @param corpus Word types of all documents
+     * @param z [N]: topic assignments in the layout of the corpus, updated in
+     * place
+     * @param docTopics [D]: document-topic distributions, updated in place
+     * @param docCandidates [D] x [*]: topics each document can be assigned
+     * to. If null, or if a document's row is null or empty, all topics are
+     * considered.
+     * @param topicWords [K]: topic-word distributions, updated after the sweep
+     * @param rand Random number generator used to seed the threads
+     * @return Number of tokens whose assignment changed
+     */
+    public int sweep(FlatCorpus corpus, int[] z, DirMult[] docTopics,
+            int[][] docCandidates, DirMult[] topicWords, Random rand) {
+        return sweep(null, corpus, null, z, null, docTopics, docCandidates, topicWords, rand);
+    }
+
+    /**
+     * The words are given either per document or as a flat corpus, and the
+     * assignments either per document, flat in the layout of the corpus, or
+     * in an assignment store.
+     */
+    private int sweep(int[][] words, FlatCorpus corpus, int[][] z, int[] flatZ,
+            AssignmentStore zStore, DirMult[] docTopics, int[][] docCandidates,
+            DirMult[] topicWords, Random rand) {
+        syncCounts(topicWords);
+
+        // partition documents by number of tokens
+        int D = words != null ? words.length : corpus.getNumDocs();
+        long numTokens = 0;
+        for (int dd = 0; dd < D; dd++) {
+            numTokens += getDocLength(words, corpus, dd);
+        }
+        int numParts = Math.min(numThreads, D);
+        long tokensPerPart = (numTokens + numParts - 1) / numParts;
+        ArrayList<Worker> workers = new ArrayList<Worker>();
+        ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        int startDoc = 0;
+        long partTokens = 0;
+        for (int dd = 0; dd < D; dd++) {
+            partTokens += getDocLength(words, corpus, dd);
+            if ((partTokens >= tokensPerPart && futures.size() < numParts - 1)
+                    || dd == D - 1) {
+                Worker worker = new Worker(workers.size(), startDoc, dd + 1,
+                        rand.nextLong(), words, corpus, z, flatZ, zStore, docTopics,
+                        docCandidates, topicWords);
+                workers.add(worker);
+                futures.add(executor.submit(worker));
+                startDoc = dd + 1;
+                partTokens = 0;
+            }
+        }
+
+        int numChanged = 0;
+        try {
+            for (Future<Integer> future : futures) {
+                numChanged += future.get();
+            }
+        } catch (Exception e) {
+            invalidate();
+            e.printStackTrace();
+            throw new RuntimeException("Exception while sampling in parallel");
+        }
+
+        for (Worker worker : workers) {
+            counts.store(topicWords, changedCells[worker.part], worker.numChangedCells);
+        }
+        if (debug) {
+            counts.validate(rebuildCounts(words, corpus, z, flatZ, zStore),
+                    "Hogwild sweep");
+        }
+        return numChanged;
+    }
+
+    /**
+     * Make the shared counts mirror the given topic-word distributions. All
+     * topics are reloaded if the distributions are not the ones loaded last,
+     * and otherwise only the topics whose totals no longer match.
+     */
+    private void syncCounts(DirMult[] topicWords) {
+        boolean reloadAll = loadedTopicWords == null
+                || loadedTopicWords.length != topicWords.length;
+        for (int k = 0; k < K && !reloadAll; k++) {
+            reloadAll = loadedTopicWords[k] != topicWords[k];
+        }
+        if (reloadAll) {
+            counts.load(topicWords);
+            loadedTopicWords = Arrays.copyOf(topicWords, topicWords.length);
+            return;
+        }
+        for (int k = 0; k < K; k++) {
+            if (counts.getCountSum(k) != topicWords[k].getCountSum()) {
+                counts.load(k, topicWords[k]);
+            }
+        }
+    }
+
+    /**
+     * Return the topic-word counts implied by the topic assignments.
+     */
+    private int[] rebuildCounts(int[][] words, FlatCorpus corpus, int[][] z,
+            int[] flatZ, AssignmentStore zStore) {
+        int[] expectedCounts = new int[K * V];
+        if (corpus != null) {
+            int[] tokens = corpus.getTokens();
+            for (int ii = 0; ii < tokens.length; ii++) {
+                expectedCounts[flatZ[ii] * V + tokens[ii]]++;
+            }
+            return expectedCounts;
+        }
+        int[] docZ = null;
+        for (int dd = 0; dd < words.length; dd++) {
+            if (z != null) {
+                docZ = z[dd];
+            } else {
+                docZ = zStore.getDocAssignments(dd, docZ);
+            }
+            for (int nn = 0; nn < words[dd].length; nn++) {
+                expectedCounts[docZ[nn] * V + words[dd][nn]]++;
+            }
+        }
+        return expectedCounts;
+    }
+
+    private static int getDocLength(int[][] words, FlatCorpus corpus, int dd) {
+        return words != null ? words[dd].length : corpus.getDocLength(dd);
+    }
+
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    class Worker implements Callable<Integer> {
+
+        final int part;
+        final int startDoc;
+        final int endDoc;
+        final Random workerRand;
+        final int[][] words;
+        final FlatCorpus corpus; // used if words is null
+        final int[][] z;
+        final int[] flatZ; // used with corpus
+        final AssignmentStore zStore; // used if z and flatZ are null
+        final DirMult[] docTopics;
+        final int[][] docCandidates;
+        final DirMult[] topicWords;
+        int numChangedCells;
+
+        Worker(int part, int startDoc, int endDoc, long seed,
+                int[][] words, FlatCorpus corpus, int[][] z, int[] flatZ,
+                AssignmentStore zStore, DirMult[] docTopics,
+                int[][] docCandidates, DirMult[] topicWords) {
+            this.part = part;
+            this.startDoc = startDoc;
+            this.endDoc = endDoc;
+            this.workerRand = new XoroshiroRandom(seed);
+            this.words = words;
+            this.corpus = corpus;
+            this.z = z;
+            this.flatZ = flatZ;
+            this.zStore = zStore;
+            this.docTopics = docTopics;
+            this.docCandidates = docCandidates;
+            this.topicWords = topicWords;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            double[] cumProbs = new double[K];
+            int[] allTopics = new int[K];
+            for (int k = 0; k < K; k++) {
+                allTopics[k] = k;
+            }
+            int[] docZBuffer = null;
+            int[] cells = changedCells[part];
+            if (cells == null) {
+                cells = new int[1024];
+            }
+            int numChanged = 0;
+            for (int dd = startDoc; dd < endDoc; dd++) {
+                if (stopSignal != null && stopSignal.isStopRequested()) {
+                    break;
+                }
+                DirMult docTopic = docTopics[dd];
+                double alphaSum = docTopic.getConcentration();
+                int[] candidates = allTopics;
+                if (docCandidates != null && docCandidates[dd] != null
+                        && docCandidates[dd].length > 0) {
+                    candidates = docCandidates[dd];
+                }
+
+                // tokens of the document are docWords[start], ...,
+                // docWords[start + length - 1], and likewise in docZ
+                int[] docWords;
+                int[] docZ;
+                int start = 0;
+                int length;
+                if (words != null) {
+                    docWords = words[dd];
+                    length = docWords.length;
+                } else {
+                    docWords = corpus.getTokens();
+                    start = corpus.getDocStart(dd);
+                    length = corpus.getDocLength(dd);
+                }
+                if (flatZ != null) {
+                    docZ = flatZ;
+                } else if (z != null) {
+                    docZ = z[dd];
+                } else {
+                    docZBuffer = zStore.getDocAssignments(dd, docZBuffer);
+                    docZ = docZBuffer;
+                }
+                for (int nn = start; nn < start + length; nn++) {
+                    int ww = docWords[nn];
+                    int curZ = docZ[nn];
+                    docTopic.decrement(curZ);
+                    counts.decrement(curZ, ww);
+
+                    double sum = 0.0;
+                    for (int ii = 0; ii < candidates.length; ii++) {
+                        int k = candidates[ii];
+                        double betaSum = topicWords[k].getConcentration();
+                        sum += (docTopic.getCount(k) + alphaSum * docTopic.getCenterElement(k))
+                                * (counts.getCount(k, ww) + betaSum * topicWords[k].getCenterElement(ww))
+                                / (counts.getCountSum(k) + betaSum);
+                        cumProbs[ii] = sum;
+                    }
+                    double u = workerRand.nextDouble() * sum;
+                    int idx = 0;
+                    while (idx < candidates.length - 1 && u >= cumProbs[idx]) {
+                        idx++;
+                    }
+                    int sampledZ = candidates[idx];
+                    if (sampledZ != curZ) {
+                        numChanged++;
+                        if (numChangedCells + 2 > cells.length) {
+                            cells = Arrays.copyOf(cells, cells.length * 2);
+                        }
+                        cells[numChangedCells++] = curZ * V + ww;
+                        cells[numChangedCells++] = sampledZ * V + ww;
+                    }
+                    docZ[nn] = sampledZ;
+
+                    docTopic.increment(sampledZ);
+                    counts.increment(sampledZ, ww);
+                }
+                if (zStore != null) {
+                    zStore.setDocAssignments(dd, docZ);
+                }
+            }
+            changedCells[part] = cells;
+            return numChanged;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package edu.umd.sampling.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import edu.umd.util.SamplerUtils;
+
+/**
+ * Cached values of log Gamma(n + offset) for non-negative integers n and a
+ * fixed offset (typically a Dirichlet hyperparameter). Dirichlet-multinomial
+ * likelihoods only evaluate log Gamma at counts plus a hyperparameter, so
+ * the values are computed once and then looked up.
+ *
+ * Tables are shared through a cache keyed by the offset, which may be used by
+ * several samplers at once. Tables of old hyperparameter values are not
+ * removed one by one; instead, the cache is emptied once it holds
+ * MAX_NUM_CACHED_TABLES tables, and models holding a table keep using it.
+ *
+ * @author vietan
+ */
+public class LogGammaTable {
+
+    public static final int MAX_TABLE_SIZE = 1 << 20;
+    private static final int INIT_TABLE_SIZE = 64;
+    private static final int MAX_NUM_CACHED_TABLES = 256;
+    private static final ConcurrentHashMap<Double, LogGammaTable> cache
+            = new ConcurrentHashMap<Double, LogGammaTable>();
+    private final double offset;
+    private volatile double[] values;
+
+    public LogGammaTable(double offset) {
+        this.offset = offset;
+        this.values = compute(new double[0], INIT_TABLE_SIZE);
+    }
+
+    /**
+     * Return the shared table for the given offset.
+     *
+     * @param offset The offset
+     */
+    public static LogGammaTable get(double offset) {
+        LogGammaTable table = cache.get(offset);
+        if (table == null) {
+            if (cache.size() >= MAX_NUM_CACHED_TABLES) {
+                cache.clear();
+            }
+            table = new LogGammaTable(offset);
+            LogGammaTable existing = cache.putIfAbsent(offset, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Remove all shared tables, including those of other samplers, which then
+     * create new ones.
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    public double getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Return log Gamma(n + offset).
+     *
+     * @param n Non-negative integer
+     */
+    public double logGamma(int n) {
+        double[] vals = this.values;
+        if (n < vals.length) {
+            return vals[n];
+        }
+        if (n >= MAX_TABLE_SIZE) {
+            return SamplerUtils.logGammaStirling(n + offset);
+        }
+        return grow(n)[n];
+    }
+
+    /**
+     * Return log Gamma(n + m + offset) - log Gamma(n + offset), i.e., the sum
+     * of log(n + offset + i) for i = 0, ..., m - 1.
+     *
+     * @param n Non-negative integer
+     * @param m Non-negative integer
+     */
+    public double logGammaRatio(int n, int m) {
+        return logGamma(n + m) - logGamma(n);
+    }
+
+    private synchronized double[] grow(int n) {
+        double[] vals = this.values;
+        if (n < vals.length) { // grown by another thread
+            return vals;
+        }
+        int size = vals.length;
+        while (size <= n) {
+            size *= 2;
+        }
+        vals = compute(vals, Math.min(size, MAX_TABLE_SIZE));
+        this.values = vals;
+        return vals;
+    }
+
+    private double[] compute(double[] vals, int size) {
+        double[] newVals = new double[size];
+        System.arraycopy(vals, 0, newVals, 0, vals.length);
+        for (int n = vals.length; n < size; n++) {
+            newVals[n] = SamplerUtils.logGammaStirling(n + offset);
+        }
+        return newVals;
+    }
+}
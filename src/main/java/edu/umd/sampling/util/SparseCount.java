@@ -1,51 +1,163 @@
 package edu.umd.sampling.util;
 
 import java.io.Serializable;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
+ * Sparse non-negative integer counts, stored in a primitive open-addressing
+ * hash table (linear probing with backward-shift deletion) so that updating
+ * a count neither boxes nor allocates.
+ *
+ * Only indices with positive counts are stored, and an empty slot is marked
+ * by a zero count. To iterate over the indices without allocation, loop over
+ * the slots:
+ * <pre>
+ * for (int slot = 0; slot &lt; sc.getNumSlots(); slot++) {
+ *     int count = sc.getSlotCount(slot);
+ *     if (count &gt; 0) {
+ *         int idx = sc.getSlotIndex(slot);
+ *         ...
+ *     }
+ * }
+ * </pre>
  *
  * @author vietan
  */
 public class SparseCount implements Cloneable, Serializable {
 
     private static final long serialVersionUID = 1123581321L;
-    private HashMap<Integer, Integer> counts;
+    private static final int DEFAULT_CAPACITY = 8;
+    private int[] keys;
+    private int[] vals; // 0 marks an empty slot
+    private int size;
     private int countSum;
+    private transient int modCount; // number of structural changes
 
     public SparseCount() {
-        this.counts = new HashMap<Integer, Integer>();
+        this.keys = new int[DEFAULT_CAPACITY];
+        this.vals = new int[DEFAULT_CAPACITY];
+        this.size = 0;
         this.countSum = 0;
     }
 
     public SparseCount(SparseCount other) {
-        this.counts = new HashMap<>();
-        for (int key : other.getIndices()) {
-            this.counts.put(key, other.getCount(key));
-        }
+        this.keys = other.keys.clone();
+        this.vals = other.vals.clone();
+        this.size = other.size;
         this.countSum = other.getCountSum();
     }
 
     @Override
     public SparseCount clone() throws CloneNotSupportedException {
         SparseCount sc = (SparseCount) super.clone();
-        sc.counts = (HashMap<Integer, Integer>) this.counts.clone();
+        sc.keys = this.keys.clone();
+        sc.vals = this.vals.clone();
+        sc.modCount = 0;
         return sc;
     }
 
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Return the slot of the given index, or -(insertion slot + 1) if the
+     * index is not stored.
+     */
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (vals[slot] != 0) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -(slot + 1);
+    }
+
+    private void insert(int slot, int key, int count) {
+        keys[slot] = key;
+        vals[slot] = count;
+        size++;
+        modCount++;
+        if (size * 3 > keys.length * 2) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = this.keys;
+        int[] oldVals = this.vals;
+        this.keys = new int[capacity];
+        this.vals = new int[capacity];
+        int mask = capacity - 1;
+        for (int ii = 0; ii < oldKeys.length; ii++) {
+            if (oldVals[ii] == 0) {
+                continue;
+            }
+            int slot = hash(oldKeys[ii]) & mask;
+            while (vals[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[ii];
+            vals[slot] = oldVals[ii];
+        }
+        modCount++;
+    }
+
+    /**
+     * Empty the given slot and shift back the entries after it so that no
+     * probe sequence is broken.
+     */
+    private void removeSlot(int slot) {
+        int mask = keys.length - 1;
+        int free = slot;
+        vals[free] = 0;
+        int next = free;
+        while (true) {
+            next = (next + 1) & mask;
+            if (vals[next] == 0) {
+                break;
+            }
+            int home = hash(keys[next]) & mask;
+            // keep the entry if its home slot is cyclically in (free, next]
+            boolean keep = free <= next
+                    ? (free < home && home <= next)
+                    : (free < home || home <= next);
+            if (keep) {
+                continue;
+            }
+            keys[free] = keys[next];
+            vals[free] = vals[next];
+            vals[next] = 0;
+            free = next;
+        }
+        size--;
+        modCount++;
+    }
+
     public double dotprod(double[] w) {
         double dp = 0.0;
-        for (int idx : this.getIndices()) {
-            dp += this.getCount(idx) * w[idx];
+        for (int slot = 0; slot < vals.length; slot++) {
+            if (vals[slot] > 0) {
+                dp += vals[slot] * w[keys[slot]];
+            }
         }
         return dp;
     }
 
     public int size() {
-        return this.counts.size();
+        return this.size;
     }
 
     public void remove(int idx) {
@@ -55,45 +167,101 @@ public class SparseCount implements Cloneable, Serializable {
         this.setCount(idx, 0);
     }
 
+    /**
+     * Return a copy of the counts as a map.
+     */
     public HashMap<Integer, Integer> getObservations() {
-        return this.counts;
+        HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
+        for (int slot = 0; slot < vals.length; slot++) {
+            if (vals[slot] > 0) {
+                map.put(keys[slot], vals[slot]);
+            }
+        }
+        return map;
     }
 
     public void setCount(int observation, int count) {
         if (count < 0) {
             throw new RuntimeException("Setting a negative count. " + count);
         }
-        int curCount = this.getCount(observation);
-        this.counts.put(observation, count);
-        this.countSum += count - curCount;
-        if (count == 0) {
-            this.counts.remove(observation);
+        int slot = find(observation);
+        if (slot >= 0) {
+            this.countSum += count - vals[slot];
+            if (count == 0) {
+                removeSlot(slot);
+            } else {
+                vals[slot] = count;
+            }
+        } else if (count > 0) {
+            this.countSum += count;
+            insert(-slot - 1, observation, count);
         }
 
-        if (counts.get(observation) != null && this.counts.get(observation) < 0) {
-            throw new RuntimeException("Negative count for observation " + observation
-                    + ". count = " + this.counts.get(observation));
-        }
         if (countSum < 0) {
             throw new RuntimeException("Negative count sumze " + countSum);
         }
     }
 
     public ArrayList<Integer> getSortedIndices() {
-        ArrayList<Integer> sortedIndices = new ArrayList<Integer>();
-        for (int ii : getIndices()) {
+        int[] indices = getIndexArray();
+        Arrays.sort(indices);
+        ArrayList<Integer> sortedIndices = new ArrayList<Integer>(indices.length);
+        for (int ii : indices) {
             sortedIndices.add(ii);
         }
-        Collections.sort(sortedIndices);
         return sortedIndices;
     }
 
+    /**
+     * Return a view of the indices with positive counts. Like the key set of
+     * a map, it must not be iterated over while indices are being added or
+     * removed. Use {@link #getIndexArray()} or the slot accessors to iterate
+     * without boxing.
+     */
     public Set<Integer> getIndices() {
-        return this.counts.keySet();
+        return new IndexSet();
+    }
+
+    /**
+     * Return a new array of the indices with positive counts, in no
+     * particular order.
+     */
+    public int[] getIndexArray() {
+        int[] indices = new int[size];
+        int ii = 0;
+        for (int slot = 0; slot < vals.length; slot++) {
+            if (vals[slot] > 0) {
+                indices[ii++] = keys[slot];
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Return the number of internal slots, to be used with
+     * {@link #getSlotIndex(int)} and {@link #getSlotCount(int)}.
+     */
+    public int getNumSlots() {
+        return this.vals.length;
+    }
+
+    /**
+     * Return the index stored in a slot. This is only meaningful if the
+     * slot's count is positive.
+     */
+    public int getSlotIndex(int slot) {
+        return this.keys[slot];
+    }
+
+    /**
+     * Return the count stored in a slot, or 0 if the slot is empty.
+     */
+    public int getSlotCount(int slot) {
+        return this.vals[slot];
     }
 
     public boolean containsIndex(int idx) {
-        return this.counts.containsKey(idx);
+        return find(idx) >= 0;
     }
 
     public int getCountSum() {
@@ -101,11 +269,11 @@ public class SparseCount implements Cloneable, Serializable {
     }
 
     public int getCount(int observation) {
-        Integer count = this.counts.get(observation);
-        if (count == null) {
+        int slot = find(observation);
+        if (slot < 0) {
             return 0;
         } else {
-            return count;
+            return vals[slot];
         }
     }
 
@@ -115,34 +283,28 @@ public class SparseCount implements Cloneable, Serializable {
     }
 
     public void increment(int observation) {
-        Integer count = this.counts.get(observation);
-        if (count == null) {
-            this.counts.put(observation, 1);
+        int slot = find(observation);
+        if (slot >= 0) {
+            vals[slot]++;
         } else {
-            this.counts.put(observation, count + 1);
+            insert(-slot - 1, observation, 1);
         }
         this.countSum++;
     }
 
     public void decrement(int observation) {
-        Integer count = this.counts.get(observation);
-        if (count == null) {
-            for (Integer obs : this.counts.keySet()) {
-                System.out.println(obs + ": " + this.counts.get(obs));
-            }
+        int slot = find(observation);
+        if (slot < 0) {
+            System.out.println(this.toString());
             throw new RuntimeException("Removing observation that does not exist " + observation);
         }
-        if (count == 1) {
-            this.counts.remove(observation);
+        if (vals[slot] == 1) {
+            removeSlot(slot);
         } else {
-            this.counts.put(observation, count - 1);
+            vals[slot]--;
         }
         this.countSum--;
 
-        if (counts.get(observation) != null && this.counts.get(observation) < 0) {
-            throw new RuntimeException("Negative count for observation " + observation
-                    + ". count = " + this.counts.get(observation));
-        }
         if (countSum < 0) {
             throw new RuntimeException("Negative count sumze " + countSum);
         }
@@ -155,8 +317,10 @@ public class SparseCount implements Cloneable, Serializable {
     @Override
     public String toString() {
         StringBuilder str = new StringBuilder();
-        for (int obs : this.getIndices()) {
-            str.append(obs).append(":").append(getCount(obs)).append(" ");
+        for (int slot = 0; slot < vals.length; slot++) {
+            if (vals[slot] > 0) {
+                str.append(keys[slot]).append(":").append(vals[slot]).append(" ");
+            }
         }
         return str.toString();
     }
@@ -167,38 +331,49 @@ public class SparseCount implements Cloneable, Serializable {
         }
 
         int totalCount = 0;
-        for (int obs : this.counts.keySet()) {
-            totalCount += this.counts.get(obs);
+        int numIndices = 0;
+        for (int slot = 0; slot < vals.length; slot++) {
+            if (vals[slot] < 0) {
+                throw new RuntimeException(msg + ". Negative count for observation "
+                        + keys[slot] + ". count = " + vals[slot]);
+            }
+            if (vals[slot] > 0) {
+                if (find(keys[slot]) != slot) {
+                    throw new RuntimeException(msg + ". Unreachable observation "
+                            + keys[slot]);
+                }
+                totalCount += vals[slot];
+                numIndices++;
+            }
         }
         if (totalCount != this.countSum) {
             throw new RuntimeException(msg + ". Total counts mismatched. " + totalCount + " vs. " + countSum);
         }
+        if (numIndices != this.size) {
+            throw new RuntimeException(msg + ". Sizes mismatched. " + numIndices + " vs. " + size);
+        }
     }
 
     public void add(SparseCount other) {
-        for (int key : other.getIndices()) {
-            this.changeCount(key, other.getCount(key));
+        for (int slot = 0; slot < other.vals.length; slot++) {
+            if (other.vals[slot] > 0) {
+                this.changeCount(other.keys[slot], other.vals[slot]);
+            }
         }
     }
 
     public static SparseCount add(SparseCount sc1, SparseCount sc2) {
-        SparseCount sc = new SparseCount();
-        for (int key1 : sc1.getIndices()) {
-            sc.changeCount(key1, sc1.getCount(key1) + sc2.getCount(key1));
-        }
-        for (int key2 : sc2.getIndices()) {
-            if (sc1.containsIndex(key2)) {
-                continue;
-            }
-            sc.changeCount(key2, sc1.getCount(key2) + sc2.getCount(key2));
-        }
+        SparseCount sc = new SparseCount(sc1);
+        sc.add(sc2);
         return sc;
     }
 
     public static String output(SparseCount sc) {
         StringBuilder str = new StringBuilder();
-        for (int obs : sc.counts.keySet()) {
-            str.append(obs).append(":").append(sc.counts.get(obs)).append("\t");
+        for (int slot = 0; slot < sc.vals.length; slot++) {
+            if (sc.vals[slot] > 0) {
+                str.append(sc.keys[slot]).append(":").append(sc.vals[slot]).append("\t");
+            }
         }
         return str.toString();
     }
@@ -216,4 +391,59 @@ public class SparseCount implements Cloneable, Serializable {
         }
         return sp;
     }
+
+    /**
+     * Read-only view of the indices, backed by the table.
+     */
+    class IndexSet extends AbstractSet<Integer> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Integer && containsIndex((Integer) o);
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return new Iterator<Integer>() {
+                final int expectedModCount = modCount;
+                final int[] tableVals = vals;
+                int slot = advance(0);
+
+                private int advance(int from) {
+                    while (from < tableVals.length && tableVals[from] == 0) {
+                        from++;
+                    }
+                    return from;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return slot < tableVals.length;
+                }
+
+                @Override
+                public Integer next() {
+                    if (modCount != expectedModCount) {
+                        throw new ConcurrentModificationException();
+                    }
+                    if (slot >= tableVals.length) {
+                        throw new NoSuchElementException();
+                    }
+                    int key = keys[slot];
+                    slot = advance(slot + 1);
+                    return key;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
 }
@@ -269,6 +269,48 @@ public class IOUtils {
         return getBufferedReader(zipFile, modelEntry);
     }
 
+    /**
+     * Return true if a zip file contains an entry.
+     *
+     * @param zipFilePath The zip file
+     * @param zipEntry Name of the entry
+     */
+    public static boolean hasZipEntry(String zipFilePath, String zipEntry) throws IOException {
+        ZipFile zipFile = new ZipFile(zipFilePath);
+        try {
+            return zipFile.getEntry(zipEntry) != null;
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * Return an input stream over an entry of a zip file. Closing the stream
+     * closes the zip file.
+     *
+     * @param zipFilePath The zip file
+     * @param zipEntry Name of the entry
+     */
+    public static InputStream getZipEntryInputStream(String zipFilePath, String zipEntry)
+            throws IOException {
+        final ZipFile zipFile = new ZipFile(zipFilePath);
+        ZipEntry entry = zipFile.getEntry(zipEntry);
+        if (entry == null) {
+            zipFile.close();
+            throw new FileNotFoundException("Entry " + zipEntry + " not found in " + zipFilePath);
+        }
+        return new FilterInputStream(zipFile.getInputStream(entry)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    zipFile.close();
+                }
+            }
+        };
+    }
+
     public static BufferedReader getBufferedReader(ZipFile zipFile, ZipEntry modelEntry)
             throws FileNotFoundException, IOException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(zipFile.getInputStream(modelEntry), "UTF-8"));
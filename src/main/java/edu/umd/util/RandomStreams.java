@@ -0,0 +1,236 @@
+package edu.umd.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+
+/**
+ * Reproducible per-thread random number streams derived from one master
+ * seed. Each thread draws from its own {@link XoroshiroRandom}, seeded from
+ * the master seed and a stream id, so threads neither contend on a shared
+ * seed nor depend on how they are scheduled.
+ *
+ * The stream id of a thread is, in order of precedence, the id given to
+ * {@link #setCurrentStream(long)}, the id assigned to the thread by
+ * {@link #assignStream(Thread, long)} before it starts, or the hash of the
+ * thread's name. {@link #threadLocalRandom()} returns a Random that always
+ * draws from the calling thread's stream and is what the static rand fields
+ * of the likelihood models and SamplerUtils are set to. Since it looks up the
+ * stream on every draw, samplers and workers instead own a generator created
+ * once by {@link #newChildStream()}.
+ *
+ * @author vietan
+ */
+public class RandomStreams {
+
+    public static final long DEFAULT_MASTER_SEED = 1123581321L;
+    private static volatile long masterSeed = DEFAULT_MASTER_SEED;
+    private static volatile int generation = 0; // bumped when the master seed changes
+    private static final Map<Thread, Long> assignedStreams
+            = Collections.synchronizedMap(new WeakHashMap<Thread, Long>());
+    private static final ThreadLocal<Stream> streams = new ThreadLocal<Stream>() {
+        @Override
+        protected Stream initialValue() {
+            Thread thread = Thread.currentThread();
+            Long streamId = assignedStreams.remove(thread);
+            if (streamId == null) {
+                streamId = (long) thread.getName().hashCode();
+            }
+            return new Stream(streamId);
+        }
+    };
+    private static final Random threadLocalRandom = new StreamRandom();
+
+    /**
+     * SplitMix64 finalizer.
+     */
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Set the master seed. Every thread's stream is re-derived from the new
+     * seed the next time it is used.
+     *
+     * @param seed The master seed
+     */
+    public static synchronized void setMasterSeed(long seed) {
+        masterSeed = seed;
+        generation++;
+    }
+
+    public static long getMasterSeed() {
+        return masterSeed;
+    }
+
+    /**
+     * Return the seed of a stream derived from the master seed.
+     *
+     * @param streamId Stream id
+     */
+    public static long getStreamSeed(long streamId) {
+        return mix64(masterSeed ^ mix64(streamId + 0x9E3779B97F4A7C15L));
+    }
+
+    /**
+     * Create a new, independent stream derived from the master seed.
+     *
+     * @param streamId Stream id
+     */
+    public static Random newStream(long streamId) {
+        return new XoroshiroRandom(getStreamSeed(streamId));
+    }
+
+    /**
+     * Create a generator seeded from the calling thread's stream, for a
+     * sampler or worker that draws from it directly. It must not be shared
+     * between threads.
+     */
+    public static XoroshiroRandom newChildStream() {
+        return new XoroshiroRandom(current().nextLong());
+    }
+
+    /**
+     * Assign a stream id to a thread that has not started yet.
+     *
+     * @param thread The thread
+     * @param streamId Stream id
+     */
+    public static void assignStream(Thread thread, long streamId) {
+        assignedStreams.put(thread, streamId);
+    }
+
+    /**
+     * Restart the calling thread's stream with the given id.
+     *
+     * @param streamId Stream id
+     */
+    public static void setCurrentStream(long streamId) {
+        Stream stream = streams.get();
+        stream.streamId = streamId;
+        stream.reseed();
+    }
+
+    /**
+     * Return the calling thread's generator.
+     */
+    public static Random current() {
+        return currentStream().random;
+    }
+
+    private static Stream currentStream() {
+        Stream stream = streams.get();
+        if (stream.generation != generation) {
+            stream.reseed();
+        }
+        return stream;
+    }
+
+    /**
+     * Return the state of the calling thread's generator.
+     */
+    public static long[] getCurrentState() {
+        return currentStream().random.getState();
+    }
+
+    /**
+     * Continue the calling thread's stream from a state returned by
+     * {@link #getCurrentState()}. Set the master seed first if it changed.
+     *
+     * @param state The generator state
+     */
+    public static void setCurrentState(long[] state) {
+        currentStream().random.setState(state);
+    }
+
+    /**
+     * Return a Random that delegates every call to the calling thread's
+     * stream. Setting its seed sets the master seed.
+     */
+    public static Random threadLocalRandom() {
+        return threadLocalRandom;
+    }
+
+    static class Stream {
+
+        long streamId;
+        int generation;
+        final XoroshiroRandom random;
+
+        Stream(long streamId) {
+            this.streamId = streamId;
+            this.generation = RandomStreams.generation;
+            this.random = new XoroshiroRandom(getStreamSeed(streamId));
+        }
+
+        void reseed() {
+            this.generation = RandomStreams.generation;
+            this.random.setSeed(getStreamSeed(streamId));
+        }
+    }
+
+    static class StreamRandom extends Random {
+
+        private static final long serialVersionUID = 1123581321L;
+        private final boolean initialized;
+
+        StreamRandom() {
+            this.initialized = true;
+        }
+
+        @Override
+        public void setSeed(long seed) {
+            if (initialized) { // Random's constructor also calls this
+                setMasterSeed(seed);
+            }
+        }
+
+        @Override
+        protected int next(int bits) {
+            return (int) (current().nextLong() >>> (64 - bits));
+        }
+
+        @Override
+        public int nextInt() {
+            return current().nextInt();
+        }
+
+        @Override
+        public int nextInt(int n) {
+            return current().nextInt(n);
+        }
+
+        @Override
+        public long nextLong() {
+            return current().nextLong();
+        }
+
+        @Override
+        public boolean nextBoolean() {
+            return current().nextBoolean();
+        }
+
+        @Override
+        public float nextFloat() {
+            return current().nextFloat();
+        }
+
+        @Override
+        public double nextDouble() {
+            return current().nextDouble();
+        }
+
+        @Override
+        public double nextGaussian() {
+            return current().nextGaussian();
+        }
+
+        @Override
+        public void nextBytes(byte[] bytes) {
+            current().nextBytes(bytes);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import cc.mallet.util.Randoms;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Random;
+import edu.umd.sampling.util.LogGammaTable;
 import edu.umd.sampling.util.SparseCount;
 
 /**
@@ -16,18 +17,34 @@ public class SamplerUtils {
     public static final double MAX_LOG = Math.log(Double.MAX_VALUE);
     public static final double HALF_LOG_TWO_PI = Math.log(2 * Math.PI) / 2;
     public static final double EULER_MASCHERONI = -0.5772156649015328606065121;
-    public static Random rand = new Random(RAND_SEED);
-    public static Randoms randoms = new Randoms((int)RAND_SEED);
+    public static Random rand = RandomStreams.threadLocalRandom();
+    private static final ThreadLocal<StreamRandoms> randoms = new ThreadLocal<StreamRandoms>() {
+        @Override
+        protected StreamRandoms initialValue() {
+            return new StreamRandoms();
+        }
+    };
 
     public static void resetRand() {
-        rand = new Random(RAND_SEED);
+        RandomStreams.setMasterSeed(RAND_SEED);
     }
     
+    /**
+     * Return the calling thread's mallet generator, which draws from the
+     * thread's stream. Get it once per call rather than once per draw.
+     */
+    public static Randoms getRandoms() {
+        StreamRandoms threadRandoms = randoms.get();
+        threadRandoms.stream = RandomStreams.current();
+        return threadRandoms;
+    }
+
     public static double[] sampleMultinomial(double[] dirVector) {
+        Randoms threadRandoms = getRandoms();
         double[] ts = new double[dirVector.length];
         double sum = 0.0;
         for (int v = 0; v < dirVector.length; v++) {
-            ts[v] = randoms.nextGamma(dirVector[v], 1);
+            ts[v] = threadRandoms.nextGamma(dirVector[v], 1);
             sum += ts[v];
         }
 
@@ -210,16 +227,40 @@ public class SamplerUtils {
         double size = obs.length;
         double prior_sum = size * prior_val;
         double val = 0.0;
+        LogGammaTable table = LogGammaTable.get(prior_val);
 
         val += SamplerUtils.logGammaStirling(prior_sum);
-        val -= size * SamplerUtils.logGammaStirling(prior_val);
+        val -= size * table.logGamma(0);
         for (int ii = 0; ii < obs.length; ++ii) {
-            val += SamplerUtils.logGammaStirling(prior_val + (double) obs[ii]);
+            val += table.logGamma(obs[ii]);
         }
         val -= SamplerUtils.logGammaStirling(sum + prior_sum);
         return val;
     }
 
+    /**
+     * Compute log likelihood for a single symmetric multinomial from sparse
+     * counts. Only the non-zero counts contribute.
+     *
+     * @param obs Sparse counts of observations
+     * @param dim Dimension of the multinomial
+     * @param prior_val A single element in the symmetric prior vector
+     */
+    public static double computeLogLhood(SparseCount obs, int dim, double prior_val) {
+        double prior_sum = dim * prior_val;
+        LogGammaTable table = LogGammaTable.get(prior_val);
+        double lgPrior = table.logGamma(0);
+        double val = logGammaStirling(prior_sum)
+                - logGammaStirling(obs.getCountSum() + prior_sum);
+        for (int slot = 0; slot < obs.getNumSlots(); slot++) {
+            int count = obs.getSlotCount(slot);
+            if (count > 0) {
+                val += table.logGamma(count) - lgPrior;
+            }
+        }
+        return val;
+    }
+
     public static double computeLogLhood(SparseCount obs, double[] prior_mean, double concentration) {
         double val = 0.0;
         val += logGammaStirling(concentration);
@@ -443,6 +484,75 @@ public class SamplerUtils {
         return i;
     }
 
+    /**
+     * Sample an index from the first size unnormalized weights. The weights
+     * are overwritten with their cumulative sums, so no array is allocated.
+     *
+     * @param weights Non-negative weights, replaced by cumulative sums
+     * @param size Number of weights to use
+     * @param random Random number generator
+     * @return Sampled index, or size if no weight is positive
+     */
+    public static int scaleSampleInPlace(double[] weights, int size, Random random) {
+        for (int i = 1; i < size; i++) {
+            weights[i] += weights[i - 1];
+        }
+        double randValue = random.nextDouble() * weights[size - 1];
+        int index;
+        for (index = 0; index < size; index++) {
+            if (randValue < weights[index]) {
+                break;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Same as {@link #scaleSampleInPlace(double[], int, java.util.Random)}
+     * but locates the sampled index by binary search over the cumulative
+     * sums, which is faster for large supports.
+     */
+    public static int binarySearchSampleInPlace(double[] weights, int size, Random random) {
+        for (int i = 1; i < size; i++) {
+            weights[i] += weights[i - 1];
+        }
+        double randValue = random.nextDouble() * weights[size - 1];
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) { // first index whose cumulative sum exceeds randValue
+            int mid = (lo + hi) >>> 1;
+            if (weights[mid] > randValue) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Sample an index from the first size unnormalized log weights. The log
+     * weights are rescaled by their maximum, exponentiated and accumulated in
+     * place.
+     *
+     * @param logWeights Log weights, overwritten
+     * @param size Number of weights to use
+     * @param random Random number generator
+     * @return Sampled index, or size if sampling fails
+     */
+    public static int logMaxRescaleSampleInPlace(double[] logWeights, int size, Random random) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            if (logWeights[i] > max) {
+                max = logWeights[i];
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            logWeights[i] = Math.exp(logWeights[i] - max);
+        }
+        return scaleSampleInPlace(logWeights, size, random);
+    }
+
     public static int logMaxRescaleSample(ArrayList<Double> logDistList) {
         double[] logDist = new double[logDistList.size()];
         for (int i = 0; i < logDist.length; i++) {
@@ -689,4 +799,35 @@ public class SamplerUtils {
         }
         return result;
     }
+
+    /**
+     * Mallet generator that draws from a thread's stream, so that the gamma
+     * and other draws of Randoms are per thread and reproducible.
+     */
+    static class StreamRandoms extends Randoms {
+
+        private static final long serialVersionUID = 1123581321L;
+        Random stream;
+
+        StreamRandoms() {
+            super(0);
+        }
+
+        @Override
+        public void setSeed(long seed) {
+            if (stream != null) { // Random's constructor also calls this
+                RandomStreams.setMasterSeed(seed);
+            }
+        }
+
+        @Override
+        protected int next(int bits) {
+            return (int) (stream.nextLong() >>> (64 - bits));
+        }
+
+        @Override
+        public double nextDouble() {
+            return stream.nextDouble();
+        }
+    }
 }
@@ -0,0 +1,150 @@
+package edu.umd.util;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Reusable buffer for sampling from discrete distributions without
+ * allocating on every draw. Weights are either appended one at a time using
+ * {@link #add(double)} or written directly into the array returned by
+ * {@link #getBuffer(int)}, and are consumed by the sampling methods. When
+ * the candidates are not numbered 0 to size() - 1, such as table or node
+ * indices, each weight can be added with its candidate index using
+ * {@link #add(int, double)}, and the sampled position mapped back with
+ * {@link #getIndex(int)}. The sampling methods without a Random argument
+ * draw from the generator given at construction, by default the stream of
+ * the constructing thread. A workspace must not be shared between threads.
+ *
+ * @author vietan
+ */
+public class SamplingWorkspace implements Serializable {
+
+    private static final long serialVersionUID = 1123581321L;
+    public static final int DEFAULT_CAPACITY = 16;
+    private double[] weights;
+    private int[] indices;
+    private int size;
+    private final Random random;
+
+    public SamplingWorkspace() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SamplingWorkspace(int capacity) {
+        this(capacity, RandomStreams.current());
+    }
+
+    public SamplingWorkspace(Random random) {
+        this(DEFAULT_CAPACITY, random);
+    }
+
+    public SamplingWorkspace(int capacity, Random random) {
+        this.random = random;
+        this.weights = new double[Math.max(capacity, 1)];
+        this.indices = new int[weights.length];
+        this.size = 0;
+    }
+
+    /**
+     * Return the buffer to be filled with size weights. The buffer may be
+     * longer than size, and only the first size entries are used.
+     *
+     * @param size Number of weights
+     */
+    public double[] getBuffer(int size) {
+        ensureCapacity(size);
+        this.size = size;
+        return this.weights;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public void add(double weight) {
+        ensureCapacity(size + 1);
+        this.weights[size++] = weight;
+    }
+
+    /**
+     * Add the weight of a candidate together with its index.
+     *
+     * @param index Index of the candidate
+     * @param weight Weight of the candidate
+     */
+    public void add(int index, double weight) {
+        ensureCapacity(size + 1);
+        this.indices[size] = index;
+        this.weights[size++] = weight;
+    }
+
+    /**
+     * Return the candidate index added at a position.
+     *
+     * @param position Position, such as one returned by a sampling method
+     */
+    public int getIndex(int position) {
+        return this.indices[position];
+    }
+
+    public double get(int index) {
+        return this.weights[index];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > weights.length) {
+            double[] newWeights = new double[Math.max(capacity, weights.length * 2)];
+            System.arraycopy(weights, 0, newWeights, 0, size);
+            this.weights = newWeights;
+            int[] newIndices = new int[newWeights.length];
+            System.arraycopy(indices, 0, newIndices, 0, size);
+            this.indices = newIndices;
+        }
+    }
+
+    /**
+     * Sample an index from the current unnormalized weights by a linear scan
+     * of their cumulative sums.
+     *
+     * @return Sampled index, or size() if no weight is positive
+     */
+    public int scaleSample() {
+        return scaleSample(random);
+    }
+
+    public int scaleSample(Random rand) {
+        return SamplerUtils.scaleSampleInPlace(weights, size, rand);
+    }
+
+    /**
+     * Sample an index from the current unnormalized weights by binary search
+     * over their cumulative sums.
+     *
+     * @return Sampled index, or size() if no weight is positive
+     */
+    public int binarySearchSample() {
+        return binarySearchSample(random);
+    }
+
+    public int binarySearchSample(Random rand) {
+        return SamplerUtils.binarySearchSampleInPlace(weights, size, rand);
+    }
+
+    /**
+     * Sample an index treating the current weights as unnormalized log
+     * weights, after rescaling them by their maximum.
+     *
+     * @return Sampled index, or size() if sampling fails
+     */
+    public int logMaxRescaleSample() {
+        return logMaxRescaleSample(random);
+    }
+
+    public int logMaxRescaleSample(Random rand) {
+        return SamplerUtils.logMaxRescaleSampleInPlace(weights, size, rand);
+    }
+}
@@ -307,6 +307,64 @@ public class StatUtils {
         }
         return (sum);
     }
+    /**
+     * Compute the digamma function of each of the first size values.
+     *
+     * @param x Input values
+     * @param size Number of values
+     * @param result Output array, which can be x itself
+     */
+    public static void digamma(double[] x, int size, double[] result) {
+        for (int i = 0; i < size; i++) {
+            result[i] = digamma(x[i]);
+        }
+    }
+
+    /**
+     * Compute sum_i [digamma(x + counts[i]) - digamma(x)] over the first size
+     * counts, using the cheaper recurrence for small counts.
+     *
+     * @param counts Non-negative counts
+     * @param size Number of counts
+     * @param x The offset
+     */
+    public static double digammaDiffSum(int[] counts, int size, double x) {
+        double digammaX = digamma(x);
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            int d = counts[i];
+            if (d > 16) {
+                sum += digamma(x + d) - digammaX;
+            } else {
+                for (int j = 0; j < d; j++) {
+                    sum += 1 / (x + j);
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Compute sum_c hist[c] * [digamma(x + c) - digamma(x)], where hist[c] is
+     * the number of times count c occurs. This takes time linear in the
+     * largest count, using digamma(x + c) - digamma(x) = sum_{j < c} 1 / (x +
+     * j).
+     *
+     * @param hist Histogram of non-negative counts
+     * @param x The offset
+     */
+    public static double histogramDigammaDiffSum(int[] hist, double x) {
+        double sum = 0.0;
+        double diff = 0.0;
+        for (int c = 1; c < hist.length; c++) {
+            diff += 1 / (x + c - 1);
+            if (hist[c] > 0) {
+                sum += hist[c] * diff;
+            }
+        }
+        return sum;
+    }
+
     // for computing trigamma
     public static final double L1 = 0.0001;
     public static final double L2 = 5.0;
@@ -353,6 +411,43 @@ public class StatUtils {
         return sum;
     }
 
+    /**
+     * Compute the trigamma function of each of the first size values.
+     *
+     * @param x Input values
+     * @param size Number of values
+     * @param result Output array, which can be x itself
+     */
+    public static void trigamma(double[] x, int size, double[] result) {
+        for (int i = 0; i < size; i++) {
+            result[i] = trigamma(x[i]);
+        }
+    }
+
+    /**
+     * Compute sum_i [trigamma(x + counts[i]) - trigamma(x)] over the first
+     * size counts, using the cheaper recurrence for small counts.
+     *
+     * @param counts Non-negative counts
+     * @param size Number of counts
+     * @param x The offset
+     */
+    public static double trigammaDiffSum(int[] counts, int size, double x) {
+        double trigammaX = trigamma(x);
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            int d = counts[i];
+            if (d > 10) {
+                sum += trigamma(x + d) - trigammaX;
+            } else {
+                for (int j = 0; j < d; j++) {
+                    sum -= 1 / ((x + j) * (x + j));
+                }
+            }
+        }
+        return sum;
+    }
+
     public static int[] bin(double[] data, int numBins, double min, double max) {
         int[] bins = new int[numBins];
 
@@ -0,0 +1,184 @@
+package edu.umd.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import edu.umd.sampling.util.AssignmentStore;
+
+/**
+ * Input stream for binary sampler states written by
+ * {@link StateOutputStream}.
+ *
+ * @author vietan
+ */
+public class StateInputStream extends DataInputStream {
+
+    private long bitBuffer;
+    private int numBufferedBits;
+
+    public StateInputStream(InputStream in) {
+        super(new BufferedInputStream(in, 1 << 16));
+    }
+
+    /**
+     * Read and check the magic number and the format version.
+     */
+    public void readHeader() throws IOException {
+        if (readInt() != StateOutputStream.MAGIC) {
+            throw new RuntimeException("Not a binary sampler state");
+        }
+        int version = readInt();
+        if (version != StateOutputStream.VERSION) {
+            throw new RuntimeException("Unsupported binary state version " + version);
+        }
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new RuntimeException("Malformed variable-length int");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new RuntimeException("Malformed variable-length long");
+    }
+
+    /**
+     * Read per-token values into an assignment store of the same document
+     * lengths.
+     *
+     * @param store The assignment store to fill
+     */
+    public void readAssignments(AssignmentStore store) throws IOException {
+        readDocLengths(store.getNumDocs(), store, null);
+        int minValue = readSignedVarInt();
+        int maxValue = readSignedVarInt();
+        int bits = AssignmentStore.getBitsPerValue(minValue, maxValue);
+        int numTokens = store.getNumTokens();
+        for (int ii = 0; ii < numTokens; ii++) {
+            store.set(ii, readBits(bits) + minValue);
+        }
+        clearBits();
+    }
+
+    /**
+     * Read per-token values into arrays of the same lengths.
+     *
+     * @param values Arrays to fill, one per document
+     */
+    public void readAssignments(int[][] values) throws IOException {
+        readDocLengths(values.length, null, values);
+        int minValue = readSignedVarInt();
+        int maxValue = readSignedVarInt();
+        int bits = AssignmentStore.getBitsPerValue(minValue, maxValue);
+        for (int[] docValues : values) {
+            for (int n = 0; n < docValues.length; n++) {
+                docValues[n] = readBits(bits) + minValue;
+            }
+        }
+        clearBits();
+    }
+
+    /**
+     * Apply changes written by
+     * {@link StateOutputStream#writeAssignmentChanges(AssignmentStore, AssignmentStore)}.
+     *
+     * @param store The assignment store in its previous state
+     */
+    public void readAssignmentChanges(AssignmentStore store) throws IOException {
+        readNumTokens(store.getNumTokens());
+        int numChanges = readVarInt();
+        int ii = -1;
+        for (int jj = 0; jj < numChanges; jj++) {
+            ii += readVarInt() + 1;
+            store.set(ii, readSignedVarInt());
+        }
+    }
+
+    /**
+     * Apply changes written by
+     * {@link StateOutputStream#writeAssignmentChanges(int[][], int[][])}.
+     *
+     * @param values Arrays in their previous state, one per document
+     */
+    public void readAssignmentChanges(int[][] values) throws IOException {
+        int numTokens = 0;
+        for (int[] docValues : values) {
+            numTokens += docValues.length;
+        }
+        readNumTokens(numTokens);
+        int numChanges = readVarInt();
+        int d = 0;
+        int docStart = 0; // token index of the first token of document d
+        int ii = -1;
+        for (int jj = 0; jj < numChanges; jj++) {
+            ii += readVarInt() + 1;
+            while (ii >= docStart + values[d].length) {
+                docStart += values[d].length;
+                d++;
+            }
+            values[d][ii - docStart] = readSignedVarInt();
+        }
+    }
+
+    private void readNumTokens(int numTokens) throws IOException {
+        int storedNumTokens = readVarInt();
+        if (storedNumTokens != numTokens) {
+            throw new RuntimeException("Mismatch number of tokens. "
+                    + storedNumTokens + " vs. " + numTokens);
+        }
+    }
+
+    private void readDocLengths(int numDocs, AssignmentStore store, int[][] values)
+            throws IOException {
+        int storedNumDocs = readVarInt();
+        if (storedNumDocs != numDocs) {
+            throw new RuntimeException("Mismatch number of documents. "
+                    + storedNumDocs + " vs. " + numDocs);
+        }
+        for (int d = 0; d < numDocs; d++) {
+            int length = readVarInt();
+            int expected = store != null ? store.getDocLength(d) : values[d].length;
+            if (length != expected) {
+                throw new RuntimeException("Mismatch length of document " + d
+                        + ". " + length + " vs. " + expected);
+            }
+        }
+    }
+
+    private int readBits(int bits) throws IOException {
+        while (numBufferedBits < bits) {
+            bitBuffer |= (long) readUnsignedByte() << numBufferedBits;
+            numBufferedBits += 8;
+        }
+        int value = (int) (bitBuffer & ((1L << bits) - 1));
+        bitBuffer >>>= bits;
+        numBufferedBits -= bits;
+        return value;
+    }
+
+    private void clearBits() {
+        bitBuffer = 0;
+        numBufferedBits = 0;
+    }
+}
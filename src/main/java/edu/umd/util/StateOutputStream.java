@@ -0,0 +1,212 @@
+package edu.umd.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import edu.umd.sampling.util.AssignmentStore;
+
+/**
+ * Output stream for binary sampler states. On top of DataOutputStream, it
+ * writes counts and indices as variable-length integers (7 bits per byte,
+ * small values taking a single byte) and per-token assignments bit-packed
+ * with as few bits as their range needs. States are written as they are
+ * traversed, so no text representation of the whole state is built in
+ * memory. Read them back with {@link StateInputStream}.
+ *
+ * @author vietan
+ */
+public class StateOutputStream extends DataOutputStream {
+
+    public static final int MAGIC = 0x53544154; // "STAT"
+    public static final int VERSION = 1;
+    private long bitBuffer;
+    private int numBufferedBits;
+
+    public StateOutputStream(OutputStream out) {
+        super(new BufferedOutputStream(out, 1 << 16));
+    }
+
+    /**
+     * Write the magic number and the format version, expected by
+     * {@link StateInputStream#readHeader()}.
+     */
+    public void writeHeader() throws IOException {
+        writeInt(MAGIC);
+        writeInt(VERSION);
+    }
+
+    /**
+     * Write a non-negative integer in 1 to 5 bytes. Negative values are
+     * written as large unsigned values; use {@link #writeSignedVarInt(int)}
+     * for them.
+     */
+    public void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write(value);
+    }
+
+    /**
+     * Write an integer of either sign, small magnitudes taking few bytes.
+     */
+    public void writeSignedVarInt(int value) throws IOException {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Write a non-negative long in 1 to 10 bytes.
+     */
+    public void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        write((int) value);
+    }
+
+    /**
+     * Write the per-token values of an assignment store.
+     *
+     * @param store The assignment store
+     */
+    public void writeAssignments(AssignmentStore store) throws IOException {
+        int numDocs = store.getNumDocs();
+        writeVarInt(numDocs);
+        for (int d = 0; d < numDocs; d++) {
+            writeVarInt(store.getDocLength(d));
+        }
+        int minValue = store.getMinValue();
+        int maxValue = store.getMaxValue();
+        writeSignedVarInt(minValue);
+        writeSignedVarInt(maxValue);
+        int bits = AssignmentStore.getBitsPerValue(minValue, maxValue);
+        int numTokens = store.getNumTokens();
+        for (int ii = 0; ii < numTokens; ii++) {
+            writeBits(store.get(ii) - minValue, bits);
+        }
+        flushBits();
+    }
+
+    /**
+     * Write per-token values, in the same format as
+     * {@link #writeAssignments(AssignmentStore)}.
+     *
+     * @param values Values of each document
+     * @param minValue Smallest possible value
+     * @param maxValue Largest possible value
+     */
+    public void writeAssignments(int[][] values, int minValue, int maxValue)
+            throws IOException {
+        writeVarInt(values.length);
+        for (int[] docValues : values) {
+            writeVarInt(docValues.length);
+        }
+        writeSignedVarInt(minValue);
+        writeSignedVarInt(maxValue);
+        int bits = AssignmentStore.getBitsPerValue(minValue, maxValue);
+        for (int[] docValues : values) {
+            for (int value : docValues) {
+                if (value < minValue || value > maxValue) {
+                    throw new RuntimeException("Value " + value + " out of range ["
+                            + minValue + ", " + maxValue + "]");
+                }
+                writeBits(value - minValue, bits);
+            }
+        }
+        flushBits();
+    }
+
+    /**
+     * Write the tokens whose values differ from a previous state as (token
+     * index gap, value) pairs of variable-length ints.
+     *
+     * @param previous The previous values, of the same document lengths
+     * @param store The current values
+     */
+    public void writeAssignmentChanges(AssignmentStore previous, AssignmentStore store)
+            throws IOException {
+        int numTokens = store.getNumTokens();
+        if (previous.getNumTokens() != numTokens) {
+            throw new RuntimeException("Mismatch number of tokens. "
+                    + previous.getNumTokens() + " vs. " + numTokens);
+        }
+        int numChanges = 0;
+        for (int ii = 0; ii < numTokens; ii++) {
+            if (previous.get(ii) != store.get(ii)) {
+                numChanges++;
+            }
+        }
+        writeVarInt(numTokens);
+        writeVarInt(numChanges);
+        int prev = -1;
+        for (int ii = 0; ii < numTokens; ii++) {
+            int value = store.get(ii);
+            if (previous.get(ii) != value) {
+                writeVarInt(ii - prev - 1);
+                writeSignedVarInt(value);
+                prev = ii;
+            }
+        }
+    }
+
+    /**
+     * Write the tokens whose values differ from a previous state, in the same
+     * format as
+     * {@link #writeAssignmentChanges(AssignmentStore, AssignmentStore)}.
+     * Tokens are indexed consecutively across documents.
+     *
+     * @param previous The previous values, of the same document lengths
+     * @param values The current values
+     */
+    public void writeAssignmentChanges(int[][] previous, int[][] values)
+            throws IOException {
+        int numTokens = 0;
+        int numChanges = 0;
+        for (int d = 0; d < values.length; d++) {
+            if (previous[d].length != values[d].length) {
+                throw new RuntimeException("Mismatch length of document " + d
+                        + ". " + previous[d].length + " vs. " + values[d].length);
+            }
+            numTokens += values[d].length;
+            for (int n = 0; n < values[d].length; n++) {
+                if (previous[d][n] != values[d][n]) {
+                    numChanges++;
+                }
+            }
+        }
+        writeVarInt(numTokens);
+        writeVarInt(numChanges);
+        int ii = 0;
+        int prev = -1;
+        for (int d = 0; d < values.length; d++) {
+            for (int n = 0; n < values[d].length; n++, ii++) {
+                if (previous[d][n] != values[d][n]) {
+                    writeVarInt(ii - prev - 1);
+                    writeSignedVarInt(values[d][n]);
+                    prev = ii;
+                }
+            }
+        }
+    }
+
+    private void writeBits(int value, int bits) throws IOException {
+        bitBuffer |= ((long) value & ((1L << bits) - 1)) << numBufferedBits;
+        numBufferedBits += bits;
+        while (numBufferedBits >= 8) {
+            write((int) bitBuffer);
+            bitBuffer >>>= 8;
+            numBufferedBits -= 8;
+        }
+    }
+
+    private void flushBits() throws IOException {
+        if (numBufferedBits > 0) {
+            write((int) bitBuffer);
+        }
+        bitBuffer = 0;
+        numBufferedBits = 0;
+    }
+}
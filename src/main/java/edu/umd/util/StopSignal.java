@@ -0,0 +1,80 @@
+package edu.umd.util;
+
+import java.io.Serializable;
+
+/**
+ * Cooperative cancellation with an optional deadline. Long-running loops
+ * poll {@link #isStopRequested()} at points where stopping leaves their state
+ * consistent (e.g., between documents of a Gibbs sweep) and wind down when it
+ * returns true. One signal can be shared by several samplers or threads so
+ * that they are all stopped together.
+ *
+ * @author vietan
+ */
+public class StopSignal implements Serializable {
+
+    private static final long serialVersionUID = 1123581321L;
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+    private volatile boolean cancelled = false;
+    private volatile long deadline = NO_DEADLINE; // in milliseconds since the epoch
+
+    /**
+     * Request a stop.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Set the time at which a stop is requested.
+     *
+     * @param deadline Deadline in milliseconds since the epoch, or NO_DEADLINE
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public long getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     * Set the deadline to a given time from now.
+     *
+     * @param budget Time budget in milliseconds
+     */
+    public void setTimeBudget(long budget) {
+        long now = System.currentTimeMillis();
+        this.deadline = budget > NO_DEADLINE - now ? NO_DEADLINE : now + budget;
+    }
+
+    /**
+     * Return the number of milliseconds left before the deadline.
+     */
+    public long getRemainingTime() {
+        if (deadline == NO_DEADLINE) {
+            return NO_DEADLINE;
+        }
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    public boolean isExpired() {
+        return deadline != NO_DEADLINE && System.currentTimeMillis() >= deadline;
+    }
+
+    public boolean isStopRequested() {
+        return cancelled || isExpired();
+    }
+
+    /**
+     * Clear the stop request and the deadline.
+     */
+    public void reset() {
+        this.cancelled = false;
+        this.deadline = NO_DEADLINE;
+    }
+}
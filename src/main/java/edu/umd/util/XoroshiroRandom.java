@@ -0,0 +1,77 @@
+package edu.umd.util;
+
+import java.util.Random;
+
+/**
+ * xoroshiro128+ generator (Blackman and Vigna) exposed as a
+ * {@link java.util.Random}, so that it can be used wherever the samplers use
+ * Random. Unlike Random it keeps no atomic seed, so it is faster but must
+ * not be shared between threads. See {@link RandomStreams} for obtaining one
+ * stream per thread.
+ *
+ * @author vietan
+ */
+public class XoroshiroRandom extends Random {
+
+    private static final long serialVersionUID = 1123581321L;
+    private long s0;
+    private long s1;
+
+    public XoroshiroRandom(long seed) {
+        super(seed); // calls setSeed
+    }
+
+    /**
+     * Initialize the state from a seed using SplitMix64, which guarantees a
+     * non-zero state for any seed.
+     */
+    @Override
+    public void setSeed(long seed) {
+        super.setSeed(seed); // clears the cached Gaussian
+        long x = seed;
+        x += 0x9E3779B97F4A7C15L;
+        this.s0 = RandomStreams.mix64(x);
+        x += 0x9E3779B97F4A7C15L;
+        this.s1 = RandomStreams.mix64(x);
+    }
+
+    /**
+     * Return the generator state, e.g., to continue the stream after
+     * resuming from a checkpoint.
+     */
+    public long[] getState() {
+        return new long[]{s0, s1};
+    }
+
+    /**
+     * Restore a state returned by {@link #getState()}.
+     *
+     * @param state The generator state
+     */
+    public void setState(long[] state) {
+        super.setSeed(0); // clears the cached Gaussian
+        this.s0 = state[0];
+        this.s1 = state[1];
+    }
+
+    @Override
+    public long nextLong() {
+        final long a = s0;
+        long b = s1;
+        final long result = a + b;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+}